@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.benchmark;
+
+import com.google.common.reflect.TypeToken;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import jp.s64.java.repoli.base.SerializerRegistry;
+import jp.s64.java.repoli.preset.serializer.CollectionSerializer;
+import jp.s64.java.repoli.preset.serializer.ObjectArraySerializer;
+import jp.s64.java.repoli.preset.serializer.SerializableSerializer;
+
+/**
+ * {@link CollectionSerializer} and {@link ObjectArraySerializer} against {@link SerializableSerializer}, which these
+ * types went through before, for a set of strings and an array of dates. {@code serializedBytes} reports the payload
+ * size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CollectionSerializerBenchmark {
+
+    private static final TypeToken<Set<String>> SET = new TypeToken<Set<String>>() {
+    };
+
+    private static final TypeToken<Date[]> ARRAY = TypeToken.of(Date[].class);
+
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    private final SerializerRegistry registry = SerializerRegistry.defaults();
+
+    private Set<String> set;
+    private Date[] array;
+
+    private byte[] framedSet;
+    private byte[] legacySet;
+    private byte[] framedArray;
+    private byte[] legacyArray;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Size {
+
+        public long serializedBytes;
+
+    }
+
+    @Setup
+    public void setUp() {
+        set = new HashSet<>();
+        array = new Date[size];
+        for (int i = 0; i < size; i++) {
+            set.add("item-" + i);
+            array[i] = new Date(i * 1000L);
+        }
+        framedSet = registry.serializeByClass(SET, set);
+        legacySet = SerializableSerializer.INSTANCE.serialize(SET, set, registry.getSerializers());
+        framedArray = registry.serializeByClass(ARRAY, array);
+        legacyArray = SerializableSerializer.INSTANCE.serialize(ARRAY, array, registry.getSerializers());
+    }
+
+    @Benchmark
+    public byte[] serializeSetFramed(Size counters) {
+        byte[] ret = registry.serializeByClass(SET, set);
+        counters.serializedBytes = ret.length;
+        return ret;
+    }
+
+    @Benchmark
+    public byte[] serializeSetLegacy(Size counters) {
+        byte[] ret = SerializableSerializer.INSTANCE.serialize(SET, set, registry.getSerializers());
+        counters.serializedBytes = ret.length;
+        return ret;
+    }
+
+    @Benchmark
+    public Set<String> deserializeSetFramed() {
+        return registry.deserializeByClass(SET, framedSet);
+    }
+
+    @Benchmark
+    public Set<String> deserializeSetLegacy() {
+        return SerializableSerializer.INSTANCE.deserialize(SET, legacySet, registry.getSerializers());
+    }
+
+    @Benchmark
+    public byte[] serializeArrayFramed(Size counters) {
+        byte[] ret = registry.serializeByClass(ARRAY, array);
+        counters.serializedBytes = ret.length;
+        return ret;
+    }
+
+    @Benchmark
+    public byte[] serializeArrayLegacy(Size counters) {
+        byte[] ret = SerializableSerializer.INSTANCE.serialize(ARRAY, array, registry.getSerializers());
+        counters.serializedBytes = ret.length;
+        return ret;
+    }
+
+    @Benchmark
+    public Date[] deserializeArrayFramed() {
+        return registry.deserializeByClass(ARRAY, framedArray);
+    }
+
+    @Benchmark
+    public Date[] deserializeArrayLegacy() {
+        return SerializableSerializer.INSTANCE.deserialize(ARRAY, legacyArray, registry.getSerializers());
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import jp.s64.java.repoli.base.BaseStorage;
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
+import jp.s64.java.repoli.preset.ConcurrentOnMemoryStorage;
+import jp.s64.java.repoli.preset.SimpleOnMemoryStorage;
+
+/**
+ * Mixed get/save/remove throughput of {@link ConcurrentOnMemoryStorage}, against a {@link SimpleOnMemoryStorage}
+ * made thread-safe by synchronizing every method.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(8)
+public class ConcurrentStorageBenchmark {
+
+    private static final int KEYS = 10000;
+    private static final int GROUPS = 100;
+
+    @Param({"concurrent", "synchronized"})
+    public String storageType;
+
+    /**
+     * Percentage of operations that write; half of them save and half remove.
+     */
+    @Param({"10", "50"})
+    public int writePercent;
+
+    private BaseStorage<Object, Object> storage;
+
+    private final String[] serializedKeys = new String[KEYS];
+    private final String[] relatedKeys = new String[KEYS];
+
+    private final IRepositoryDataContainer<byte[], byte[]> container = ImmutableRepositoryDataContainer.of(new byte[64], new byte[16], 0L, 0L);
+
+    @Setup
+    public void setUp() {
+        storage = "concurrent".equals(storageType) ? new ConcurrentOnMemoryStorage<>() : new SynchronizedOnMemoryStorage();
+        for (int i = 0; i < KEYS; i++) {
+            serializedKeys[i] = "key-" + i;
+            relatedKeys[i] = "group-" + (i % GROUPS);
+            storage.saveBySerializedKey(serializedKeys[i], relatedKeys[i], container);
+        }
+    }
+
+    @Benchmark
+    public Object mixed() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int i = random.nextInt(KEYS);
+        int op = random.nextInt(100);
+        if (op >= writePercent) {
+            return storage.getBySerializedKey(serializedKeys[i]);
+        } else if (op % 2 == 0) {
+            storage.saveBySerializedKey(serializedKeys[i], relatedKeys[i], container);
+            return null;
+        } else {
+            return storage.removeBySerializedKey(serializedKeys[i]);
+        }
+    }
+
+    private static class SynchronizedOnMemoryStorage extends SimpleOnMemoryStorage<Object, Object> {
+
+        @Override
+        public synchronized IRepositoryDataContainer<byte[], byte[]> getBySerializedKey(String serializedKey) {
+            return super.getBySerializedKey(serializedKey);
+        }
+
+        @Override
+        public synchronized int removeBySerializedKey(String serializedKey) {
+            return super.removeBySerializedKey(serializedKey);
+        }
+
+        @Override
+        public synchronized int removeRelativesByRelatedKey(String relatedKey) {
+            return super.removeRelativesByRelatedKey(relatedKey);
+        }
+
+        @Override
+        public synchronized void saveBySerializedKey(String serializedKey, String relatedKey, IRepositoryDataContainer<byte[], byte[]> container) {
+            super.saveBySerializedKey(serializedKey, relatedKey, container);
+        }
+
+    }
+
+}
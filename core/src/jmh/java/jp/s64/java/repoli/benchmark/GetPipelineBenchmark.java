@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.benchmark;
+
+import com.google.common.collect.Sets;
+import com.google.common.reflect.TypeToken;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import jp.s64.java.repoli.base.BaseProvider;
+import jp.s64.java.repoli.base.BaseRepository;
+import jp.s64.java.repoli.base.SerializerUserHelper;
+import jp.s64.java.repoli.core.DataKey;
+import jp.s64.java.repoli.core.IDataKey;
+import jp.s64.java.repoli.core.IExpirePolicy;
+import jp.s64.java.repoli.core.IProvider;
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.core.ISerializer;
+import jp.s64.java.repoli.internal.ReturningRepositoryDataContainer;
+import jp.s64.java.repoli.preset.DefaultPolicy;
+import jp.s64.java.repoli.preset.SimpleOnMemoryStorage;
+import jp.s64.java.repoli.preset.serializer.SerializableSerializer;
+
+/**
+ * Cache-hit {@code get} through {@link BaseRepository} under {@link DefaultPolicy}, against a copy of the pipeline
+ * as it was before containers became immutable. {@link DefaultPolicy} saves every hit again to refresh its saved time,
+ * so both variants include that re-save.
+ * Run {@code ./gradlew :core:jmh} with {@code profilers = ['gc']} and compare {@code gc.alloc.rate.norm}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GetPipelineBenchmark {
+
+    private final DataKey<String, String> key = new DataKey<>(TypeToken.of(String.class), TypeToken.of(String.class), "benchmark-key", "benchmark-relative");
+
+    private final DefaultPolicy<Object, Object> policy = new DefaultPolicy<>();
+
+    private SimpleOnMemoryStorage<Object, Object> storage;
+    private BaseProvider<Object, Object> provider;
+    private BaseRepository<Object, Object> repository;
+
+    private LegacyStorage legacyStorage;
+
+    @Setup
+    public void setUp() {
+        provider = new BaseProvider<Object, Object>() {
+            @Override
+            public ProvidedContainer requestBySerializedKey(String serializedKey) {
+                ProvidedContainer ret = new ProvidedContainer(System.currentTimeMillis());
+                {
+                    ret.setBody(SerializableSerializer.INSTANCE.serialize(key.getBodyType(), "body-value", Sets.<ISerializer>newHashSet()));
+                    ret.setAttachment(SerializableSerializer.INSTANCE.serialize(key.getAttachmentType(), "attachment-value", Sets.<ISerializer>newHashSet()));
+                }
+                return ret;
+            }
+        };
+
+        storage = new SimpleOnMemoryStorage<>();
+        repository = new BaseRepository<Object, Object>() {
+        };
+        repository.get(key, storage, policy, provider);
+
+        legacyStorage = new LegacyStorage();
+        legacyGet(key, legacyStorage, policy, provider);
+    }
+
+    @Benchmark
+    public void get(Blackhole blackhole) {
+        consume(blackhole, repository.get(key, storage, policy, provider));
+    }
+
+    @Benchmark
+    public void getLegacy(Blackhole blackhole) {
+        consume(blackhole, legacyGet(key, legacyStorage, policy, provider));
+    }
+
+    private static void consume(Blackhole blackhole, IRepositoryDataContainer<String, String> container) {
+        blackhole.consume(container.getBody());
+        blackhole.consume(container.getAttachment());
+    }
+
+    /**
+     * {@code BaseRepository.get} before containers became immutable.
+     */
+    private static <T, A> IRepositoryDataContainer<T, A> legacyGet(IDataKey<T, A> key, LegacyStorage storage, IExpirePolicy<Object, Object> policy, IProvider<Object, Object> provider) {
+        ReturningRepositoryDataContainer<T, A> container;
+        {
+            container = new ReturningRepositoryDataContainer<>(storage.get(key));
+        }
+        {
+            if (policy.shouldExpire(key, container)) {
+                {
+                    storage.remove(key);
+                }
+                {
+                    container.setBody(null);
+                    container.setAttachment(null);
+                    container.setSavedAtTimeMillis(null);
+                    container.setRequestedAtTimeMillis(null);
+                }
+            }
+            if (policy.shouldExpireWithRelatives(key, container)) {
+                storage.removeRelatives(key);
+            }
+        }
+        if (policy.shouldRequest(key, container)) {
+            container = new ReturningRepositoryDataContainer<>(provider.request(key));
+        }
+        if (policy.shouldSave(key, container)) {
+            container = new ReturningRepositoryDataContainer<>(storage.save(key, container));
+        }
+        return container;
+    }
+
+    /**
+     * {@code BaseStorage} and {@code SimpleOnMemoryStorage} before containers became immutable:
+     * every step takes a defensive copy and reads deserialize eagerly.
+     */
+    private static class LegacyStorage {
+
+        private final SerializerUserHelper helper = new SerializerUserHelper();
+
+        private final Map<String, IRepositoryDataContainer<byte[], byte[]>> db = new HashMap<>();
+
+        public <T, A> IRepositoryDataContainer<T, A> get(IDataKey<T, A> key) {
+            IRepositoryDataContainer<byte[], byte[]> item = db.get(key.getSerialized());
+            IRepositoryDataContainer<byte[], byte[]> raw = new ReturningRepositoryDataContainer<>(
+                    item != null ? new ReturningRepositoryDataContainer<>(item) : new ReturningRepositoryDataContainer<byte[], byte[]>()
+            );
+            ReturningRepositoryDataContainer<T, A> ret = new ReturningRepositoryDataContainer<>();
+            {
+                ret.setBody(helper.deserializeByClass(key.getBodyType(), raw.getBody() != null ? raw.getBody() : new byte[0]));
+                ret.setAttachment(helper.deserializeByClass(key.getAttachmentType(), raw.getAttachment() != null ? raw.getAttachment() : new byte[0]));
+            }
+            {
+                ret.setRequestedAtTimeMillis(raw.getRequestedAtTimeMillis());
+                ret.setSavedAtTimeMillis(raw.getSavedAtTimeMillis());
+            }
+            return ret;
+        }
+
+        public int remove(IDataKey<?, ?> key) {
+            return db.remove(key.getSerialized()) != null ? 1 : 0;
+        }
+
+        public int removeRelatives(IDataKey<?, ?> key) {
+            return 0;
+        }
+
+        public <T, A> IRepositoryDataContainer<T, A> save(IDataKey<T, A> key, IRepositoryDataContainer<T, A> original) {
+            ReturningRepositoryDataContainer<T, A> container = new ReturningRepositoryDataContainer<>(original);
+            {
+                container.setSavedAtTimeMillis(System.currentTimeMillis());
+            }
+            ReturningRepositoryDataContainer<byte[], byte[]> save = new ReturningRepositoryDataContainer<>();
+            {
+                byte[] bodyBytes = helper.serializeByClass(key.getBodyType(), container.getBody());
+                save.setBody(bodyBytes.length > 0 ? bodyBytes : null);
+            }
+            {
+                byte[] attachmentBytes = helper.serializeByClass(key.getAttachmentType(), container.getAttachment());
+                save.setAttachment(attachmentBytes.length > 0 ? attachmentBytes : null);
+            }
+            {
+                save.setRequestedAtTimeMillis(container.getRequestedAtTimeMillis());
+                save.setSavedAtTimeMillis(container.getSavedAtTimeMillis());
+            }
+            db.put(key.getSerialized(), save);
+            return container;
+        }
+
+    }
+
+}
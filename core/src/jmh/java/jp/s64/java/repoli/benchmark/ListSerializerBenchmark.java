@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.benchmark;
+
+import com.google.common.reflect.TypeToken;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import jp.s64.java.repoli.base.SerializerRegistry;
+import jp.s64.java.repoli.core.ISerializer;
+import jp.s64.java.repoli.preset.serializer.ListSerializer;
+import jp.s64.java.repoli.preset.serializer.SerializableSerializer;
+
+/**
+ * {@link ListSerializer} with the varint framing against the former {@code ObjectOutputStream} of {@code List<byte[]>},
+ * for a flat list of strings and a list of lists. {@code serializedBytes} reports the payload size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ListSerializerBenchmark {
+
+    private static final TypeToken<List<String>> FLAT = new TypeToken<List<String>>() {
+    };
+
+    private static final TypeToken<List<List<String>>> NESTED = new TypeToken<List<List<String>>>() {
+    };
+
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    private final Set<ISerializer> serializers = SerializerRegistry.empty()
+            .withAdded(Arrays.<ISerializer>asList(ListSerializer.INSTANCE, SerializableSerializer.INSTANCE))
+            .getSerializers();
+
+    private List<String> flat;
+    private List<List<String>> nested;
+
+    private byte[] framedFlat;
+    private byte[] legacyFlat;
+    private byte[] framedNested;
+    private byte[] legacyNested;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Size {
+
+        public long serializedBytes;
+
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        flat = new ArrayList<>(size);
+        nested = new ArrayList<>();
+        List<String> row = null;
+        for (int i = 0; i < size; i++) {
+            flat.add("item-" + i);
+            if (i % 10 == 0) {
+                row = new ArrayList<>();
+                nested.add(row);
+            }
+            row.add("item-" + i);
+        }
+        framedFlat = ListSerializer.INSTANCE.serialize(FLAT, flat, serializers);
+        legacyFlat = legacyFlat(flat);
+        framedNested = ListSerializer.INSTANCE.serialize(NESTED, nested, serializers);
+        legacyNested = legacyNested(nested);
+    }
+
+    @Benchmark
+    public byte[] serializeFramed(Size counters) {
+        byte[] ret = ListSerializer.INSTANCE.serialize(FLAT, flat, serializers);
+        counters.serializedBytes = ret.length;
+        return ret;
+    }
+
+    @Benchmark
+    public byte[] serializeLegacy(Size counters) throws IOException {
+        byte[] ret = legacyFlat(flat);
+        counters.serializedBytes = ret.length;
+        return ret;
+    }
+
+    @Benchmark
+    public List<String> deserializeFramed() {
+        return ListSerializer.INSTANCE.deserialize(FLAT, framedFlat, serializers);
+    }
+
+    @Benchmark
+    public List<String> deserializeLegacy() {
+        return ListSerializer.INSTANCE.deserialize(FLAT, legacyFlat, serializers);
+    }
+
+    @Benchmark
+    public byte[] serializeNestedFramed(Size counters) {
+        byte[] ret = ListSerializer.INSTANCE.serialize(NESTED, nested, serializers);
+        counters.serializedBytes = ret.length;
+        return ret;
+    }
+
+    @Benchmark
+    public byte[] serializeNestedLegacy(Size counters) throws IOException {
+        byte[] ret = legacyNested(nested);
+        counters.serializedBytes = ret.length;
+        return ret;
+    }
+
+    @Benchmark
+    public List<List<String>> deserializeNestedFramed() {
+        return ListSerializer.INSTANCE.deserialize(NESTED, framedNested, serializers);
+    }
+
+    @Benchmark
+    public List<List<String>> deserializeNestedLegacy() {
+        return ListSerializer.INSTANCE.deserialize(NESTED, legacyNested, serializers);
+    }
+
+    private byte[] legacyFlat(List<String> list) throws IOException {
+        List<byte[]> dest = new LinkedList<>();
+        for (String item : list) {
+            dest.add(SerializableSerializer.INSTANCE.serialize(TypeToken.of(String.class), item, serializers));
+        }
+        return writeObject(dest);
+    }
+
+    private byte[] legacyNested(List<List<String>> list) throws IOException {
+        List<byte[]> dest = new LinkedList<>();
+        for (List<String> item : list) {
+            dest.add(legacyFlat(item));
+        }
+        return writeObject(dest);
+    }
+
+    private static byte[] writeObject(Object value) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(out);
+        oos.writeObject(value);
+        oos.close();
+        return out.toByteArray();
+    }
+
+}
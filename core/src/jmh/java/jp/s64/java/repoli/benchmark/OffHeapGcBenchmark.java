@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import jp.s64.java.repoli.base.BaseStorage;
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
+import jp.s64.java.repoli.preset.OffHeapSlabStorage;
+import jp.s64.java.repoli.preset.SimpleOnMemoryStorage;
+
+/**
+ * Full collection time with about 1 GB of cached entries resident, as a stand-in for the old generation pauses
+ * a large cache causes; {@link OffHeapSlabStorage} keeps the entry bytes out of the heap being traced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g", "-XX:MaxDirectMemorySize=2g"})
+public class OffHeapGcBenchmark {
+
+    private static final int ENTRY_SIZE = 4096;
+
+    @Param({"offheap", "simple"})
+    public String storageType;
+
+    @Param({"250000"})
+    public int entries;
+
+    private BaseStorage<Object, Object> storage;
+
+    @Setup
+    public void setUp() {
+        storage = "offheap".equals(storageType) ? new OffHeapSlabStorage<>(2L * entries * ENTRY_SIZE) : new SimpleOnMemoryStorage<>();
+        for (int i = 0; i < entries; i++) {
+            IRepositoryDataContainer<byte[], byte[]> container = ImmutableRepositoryDataContainer.of(new byte[ENTRY_SIZE - 64], new byte[16], 0L, 0L);
+            storage.saveBySerializedKey("key-" + i, "group-" + (i % 1000), container);
+        }
+    }
+
+    @Benchmark
+    public void fullGc() {
+        System.gc();
+    }
+
+    /**
+     * Reads copy the entry back onto the heap, which is the price paid for the shorter pauses.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Object get() {
+        return storage.getBySerializedKey("key-" + ThreadLocalRandom.current().nextInt(entries));
+    }
+
+}
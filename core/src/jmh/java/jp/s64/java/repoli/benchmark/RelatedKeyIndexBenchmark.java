@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.benchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
+import jp.s64.java.repoli.preset.SimpleOnMemoryStorage;
+
+/**
+ * Write latency of {@link SimpleOnMemoryStorage} as the number of related groups grows; it should stay flat.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RelatedKeyIndexBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int groups;
+
+    private SimpleOnMemoryStorage<Object, Object> storage;
+
+    private String[] serializedKeys;
+    private String[] relatedKeys;
+
+    private final IRepositoryDataContainer<byte[], byte[]> container = ImmutableRepositoryDataContainer.of(new byte[64], new byte[16], 0L, 0L);
+
+    private int cursor;
+
+    @Setup
+    public void setUp() {
+        storage = new SimpleOnMemoryStorage<>();
+        serializedKeys = new String[groups];
+        relatedKeys = new String[groups];
+        for (int i = 0; i < groups; i++) {
+            serializedKeys[i] = "key-" + i;
+            relatedKeys[i] = "group-" + i;
+            storage.saveBySerializedKey(serializedKeys[i], relatedKeys[i], container);
+        }
+    }
+
+    /**
+     * Overwrites an entry into its neighbour's group, which leaves one group and joins another.
+     */
+    @Benchmark
+    public void saveMovingGroup() {
+        int i = next();
+        storage.saveBySerializedKey(serializedKeys[i], relatedKeys[(i + 1) % groups], container);
+    }
+
+    /**
+     * Removes an entry, emptying its group, then saves it back.
+     */
+    @Benchmark
+    public int removeAndSave() {
+        int i = next();
+        int ret = storage.removeBySerializedKey(serializedKeys[i]);
+        storage.saveBySerializedKey(serializedKeys[i], relatedKeys[i], container);
+        return ret;
+    }
+
+    private int next() {
+        int i = cursor;
+        cursor = i + 1 == groups ? 0 : i + 1;
+        return i;
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Has the {@code processor} module generate a serializer for the annotated class, named after it with a
+ * {@code _Serializer} suffix ({@code Outer_Inner_Serializer} for a nested class) in the same package.
+ * Register its {@code INSTANCE} with {@link jp.s64.java.repoli.core.ISerializerUser#addSerializer}.
+ * <p>
+ * Every non-static, non-transient field of the class is written, in declaration order. Fields must be non-private,
+ * or have non-private getters and setters, the class needs a non-private no-argument constructor, and superclasses
+ * must not declare fields of their own.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface GenerateSerializer {
+
+}
@@ -19,16 +19,20 @@ package jp.s64.java.repoli.base;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+import jp.s64.java.repoli.core.IBatchProvider;
 import jp.s64.java.repoli.core.IDataKey;
-import jp.s64.java.repoli.core.IProvider;
 import jp.s64.java.repoli.core.IRepositoryDataContainer;
 import jp.s64.java.repoli.core.ISerializer;
 import jp.s64.java.repoli.core.ISerializerUser;
-import jp.s64.java.repoli.internal.ReturningRepositoryDataContainer;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
 
-public abstract class BaseProvider<TB, AB> implements IProvider<TB, AB>, ISerializerUser {
+public abstract class BaseProvider<TB, AB> implements IBatchProvider<TB, AB>, ISerializerUser {
 
     private final ProviderHelper helper = new ProviderHelper();
 
@@ -60,22 +64,60 @@ public abstract class BaseProvider<TB, AB> implements IProvider<TB, AB>, ISerial
     @NotNull
     @Override
     public <T extends TB, A extends AB> IRepositoryDataContainer<T, A> request(@NotNull IDataKey<T, A> key) {
-        ReturningRepositoryDataContainer<byte[], byte[]> raw;
+        return convertProvided(key, requestBySerializedKey(key.getSerialized()));
+    }
+
+    @NotNull
+    @Override
+    public <T extends TB, A extends AB> Map<String, IRepositoryDataContainer<T, A>> requestAll(@NotNull Collection<? extends IDataKey<T, A>> keys) {
+        Map<String, ProvidedContainer> provided;
         {
-            ProvidedContainer ret = requestBySerializedKey(key.getSerialized());
-            raw = new ReturningRepositoryDataContainer<>();
-            {
-                raw.setBody(ret.getBody());
-                raw.setAttachment(ret.getAttachment());
-                raw.setRequestedAtTimeMillis(ret.getRequestedAtTimeMillis());
+            List<String> serializedKeys = new ArrayList<>(keys.size());
+            for (IDataKey<T, A> key : keys) {
+                serializedKeys.add(key.getSerialized());
             }
+            provided = requestBySerializedKeys(serializedKeys);
+        }
+        Map<String, IRepositoryDataContainer<T, A>> ret = new LinkedHashMap<>();
+        for (IDataKey<T, A> key : keys) {
+            ProvidedContainer container = provided.get(key.getSerialized());
+            ret.put(
+                    key.getSerialized(),
+                    container != null ? convertProvided(key, container) : ImmutableRepositoryDataContainer.<T, A>empty()
+            );
         }
-        return helper.convertBytesToReturning(key, raw);
+        return ret;
+    }
+
+    @NotNull
+    protected <T extends TB, A extends AB> IRepositoryDataContainer<T, A> convertProvided(@NotNull IDataKey<T, A> key, @NotNull ProvidedContainer provided) {
+        return helper.convertBytesToReturning(
+                key,
+                provided.getBody(),
+                provided.getAttachment(),
+                null,
+                provided.getRequestedAtTimeMillis(),
+                provided.getExpiresAtTimeMillis()
+        );
     }
 
     @NotNull
     public abstract ProvidedContainer requestBySerializedKey(@NotNull String serializedKey);
 
+    /**
+     * Requests several keys at once. Providers whose upstream accepts batched requests should override it.
+     *
+     * @return containers keyed by serialized key. Keys the upstream did not return may be absent.
+     */
+    @NotNull
+    public Map<String, ProvidedContainer> requestBySerializedKeys(@NotNull Collection<String> serializedKeys) {
+        Map<String, ProvidedContainer> ret = new LinkedHashMap<>();
+        for (String serializedKey : serializedKeys) {
+            ret.put(serializedKey, requestBySerializedKey(serializedKey));
+        }
+        return ret;
+    }
+
     public static class ProvidedContainer {
 
         @Nullable
@@ -87,6 +129,9 @@ public abstract class BaseProvider<TB, AB> implements IProvider<TB, AB>, ISerial
         @Nullable
         private Long requestedAtTimeMillis;
 
+        @Nullable
+        private Long expiresAtTimeMillis;
+
         public ProvidedContainer(@Nullable Long requestedAtTimeMillis) {
             setRequestedAtTimeMillis(requestedAtTimeMillis);
         }
@@ -118,6 +163,18 @@ public abstract class BaseProvider<TB, AB> implements IProvider<TB, AB>, ISerial
             this.requestedAtTimeMillis = requestedAtTimeMillis;
         }
 
+        @Nullable
+        public Long getExpiresAtTimeMillis() {
+            return expiresAtTimeMillis;
+        }
+
+        /**
+         * Overrides the policy's lifetime for this response, e.g. from an upstream {@code max-age}.
+         */
+        public void setExpiresAtTimeMillis(@Nullable Long expiresAtTimeMillis) {
+            this.expiresAtTimeMillis = expiresAtTimeMillis;
+        }
+
     }
 
 }
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.base;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import jp.s64.java.repoli.core.IDataKey;
+import jp.s64.java.repoli.core.IProvider;
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.core.IStorage;
+import jp.s64.java.repoli.internal.NegativeEntries;
+import jp.s64.java.repoli.preset.TimeBasedPolicy;
+
+/**
+ * Re-requests entries that are still popular when they reach {@code refreshFraction} of their lifetime,
+ * so that hot keys are replaced before they expire. An entry is popular when it was read at least
+ * {@code minAccessCount} times before its refresh point. At most {@code maxConcurrency} refreshes run at once.
+ */
+public abstract class BaseRefreshAheadScheduler {
+
+    private final float refreshFraction;
+    private final int minAccessCount;
+    private final Semaphore permits;
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    /**
+     * Superseded entries stay queued until they come up, so replacing one never scans the queue.
+     */
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>(11, Entry.COMPARATOR);
+    private int supersededCount = 0;
+
+    private long nextDispatchAtTimeMillis = Long.MAX_VALUE;
+
+    protected BaseRefreshAheadScheduler(float refreshFraction, int minAccessCount, int maxConcurrency) {
+        if (!(refreshFraction > 0 && refreshFraction < 1)) {
+            throw new IllegalArgumentException("refreshFraction must be between 0 and 1: " + refreshFraction);
+        }
+        if (minAccessCount < 1 || maxConcurrency < 1) {
+            throw new IllegalArgumentException("minAccessCount and maxConcurrency must be positive.");
+        }
+        this.refreshFraction = refreshFraction;
+        this.minAccessCount = minAccessCount;
+        this.permits = new Semaphore(maxConcurrency);
+    }
+
+    /**
+     * Records a read of {@code container}, which {@code policy} keeps until {@link TimeBasedPolicy#getDeadlineTimeMillis(IRepositoryDataContainer)}.
+     * The refresh goes through {@link BaseRepository#refresh}, so it shares a request with concurrent misses.
+     */
+    public <TB, AB, T extends TB, A extends AB> void onAccess(@NotNull final IDataKey<T, A> key, @NotNull final BaseRepository<TB, AB> repository, @NotNull final IStorage<TB, AB> storage, @NotNull final TimeBasedPolicy<TB, AB> policy, @NotNull final IProvider<TB, AB> provider, @NotNull IRepositoryDataContainer<T, A> container) {
+        Long savedAt = container.getSavedAtTimeMillis();
+        Long deadline = policy.getDeadlineTimeMillis(container);
+        if (savedAt == null || deadline == null || NegativeEntries.isNegative(container)) {
+            return;
+        }
+        onAccess(key.getSerialized(), savedAt, deadline - savedAt, new Refresh() {
+            @Override
+            public void refresh(@NotNull Runnable done) {
+                try {
+                    repository.refresh(key, storage, policy, provider);
+                } catch (RuntimeException e) {
+                    // the entry expires as usual, and the next get requests it.
+                } finally {
+                    done.run();
+                }
+            }
+        });
+    }
+
+    protected void onAccess(@NotNull String serializedKey, long savedAtTimeMillis, long lifetimeMillis, @NotNull Refresh refresh) {
+        synchronized (this) {
+            Entry entry = entries.get(serializedKey);
+            if (entry != null && entry.refreshing) {
+                return;
+            }
+            if (entry != null && entry.savedAtTimeMillis == savedAtTimeMillis) {
+                entry.accessCount++;
+                entry.refresh = refresh;
+                return;
+            }
+            if (entry != null) {
+                supersededCount++;
+            }
+            entry = new Entry(
+                    serializedKey,
+                    savedAtTimeMillis,
+                    savedAtTimeMillis + (long) (lifetimeMillis * refreshFraction),
+                    savedAtTimeMillis + lifetimeMillis,
+                    refresh
+            );
+            entries.put(serializedKey, entry);
+            queue.add(entry);
+            requestDispatch(entry.refreshAtTimeMillis);
+        }
+    }
+
+    /**
+     * Starts every refresh that is due, as far as the concurrency limit allows.
+     */
+    protected void dispatch() {
+        synchronized (this) {
+            nextDispatchAtTimeMillis = Long.MAX_VALUE;
+        }
+        while (true) {
+            final Entry entry;
+            synchronized (this) {
+                Entry head = queue.peek();
+                if (head == null) {
+                    return;
+                }
+                if (entries.get(head.serializedKey) != head) {
+                    queue.poll();
+                    supersededCount--;
+                    continue;
+                }
+                long now = System.currentTimeMillis();
+                if (head.refreshAtTimeMillis > now) {
+                    requestDispatch(head.refreshAtTimeMillis);
+                    return;
+                }
+                if (head.expiresAtTimeMillis <= now || head.accessCount < minAccessCount) {
+                    queue.poll();
+                    entries.remove(head.serializedKey);
+                    continue;
+                }
+                if (!permits.tryAcquire()) {
+                    // resumed when a running refresh finishes.
+                    return;
+                }
+                queue.poll();
+                head.refreshing = true;
+                entry = head;
+            }
+            try {
+                execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        entry.refresh.refresh(new Runnable() {
+                            @Override
+                            public void run() {
+                                finish(entry);
+                                dispatch();
+                            }
+                        });
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                finish(entry);
+            }
+        }
+    }
+
+    private void finish(@NotNull Entry entry) {
+        permits.release();
+        synchronized (this) {
+            if (entries.get(entry.serializedKey) == entry) {
+                entries.remove(entry.serializedKey);
+            }
+        }
+    }
+
+    private void requestDispatch(long atTimeMillis) {
+        if (atTimeMillis < nextDispatchAtTimeMillis) {
+            nextDispatchAtTimeMillis = atTimeMillis;
+            scheduleDispatch(Math.max(0, atTimeMillis - System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * @return the number of entries waiting for their refresh point.
+     */
+    public synchronized int getQueuedCount() {
+        return queue.size() - supersededCount;
+    }
+
+    /**
+     * Arranges {@link #dispatch()} to be called after {@code delayMillis}.
+     */
+    protected abstract void scheduleDispatch(long delayMillis);
+
+    /**
+     * Runs a refresh. May throw {@link RejectedExecutionException}, then the refresh is skipped.
+     */
+    protected abstract void execute(@NotNull Runnable refresh);
+
+    public interface Refresh {
+
+        /**
+         * @param done must be run once the refresh has finished, whether it succeeded or not.
+         */
+        void refresh(@NotNull Runnable done);
+
+    }
+
+    private static class Entry {
+
+        private static final Comparator<Entry> COMPARATOR = new Comparator<Entry>() {
+            @Override
+            public int compare(Entry o1, Entry o2) {
+                return o1.refreshAtTimeMillis < o2.refreshAtTimeMillis ? -1 : (o1.refreshAtTimeMillis == o2.refreshAtTimeMillis ? 0 : 1);
+            }
+        };
+
+        @NotNull
+        private final String serializedKey;
+        private final long savedAtTimeMillis;
+        private final long refreshAtTimeMillis;
+        private final long expiresAtTimeMillis;
+
+        @NotNull
+        private Refresh refresh;
+        private int accessCount = 1;
+        private boolean refreshing = false;
+
+        private Entry(@NotNull String serializedKey, long savedAtTimeMillis, long refreshAtTimeMillis, long expiresAtTimeMillis, @NotNull Refresh refresh) {
+            this.serializedKey = serializedKey;
+            this.savedAtTimeMillis = savedAtTimeMillis;
+            this.refreshAtTimeMillis = refreshAtTimeMillis;
+            this.expiresAtTimeMillis = expiresAtTimeMillis;
+            this.refresh = refresh;
+        }
+
+    }
+
+}
@@ -16,25 +16,59 @@
 
 package jp.s64.java.repoli.base;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import jp.s64.java.repoli.core.IBatchRepository;
 import jp.s64.java.repoli.core.IDataKey;
 import jp.s64.java.repoli.core.IExpirePolicy;
+import jp.s64.java.repoli.core.IMetadataPolicy;
+import jp.s64.java.repoli.core.IMetadataStorage;
 import jp.s64.java.repoli.core.IProvider;
 import jp.s64.java.repoli.core.IRemovePolicy;
-import jp.s64.java.repoli.core.IRepository;
 import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.core.IStaleWhileRevalidatePolicy;
 import jp.s64.java.repoli.core.IStorage;
-import jp.s64.java.repoli.internal.ReturningRepositoryDataContainer;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
+
+public abstract class BaseRepository<TB, AB> implements IBatchRepository<TB, AB> {
+
+    private final InFlightRegistry inFlight = new InFlightRegistry();
 
-public abstract class BaseRepository<TB, AB> implements IRepository<TB, AB> {
+    private final RemovalStamps removals = new RemovalStamps();
+
+    private final Set<String> revalidating = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    @NotNull
+    private final Executor revalidateExecutor;
+
+    protected BaseRepository() {
+        this(DefaultRevalidateExecutor.INSTANCE);
+    }
+
+    protected BaseRepository(@NotNull Executor revalidateExecutor) {
+        this.revalidateExecutor = revalidateExecutor;
+    }
 
     @NotNull
     @Override
     public <T extends TB, A extends AB> IRepositoryDataContainer<T, A> get(@NotNull IDataKey<T, A> key, @NotNull IStorage<TB, AB> storage, @NotNull IExpirePolicy<TB, AB> policy, @NotNull IProvider<TB, AB> provider) {
-        ReturningRepositoryDataContainer<T, A> container;
+        IRepositoryDataContainer<T, A> container;
         {
-            container = new ReturningRepositoryDataContainer<>(storage.get(key));
+            container = storage.get(key);
         }
         {
             if (policy.shouldExpire(key, container)) {
@@ -42,10 +76,7 @@ public abstract class BaseRepository<TB, AB> implements IRepository<TB, AB> {
                     storage.remove(key);
                 }
                 {
-                    container.setBody(null);
-                    container.setAttachment(null);
-                    container.setSavedAtTimeMillis(null);
-                    container.setRequestedAtTimeMillis(null);
+                    container = ImmutableRepositoryDataContainer.empty();
                 }
             }
             if (policy.shouldExpireWithRelatives(key, container)) {
@@ -53,23 +84,187 @@ public abstract class BaseRepository<TB, AB> implements IRepository<TB, AB> {
             }
         }
         if (policy.shouldRequest(key, container)) {
-            container = new ReturningRepositoryDataContainer<>(provider.request(key));
-        }
-        if (policy.shouldSave(key, container)) {
-            container = new ReturningRepositoryDataContainer<>(storage.save(key, container));
+            container = requestAndSave(key, storage, policy, provider);
+        } else {
+            if (policy instanceof IStaleWhileRevalidatePolicy && ((IStaleWhileRevalidatePolicy<TB, AB>) policy).shouldRevalidate(key, container)) {
+                revalidate(key, storage, policy, provider);
+            }
+            if (policy.shouldSave(key, container)) {
+                container = storage.save(key, container);
+            }
         }
         return container;
     }
 
+    @NotNull
+    @Override
+    public <T extends TB, A extends AB> Map<String, IRepositoryDataContainer<T, A>> getAll(@NotNull Collection<? extends IDataKey<T, A>> keys, @NotNull IStorage<TB, AB> storage, @NotNull IExpirePolicy<TB, AB> policy, @NotNull IProvider<TB, AB> provider) {
+        Map<String, IRepositoryDataContainer<T, A>> containers = new LinkedHashMap<>(BatchHelper.getAll(storage, keys));
+        {
+            List<IDataKey<T, A>> expires = new ArrayList<>();
+            Map<String, IDataKey<T, A>> relatives = new LinkedHashMap<>();
+            for (IDataKey<T, A> key : keys) {
+                IRepositoryDataContainer<T, A> container = containers.get(key.getSerialized());
+                if (container == null || policy.shouldExpire(key, container)) {
+                    if (container != null) {
+                        expires.add(key);
+                    }
+                    container = ImmutableRepositoryDataContainer.empty();
+                    containers.put(key.getSerialized(), container);
+                }
+                if (policy.shouldExpireWithRelatives(key, container) && !relatives.containsKey(key.getRelatedKey())) {
+                    relatives.put(key.getRelatedKey(), key);
+                }
+            }
+            if (!expires.isEmpty()) {
+                BatchHelper.removeAll(storage, expires);
+            }
+            for (IDataKey<T, A> key : relatives.values()) {
+                storage.removeRelatives(key);
+            }
+        }
+        Map<String, IDataKey<T, A>> requests = new LinkedHashMap<>();
+        List<IDataKey<T, A>> saves = new ArrayList<>();
+        for (IDataKey<T, A> key : keys) {
+            IRepositoryDataContainer<T, A> container = containers.get(key.getSerialized());
+            if (policy.shouldRequest(key, container)) {
+                requests.put(key.getSerialized(), key);
+            } else {
+                if (policy instanceof IStaleWhileRevalidatePolicy && ((IStaleWhileRevalidatePolicy<TB, AB>) policy).shouldRevalidate(key, container)) {
+                    revalidate(key, storage, policy, provider);
+                }
+                if (policy.shouldSave(key, container)) {
+                    saves.add(key);
+                }
+            }
+        }
+        if (!requests.isEmpty()) {
+            containers.putAll(requestAndSaveAll(requests, storage, policy, provider));
+        }
+        if (!saves.isEmpty()) {
+            containers.putAll(BatchHelper.saveAll(storage, saves, containers));
+        }
+        return containers;
+    }
+
+    /**
+     * Requests and saves several keys with one provider call and one save, joining the calls already in flight
+     * for any of them, see {@link #requestAndSave}.
+     *
+     * @param keys keyed by serialized key.
+     */
+    @NotNull
+    protected <T extends TB, A extends AB> Map<String, IRepositoryDataContainer<T, A>> requestAndSaveAll(@NotNull final Map<String, IDataKey<T, A>> keys, @NotNull final IStorage<TB, AB> storage, @NotNull final IExpirePolicy<TB, AB> policy, @NotNull final IProvider<TB, AB> provider) {
+        return inFlight.executeAll(keys.keySet(), new InFlightRegistry.BatchCall<IRepositoryDataContainer<T, A>>() {
+            @Override
+            public Map<String, IRepositoryDataContainer<T, A>> call(@NotNull Set<String> serializedKeys) {
+                List<IDataKey<T, A>> requests = new ArrayList<>(serializedKeys.size());
+                Map<String, Long> stamps = new LinkedHashMap<>();
+                for (String serializedKey : serializedKeys) {
+                    IDataKey<T, A> key = keys.get(serializedKey);
+                    requests.add(key);
+                    stamps.put(serializedKey, removals.get(key));
+                }
+                Map<String, IRepositoryDataContainer<T, A>> ret = new LinkedHashMap<>(BatchHelper.requestAll(provider, requests));
+                List<IDataKey<T, A>> saves = new ArrayList<>();
+                for (IDataKey<T, A> key : requests) {
+                    IRepositoryDataContainer<T, A> container = ret.get(key.getSerialized());
+                    if (container == null) {
+                        container = ImmutableRepositoryDataContainer.empty();
+                        ret.put(key.getSerialized(), container);
+                    }
+                    if (policy.shouldSave(key, container)) {
+                        saves.add(key);
+                    }
+                }
+                if (!saves.isEmpty()) {
+                    ret.putAll(BatchHelper.saveAll(storage, saves, ret));
+                    List<IDataKey<T, A>> removed = new ArrayList<>();
+                    for (IDataKey<T, A> key : saves) {
+                        if (removals.get(key) != stamps.get(key.getSerialized())) {
+                            removed.add(key);
+                        }
+                    }
+                    if (!removed.isEmpty()) {
+                        BatchHelper.removeAll(storage, removed);
+                    }
+                }
+                return ret;
+            }
+        });
+    }
+
+    /**
+     * Schedules a background refresh of a stale entry. At most one refresh per serialized key is queued at a time.
+     */
+    protected <T extends TB, A extends AB> void revalidate(@NotNull final IDataKey<T, A> key, @NotNull final IStorage<TB, AB> storage, @NotNull final IExpirePolicy<TB, AB> policy, @NotNull final IProvider<TB, AB> provider) {
+        final String serializedKey = key.getSerialized();
+        if (!revalidating.add(serializedKey)) {
+            return;
+        }
+        try {
+            revalidateExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        requestAndSave(key, storage, policy, provider);
+                    } catch (RuntimeException e) {
+                        // the stale entry stays available, and the next get retries.
+                    } finally {
+                        revalidating.remove(serializedKey);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            revalidating.remove(serializedKey);
+        }
+    }
+
+    /**
+     * Requests the key again regardless of what is stored, through the same shared call as a miss.
+     */
+    @NotNull
+    public <T extends TB, A extends AB> IRepositoryDataContainer<T, A> refresh(@NotNull IDataKey<T, A> key, @NotNull IStorage<TB, AB> storage, @NotNull IExpirePolicy<TB, AB> policy, @NotNull IProvider<TB, AB> provider) {
+        return requestAndSave(key, storage, policy, provider);
+    }
+
+    /**
+     * Requests the key from the provider and saves the result, sharing one call between
+     * every thread that misses on the same serialized key at the same time.
+     * A result whose key is removed through {@link #remove} while it is in flight is returned but not kept.
+     */
+    @NotNull
+    protected <T extends TB, A extends AB> IRepositoryDataContainer<T, A> requestAndSave(@NotNull final IDataKey<T, A> key, @NotNull final IStorage<TB, AB> storage, @NotNull final IExpirePolicy<TB, AB> policy, @NotNull final IProvider<TB, AB> provider) {
+        return inFlight.execute(key.getSerialized(), new InFlightRegistry.Call<IRepositoryDataContainer<T, A>>() {
+            @Override
+            public IRepositoryDataContainer<T, A> call() {
+                long stamp = removals.get(key);
+                IRepositoryDataContainer<T, A> container = provider.request(key);
+                if (policy.shouldSave(key, container)) {
+                    container = storage.save(key, container);
+                    if (removals.get(key) != stamp) {
+                        storage.remove(key);
+                    }
+                }
+                return container;
+            }
+        });
+    }
+
     @NotNull
     @Override
     public <T extends TB, A extends AB> int remove(@NotNull IDataKey<T, A> key, @NotNull IStorage<TB, AB> storage, @NotNull IRemovePolicy<TB, AB> policy) {
         int result = 0;
-        ReturningRepositoryDataContainer<T, A> container;
+        boolean withRelatives;
+        if (policy instanceof IMetadataPolicy && storage instanceof IMetadataStorage) {
+            withRelatives = ((IMetadataPolicy<TB, AB>) policy).shouldRemoveWithRelatives(key, ((IMetadataStorage<TB, AB>) storage).getMetadata(key));
+        } else {
+            withRelatives = policy.shouldRemoveWithRelatives(key, storage.get(key));
+        }
         {
-            container = new ReturningRepositoryDataContainer<>(storage.get(key));
+            removals.bump(key, withRelatives);
         }
-        if (policy.shouldRemoveWithRelatives(key, container)) {
+        if (withRelatives) {
             result += storage.removeRelatives(key);
         }
         {
@@ -78,4 +273,15 @@ public abstract class BaseRepository<TB, AB> implements IRepository<TB, AB> {
         return result;
     }
 
+    private static class DefaultRevalidateExecutor {
+
+        private static final Executor INSTANCE = Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("repoli-revalidate-%d")
+                        .setDaemon(true)
+                        .build()
+        );
+
+    }
+
 }
@@ -18,16 +18,23 @@ package jp.s64.java.repoli.base;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+import jp.s64.java.repoli.core.IBatchStorage;
 import jp.s64.java.repoli.core.IDataKey;
+import jp.s64.java.repoli.core.IMetadataStorage;
 import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.core.IRepositoryDataMetadata;
 import jp.s64.java.repoli.core.ISerializer;
 import jp.s64.java.repoli.core.ISerializerUser;
-import jp.s64.java.repoli.core.IStorage;
-import jp.s64.java.repoli.internal.ReturningRepositoryDataContainer;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataMetadata;
 
-public abstract class BaseStorage<TB, AB> implements IStorage<TB, AB>, ISerializerUser {
+public abstract class BaseStorage<TB, AB> implements IBatchStorage<TB, AB>, IMetadataStorage<TB, AB>, ISerializerUser {
 
     private final StorageHelper helper = new StorageHelper();
 
@@ -59,11 +66,35 @@ public abstract class BaseStorage<TB, AB> implements IStorage<TB, AB>, ISerializ
     @NotNull
     @Override
     public <T extends TB, A extends AB> IRepositoryDataContainer<T, A> get(@NotNull IDataKey<T, A> key) {
-        IRepositoryDataContainer<byte[], byte[]> raw;
+        return helper.convertBytesToLazy(key, getBySerializedKey(key.getSerialized()));
+    }
+
+    @NotNull
+    @Override
+    public <T extends TB, A extends AB> Map<String, IRepositoryDataContainer<T, A>> getAll(@NotNull Collection<? extends IDataKey<T, A>> keys) {
+        Map<String, IRepositoryDataContainer<byte[], byte[]>> raws;
         {
-            raw = new ReturningRepositoryDataContainer<>(getBySerializedKey(key.getSerialized()));
+            List<String> serializedKeys = new ArrayList<>(keys.size());
+            for (IDataKey<T, A> key : keys) {
+                serializedKeys.add(key.getSerialized());
+            }
+            raws = getBySerializedKeys(serializedKeys);
+        }
+        Map<String, IRepositoryDataContainer<T, A>> ret = new LinkedHashMap<>();
+        for (IDataKey<T, A> key : keys) {
+            IRepositoryDataContainer<byte[], byte[]> raw = raws.get(key.getSerialized());
+            ret.put(
+                    key.getSerialized(),
+                    raw != null ? helper.convertBytesToLazy(key, raw) : ImmutableRepositoryDataContainer.<T, A>empty()
+            );
         }
-        return helper.convertBytesToReturning(key, raw);
+        return ret;
+    }
+
+    @NotNull
+    @Override
+    public IRepositoryDataMetadata getMetadata(@NotNull IDataKey<?, ?> key) {
+        return getMetadataBySerializedKey(key.getSerialized(), key.getRelatedKey());
     }
 
     @NotNull
@@ -72,6 +103,15 @@ public abstract class BaseStorage<TB, AB> implements IStorage<TB, AB>, ISerializ
         return removeBySerializedKey(key.getSerialized());
     }
 
+    @Override
+    public int removeAll(@NotNull Collection<? extends IDataKey<?, ?>> keys) {
+        List<String> serializedKeys = new ArrayList<>(keys.size());
+        for (IDataKey<?, ?> key : keys) {
+            serializedKeys.add(key.getSerialized());
+        }
+        return removeBySerializedKeys(serializedKeys);
+    }
+
     @NotNull
     @Override
     public int removeRelatives(@NotNull IDataKey<?, ?> key) {
@@ -81,10 +121,7 @@ public abstract class BaseStorage<TB, AB> implements IStorage<TB, AB>, ISerializ
     @NotNull
     @Override
     public <T extends TB, A extends AB> IRepositoryDataContainer<T, A> save(@NotNull IDataKey<T, A> key, @NotNull IRepositoryDataContainer<T, A> original) {
-        ReturningRepositoryDataContainer<T, A> container = new ReturningRepositoryDataContainer<>(original);
-        {
-            container.setSavedAtTimeMillis(System.currentTimeMillis());
-        }
+        IRepositoryDataContainer<T, A> container = helper.withSavedAtTimeMillis(original, System.currentTimeMillis());
         IRepositoryDataContainer<byte[], byte[]> save = helper.convertContainerToBytes(key, container);
         {
             saveBySerializedKey(key.getSerialized(), key.getRelatedKey(), save);
@@ -92,9 +129,73 @@ public abstract class BaseStorage<TB, AB> implements IStorage<TB, AB>, ISerializ
         return container;
     }
 
+    @NotNull
+    @Override
+    public <T extends TB, A extends AB> Map<String, IRepositoryDataContainer<T, A>> saveAll(@NotNull Collection<? extends IDataKey<T, A>> keys, @NotNull Map<String, ? extends IRepositoryDataContainer<T, A>> containers) {
+        Map<String, IRepositoryDataContainer<T, A>> ret = new LinkedHashMap<>();
+        List<SavingEntry> entries = new ArrayList<>(containers.size());
+        long savedAt = System.currentTimeMillis();
+        for (IDataKey<T, A> key : keys) {
+            IRepositoryDataContainer<T, A> original = containers.get(key.getSerialized());
+            if (original == null) {
+                continue;
+            }
+            IRepositoryDataContainer<T, A> container = helper.withSavedAtTimeMillis(original, savedAt);
+            entries.add(new SavingEntry(key.getSerialized(), key.getRelatedKey(), helper.convertContainerToBytes(key, container)));
+            ret.put(key.getSerialized(), container);
+        }
+        if (!entries.isEmpty()) {
+            saveBySerializedKeys(entries);
+        }
+        return ret;
+    }
+
     @NotNull
     public abstract IRepositoryDataContainer<byte[], byte[]> getBySerializedKey(@NotNull String serializedKey);
 
+    /**
+     * Reads the metadata from the raw bytes without deserializing them. Storages that keep timestamps
+     * apart from the bytes should override it.
+     */
+    @NotNull
+    public IRepositoryDataMetadata getMetadataBySerializedKey(@NotNull String serializedKey, @NotNull String relatedKey) {
+        return ImmutableRepositoryDataMetadata.of(getBySerializedKey(serializedKey), relatedKey);
+    }
+
+    /**
+     * Looks up several keys at once. Storages that can do this in one query or one index scan should override it.
+     *
+     * @return containers keyed by serialized key. Keys without an entry may be absent.
+     */
+    @NotNull
+    public Map<String, IRepositoryDataContainer<byte[], byte[]>> getBySerializedKeys(@NotNull Collection<String> serializedKeys) {
+        Map<String, IRepositoryDataContainer<byte[], byte[]>> ret = new LinkedHashMap<>();
+        for (String serializedKey : serializedKeys) {
+            ret.put(serializedKey, getBySerializedKey(serializedKey));
+        }
+        return ret;
+    }
+
+    /**
+     * Removes several keys at once. Storages that can do this in one transaction should override it.
+     */
+    public int removeBySerializedKeys(@NotNull Collection<String> serializedKeys) {
+        int result = 0;
+        for (String serializedKey : serializedKeys) {
+            result += removeBySerializedKey(serializedKey);
+        }
+        return result;
+    }
+
+    /**
+     * Saves several entries at once. Storages that can do this in one transaction should override it.
+     */
+    public void saveBySerializedKeys(@NotNull Collection<SavingEntry> entries) {
+        for (SavingEntry entry : entries) {
+            saveBySerializedKey(entry.getSerializedKey(), entry.getRelatedKey(), entry.getContainer());
+        }
+    }
+
     @NotNull
     public abstract int removeBySerializedKey(@NotNull String serializedKey);
 
@@ -104,4 +205,38 @@ public abstract class BaseStorage<TB, AB> implements IStorage<TB, AB>, ISerializ
     @NotNull
     public abstract void saveBySerializedKey(@NotNull String serializedKey, @NotNull String relatedKey, @NotNull IRepositoryDataContainer<byte[], byte[]> container);
 
+    public static class SavingEntry {
+
+        @NotNull
+        private final String serializedKey;
+
+        @NotNull
+        private final String relatedKey;
+
+        @NotNull
+        private final IRepositoryDataContainer<byte[], byte[]> container;
+
+        public SavingEntry(@NotNull String serializedKey, @NotNull String relatedKey, @NotNull IRepositoryDataContainer<byte[], byte[]> container) {
+            this.serializedKey = serializedKey;
+            this.relatedKey = relatedKey;
+            this.container = container;
+        }
+
+        @NotNull
+        public String getSerializedKey() {
+            return serializedKey;
+        }
+
+        @NotNull
+        public String getRelatedKey() {
+            return relatedKey;
+        }
+
+        @NotNull
+        public IRepositoryDataContainer<byte[], byte[]> getContainer() {
+            return container;
+        }
+
+    }
+
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.base;
+
+import com.google.common.reflect.TypeToken;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Set;
+
+import jp.s64.java.repoli.core.ISerializer;
+import jp.s64.java.repoli.core.IStreamingSerializer;
+import jp.s64.java.repoli.internal.FrameOutput;
+
+/**
+ * An {@link IStreamingSerializer} that implements the array form on top of the streaming one.
+ */
+public abstract class BaseStreamingSerializer implements IStreamingSerializer {
+
+    private static final byte[] EMPTY_BYTES = new byte[0];
+
+    @Override
+    public <T> T deserialize(TypeToken<T> type, byte[] serialized, Set<ISerializer> serializers) {
+        return deserialize(type, ByteBuffer.wrap(serialized != null ? serialized : EMPTY_BYTES), serializers);
+    }
+
+    @Override
+    public <T> byte[] serialize(TypeToken<T> type, Object deserialized, Set<ISerializer> serializers) {
+        FrameOutput out = new FrameOutput(256);
+        try {
+            serialize(type, deserialized, out, serializers);
+        } catch (IOException e) {
+            // FrameOutput never throws.
+            throw new StreamingSerializerException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the remaining bytes of {@code buffer}; its backing array when that holds exactly them.
+     */
+    @NotNull
+    public static byte[] toByteArray(@NotNull ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            byte[] array = buffer.array();
+            int from = buffer.arrayOffset() + buffer.position();
+            int to = buffer.arrayOffset() + buffer.limit();
+            if (from == 0 && to == array.length) {
+                return array;
+            }
+            return Arrays.copyOfRange(array, from, to);
+        }
+        byte[] ret = new byte[buffer.remaining()];
+        buffer.duplicate().get(ret);
+        return ret;
+    }
+
+    /**
+     * @return a stream over the remaining bytes of {@code buffer}, without copying them when it is backed by an array.
+     */
+    @NotNull
+    protected static InputStream asInputStream(@NotNull ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return new ByteArrayInputStream(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        return new ByteArrayInputStream(toByteArray(buffer));
+    }
+
+    public static class StreamingSerializerException extends RuntimeException {
+
+        public StreamingSerializerException(String message) {
+            super(message);
+        }
+
+        public StreamingSerializerException(Throwable throwable) {
+            super(throwable);
+        }
+
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.base;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jp.s64.java.repoli.core.IBatchProvider;
+import jp.s64.java.repoli.core.IBatchRepository;
+import jp.s64.java.repoli.core.IBatchStorage;
+import jp.s64.java.repoli.core.IDataKey;
+import jp.s64.java.repoli.core.IExpirePolicy;
+import jp.s64.java.repoli.core.IProvider;
+import jp.s64.java.repoli.core.IRepository;
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.core.IStorage;
+
+/**
+ * Calls the batch operation when the target implements it, and the single-key operation for every key otherwise.
+ */
+public final class BatchHelper {
+
+    private BatchHelper() {
+
+    }
+
+    @NotNull
+    @SuppressWarnings("unchecked")
+    public static <TB, AB, T extends TB, A extends AB> Map<String, IRepositoryDataContainer<T, A>> getAll(@NotNull IStorage<TB, AB> storage, @NotNull Collection<? extends IDataKey<T, A>> keys) {
+        if (storage instanceof IBatchStorage) {
+            return ((IBatchStorage<TB, AB>) storage).getAll(keys);
+        }
+        Map<String, IRepositoryDataContainer<T, A>> ret = new LinkedHashMap<>();
+        for (IDataKey<T, A> key : keys) {
+            ret.put(key.getSerialized(), storage.get(key));
+        }
+        return ret;
+    }
+
+    public static int removeAll(@NotNull IStorage<?, ?> storage, @NotNull Collection<? extends IDataKey<?, ?>> keys) {
+        if (storage instanceof IBatchStorage) {
+            return ((IBatchStorage<?, ?>) storage).removeAll(keys);
+        }
+        int ret = 0;
+        for (IDataKey<?, ?> key : keys) {
+            ret += storage.remove(key);
+        }
+        return ret;
+    }
+
+    @NotNull
+    @SuppressWarnings("unchecked")
+    public static <TB, AB, T extends TB, A extends AB> Map<String, IRepositoryDataContainer<T, A>> saveAll(@NotNull IStorage<TB, AB> storage, @NotNull Collection<? extends IDataKey<T, A>> keys, @NotNull Map<String, ? extends IRepositoryDataContainer<T, A>> containers) {
+        if (storage instanceof IBatchStorage) {
+            return ((IBatchStorage<TB, AB>) storage).saveAll(keys, containers);
+        }
+        Map<String, IRepositoryDataContainer<T, A>> ret = new LinkedHashMap<>();
+        for (IDataKey<T, A> key : keys) {
+            IRepositoryDataContainer<T, A> container = containers.get(key.getSerialized());
+            if (container != null) {
+                ret.put(key.getSerialized(), storage.save(key, container));
+            }
+        }
+        return ret;
+    }
+
+    @NotNull
+    @SuppressWarnings("unchecked")
+    public static <TB, AB, T extends TB, A extends AB> Map<String, IRepositoryDataContainer<T, A>> requestAll(@NotNull IProvider<TB, AB> provider, @NotNull Collection<? extends IDataKey<T, A>> keys) {
+        if (provider instanceof IBatchProvider) {
+            return ((IBatchProvider<TB, AB>) provider).requestAll(keys);
+        }
+        Map<String, IRepositoryDataContainer<T, A>> ret = new LinkedHashMap<>();
+        for (IDataKey<T, A> key : keys) {
+            ret.put(key.getSerialized(), provider.request(key));
+        }
+        return ret;
+    }
+
+    @NotNull
+    @SuppressWarnings("unchecked")
+    public static <TB, AB, T extends TB, A extends AB> Map<String, IRepositoryDataContainer<T, A>> getAll(@NotNull IRepository<TB, AB> repository, @NotNull Collection<? extends IDataKey<T, A>> keys, @NotNull IStorage<TB, AB> storage, @NotNull IExpirePolicy<TB, AB> policy, @NotNull IProvider<TB, AB> provider) {
+        if (repository instanceof IBatchRepository) {
+            return ((IBatchRepository<TB, AB>) repository).getAll(keys, storage, policy, provider);
+        }
+        Map<String, IRepositoryDataContainer<T, A>> ret = new LinkedHashMap<>();
+        for (IDataKey<T, A> key : keys) {
+            ret.put(key.getSerialized(), repository.get(key, storage, policy, provider));
+        }
+        return ret;
+    }
+
+}
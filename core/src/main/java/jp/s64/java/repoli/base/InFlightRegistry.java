@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.base;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Coalesces concurrent calls that share the same serialized key, so only one of them
+ * (the leader) actually runs and every other caller waits for and receives its outcome.
+ */
+public class InFlightRegistry {
+
+    private final ConcurrentMap<String, InFlightCall<?>> calls = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    public <V> V execute(@NotNull String serializedKey, @NotNull Call<V> call) {
+        InFlightCall<V> created = new InFlightCall<>();
+        InFlightCall<V> existing = (InFlightCall<V>) calls.putIfAbsent(serializedKey, created);
+        if (existing != null) {
+            return existing.await();
+        }
+        try {
+            created.complete(call.call());
+        } catch (RuntimeException e) {
+            created.fail(e);
+        } catch (Error e) {
+            created.fail(e);
+        } finally {
+            calls.remove(serializedKey, created);
+            created.latch.countDown();
+        }
+        return created.await();
+    }
+
+    /**
+     * Like {@link #execute} for several keys: keys already in flight are awaited, and this caller leads the others
+     * through one {@link BatchCall}. Led keys are completed before any awaited one, so batches never wait on each other.
+     *
+     * @return outcomes keyed by serialized key, in the iteration order of {@code serializedKeys}.
+     */
+    @SuppressWarnings("unchecked")
+    public <V> Map<String, V> executeAll(@NotNull Collection<String> serializedKeys, @NotNull BatchCall<V> call) {
+        Map<String, InFlightCall<V>> led = new LinkedHashMap<>();
+        Map<String, InFlightCall<V>> awaited = new LinkedHashMap<>();
+        for (String serializedKey : serializedKeys) {
+            if (led.containsKey(serializedKey) || awaited.containsKey(serializedKey)) {
+                continue;
+            }
+            InFlightCall<V> created = new InFlightCall<>();
+            InFlightCall<V> existing = (InFlightCall<V>) calls.putIfAbsent(serializedKey, created);
+            if (existing != null) {
+                awaited.put(serializedKey, existing);
+            } else {
+                led.put(serializedKey, created);
+            }
+        }
+        if (!led.isEmpty()) {
+            try {
+                Map<String, V> results = call.call(Collections.unmodifiableSet(led.keySet()));
+                for (Map.Entry<String, InFlightCall<V>> entry : led.entrySet()) {
+                    entry.getValue().complete(results.get(entry.getKey()));
+                }
+            } catch (RuntimeException e) {
+                for (InFlightCall<V> created : led.values()) {
+                    created.fail(e);
+                }
+            } catch (Error e) {
+                for (InFlightCall<V> created : led.values()) {
+                    created.fail(e);
+                }
+            } finally {
+                for (Map.Entry<String, InFlightCall<V>> entry : led.entrySet()) {
+                    calls.remove(entry.getKey(), entry.getValue());
+                    entry.getValue().latch.countDown();
+                }
+            }
+        }
+        Map<String, V> ret = new LinkedHashMap<>();
+        for (String serializedKey : serializedKeys) {
+            InFlightCall<V> inFlight = led.get(serializedKey);
+            ret.put(serializedKey, (inFlight != null ? inFlight : awaited.get(serializedKey)).await());
+        }
+        return ret;
+    }
+
+    public int size() {
+        return calls.size();
+    }
+
+    public interface Call<V> {
+
+        V call();
+
+    }
+
+    public interface BatchCall<V> {
+
+        /**
+         * @return outcomes keyed by serialized key; a missing key completes with null.
+         */
+        Map<String, V> call(@NotNull Set<String> serializedKeys);
+
+    }
+
+    protected static class InFlightCall<V> {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+
+        private V result;
+
+        private Throwable error;
+
+        protected void complete(V result) {
+            this.result = result;
+        }
+
+        protected void fail(Throwable error) {
+            this.error = error;
+        }
+
+        protected V await() {
+            Uninterruptibles.awaitUninterruptibly(latch);
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            } else if (error instanceof Error) {
+                throw (Error) error;
+            }
+            return result;
+        }
+
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.base;
+
+import org.jetbrains.annotations.NotNull;
+
+import jp.s64.java.repoli.core.IDataKey;
+import jp.s64.java.repoli.core.IMetadataStorage;
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.core.IRepositoryDataMetadata;
+import jp.s64.java.repoli.core.IStorage;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataMetadata;
+
+/**
+ * Reads metadata from an {@link IMetadataStorage}, and from the deserialized entry of any other storage.
+ */
+public final class MetadataHelper {
+
+    private MetadataHelper() {
+
+    }
+
+    /**
+     * A storage without metadata has no serialized size, so a present body or attachment is reported with size {@code 1}.
+     */
+    @NotNull
+    @SuppressWarnings("unchecked")
+    public static IRepositoryDataMetadata getMetadata(@NotNull IStorage<?, ?> storage, @NotNull IDataKey<?, ?> key) {
+        if (storage instanceof IMetadataStorage) {
+            return ((IMetadataStorage<?, ?>) storage).getMetadata(key);
+        }
+        IRepositoryDataContainer<?, ?> container = ((IStorage<Object, Object>) storage).get((IDataKey<Object, Object>) key);
+        if (container.getSavedAtTimeMillis() == null) {
+            return ImmutableRepositoryDataMetadata.empty();
+        }
+        return ImmutableRepositoryDataMetadata.of(
+                container.getSavedAtTimeMillis(),
+                container.getRequestedAtTimeMillis(),
+                container.getExpiresAtTimeMillis(),
+                container.getBody() != null ? 1 : 0,
+                container.getAttachment() != null ? 1 : 0,
+                key.getRelatedKey()
+        );
+    }
+
+}
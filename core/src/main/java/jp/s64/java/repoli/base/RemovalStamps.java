@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.base;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import jp.s64.java.repoli.core.IDataKey;
+
+/**
+ * Striped counters that repositories bump before removing an entry, so a request in flight can tell
+ * whether its key was removed meanwhile and drop what it saved. Keys sharing a stripe only cause extra drops.
+ */
+public class RemovalStamps {
+
+    private static final int STRIPES = 64;
+
+    private final AtomicLongArray stamps = new AtomicLongArray(STRIPES);
+
+    /**
+     * @return a value that changes whenever the key or its related key is marked removed.
+     */
+    public long get(@NotNull IDataKey<?, ?> key) {
+        return stamps.get(indexOf(key.getSerialized())) + stamps.get(indexOf(key.getRelatedKey()));
+    }
+
+    /**
+     * Marks {@code key}, and its relatives when {@code withRelatives}, as removed. Call it before removing from the storage.
+     */
+    public void bump(@NotNull IDataKey<?, ?> key, boolean withRelatives) {
+        stamps.incrementAndGet(indexOf(key.getSerialized()));
+        if (withRelatives) {
+            stamps.incrementAndGet(indexOf(key.getRelatedKey()));
+        }
+    }
+
+    private static int indexOf(@NotNull String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+}
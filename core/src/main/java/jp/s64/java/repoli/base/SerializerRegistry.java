@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.base;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.reflect.TypeToken;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.TypeVariable;
+import java.nio.ByteBuffer;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jp.s64.java.repoli.core.ISerializer;
+import jp.s64.java.repoli.core.IStreamingSerializer;
+import jp.s64.java.repoli.preset.serializer.ByteArraySerializer;
+import jp.s64.java.repoli.preset.serializer.CollectionSerializer;
+import jp.s64.java.repoli.preset.serializer.EnumSerializer;
+import jp.s64.java.repoli.preset.serializer.ListSerializer;
+import jp.s64.java.repoli.preset.serializer.MapSerializer;
+import jp.s64.java.repoli.preset.serializer.ObjectArraySerializer;
+import jp.s64.java.repoli.preset.serializer.OptionalSerializer;
+import jp.s64.java.repoli.preset.serializer.PackedListSerializer;
+import jp.s64.java.repoli.preset.serializer.PackedMapSerializer;
+import jp.s64.java.repoli.preset.serializer.PrimitiveArraySerializer;
+import jp.s64.java.repoli.preset.serializer.PrimitiveSerializer;
+import jp.s64.java.repoli.preset.serializer.SerializableSerializer;
+import jp.s64.java.repoli.preset.serializer.StringSerializer;
+import jp.s64.java.repoli.preset.serializer.VoidSerializer;
+
+/**
+ * An immutable snapshot of serializers in priority order. Changes return a new registry, so any number of threads can
+ * read one while {@link SerializerUserHelper} swaps in another.
+ * <p>
+ * The serializer for each type and the resolved type arguments of each type are cached on first use; later lookups are
+ * a hash map read. The set passed to {@link ISerializer} methods is a view that leads back to its registry, so nested
+ * serializers reuse the caches through {@link #from(Set)} instead of building a registry per call.
+ */
+public final class SerializerRegistry {
+
+    private static final ConcurrentHashMap<TypeToken<?>, TypeToken<?>[]> TYPE_ARGUMENTS = new ConcurrentHashMap<>();
+
+    /**
+     * Registries built for plain sets by {@link #from(Set)}, keyed by a copy of their contents.
+     */
+    private static final Cache<Set<ISerializer>, SerializerRegistry> FOREIGN = CacheBuilder.newBuilder()
+            .maximumSize(64)
+            .build();
+
+    private static final SerializerRegistry EMPTY = new SerializerRegistry(Collections.<ISerializer>emptyList());
+
+    private static final SerializerRegistry DEFAULTS = new SerializerRegistry(Arrays.<ISerializer>asList(
+            VoidSerializer.INSTANCE,
+            PackedListSerializer.INSTANCE,
+            ListSerializer.INSTANCE,
+            CollectionSerializer.INSTANCE,
+            PackedMapSerializer.INSTANCE,
+            MapSerializer.INSTANCE,
+            PrimitiveSerializer.INSTANCE,
+            StringSerializer.INSTANCE,
+            ByteArraySerializer.INSTANCE,
+            PrimitiveArraySerializer.INSTANCE,
+            ObjectArraySerializer.INSTANCE,
+            EnumSerializer.INSTANCE,
+            OptionalSerializer.INSTANCE,
+            SerializableSerializer.INSTANCE
+    ));
+
+    @NotNull
+    private final SortedSet<ISerializer> serializers;
+
+    @NotNull
+    private final View view;
+
+    private final ConcurrentHashMap<TypeToken<?>, ISerializer> resolved = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<TypeToken<?>, IStreamingSerializer> resolvedStreaming = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<ISerializer, SerializerRegistry> withoutOne = new ConcurrentHashMap<>();
+
+    private SerializerRegistry(@NotNull Collection<? extends ISerializer> serializers) {
+        for (ISerializer serializer : serializers) {
+            ISerializer.SerializerComparator.register(serializer);
+        }
+        TreeSet<ISerializer> sorted = new TreeSet<>(ISerializer.COMPARATOR);
+        sorted.addAll(serializers);
+        this.serializers = Collections.unmodifiableSortedSet(sorted);
+        this.view = new View(this);
+    }
+
+    @NotNull
+    public static SerializerRegistry empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @return the serializers every {@link SerializerUserHelper} starts with.
+     */
+    @NotNull
+    public static SerializerRegistry defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * @return the registry {@code serializers} is a view of, otherwise a registry of exactly {@code serializers}, shared
+     * by later calls with the same contents.
+     */
+    @NotNull
+    public static SerializerRegistry from(@NotNull Set<ISerializer> serializers) {
+        if (serializers instanceof View) {
+            return ((View) serializers).registry;
+        }
+        if (serializers.isEmpty()) {
+            return EMPTY;
+        }
+        Set<ISerializer> key = ImmutableSet.copyOf(serializers);
+        SerializerRegistry ret = FOREIGN.getIfPresent(key);
+        if (ret == null) {
+            ret = new SerializerRegistry(key);
+            FOREIGN.put(key, ret);
+        }
+        return ret;
+    }
+
+    @NotNull
+    public SerializerRegistry withAdded(@NotNull Collection<? extends ISerializer> added) {
+        if (added.isEmpty()) {
+            return this;
+        }
+        List<ISerializer> ret = new ArrayList<>(serializers);
+        {
+            ret.addAll(added);
+        }
+        return new SerializerRegistry(ret);
+    }
+
+    @NotNull
+    public SerializerRegistry withRemoved(@NotNull Collection<? extends ISerializer> removed) {
+        if (removed.isEmpty()) {
+            return this;
+        }
+        TreeSet<ISerializer> ret = new TreeSet<>(ISerializer.COMPARATOR);
+        {
+            ret.addAll(serializers);
+            ret.removeAll(removed);
+        }
+        return new SerializerRegistry(ret);
+    }
+
+    /**
+     * Like {@link #withRemoved(Collection)} for a single serializer, cached for decorators that hide themselves from
+     * what they wrap on every call.
+     */
+    @NotNull
+    public SerializerRegistry without(@NotNull ISerializer serializer) {
+        if (!serializers.contains(serializer)) {
+            return this;
+        }
+        SerializerRegistry ret = withoutOne.get(serializer);
+        if (ret == null) {
+            ret = withRemoved(Collections.singleton(serializer));
+            SerializerRegistry raced = withoutOne.putIfAbsent(serializer, ret);
+            if (raced != null) {
+                ret = raced;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return an unmodifiable view in priority order, the set to pass to {@link ISerializer} methods.
+     */
+    @NotNull
+    public SortedSet<ISerializer> getSerializers() {
+        return view;
+    }
+
+    /**
+     * @return the first serializer, in priority order, that accepts {@code type}.
+     */
+    @NotNull
+    public ISerializer findByClass(@NotNull TypeToken<?> type) {
+        ISerializer ret = resolved.get(type);
+        if (ret == null) {
+            for (ISerializer serializer : serializers) {
+                if (serializer.canSerialize(type)) {
+                    ret = serializer;
+                    break;
+                }
+            }
+            if (ret == null) {
+                throw SerializerUserHelper.SerializerNotFoundException.instantiate(serializers, type);
+            }
+            resolved.putIfAbsent(type, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Like {@link #findByClass(TypeToken)}, wrapping a serializer that does not stream in a
+     * {@link StreamingSerializerAdapter}.
+     */
+    @NotNull
+    public IStreamingSerializer findStreamingByClass(@NotNull TypeToken<?> type) {
+        IStreamingSerializer ret = resolvedStreaming.get(type);
+        if (ret == null) {
+            ret = StreamingSerializerAdapter.of(findByClass(type));
+            resolvedStreaming.putIfAbsent(type, ret);
+        }
+        return ret;
+    }
+
+    @NotNull
+    public <T> T deserializeByClass(@NotNull TypeToken<T> type, @NotNull byte[] serialized) {
+        return findByClass(type).deserialize(type, serialized, view);
+    }
+
+    @NotNull
+    public <T> T deserializeByClass(@NotNull TypeToken<T> type, @NotNull ByteBuffer serialized) {
+        return findStreamingByClass(type).deserialize(type, serialized, view);
+    }
+
+    @NotNull
+    public <T> byte[] serializeByClass(@NotNull TypeToken<T> type, @NotNull Object deserialized) {
+        return findByClass(type).serialize(type, deserialized, view);
+    }
+
+    public <T> void serializeByClass(@NotNull TypeToken<T> type, @NotNull Object deserialized, @NotNull OutputStream out) throws IOException {
+        findStreamingByClass(type).serialize(type, deserialized, out, view);
+    }
+
+    /**
+     * @return the type argument of {@code type} for the {@code index}-th type parameter of its raw type, e.g. the
+     * element type of a {@code List<String>}.
+     */
+    @NotNull
+    public static TypeToken<?> resolveTypeArgument(@NotNull TypeToken<?> type, int index) {
+        TypeToken<?>[] ret = TYPE_ARGUMENTS.get(type);
+        if (ret == null) {
+            TypeVariable<?>[] parameters = type.getRawType().getTypeParameters();
+            ret = new TypeToken<?>[parameters.length];
+            for (int i = 0; i < parameters.length; i++) {
+                ret[i] = type.resolveType(parameters[i]);
+            }
+            TYPE_ARGUMENTS.putIfAbsent(type, ret);
+        }
+        return ret[index];
+    }
+
+    private static final class View extends AbstractSet<ISerializer> implements SortedSet<ISerializer> {
+
+        @NotNull
+        private final SerializerRegistry registry;
+
+        private View(@NotNull SerializerRegistry registry) {
+            this.registry = registry;
+        }
+
+        @Override
+        public Iterator<ISerializer> iterator() {
+            return registry.serializers.iterator();
+        }
+
+        @Override
+        public int size() {
+            return registry.serializers.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return registry.serializers.contains(o);
+        }
+
+        @Override
+        public Comparator<? super ISerializer> comparator() {
+            return registry.serializers.comparator();
+        }
+
+        @Override
+        public SortedSet<ISerializer> subSet(ISerializer fromElement, ISerializer toElement) {
+            return registry.serializers.subSet(fromElement, toElement);
+        }
+
+        @Override
+        public SortedSet<ISerializer> headSet(ISerializer toElement) {
+            return registry.serializers.headSet(toElement);
+        }
+
+        @Override
+        public SortedSet<ISerializer> tailSet(ISerializer fromElement) {
+            return registry.serializers.tailSet(fromElement);
+        }
+
+        @Override
+        public ISerializer first() {
+            return registry.serializers.first();
+        }
+
+        @Override
+        public ISerializer last() {
+            return registry.serializers.last();
+        }
+
+    }
+
+}
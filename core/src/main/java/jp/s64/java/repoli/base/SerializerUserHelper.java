@@ -16,134 +16,206 @@
 
 package jp.s64.java.repoli.base;
 
-import com.google.common.collect.Lists;
 import com.google.common.reflect.TypeToken;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.SortedSet;
-import java.util.TreeSet;
 
 import jp.s64.java.repoli.core.IDataKey;
 import jp.s64.java.repoli.core.IRepositoryDataContainer;
 import jp.s64.java.repoli.core.ISerializer;
 import jp.s64.java.repoli.core.ISerializerUser;
-import jp.s64.java.repoli.internal.ReturningRepositoryDataContainer;
-import jp.s64.java.repoli.preset.serializer.ListSerializer;
-import jp.s64.java.repoli.preset.serializer.MapSerializer;
-import jp.s64.java.repoli.preset.serializer.SerializableSerializer;
-import jp.s64.java.repoli.preset.serializer.VoidSerializer;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
+import jp.s64.java.repoli.internal.LazyRepositoryDataContainer;
 
 public class SerializerUserHelper implements ISerializerUser {
 
-    private final SortedSet<ISerializer> serializers = new TreeSet<>(ISerializer.COMPARATOR);
+    private static final byte[] EMPTY_BYTES = new byte[0];
+
+    /**
+     * Replaced as a whole on every change; readers never lock.
+     */
+    private volatile SerializerRegistry registry = SerializerRegistry.defaults();
 
     public SerializerUserHelper() {
-        addSerializer(Lists.newArrayList(
-                VoidSerializer.INSTANCE,
-                ListSerializer.INSTANCE,
-                MapSerializer.INSTANCE,
-                SerializableSerializer.INSTANCE
-        ));
+
     }
 
     @Override
-    public void addSerializer(@NotNull ISerializer serializer) {
-        serializers.add(serializer);
+    public synchronized void addSerializer(@NotNull ISerializer serializer) {
+        registry = registry.withAdded(Collections.singleton(serializer));
     }
 
     @Override
-    public void addSerializer(@NotNull Collection<ISerializer> serializers) {
-        this.serializers.addAll(serializers);
+    public synchronized void addSerializer(@NotNull Collection<ISerializer> serializers) {
+        registry = registry.withAdded(serializers);
     }
 
     @Override
-    public void removeSerializer(@NotNull ISerializer serializer) {
-        serializers.remove(serializer);
+    public synchronized void removeSerializer(@NotNull ISerializer serializer) {
+        registry = registry.withRemoved(Collections.singleton(serializer));
     }
 
     @Override
-    public void removeSerializer(@NotNull Collection<ISerializer> serializers) {
-        this.serializers.removeAll(serializers);
+    public synchronized void removeSerializer(@NotNull Collection<ISerializer> serializers) {
+        registry = registry.withRemoved(serializers);
     }
 
     @Override
-    public void clearSerializer() {
-        serializers.clear();
+    public synchronized void clearSerializer() {
+        registry = SerializerRegistry.empty();
     }
 
+    /**
+     * @return an unmodifiable snapshot; later changes to this helper are not reflected in it.
+     */
     @NotNull
     public SortedSet<ISerializer> getSerializers() {
-        return serializers;
+        return registry.getSerializers();
+    }
+
+    @NotNull
+    public SerializerRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * @return the first serializer, in priority order, that accepts {@code type}.
+     */
+    @NotNull
+    public ISerializer findByClass(@NotNull TypeToken<?> type) {
+        return registry.findByClass(type);
     }
 
     @NotNull
     public <T> T deserializeByClass(@NotNull TypeToken<T> type, @NotNull byte[] serialized) {
-        for (ISerializer serializer : serializers) {
-            if (!serializer.canSerialize(type)) {
-                continue;
-            }
-            return serializer.deserialize(type, serialized, serializers);
-        }
-        throw SerializerNotFoundException.instantiate(serializers, type);
+        return registry.deserializeByClass(type, serialized);
+    }
+
+    /**
+     * Reads in place when the serializer for {@code type} is an {@link jp.s64.java.repoli.core.IStreamingSerializer},
+     * otherwise copies the remaining bytes into an array for it.
+     */
+    @NotNull
+    public <T> T deserializeByClass(@NotNull TypeToken<T> type, @NotNull ByteBuffer serialized) {
+        return registry.deserializeByClass(type, serialized);
     }
 
     @NotNull
     public <T> byte[] serializeByClass(@NotNull TypeToken<T> type, @NotNull Object deserialized) {
-        for (ISerializer serializer : serializers) {
-            if (!serializer.canSerialize(type)) {
-                continue;
-            }
-            return serializer.serialize(type, deserialized, serializers);
-        }
-        throw SerializerNotFoundException.instantiate(serializers, type);
+        return registry.serializeByClass(type, deserialized);
+    }
+
+    /**
+     * Writes straight into {@code out} when the serializer for {@code type} is an
+     * {@link jp.s64.java.repoli.core.IStreamingSerializer}, otherwise copies the array it returns.
+     */
+    public <T> void serializeByClass(@NotNull TypeToken<T> type, @NotNull Object deserialized, @NotNull OutputStream out) throws IOException {
+        registry.serializeByClass(type, deserialized, out);
     }
 
     @NotNull
-    public <T, A> ReturningRepositoryDataContainer<T, A> convertBytesToReturning(@NotNull IDataKey<T, A> key, @NotNull IRepositoryDataContainer<byte[], byte[]> bytes) {
-        ReturningRepositoryDataContainer<T, A> ret = new ReturningRepositoryDataContainer<>();
-        {
-            ret.setBody(deserializeByClass(
-                    key.getBodyType(),
-                    bytes.getBody() != null ? bytes.getBody() : new byte[0]
-            ));
-            ret.setAttachment(deserializeByClass(
-                    key.getAttachmentType(),
-                    bytes.getAttachment() != null ? bytes.getAttachment() : new byte[0]
-            ));
+    public <T, A> ImmutableRepositoryDataContainer<T, A> convertBytesToReturning(@NotNull IDataKey<T, A> key, @NotNull IRepositoryDataContainer<byte[], byte[]> bytes) {
+        return convertBytesToReturning(
+                key,
+                bytes.getBody(),
+                bytes.getAttachment(),
+                bytes.getSavedAtTimeMillis(),
+                bytes.getRequestedAtTimeMillis(),
+                bytes.getExpiresAtTimeMillis()
+        );
+    }
+
+    @NotNull
+    public <T, A> ImmutableRepositoryDataContainer<T, A> convertBytesToReturning(@NotNull IDataKey<T, A> key, @Nullable byte[] body, @Nullable byte[] attachment, @Nullable Long savedAtTimeMillis, @Nullable Long requestedAtTimeMillis) {
+        return convertBytesToReturning(key, body, attachment, savedAtTimeMillis, requestedAtTimeMillis, null);
+    }
+
+    @NotNull
+    public <T, A> ImmutableRepositoryDataContainer<T, A> convertBytesToReturning(@NotNull IDataKey<T, A> key, @Nullable byte[] body, @Nullable byte[] attachment, @Nullable Long savedAtTimeMillis, @Nullable Long requestedAtTimeMillis, @Nullable Long expiresAtTimeMillis) {
+        if (body == null && attachment == null) {
+            return ImmutableRepositoryDataContainer.of(null, null, savedAtTimeMillis, requestedAtTimeMillis, expiresAtTimeMillis);
         }
-        {
-            ret.setRequestedAtTimeMillis(bytes.getRequestedAtTimeMillis());
-            ret.setSavedAtTimeMillis(bytes.getSavedAtTimeMillis());
+        return ImmutableRepositoryDataContainer.of(
+                deserializeByClass(key.getBodyType(), body != null ? body : EMPTY_BYTES),
+                deserializeByClass(key.getAttachmentType(), attachment != null ? attachment : EMPTY_BYTES),
+                savedAtTimeMillis,
+                requestedAtTimeMillis,
+                expiresAtTimeMillis
+        );
+    }
+
+    /**
+     * Like {@link #convertBytesToReturning(IDataKey, IRepositoryDataContainer)}, but defers deserialization until the body or the attachment is read.
+     */
+    @NotNull
+    public <T, A> IRepositoryDataContainer<T, A> convertBytesToLazy(@NotNull IDataKey<T, A> key, @NotNull IRepositoryDataContainer<byte[], byte[]> bytes) {
+        if (bytes.getBody() == null && bytes.getAttachment() == null) {
+            return ImmutableRepositoryDataContainer.of(null, null, bytes.getSavedAtTimeMillis(), bytes.getRequestedAtTimeMillis(), bytes.getExpiresAtTimeMillis());
         }
-        return ret;
+        return new LazyRepositoryDataContainer<>(
+                this,
+                key.getBodyType(),
+                key.getAttachmentType(),
+                bytes.getBody(),
+                bytes.getAttachment(),
+                bytes.getSavedAtTimeMillis(),
+                bytes.getRequestedAtTimeMillis(),
+                bytes.getExpiresAtTimeMillis()
+        );
     }
 
+    /**
+     * Stamps {@code original} with the time it is saved at. A {@link LazyRepositoryDataContainer} read by this helper
+     * stays lazy, so {@link #convertContainerToBytes} can still pass its raw bytes through.
+     */
     @NotNull
-    public <T, A> IRepositoryDataContainer<byte[], byte[]> convertContainerToBytes(@NotNull IDataKey<T, A> key, @NotNull IRepositoryDataContainer<T, A> container) {
-        ReturningRepositoryDataContainer<byte[], byte[]> ret = new ReturningRepositoryDataContainer<>();
-        {
-            byte[] bodyBytes = serializeByClass(
-                    key.getBodyType(),
-                    container.getBody()
-            );
-            ret.setBody(bodyBytes.length > 0 ? bodyBytes : null);
+    public <T, A> IRepositoryDataContainer<T, A> withSavedAtTimeMillis(@NotNull IRepositoryDataContainer<T, A> original, @Nullable Long savedAtTimeMillis) {
+        if (original instanceof LazyRepositoryDataContainer && ((LazyRepositoryDataContainer<T, A>) original).isReadBy(this)) {
+            return ((LazyRepositoryDataContainer<T, A>) original).withSavedAtTimeMillis(savedAtTimeMillis);
         }
-        {
-            byte[] attachmentBytes = serializeByClass(
-                    key.getAttachmentType(),
-                    container.getAttachment()
-            );
-            ret.setAttachment(attachmentBytes.length > 0 ? attachmentBytes : null);
+        return ImmutableRepositoryDataContainer.copyOf(original, savedAtTimeMillis);
+    }
+
+    /**
+     * A {@link LazyRepositoryDataContainer} read by this helper and not deserialized yet is written as the bytes it was read from.
+     */
+    @NotNull
+    public <T, A> ImmutableRepositoryDataContainer<byte[], byte[]> convertContainerToBytes(@NotNull IDataKey<T, A> key, @NotNull IRepositoryDataContainer<T, A> container) {
+        if (container instanceof LazyRepositoryDataContainer && ((LazyRepositoryDataContainer<T, A>) container).isReadBy(this)) {
+            ImmutableRepositoryDataContainer<byte[], byte[]> raw = ((LazyRepositoryDataContainer<T, A>) container).getRaw();
+            if (raw != null) {
+                return raw;
+            }
         }
-        {
-            ret.setRequestedAtTimeMillis(container.getRequestedAtTimeMillis());
-            ret.setSavedAtTimeMillis(container.getSavedAtTimeMillis());
+        if (container.getBody() == null && container.getAttachment() == null) {
+            // keeps the negative entry marker.
+            return ImmutableRepositoryDataContainer.of(null, null, container.getSavedAtTimeMillis(), container.getRequestedAtTimeMillis(), container.getExpiresAtTimeMillis());
         }
-        return ret;
+        byte[] bodyBytes = serializeByClass(
+                key.getBodyType(),
+                container.getBody()
+        );
+        byte[] attachmentBytes = serializeByClass(
+                key.getAttachmentType(),
+                container.getAttachment()
+        );
+        return ImmutableRepositoryDataContainer.of(
+                bodyBytes.length > 0 ? bodyBytes : null,
+                attachmentBytes.length > 0 ? attachmentBytes : null,
+                container.getSavedAtTimeMillis(),
+                container.getRequestedAtTimeMillis(),
+                container.getExpiresAtTimeMillis()
+        );
     }
 
     public static class SerializerNotFoundException extends RuntimeException {
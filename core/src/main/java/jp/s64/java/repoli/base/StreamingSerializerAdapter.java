@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.base;
+
+import com.google.common.reflect.TypeToken;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+import jp.s64.java.repoli.core.ISerializer;
+import jp.s64.java.repoli.core.IStreamingSerializer;
+
+/**
+ * Presents an array-only {@link ISerializer} as an {@link IStreamingSerializer}: writes copy the returned array into
+ * the stream, and reads copy the buffer into an array unless it already is exactly one.
+ */
+public final class StreamingSerializerAdapter implements IStreamingSerializer {
+
+    @NotNull
+    private final ISerializer delegate;
+
+    private StreamingSerializerAdapter(@NotNull ISerializer delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return {@code serializer} itself if it already streams.
+     */
+    @NotNull
+    public static IStreamingSerializer of(@NotNull ISerializer serializer) {
+        if (serializer instanceof IStreamingSerializer) {
+            return (IStreamingSerializer) serializer;
+        }
+        return new StreamingSerializerAdapter(serializer);
+    }
+
+    @NotNull
+    public ISerializer getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public <T> void serialize(TypeToken<T> type, Object deserialized, OutputStream out, Set<ISerializer> serializers) throws IOException {
+        byte[] serialized = delegate.serialize(type, deserialized, serializers);
+        if (serialized != null) {
+            out.write(serialized);
+        }
+    }
+
+    @Override
+    public <T> T deserialize(TypeToken<T> type, ByteBuffer serialized, Set<ISerializer> serializers) {
+        return delegate.deserialize(type, BaseStreamingSerializer.toByteArray(serialized), serializers);
+    }
+
+    @Override
+    public <T> T deserialize(TypeToken<T> type, byte[] serialized, Set<ISerializer> serializers) {
+        return delegate.deserialize(type, serialized, serializers);
+    }
+
+    @Override
+    public <T> byte[] serialize(TypeToken<T> type, Object deserialized, Set<ISerializer> serializers) {
+        return delegate.serialize(type, deserialized, serializers);
+    }
+
+    @Override
+    public boolean canSerialize(TypeToken<?> type) {
+        return delegate.canSerialize(type);
+    }
+
+    @Override
+    public float getPriority() {
+        return delegate.getPriority();
+    }
+
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.core;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * An {@link IRepository} that gets many keys at once. It batches the calls to storages and providers implementing
+ * {@link IBatchStorage} and {@link IBatchProvider}, and calls others one key at a time.
+ */
+public interface IBatchRepository<TB, AB> extends IRepository<TB, AB> {
+
+    /**
+     * @return containers keyed by {@link IDataKey#getSerialized()}, in the iteration order of {@code keys}.
+     */
+    @NotNull
+    <T extends TB, A extends AB> Map<String, IRepositoryDataContainer<T, A>> getAll(@NotNull Collection<? extends IDataKey<T, A>> keys, @NotNull IStorage<TB, AB> storage, @NotNull IExpirePolicy<TB, AB> policy, @NotNull IProvider<TB, AB> provider);
+
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.core;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * An {@link IStorage} that reads, saves and removes many keys in one operation. Storages that only implement
+ * {@link IStorage} are called one key at a time instead, see {@link jp.s64.java.repoli.base.BatchHelper}.
+ */
+public interface IBatchStorage<TB, AB> extends IStorage<TB, AB> {
+
+    /**
+     * @return containers keyed by {@link IDataKey#getSerialized()}, in the iteration order of {@code keys}.
+     */
+    @NotNull
+    <T extends TB, A extends AB> Map<String, IRepositoryDataContainer<T, A>> getAll(@NotNull Collection<? extends IDataKey<T, A>> keys);
+
+    int removeAll(@NotNull Collection<? extends IDataKey<?, ?>> keys);
+
+    /**
+     * Saves {@code containers.get(key.getSerialized())} for every key in {@code keys} that has a container.
+     *
+     * @return saved containers keyed by {@link IDataKey#getSerialized()}.
+     */
+    @NotNull
+    <T extends TB, A extends AB> Map<String, IRepositoryDataContainer<T, A>> saveAll(@NotNull Collection<? extends IDataKey<T, A>> keys, @NotNull Map<String, ? extends IRepositoryDataContainer<T, A>> containers);
+
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.core;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A policy that can tell, when an entry is saved, the moment it expires for good.
+ * Storages may then drop the entry proactively instead of waiting for a read.
+ */
+public interface IDeadlinePolicy {
+
+    /**
+     * @param saved the entry as stored, with its saved-at time set.
+     * @return epoch millis after which {@code saved} is never served again, or null to keep it until removed.
+     */
+    @Nullable
+    Long getDeadlineTimeMillis(@NotNull IRepositoryDataContainer<?, ?> saved);
+
+}
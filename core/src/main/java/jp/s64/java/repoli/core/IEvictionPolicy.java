@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.core;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Chooses which entry a size-bounded storage drops when it goes over its budget.
+ * An instance tracks the entries of a single storage, which serializes every call.
+ */
+public interface IEvictionPolicy {
+
+    /**
+     * @param weight serialized size of the entry in bytes.
+     */
+    void onInsert(@NotNull String serializedKey, long weight);
+
+    /**
+     * Called when a tracked entry is overwritten; counts as an access.
+     */
+    void onUpdate(@NotNull String serializedKey, long weight);
+
+    void onAccess(@NotNull String serializedKey);
+
+    void onRemove(@NotNull String serializedKey);
+
+    /**
+     * Forgets the entry to drop next and returns its key.
+     *
+     * @return null when no entry is tracked.
+     */
+    @Nullable
+    String evict();
+
+}
@@ -32,4 +32,10 @@ public interface IRepositoryDataContainer<T, A> {
     @Nullable
     Long getRequestedAtTimeMillis();
 
+    /**
+     * @return the time this entry expires at, null when the policy in use decides it.
+     */
+    @Nullable
+    Long getExpiresAtTimeMillis();
+
 }
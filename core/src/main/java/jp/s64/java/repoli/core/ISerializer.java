@@ -16,6 +16,7 @@
 
 package jp.s64.java.repoli.core;
 
+import com.google.common.collect.MapMaker;
 import com.google.common.reflect.TypeToken;
 
 import org.jetbrains.annotations.NotNull;
@@ -23,6 +24,8 @@ import org.jetbrains.annotations.Nullable;
 
 import java.util.Comparator;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public interface ISerializer {
 
@@ -38,11 +41,49 @@ public interface ISerializer {
 
     float getPriority();
 
+    /**
+     * Orders by priority, then by class name, so that serializers sharing a priority can be registered together.
+     * Different instances of one class with one priority are ordered by when they were first registered.
+     */
     class SerializerComparator implements Comparator<ISerializer> {
 
+        private static final AtomicLong SEQUENCE = new AtomicLong();
+
+        private static final ConcurrentMap<ISerializer, Long> SEQUENCES = new MapMaker().weakKeys().makeMap();
+
         @Override
         public int compare(ISerializer o1, ISerializer o2) {
-            return Float.compare(o1.getPriority(), o2.getPriority());
+            int ret = Float.compare(o1.getPriority(), o2.getPriority());
+            if (ret != 0 || o1 == o2) {
+                return ret;
+            }
+            ret = o1.getClass().getName().compareTo(o2.getClass().getName());
+            if (ret != 0) {
+                return ret;
+            }
+            long s1 = sequence(o1);
+            long s2 = sequence(o2);
+            return s1 < s2 ? -1 : (s1 == s2 ? 0 : 1);
+        }
+
+        /**
+         * Takes the sequence number that orders {@code serializer} after every serializer registered before it, unless
+         * it has one.
+         */
+        public static void register(@NotNull ISerializer serializer) {
+            sequence(serializer);
+        }
+
+        private static long sequence(@NotNull ISerializer serializer) {
+            Long ret = SEQUENCES.get(serializer);
+            if (ret == null) {
+                Long created = SEQUENCE.incrementAndGet();
+                ret = SEQUENCES.putIfAbsent(serializer, created);
+                if (ret == null) {
+                    ret = created;
+                }
+            }
+            return ret;
         }
 
     }
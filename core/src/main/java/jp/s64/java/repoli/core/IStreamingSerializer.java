@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.core;
+
+import com.google.common.reflect.TypeToken;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+/**
+ * An {@link ISerializer} that writes into a caller's stream and reads from a caller's buffer, so that nobody has to
+ * copy the payload into an array of its own. Both forms must write and accept the same bytes as the array form.
+ */
+public interface IStreamingSerializer extends ISerializer {
+
+    /**
+     * Writes the payload into {@code out}, which is left open.
+     *
+     * @throws IOException if {@code out} fails.
+     */
+    <T> void serialize(@NotNull TypeToken<T> type, @Nullable Object deserialized, @NotNull OutputStream out, @NotNull Set<ISerializer> serializers) throws IOException;
+
+    /**
+     * Reads the payload between the position and the limit of {@code serialized}; the position is not changed.
+     */
+    @Nullable
+    <T> T deserialize(@NotNull TypeToken<T> type, @NotNull ByteBuffer serialized, @NotNull Set<ISerializer> serializers);
+
+}
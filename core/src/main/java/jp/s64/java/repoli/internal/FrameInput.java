@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.internal;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reads what {@link FrameOutput} wrote.
+ */
+public final class FrameInput {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @NotNull
+    private final byte[] buffer;
+
+    private final int limit;
+
+    private final int version;
+
+    private int position;
+
+    /**
+     * Reads {@code buffer} from {@code offset} up to, but not including, {@code limit}.
+     *
+     * @param version the format version the frame was written with, for readers that changed since.
+     */
+    public FrameInput(@NotNull byte[] buffer, int offset, int limit, int version) {
+        this.buffer = buffer;
+        this.position = offset;
+        this.limit = limit;
+        this.version = version;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int readByte() {
+        if (position >= limit) {
+            throw new MalformedFrameException("unexpected end of frame");
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    public int readVarint() {
+        int ret = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            ret |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return ret;
+            }
+        }
+        throw new MalformedFrameException("varint too long");
+    }
+
+    public int readSignedVarint() {
+        int ret = readVarint();
+        return (ret >>> 1) ^ -(ret & 1);
+    }
+
+    public long readVarlong() {
+        long ret = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = readByte();
+            ret |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return ret;
+            }
+        }
+        throw new MalformedFrameException("varint too long");
+    }
+
+    public long readSignedVarlong() {
+        long ret = readVarlong();
+        return (ret >>> 1) ^ -(ret & 1);
+    }
+
+    public int readFixed32() {
+        if (limit - position < 4) {
+            throw new MalformedFrameException("unexpected end of frame");
+        }
+        int ret = (buffer[position] & 0xff)
+                | (buffer[position + 1] & 0xff) << 8
+                | (buffer[position + 2] & 0xff) << 16
+                | (buffer[position + 3] & 0xff) << 24;
+        position += 4;
+        return ret;
+    }
+
+    public long readFixed64() {
+        return (readFixed32() & 0xffffffffL) | (long) readFixed32() << 32;
+    }
+
+    @Nullable
+    public String readString() {
+        int length = readLength();
+        if (length < 0) {
+            return null;
+        }
+        String ret = new String(buffer, position, length, UTF_8);
+        position += length;
+        return ret;
+    }
+
+    /**
+     * @return a count written as {@code count + 1}, or {@code -1} for the null marker.
+     */
+    public int readCount() {
+        // every element takes at least one byte.
+        return readCount(1);
+    }
+
+    /**
+     * Like {@link #readCount()}, for elements packed up to {@code perByte} into a byte.
+     */
+    public int readCount(int perByte) {
+        int ret = readVarint() - 1;
+        if (ret > (long) (limit - position) * perByte) {
+            throw new MalformedFrameException("count out of range: " + ret);
+        }
+        return ret;
+    }
+
+    @Nullable
+    public byte[] readBytes() {
+        int length = readLength();
+        if (length < 0) {
+            return null;
+        }
+        byte[] ret = Arrays.copyOfRange(buffer, position, position + length);
+        position += length;
+        return ret;
+    }
+
+    /**
+     * Like {@link #readBytes()}, but returns a buffer over the bytes in place instead of a copy.
+     */
+    @Nullable
+    public ByteBuffer readSlice() {
+        int length = readLength();
+        if (length < 0) {
+            return null;
+        }
+        ByteBuffer ret = ByteBuffer.wrap(buffer, position, length);
+        position += length;
+        return ret;
+    }
+
+    public boolean isFinished() {
+        return position == limit;
+    }
+
+    private int readLength() {
+        int ret = readVarint() - 1;
+        if (ret > limit - position) {
+            throw new MalformedFrameException("length out of range: " + ret);
+        }
+        return ret;
+    }
+
+    public static class MalformedFrameException extends RuntimeException {
+
+        public MalformedFrameException(String message) {
+            super(message);
+        }
+
+        public MalformedFrameException(Throwable throwable) {
+            super(throwable);
+        }
+
+    }
+
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.internal;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A growable buffer for length-prefixed binary frames. Lengths and counts are unsigned LEB128 varints.
+ * <p>
+ * It is also an {@link OutputStream} that never throws, so streaming serializers can write into it directly.
+ */
+public final class FrameOutput extends OutputStream {
+
+    @NotNull
+    private byte[] buffer;
+
+    private int length;
+
+    public FrameOutput(int initialCapacity) {
+        buffer = new byte[Math.max(16, initialCapacity)];
+    }
+
+    public void writeByte(int value) {
+        ensure(1);
+        buffer[length++] = (byte) value;
+    }
+
+    @Override
+    public void write(int b) {
+        writeByte(b);
+    }
+
+    @Override
+    public void write(@NotNull byte[] bytes, int offset, int count) {
+        ensure(count);
+        System.arraycopy(bytes, offset, buffer, length, count);
+        length += count;
+    }
+
+    public void writeVarint(int value) {
+        ensure(5);
+        while ((value & ~0x7f) != 0) {
+            buffer[length++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[length++] = (byte) value;
+    }
+
+    /**
+     * Writes {@code value} zigzag-encoded, so that small negative values stay short.
+     */
+    public void writeSignedVarint(int value) {
+        writeVarint((value << 1) ^ (value >> 31));
+    }
+
+    public void writeVarlong(long value) {
+        ensure(10);
+        while ((value & ~0x7fL) != 0) {
+            buffer[length++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[length++] = (byte) value;
+    }
+
+    public void writeSignedVarlong(long value) {
+        writeVarlong((value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Writes {@code value} as four little-endian bytes.
+     */
+    public void writeFixed32(int value) {
+        ensure(4);
+        buffer[length++] = (byte) value;
+        buffer[length++] = (byte) (value >>> 8);
+        buffer[length++] = (byte) (value >>> 16);
+        buffer[length++] = (byte) (value >>> 24);
+    }
+
+    public void writeFixed64(long value) {
+        writeFixed32((int) value);
+        writeFixed32((int) (value >>> 32));
+    }
+
+    /**
+     * Writes the UTF-8 length plus one, {@code 0} for null, then the UTF-8 bytes, encoded in place. An unpaired
+     * surrogate is written as {@code '?'}, as {@link String#getBytes(java.nio.charset.Charset)} does.
+     */
+    public void writeString(@Nullable String value) {
+        if (value == null) {
+            writeVarint(0);
+            return;
+        }
+        int size = utf8Length(value);
+        writeVarint(size + 1);
+        ensure(size);
+        byte[] b = buffer;
+        int p = length;
+        int chars = value.length();
+        for (int i = 0; i < chars; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                b[p++] = (byte) c;
+            } else if (c < 0x800) {
+                b[p++] = (byte) (0xc0 | (c >> 6));
+                b[p++] = (byte) (0x80 | (c & 0x3f));
+            } else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+                b[p++] = (byte) (0xe0 | (c >> 12));
+                b[p++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                b[p++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < chars && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                b[p++] = (byte) (0xf0 | (codePoint >> 18));
+                b[p++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                b[p++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                b[p++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else {
+                b[p++] = '?';
+            }
+        }
+        length = p;
+    }
+
+    /**
+     * Writes the length plus one, {@code 0} for null, then the bytes.
+     */
+    public void writeBytes(@Nullable byte[] bytes) {
+        if (bytes == null) {
+            writeVarint(0);
+            return;
+        }
+        writeVarint(bytes.length + 1);
+        write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Starts a section that is written through this stream and then closed by {@link #endBytes(int)}, which prefixes
+     * it like {@link #writeBytes(byte[])} without copying it out first.
+     *
+     * @return the mark to pass to {@link #endBytes(int)}.
+     */
+    public int beginBytes() {
+        // one byte is enough for the prefix of a section shorter than 127 bytes.
+        writeByte(0);
+        return length;
+    }
+
+    public void endBytes(int mark) {
+        int size = length - mark;
+        int prefix = varintSize(size + 1);
+        if (prefix > 1) {
+            ensure(prefix - 1);
+            System.arraycopy(buffer, mark, buffer, mark + prefix - 1, size);
+        }
+        length = mark - 1;
+        writeVarint(size + 1);
+        length += size;
+    }
+
+    /**
+     * Copies what has been written into {@code out}.
+     */
+    public void writeTo(@NotNull OutputStream out) throws IOException {
+        out.write(buffer, 0, length);
+    }
+
+    public int size() {
+        return length;
+    }
+
+    @NotNull
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    private static int utf8Length(@NotNull String value) {
+        int chars = value.length();
+        int ret = chars;
+        for (int i = 0; i < chars; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                ret += 1;
+            } else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+                ret += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < chars && Character.isLowSurrogate(value.charAt(i + 1))) {
+                // two chars, four bytes.
+                ret += 2;
+                i++;
+            }
+        }
+        return ret;
+    }
+
+    private static int varintSize(int value) {
+        int ret = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            ret++;
+        }
+        return ret;
+    }
+
+    private void ensure(int more) {
+        if (length + more > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + more));
+        }
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.internal;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+
+/**
+ * A container that never changes after construction, so it can be shared between storages,
+ * repositories and callers without defensive copies. Use the {@code with*} methods to derive a modified one.
+ */
+public final class ImmutableRepositoryDataContainer<T, A> implements IRepositoryDataContainer<T, A> {
+
+    private static final ImmutableRepositoryDataContainer<Object, Object> EMPTY = new ImmutableRepositoryDataContainer<>(null, null, null, null, null);
+
+    @Nullable
+    private final T body;
+
+    @Nullable
+    private final A attachment;
+
+    @Nullable
+    private final Long savedAtTimeMillis;
+
+    @Nullable
+    private final Long requestedAtTimeMillis;
+
+    @Nullable
+    private final Long expiresAtTimeMillis;
+
+    private ImmutableRepositoryDataContainer(@Nullable T body, @Nullable A attachment, @Nullable Long savedAtTimeMillis, @Nullable Long requestedAtTimeMillis, @Nullable Long expiresAtTimeMillis) {
+        this.body = body;
+        this.attachment = attachment;
+        this.savedAtTimeMillis = savedAtTimeMillis;
+        this.requestedAtTimeMillis = requestedAtTimeMillis;
+        this.expiresAtTimeMillis = expiresAtTimeMillis;
+    }
+
+    @NotNull
+    @SuppressWarnings("unchecked")
+    public static <T, A> ImmutableRepositoryDataContainer<T, A> empty() {
+        return (ImmutableRepositoryDataContainer<T, A>) EMPTY;
+    }
+
+    @NotNull
+    public static <T, A> ImmutableRepositoryDataContainer<T, A> of(@Nullable T body, @Nullable A attachment, @Nullable Long savedAtTimeMillis, @Nullable Long requestedAtTimeMillis) {
+        return of(body, attachment, savedAtTimeMillis, requestedAtTimeMillis, null);
+    }
+
+    @NotNull
+    public static <T, A> ImmutableRepositoryDataContainer<T, A> of(@Nullable T body, @Nullable A attachment, @Nullable Long savedAtTimeMillis, @Nullable Long requestedAtTimeMillis, @Nullable Long expiresAtTimeMillis) {
+        if (body == null && attachment == null && savedAtTimeMillis == null && requestedAtTimeMillis == null && expiresAtTimeMillis == null) {
+            return empty();
+        }
+        return new ImmutableRepositoryDataContainer<>(body, attachment, savedAtTimeMillis, requestedAtTimeMillis, expiresAtTimeMillis);
+    }
+
+    /**
+     * @return {@code original} itself when it is already immutable, otherwise a snapshot of it.
+     */
+    @NotNull
+    public static <T, A> ImmutableRepositoryDataContainer<T, A> copyOf(@NotNull IRepositoryDataContainer<T, A> original) {
+        if (original instanceof ImmutableRepositoryDataContainer) {
+            return (ImmutableRepositoryDataContainer<T, A>) original;
+        }
+        return of(original.getBody(), original.getAttachment(), original.getSavedAtTimeMillis(), original.getRequestedAtTimeMillis(), original.getExpiresAtTimeMillis());
+    }
+
+    /**
+     * Like {@link #copyOf(IRepositoryDataContainer)} followed by {@link #withSavedAtTimeMillis(Long)}, with one allocation at most.
+     */
+    @NotNull
+    public static <T, A> ImmutableRepositoryDataContainer<T, A> copyOf(@NotNull IRepositoryDataContainer<T, A> original, @Nullable Long savedAtTimeMillis) {
+        if (original instanceof ImmutableRepositoryDataContainer) {
+            return ((ImmutableRepositoryDataContainer<T, A>) original).withSavedAtTimeMillis(savedAtTimeMillis);
+        }
+        return of(original.getBody(), original.getAttachment(), savedAtTimeMillis, original.getRequestedAtTimeMillis(), original.getExpiresAtTimeMillis());
+    }
+
+    @Nullable
+    @Override
+    public T getBody() {
+        return body;
+    }
+
+    @Nullable
+    @Override
+    public A getAttachment() {
+        return attachment;
+    }
+
+    @Nullable
+    @Override
+    public Long getSavedAtTimeMillis() {
+        return savedAtTimeMillis;
+    }
+
+    @Nullable
+    @Override
+    public Long getRequestedAtTimeMillis() {
+        return requestedAtTimeMillis;
+    }
+
+    @Nullable
+    @Override
+    public Long getExpiresAtTimeMillis() {
+        return expiresAtTimeMillis;
+    }
+
+    @NotNull
+    public ImmutableRepositoryDataContainer<T, A> withBody(@Nullable T body) {
+        return body == this.body ? this : of(body, attachment, savedAtTimeMillis, requestedAtTimeMillis, expiresAtTimeMillis);
+    }
+
+    @NotNull
+    public ImmutableRepositoryDataContainer<T, A> withAttachment(@Nullable A attachment) {
+        return attachment == this.attachment ? this : of(body, attachment, savedAtTimeMillis, requestedAtTimeMillis, expiresAtTimeMillis);
+    }
+
+    @NotNull
+    public ImmutableRepositoryDataContainer<T, A> withSavedAtTimeMillis(@Nullable Long savedAtTimeMillis) {
+        return equals(savedAtTimeMillis, this.savedAtTimeMillis) ? this : of(body, attachment, savedAtTimeMillis, requestedAtTimeMillis, expiresAtTimeMillis);
+    }
+
+    @NotNull
+    public ImmutableRepositoryDataContainer<T, A> withRequestedAtTimeMillis(@Nullable Long requestedAtTimeMillis) {
+        return equals(requestedAtTimeMillis, this.requestedAtTimeMillis) ? this : of(body, attachment, savedAtTimeMillis, requestedAtTimeMillis, expiresAtTimeMillis);
+    }
+
+    @NotNull
+    public ImmutableRepositoryDataContainer<T, A> withExpiresAtTimeMillis(@Nullable Long expiresAtTimeMillis) {
+        return equals(expiresAtTimeMillis, this.expiresAtTimeMillis) ? this : of(body, attachment, savedAtTimeMillis, requestedAtTimeMillis, expiresAtTimeMillis);
+    }
+
+    private static boolean equals(@Nullable Long a, @Nullable Long b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.internal;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.core.IRepositoryDataMetadata;
+
+public final class ImmutableRepositoryDataMetadata implements IRepositoryDataMetadata {
+
+    private static final ImmutableRepositoryDataMetadata EMPTY = new ImmutableRepositoryDataMetadata(null, null, null, 0, 0, null);
+
+    @Nullable
+    private final Long savedAtTimeMillis;
+
+    @Nullable
+    private final Long requestedAtTimeMillis;
+
+    @Nullable
+    private final Long expiresAtTimeMillis;
+
+    private final int bodySize;
+
+    private final int attachmentSize;
+
+    @Nullable
+    private final String relatedKey;
+
+    private ImmutableRepositoryDataMetadata(@Nullable Long savedAtTimeMillis, @Nullable Long requestedAtTimeMillis, @Nullable Long expiresAtTimeMillis, int bodySize, int attachmentSize, @Nullable String relatedKey) {
+        this.savedAtTimeMillis = savedAtTimeMillis;
+        this.requestedAtTimeMillis = requestedAtTimeMillis;
+        this.expiresAtTimeMillis = expiresAtTimeMillis;
+        this.bodySize = bodySize;
+        this.attachmentSize = attachmentSize;
+        this.relatedKey = relatedKey;
+    }
+
+    @NotNull
+    public static ImmutableRepositoryDataMetadata empty() {
+        return EMPTY;
+    }
+
+    @NotNull
+    public static ImmutableRepositoryDataMetadata of(@Nullable Long savedAtTimeMillis, @Nullable Long requestedAtTimeMillis, int bodySize, int attachmentSize, @Nullable String relatedKey) {
+        return of(savedAtTimeMillis, requestedAtTimeMillis, null, bodySize, attachmentSize, relatedKey);
+    }
+
+    @NotNull
+    public static ImmutableRepositoryDataMetadata of(@Nullable Long savedAtTimeMillis, @Nullable Long requestedAtTimeMillis, @Nullable Long expiresAtTimeMillis, int bodySize, int attachmentSize, @Nullable String relatedKey) {
+        if (savedAtTimeMillis == null && requestedAtTimeMillis == null && expiresAtTimeMillis == null && bodySize == 0 && attachmentSize == 0 && relatedKey == null) {
+            return EMPTY;
+        }
+        return new ImmutableRepositoryDataMetadata(savedAtTimeMillis, requestedAtTimeMillis, expiresAtTimeMillis, bodySize, attachmentSize, relatedKey);
+    }
+
+    /**
+     * @param relatedKey the related key {@code raw} was saved with, used only when {@code raw} exists.
+     */
+    @NotNull
+    public static ImmutableRepositoryDataMetadata of(@NotNull IRepositoryDataContainer<byte[], byte[]> raw, @Nullable String relatedKey) {
+        byte[] body = raw.getBody();
+        byte[] attachment = raw.getAttachment();
+        return of(
+                raw.getSavedAtTimeMillis(),
+                raw.getRequestedAtTimeMillis(),
+                raw.getExpiresAtTimeMillis(),
+                body != null ? body.length : 0,
+                attachment != null ? attachment.length : 0,
+                raw.getSavedAtTimeMillis() != null ? relatedKey : null
+        );
+    }
+
+    @Nullable
+    @Override
+    public Long getSavedAtTimeMillis() {
+        return savedAtTimeMillis;
+    }
+
+    @Nullable
+    @Override
+    public Long getRequestedAtTimeMillis() {
+        return requestedAtTimeMillis;
+    }
+
+    @Nullable
+    @Override
+    public Long getExpiresAtTimeMillis() {
+        return expiresAtTimeMillis;
+    }
+
+    @Override
+    public int getBodySize() {
+        return bodySize;
+    }
+
+    @Override
+    public int getAttachmentSize() {
+        return attachmentSize;
+    }
+
+    @Nullable
+    @Override
+    public String getRelatedKey() {
+        return relatedKey;
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.internal;
+
+import com.google.common.reflect.TypeToken;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import jp.s64.java.repoli.base.SerializerUserHelper;
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+
+/**
+ * Keeps the raw bytes of an entry and deserializes the body and the attachment separately,
+ * each only once and only when it is first read.
+ */
+public final class LazyRepositoryDataContainer<T, A> implements IRepositoryDataContainer<T, A> {
+
+    private static final Object UNRESOLVED = new Object();
+    private static final byte[] EMPTY_BYTES = new byte[0];
+
+    @NotNull
+    private final SerializerUserHelper helper;
+
+    @NotNull
+    private final TypeToken<T> bodyType;
+
+    @NotNull
+    private final TypeToken<A> attachmentType;
+
+    @Nullable
+    private byte[] rawBody;
+
+    @Nullable
+    private byte[] rawAttachment;
+
+    @Nullable
+    private final Long savedAtTimeMillis;
+
+    @Nullable
+    private final Long requestedAtTimeMillis;
+
+    @Nullable
+    private final Long expiresAtTimeMillis;
+
+    private final boolean blank;
+
+    private volatile Object body = UNRESOLVED;
+    private volatile Object attachment = UNRESOLVED;
+
+    public LazyRepositoryDataContainer(@NotNull SerializerUserHelper helper, @NotNull TypeToken<T> bodyType, @NotNull TypeToken<A> attachmentType, @Nullable byte[] rawBody, @Nullable byte[] rawAttachment, @Nullable Long savedAtTimeMillis, @Nullable Long requestedAtTimeMillis, @Nullable Long expiresAtTimeMillis) {
+        this(helper, bodyType, attachmentType, rawBody, rawAttachment, savedAtTimeMillis, requestedAtTimeMillis, expiresAtTimeMillis, rawBody == null && rawAttachment == null);
+    }
+
+    /**
+     * @param blank whether the entry was read without bytes, which the raw fields no longer tell once deserialized.
+     */
+    private LazyRepositoryDataContainer(@NotNull SerializerUserHelper helper, @NotNull TypeToken<T> bodyType, @NotNull TypeToken<A> attachmentType, @Nullable byte[] rawBody, @Nullable byte[] rawAttachment, @Nullable Long savedAtTimeMillis, @Nullable Long requestedAtTimeMillis, @Nullable Long expiresAtTimeMillis, boolean blank) {
+        this.helper = helper;
+        this.bodyType = bodyType;
+        this.attachmentType = attachmentType;
+        this.rawBody = rawBody;
+        this.rawAttachment = rawAttachment;
+        this.savedAtTimeMillis = savedAtTimeMillis;
+        this.requestedAtTimeMillis = requestedAtTimeMillis;
+        this.expiresAtTimeMillis = expiresAtTimeMillis;
+        this.blank = blank;
+    }
+
+    @Nullable
+    @Override
+    @SuppressWarnings("unchecked")
+    public T getBody() {
+        Object ret = body;
+        if (ret == UNRESOLVED) {
+            synchronized (this) {
+                ret = body;
+                if (ret == UNRESOLVED) {
+                    ret = helper.deserializeByClass(bodyType, rawBody != null ? rawBody : EMPTY_BYTES);
+                    body = ret;
+                    rawBody = null;
+                }
+            }
+        }
+        return (T) ret;
+    }
+
+    @Nullable
+    @Override
+    @SuppressWarnings("unchecked")
+    public A getAttachment() {
+        Object ret = attachment;
+        if (ret == UNRESOLVED) {
+            synchronized (this) {
+                ret = attachment;
+                if (ret == UNRESOLVED) {
+                    ret = helper.deserializeByClass(attachmentType, rawAttachment != null ? rawAttachment : EMPTY_BYTES);
+                    attachment = ret;
+                    rawAttachment = null;
+                }
+            }
+        }
+        return (A) ret;
+    }
+
+    @Nullable
+    @Override
+    public Long getSavedAtTimeMillis() {
+        return savedAtTimeMillis;
+    }
+
+    @Nullable
+    @Override
+    public Long getRequestedAtTimeMillis() {
+        return requestedAtTimeMillis;
+    }
+
+    @Nullable
+    @Override
+    public Long getExpiresAtTimeMillis() {
+        return expiresAtTimeMillis;
+    }
+
+    /**
+     * @return true when neither raw body nor raw attachment was read. Storages keep blank entries without bytes,
+     * so this is decided without deserializing.
+     */
+    public boolean isBlank() {
+        return blank;
+    }
+
+    /**
+     * @return whether this container deserializes with {@code helper}, so its raw bytes are what {@code helper} would write.
+     */
+    public boolean isReadBy(@NotNull SerializerUserHelper helper) {
+        return this.helper == helper;
+    }
+
+    /**
+     * @return the raw bytes this container was read from, or null once the body or the attachment has been
+     * deserialized, since the caller may have changed what it got.
+     */
+    @Nullable
+    public synchronized ImmutableRepositoryDataContainer<byte[], byte[]> getRaw() {
+        if (body != UNRESOLVED || attachment != UNRESOLVED) {
+            return null;
+        }
+        return ImmutableRepositoryDataContainer.of(rawBody, rawAttachment, savedAtTimeMillis, requestedAtTimeMillis, expiresAtTimeMillis);
+    }
+
+    /**
+     * @return a container sharing the bytes and the deserialized values of this one.
+     */
+    @NotNull
+    public LazyRepositoryDataContainer<T, A> withSavedAtTimeMillis(@Nullable Long savedAtTimeMillis) {
+        LazyRepositoryDataContainer<T, A> ret;
+        synchronized (this) {
+            ret = new LazyRepositoryDataContainer<>(helper, bodyType, attachmentType, rawBody, rawAttachment, savedAtTimeMillis, requestedAtTimeMillis, expiresAtTimeMillis, blank);
+            ret.body = body;
+            ret.attachment = attachment;
+        }
+        return ret;
+    }
+
+    public boolean isBodyResolved() {
+        return body != UNRESOLVED;
+    }
+
+    public boolean isAttachmentResolved() {
+        return attachment != UNRESOLVED;
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.internal;
+
+import org.jetbrains.annotations.NotNull;
+
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.core.IRepositoryDataMetadata;
+
+/**
+ * A negative entry records that the provider answered a request with neither body nor attachment.
+ * It is stored like any other entry, with both raw bytes left null as the marker.
+ */
+public final class NegativeEntries {
+
+    private NegativeEntries() {
+    }
+
+    /**
+     * @return true when {@code container} is a provider miss that has not been saved yet.
+     */
+    public static boolean isMissResponse(@NotNull IRepositoryDataContainer<?, ?> container) {
+        return isBlank(container) && container.getRequestedAtTimeMillis() != null && container.getSavedAtTimeMillis() == null;
+    }
+
+    /**
+     * @return true when {@code container} is a saved provider miss.
+     */
+    public static boolean isNegative(@NotNull IRepositoryDataContainer<?, ?> container) {
+        return isBlank(container) && container.getRequestedAtTimeMillis() != null && container.getSavedAtTimeMillis() != null;
+    }
+
+    /**
+     * Like {@link #isNegative(IRepositoryDataContainer)}, without deserializing the entry.
+     */
+    public static boolean isNegative(@NotNull IRepositoryDataMetadata metadata) {
+        return metadata.getBodySize() == 0 && metadata.getAttachmentSize() == 0 && metadata.getRequestedAtTimeMillis() != null && metadata.getSavedAtTimeMillis() != null;
+    }
+
+    /**
+     * @return true when {@code container} has neither body nor attachment. A {@link LazyRepositoryDataContainer}
+     * answers from its raw bytes, without deserializing them.
+     */
+    public static boolean isBlank(@NotNull IRepositoryDataContainer<?, ?> container) {
+        if (container instanceof LazyRepositoryDataContainer) {
+            return ((LazyRepositoryDataContainer<?, ?>) container).isBlank();
+        }
+        return container.getBody() == null && container.getAttachment() == null;
+    }
+
+}
@@ -35,6 +35,9 @@ public class ReturningRepositoryDataContainer<T, A> implements IRepositoryDataCo
     @Nullable
     private Long requestedAtTimeMillis = null;
 
+    @Nullable
+    private Long expiresAtTimeMillis = null;
+
     public ReturningRepositoryDataContainer() {
 
     }
@@ -44,6 +47,7 @@ public class ReturningRepositoryDataContainer<T, A> implements IRepositoryDataCo
         setAttachment(original.getAttachment());
         setSavedAtTimeMillis(original.getSavedAtTimeMillis());
         setRequestedAtTimeMillis(original.getRequestedAtTimeMillis());
+        setExpiresAtTimeMillis(original.getExpiresAtTimeMillis());
     }
 
     @Nullable
@@ -86,4 +90,14 @@ public class ReturningRepositoryDataContainer<T, A> implements IRepositoryDataCo
         this.requestedAtTimeMillis = requestedAtTimeMillis;
     }
 
+    @Nullable
+    @Override
+    public Long getExpiresAtTimeMillis() {
+        return expiresAtTimeMillis;
+    }
+
+    public void setExpiresAtTimeMillis(@Nullable Long expiresAtTimeMillis) {
+        this.expiresAtTimeMillis = expiresAtTimeMillis;
+    }
+
 }
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.internal;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hierarchical timing wheel of four levels with 64 slots each, so it covers 2^24 ticks before deadlines wrap.
+ * Scheduling and cancelling are O(1); advancing costs O(1) per elapsed tick plus each timer's few cascades.
+ * Not thread-safe.
+ */
+public final class TimingWheel {
+
+    private static final int BITS = 6;
+    private static final int SIZE = 1 << BITS;
+    private static final int MASK = SIZE - 1;
+    private static final int LEVELS = 4;
+
+    private final long tickMillis;
+
+    @NotNull
+    private final Node[][] slots = new Node[LEVELS][SIZE];
+
+    private final Map<String, Node> nodes = new HashMap<>();
+
+    private long currentTick;
+
+    public TimingWheel(long tickMillis, long nowMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be positive: " + tickMillis);
+        }
+        this.tickMillis = tickMillis;
+        this.currentTick = nowMillis / tickMillis;
+        for (Node[] level : slots) {
+            for (int i = 0; i < SIZE; i++) {
+                level[i] = new Node(null, 0);
+            }
+        }
+    }
+
+    /**
+     * Replaces any timer of {@code key}. A deadline already passed fires on the next tick.
+     */
+    public void schedule(@NotNull String key, long deadlineMillis) {
+        cancel(key);
+        Node node = new Node(key, (deadlineMillis + tickMillis - 1) / tickMillis);
+        nodes.put(key, node);
+        place(node, currentTick + 1);
+    }
+
+    public boolean cancel(@NotNull String key) {
+        Node node = nodes.remove(key);
+        if (node == null) {
+            return false;
+        }
+        node.unlink();
+        return true;
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * @return keys whose deadlines passed by {@code nowMillis}; their timers are gone.
+     */
+    @NotNull
+    public List<String> advance(long nowMillis) {
+        List<String> ret = new ArrayList<>();
+        long target = nowMillis / tickMillis;
+        while (currentTick < target) {
+            long tick = ++currentTick;
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((tick & ((1L << (BITS * level)) - 1)) == 0) {
+                    cascade(slots[level][(int) ((tick >> (BITS * level)) & MASK)], tick);
+                }
+            }
+            Node head = slots[0][(int) (tick & MASK)];
+            while (head.next != head) {
+                Node node = head.next;
+                node.unlink();
+                nodes.remove(node.key);
+                ret.add(node.key);
+            }
+        }
+        return ret;
+    }
+
+    private void cascade(@NotNull Node head, long tick) {
+        Node node = head.next;
+        head.prev = head;
+        head.next = head;
+        while (node != head) {
+            Node next = node.next;
+            place(node, tick);
+            node = next;
+        }
+    }
+
+    /**
+     * Files {@code node} in the lowest level whose slot for its deadline comes round again at or after {@code minimumTick}.
+     */
+    private void place(@NotNull Node node, long minimumTick) {
+        long deadline = Math.max(node.deadlineTick, minimumTick);
+        long now = minimumTick - 1;
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = BITS * level;
+            if ((deadline >> shift) - (now >> shift) <= SIZE || level == LEVELS - 1) {
+                long slot = Math.min(deadline >> shift, (now >> shift) + SIZE);
+                slots[level][(int) (slot & MASK)].append(node);
+                return;
+            }
+        }
+    }
+
+    private static class Node {
+
+        @Nullable
+        private final String key;
+
+        private final long deadlineTick;
+
+        private Node prev = this;
+        private Node next = this;
+
+        private Node(@Nullable String key, long deadlineTick) {
+            this.key = key;
+            this.deadlineTick = deadlineTick;
+        }
+
+        private void append(@NotNull Node node) {
+            node.prev = prev;
+            node.next = this;
+            prev.next = node;
+            prev = node;
+        }
+
+        private void unlink() {
+            prev.next = next;
+            next.prev = prev;
+            prev = this;
+            next = this;
+        }
+
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import jp.s64.java.repoli.core.IEvictionListener;
+import jp.s64.java.repoli.core.IEvictionPolicy;
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.core.IRepositoryDataMetadata;
+
+/**
+ * Keeps the serialized bodies and attachments within a byte budget, evicting entries chosen by an {@link IEvictionPolicy}.
+ * Evicted entries also leave their related key group. Every method is synchronized.
+ */
+public class BoundedOnMemoryStorage<TB, BA> extends SimpleOnMemoryStorage<TB, BA> {
+
+    private final long maximumBytes;
+
+    @NotNull
+    private final IEvictionPolicy policy;
+
+    @Nullable
+    private final IEvictionListener listener;
+
+    private long currentBytes = 0;
+    private boolean evicting = false;
+
+    public BoundedOnMemoryStorage(long maximumBytes, @NotNull IEvictionPolicy policy) {
+        this(maximumBytes, policy, null);
+    }
+
+    public BoundedOnMemoryStorage(long maximumBytes, @NotNull IEvictionPolicy policy, @Nullable IEvictionListener listener) {
+        if (maximumBytes < 0) {
+            throw new IllegalArgumentException("maximumBytes must not be negative: " + maximumBytes);
+        }
+        this.maximumBytes = maximumBytes;
+        this.policy = policy;
+        this.listener = listener;
+    }
+
+    public long getMaximumBytes() {
+        return maximumBytes;
+    }
+
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    @Override
+    public synchronized IRepositoryDataContainer<byte[], byte[]> getBySerializedKey(String serializedKey) {
+        policy.onAccess(serializedKey);
+        return super.getBySerializedKey(serializedKey);
+    }
+
+    @Override
+    public synchronized IRepositoryDataMetadata getMetadataBySerializedKey(String serializedKey, String relatedKey) {
+        return super.getMetadataBySerializedKey(serializedKey, relatedKey);
+    }
+
+    @Override
+    public synchronized int removeBySerializedKey(String serializedKey) {
+        return super.removeBySerializedKey(serializedKey);
+    }
+
+    @Override
+    public synchronized int removeRelativesByRelatedKey(String relatedKey) {
+        return super.removeRelativesByRelatedKey(relatedKey);
+    }
+
+    @Override
+    public synchronized void saveBySerializedKey(String serializedKey, String relatedKey, IRepositoryDataContainer<byte[], byte[]> container) {
+        long weight = weigh(container);
+        IRepositoryDataContainer<byte[], byte[]> old = findBySerializedKey(serializedKey);
+        if (old != null) {
+            currentBytes -= weigh(old);
+            policy.onUpdate(serializedKey, weight);
+        } else {
+            policy.onInsert(serializedKey, weight);
+        }
+        super.saveBySerializedKey(serializedKey, relatedKey, container);
+        currentBytes += weight;
+        evictIfNeeded();
+    }
+
+    @Override
+    protected void onItemRemoved(@NotNull String serializedKey, @NotNull String relatedKey, @NotNull IRepositoryDataContainer<byte[], byte[]> container) {
+        currentBytes -= weigh(container);
+        if (evicting) {
+            if (listener != null) {
+                listener.onEvicted(serializedKey, relatedKey, container);
+            }
+        } else {
+            policy.onRemove(serializedKey);
+        }
+    }
+
+    private void evictIfNeeded() {
+        while (currentBytes > maximumBytes) {
+            String victim = policy.evict();
+            if (victim == null) {
+                break;
+            }
+            evicting = true;
+            try {
+                super.removeBySerializedKey(victim);
+            } finally {
+                evicting = false;
+            }
+        }
+    }
+
+    private static long weigh(@NotNull IRepositoryDataContainer<byte[], byte[]> container) {
+        long ret = 0;
+        {
+            byte[] body = container.getBody();
+            if (body != null) {
+                ret += body.length;
+            }
+        }
+        {
+            byte[] attachment = container.getAttachment();
+            if (attachment != null) {
+                ret += attachment.length;
+            }
+        }
+        return ret;
+    }
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Striped;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+
+import jp.s64.java.repoli.base.BaseStorage;
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.core.IRepositoryDataMetadata;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataMetadata;
+
+/**
+ * An in-memory storage that can be shared between threads. Gets never lock. Saves and removes lock the
+ * stripes of the serialized key and the related keys they touch, so both indices change together.
+ */
+public class ConcurrentOnMemoryStorage<TB, AB> extends BaseStorage<TB, AB> {
+
+    private static final int DEFAULT_STRIPES = Runtime.getRuntime().availableProcessors() * 4;
+
+    private final ConcurrentMap<String, Entry> byKey = new ConcurrentHashMap<>();
+
+    /**
+     * Each group is read and written only while holding the stripe of its related key.
+     */
+    private final ConcurrentMap<String, Set<String>> byRelatedKey = new ConcurrentHashMap<>();
+
+    @NotNull
+    private final Striped<Lock> locks;
+
+    public ConcurrentOnMemoryStorage() {
+        this(DEFAULT_STRIPES);
+    }
+
+    public ConcurrentOnMemoryStorage(int stripes) {
+        locks = Striped.lock(stripes);
+    }
+
+    @Override
+    public IRepositoryDataContainer<byte[], byte[]> getBySerializedKey(String serializedKey) {
+        Entry entry = byKey.get(serializedKey);
+        return entry != null ? entry.container : ImmutableRepositoryDataContainer.<byte[], byte[]>empty();
+    }
+
+    @Override
+    public IRepositoryDataMetadata getMetadataBySerializedKey(String serializedKey, String relatedKey) {
+        Entry entry = byKey.get(serializedKey);
+        return entry != null ? ImmutableRepositoryDataMetadata.of(entry.container, entry.relatedKey) : ImmutableRepositoryDataMetadata.empty();
+    }
+
+    @Override
+    public int removeBySerializedKey(String serializedKey) {
+        while (true) {
+            Entry entry = byKey.get(serializedKey);
+            if (entry == null) {
+                return 0;
+            }
+            List<Lock> held = lock(serializedKey, entry.relatedKey, null);
+            try {
+                if (byKey.get(serializedKey) != entry) {
+                    continue;
+                }
+                byKey.remove(serializedKey);
+                leaveGroup(entry.relatedKey, serializedKey);
+                return 1;
+            } finally {
+                unlock(held);
+            }
+        }
+    }
+
+    @Override
+    public int removeRelativesByRelatedKey(String relatedKey) {
+        List<String> members;
+        {
+            List<Lock> held = lock(relatedKey, null, null);
+            try {
+                Set<String> group = byRelatedKey.get(relatedKey);
+                members = group != null ? new ArrayList<>(group) : ImmutableList.<String>of();
+            } finally {
+                unlock(held);
+            }
+        }
+        int result = 0;
+        for (String serializedKey : members) {
+            List<Lock> held = lock(serializedKey, relatedKey, null);
+            try {
+                Entry entry = byKey.get(serializedKey);
+                if (entry != null && entry.relatedKey.equals(relatedKey)) {
+                    byKey.remove(serializedKey);
+                    leaveGroup(relatedKey, serializedKey);
+                    result++;
+                }
+            } finally {
+                unlock(held);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void saveBySerializedKey(String serializedKey, String relatedKey, IRepositoryDataContainer<byte[], byte[]> container) {
+        Entry saving = new Entry(relatedKey, ImmutableRepositoryDataContainer.copyOf(container));
+        while (true) {
+            Entry old = byKey.get(serializedKey);
+            List<Lock> held = lock(serializedKey, relatedKey, old != null ? old.relatedKey : null);
+            try {
+                if (byKey.get(serializedKey) != old) {
+                    continue;
+                }
+                byKey.put(serializedKey, saving);
+                if (old != null && !old.relatedKey.equals(relatedKey)) {
+                    leaveGroup(old.relatedKey, serializedKey);
+                }
+                Set<String> group = byRelatedKey.get(relatedKey);
+                if (group == null) {
+                    group = new HashSet<>();
+                    byRelatedKey.put(relatedKey, group);
+                }
+                group.add(serializedKey);
+                return;
+            } finally {
+                unlock(held);
+            }
+        }
+    }
+
+    /**
+     * Must be called while holding the stripe of {@code relatedKey}.
+     */
+    private void leaveGroup(@NotNull String relatedKey, @NotNull String serializedKey) {
+        Set<String> group = byRelatedKey.get(relatedKey);
+        if (group != null) {
+            group.remove(serializedKey);
+            if (group.isEmpty()) {
+                byRelatedKey.remove(relatedKey);
+            }
+        }
+    }
+
+    /**
+     * Locks the stripes of the given keys in the order {@link Striped#bulkGet(Iterable)} defines, so that writers never deadlock.
+     */
+    @NotNull
+    private List<Lock> lock(@NotNull String first, @Nullable String second, @Nullable String third) {
+        List<String> keys = new ArrayList<>(3);
+        keys.add(first);
+        if (second != null) {
+            keys.add(second);
+        }
+        if (third != null) {
+            keys.add(third);
+        }
+        List<Lock> held = new ArrayList<>(3);
+        for (Lock lock : locks.bulkGet(keys)) {
+            lock.lock();
+            held.add(lock);
+        }
+        return held;
+    }
+
+    private static void unlock(@NotNull List<Lock> held) {
+        for (int i = held.size() - 1; i >= 0; i--) {
+            held.get(i).unlock();
+        }
+    }
+
+    private static class Entry {
+
+        @NotNull
+        private final String relatedKey;
+
+        @NotNull
+        private final IRepositoryDataContainer<byte[], byte[]> container;
+
+        private Entry(@NotNull String relatedKey, @NotNull IRepositoryDataContainer<byte[], byte[]> container) {
+            this.relatedKey = relatedKey;
+            this.container = container;
+        }
+
+    }
+
+}
@@ -16,16 +16,38 @@
 
 package jp.s64.java.repoli.preset;
 
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.TimeUnit;
+
 import jp.s64.java.repoli.core.IDataKey;
+import jp.s64.java.repoli.core.IDeadlinePolicy;
 import jp.s64.java.repoli.core.IExpirePolicy;
+import jp.s64.java.repoli.core.IMetadataPolicy;
 import jp.s64.java.repoli.core.IRemovePolicy;
 import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.core.IRepositoryDataMetadata;
+import jp.s64.java.repoli.internal.NegativeEntries;
+
+public class DefaultPolicy<TB, AB> implements IExpirePolicy<TB, AB>, IRemovePolicy<TB, AB>, IMetadataPolicy<TB, AB>, IDeadlinePolicy {
 
-public class DefaultPolicy<TB, AB> implements IExpirePolicy<TB, AB>, IRemovePolicy<TB, AB> {
+    private final long negativeExpireTimeMillis;
+
+    public DefaultPolicy() {
+        this(0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param negativeTime how long a provider miss is answered from the storage. {@code 0} disables negative caching.
+     */
+    public DefaultPolicy(long negativeTime, TimeUnit negativeUnit) {
+        negativeExpireTimeMillis = negativeUnit.toMillis(negativeTime);
+    }
 
     @Override
     public <T extends TB, A extends AB> boolean shouldExpire(IDataKey<T, A> key, IRepositoryDataContainer<T, A> container) {
-        return container.getRequestedAtTimeMillis() == null || container.getSavedAtTimeMillis() == null;
+        return container.getRequestedAtTimeMillis() == null || container.getSavedAtTimeMillis() == null || isNegativeExpired(container);
     }
 
     @Override
@@ -35,12 +57,15 @@ public class DefaultPolicy<TB, AB> implements IExpirePolicy<TB, AB>, IRemovePoli
 
     @Override
     public <T extends TB, A extends AB> boolean shouldRequest(IDataKey<T, A> key, IRepositoryDataContainer<T, A> container) {
-        return shouldExpire(key, container) || (container.getBody() == null && container.getAttachment() == null);
+        return shouldExpire(key, container) || (NegativeEntries.isBlank(container) && !NegativeEntries.isNegative(container));
     }
 
     @Override
     public <T extends TB, A extends AB> boolean shouldSave(IDataKey<T, A> key, IRepositoryDataContainer<T, A> container) {
-        return container.getRequestedAtTimeMillis() != null && (container.getBody() != null || container.getAttachment() != null);
+        if (NegativeEntries.isMissResponse(container)) {
+            return negativeExpireTimeMillis > 0;
+        }
+        return container.getRequestedAtTimeMillis() != null && !NegativeEntries.isBlank(container);
     }
 
     @Override
@@ -48,4 +73,27 @@ public class DefaultPolicy<TB, AB> implements IExpirePolicy<TB, AB>, IRemovePoli
         return true;
     }
 
+    @Override
+    public <T extends TB, A extends AB> boolean shouldRemoveWithRelatives(@NotNull IDataKey<T, A> key, @NotNull IRepositoryDataMetadata metadata) {
+        return true;
+    }
+
+    /**
+     * Only negative entries have a deadline; the others stay until removed.
+     */
+    @Nullable
+    @Override
+    public Long getDeadlineTimeMillis(@NotNull IRepositoryDataContainer<?, ?> saved) {
+        Long savedAt = saved.getSavedAtTimeMillis();
+        return savedAt != null && NegativeEntries.isNegative(saved) ? savedAt + negativeExpireTimeMillis : null;
+    }
+
+    public long getNegativeExpireTimeMillis() {
+        return negativeExpireTimeMillis;
+    }
+
+    protected <T extends TB, A extends AB> boolean isNegativeExpired(IRepositoryDataContainer<T, A> container) {
+        return NegativeEntries.isNegative(container) && System.currentTimeMillis() > (container.getSavedAtTimeMillis() + negativeExpireTimeMillis);
+    }
+
 }
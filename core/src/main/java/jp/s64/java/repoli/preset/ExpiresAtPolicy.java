@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.TimeUnit;
+
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+
+/**
+ * Expires each entry at its own {@link IRepositoryDataContainer#getExpiresAtTimeMillis()}, as set by the provider
+ * (e.g. from an upstream {@code max-age}), and falls back to the lifetimes of {@link TimeBasedPolicy} for entries without one.
+ */
+public class ExpiresAtPolicy<TB, AB> extends TimeBasedPolicy<TB, AB> {
+
+    public ExpiresAtPolicy(long defaultTime, TimeUnit unit) {
+        super(defaultTime, unit);
+    }
+
+    public ExpiresAtPolicy(long defaultTime, long negativeTime, TimeUnit unit) {
+        super(defaultTime, negativeTime, unit);
+    }
+
+    @Nullable
+    @Override
+    public Long getDeadlineTimeMillis(@NotNull IRepositoryDataContainer<?, ?> saved) {
+        Long expiresAt = saved.getExpiresAtTimeMillis();
+        if (expiresAt == null || saved.getSavedAtTimeMillis() == null) {
+            return super.getDeadlineTimeMillis(saved);
+        }
+        return expiresAt;
+    }
+
+    @Override
+    protected <T extends TB, A extends AB> boolean isExpired(IRepositoryDataContainer<T, A> container) {
+        Long expiresAt = container.getExpiresAtTimeMillis();
+        if (expiresAt == null || container.getSavedAtTimeMillis() == null) {
+            return super.isExpired(container);
+        }
+        return System.currentTimeMillis() > expiresAt;
+    }
+
+}
@@ -0,0 +1,461 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset;
+
+import com.google.common.reflect.TypeToken;
+import com.google.common.util.concurrent.Striped;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+
+import jp.s64.java.repoli.base.BatchHelper;
+import jp.s64.java.repoli.base.MetadataHelper;
+import jp.s64.java.repoli.core.DataKey;
+import jp.s64.java.repoli.core.IBatchStorage;
+import jp.s64.java.repoli.core.IDataKey;
+import jp.s64.java.repoli.core.IMetadataStorage;
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.core.IRepositoryDataMetadata;
+import jp.s64.java.repoli.core.IStorage;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataMetadata;
+
+/**
+ * Makes {@link #removeRelatives(IDataKey)} O(1) for any {@link IStorage}: it bumps the generation of the related key,
+ * and entries saved under an older generation read as misses until an {@link Executor} deletes them.
+ * Deletions are queued and drained by a single task at a time.
+ * <p>
+ * Generations live in memory. Over a persistent storage, members left unreclaimed at shutdown read as live again
+ * after a restart. A group is forgotten once it has no members and was never invalidated; an invalidated group keeps
+ * only its generation. The generation each key was saved under is dropped when a read misses it, and past
+ * {@code maximumTracked} keys arbitrary ones are dropped; a dropped key reads as a miss once its group is invalidated,
+ * and is deleted then.
+ */
+public class GenerationalStorage<TB, AB> implements IBatchStorage<TB, AB>, IMetadataStorage<TB, AB> {
+
+    @NotNull
+    private final IStorage<TB, AB> storage;
+
+    @NotNull
+    private final Executor executor;
+
+    public static final int DEFAULT_MAXIMUM_TRACKED = 1024 * 1024;
+
+    private final int maximumTracked;
+
+    private final ConcurrentMap<String, Group> groups = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Stamp> stamps = new ConcurrentHashMap<>();
+
+    private final Queue<Reclaim> reclaims = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Stale keys queued by reads, so a key read repeatedly is queued once.
+     */
+    private final Set<String> queued = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    /**
+     * Orders a save of a key against the deletion of its stale predecessor.
+     */
+    private final Striped<Lock> locks = Striped.lock(4 * Runtime.getRuntime().availableProcessors());
+
+    public GenerationalStorage(@NotNull IStorage<TB, AB> storage, @NotNull Executor executor) {
+        this(storage, executor, DEFAULT_MAXIMUM_TRACKED);
+    }
+
+    /**
+     * @param maximumTracked keys whose generation is remembered.
+     */
+    public GenerationalStorage(@NotNull IStorage<TB, AB> storage, @NotNull Executor executor, int maximumTracked) {
+        if (maximumTracked <= 0) {
+            throw new IllegalArgumentException("maximumTracked must be positive: " + maximumTracked);
+        }
+        this.storage = storage;
+        this.executor = executor;
+        this.maximumTracked = maximumTracked;
+    }
+
+    @NotNull
+    @Override
+    public <T extends TB, A extends AB> IRepositoryDataContainer<T, A> get(@NotNull IDataKey<T, A> key) {
+        if (isStale(key)) {
+            if (queued.add(key.getSerialized())) {
+                reclaimLater(new Reclaim(Collections.singleton(key.getSerialized()), key.getRelatedKey(), true));
+            }
+            return ImmutableRepositoryDataContainer.empty();
+        }
+        Stamp stamp = stamps.get(key.getSerialized());
+        IRepositoryDataContainer<T, A> ret = storage.get(key);
+        if (stamp != null && ret.getSavedAtTimeMillis() == null) {
+            // gone from the storage without a remove through this instance.
+            forget(key.getSerialized(), stamp);
+        }
+        return ret;
+    }
+
+    @NotNull
+    @Override
+    public <T extends TB, A extends AB> Map<String, IRepositoryDataContainer<T, A>> getAll(@NotNull Collection<? extends IDataKey<T, A>> keys) {
+        List<IDataKey<T, A>> fresh = new ArrayList<>(keys.size());
+        for (IDataKey<T, A> key : keys) {
+            if (!isStale(key)) {
+                fresh.add(key);
+            }
+        }
+        Map<String, IRepositoryDataContainer<T, A>> loaded = BatchHelper.getAll(storage, fresh);
+        Map<String, IRepositoryDataContainer<T, A>> ret = new LinkedHashMap<>();
+        for (IDataKey<T, A> key : keys) {
+            IRepositoryDataContainer<T, A> container = loaded.get(key.getSerialized());
+            ret.put(key.getSerialized(), container != null ? container : ImmutableRepositoryDataContainer.<T, A>empty());
+        }
+        return ret;
+    }
+
+    @NotNull
+    @Override
+    public IRepositoryDataMetadata getMetadata(@NotNull IDataKey<?, ?> key) {
+        return isStale(key) ? ImmutableRepositoryDataMetadata.empty() : MetadataHelper.getMetadata(storage, key);
+    }
+
+    @Override
+    public int remove(@NotNull IDataKey<?, ?> key) {
+        boolean stale = isStale(key);
+        Lock lock = locks.get(key.getSerialized());
+        lock.lock();
+        try {
+            leave(key.getSerialized(), stamps.remove(key.getSerialized()));
+            int ret = storage.remove(key);
+            return stale ? 0 : ret;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int removeAll(@NotNull Collection<? extends IDataKey<?, ?>> keys) {
+        int ret = 0;
+        for (IDataKey<?, ?> key : keys) {
+            ret += remove(key);
+        }
+        return ret;
+    }
+
+    /**
+     * Invalidates the group in O(1) and deletes its members in the background.
+     *
+     * @return the number of members saved under the invalidated generation.
+     */
+    @Override
+    public int removeRelatives(@NotNull IDataKey<?, ?> key) {
+        Set<String> members;
+        while (true) {
+            Group group = groupOf(key.getRelatedKey());
+            synchronized (group) {
+                if (group.pruned) {
+                    continue;
+                }
+                group.generation++;
+                members = group.members;
+                group.members = new HashSet<>();
+                break;
+            }
+        }
+        if (!members.isEmpty()) {
+            reclaimLater(new Reclaim(members, key.getRelatedKey(), false));
+        }
+        return members.size();
+    }
+
+    @NotNull
+    @Override
+    public <T extends TB, A extends AB> IRepositoryDataContainer<T, A> save(@NotNull IDataKey<T, A> key, @NotNull IRepositoryDataContainer<T, A> container) {
+        Lock lock = locks.get(key.getSerialized());
+        lock.lock();
+        try {
+            stamp(key);
+            return storage.save(key, container);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @NotNull
+    @Override
+    public <T extends TB, A extends AB> Map<String, IRepositoryDataContainer<T, A>> saveAll(@NotNull Collection<? extends IDataKey<T, A>> keys, @NotNull Map<String, ? extends IRepositoryDataContainer<T, A>> containers) {
+        List<String> serializedKeys = new ArrayList<>(keys.size());
+        for (IDataKey<T, A> key : keys) {
+            serializedKeys.add(key.getSerialized());
+        }
+        List<Lock> bulk = new ArrayList<>();
+        for (Lock lock : locks.bulkGet(serializedKeys)) {
+            if (!bulk.contains(lock)) {
+                bulk.add(lock);
+            }
+        }
+        for (Lock lock : bulk) {
+            lock.lock();
+        }
+        try {
+            for (IDataKey<T, A> key : keys) {
+                if (containers.containsKey(key.getSerialized())) {
+                    stamp(key);
+                }
+            }
+            return BatchHelper.saveAll(storage, keys, containers);
+        } finally {
+            for (Lock lock : bulk) {
+                lock.unlock();
+            }
+        }
+    }
+
+    public long getGeneration(@NotNull String relatedKey) {
+        Group group = groups.get(relatedKey);
+        if (group == null) {
+            return 0;
+        }
+        synchronized (group) {
+            return group.generation;
+        }
+    }
+
+    private boolean isStale(@NotNull IDataKey<?, ?> key) {
+        Stamp stamp = stamps.get(key.getSerialized());
+        if (stamp != null) {
+            return stamp.generation < getGeneration(stamp.relatedKey);
+        }
+        // saved before this instance, or removed since.
+        return getGeneration(key.getRelatedKey()) > 0;
+    }
+
+    /**
+     * @return keys whose generation is remembered.
+     */
+    int getTrackedCount() {
+        return stamps.size();
+    }
+
+    /**
+     * @return related keys with members or a generation.
+     */
+    int getGroupCount() {
+        return groups.size();
+    }
+
+    private void stamp(@NotNull IDataKey<?, ?> key) {
+        Stamp stamp;
+        while (true) {
+            Group group = groupOf(key.getRelatedKey());
+            synchronized (group) {
+                if (group.pruned) {
+                    continue;
+                }
+                group.members.add(key.getSerialized());
+                stamp = new Stamp(key.getRelatedKey(), group.generation);
+                break;
+            }
+        }
+        Stamp old = stamps.put(key.getSerialized(), stamp);
+        if (old != null && !old.relatedKey.equals(stamp.relatedKey)) {
+            leave(key.getSerialized(), old);
+        }
+        if (stamps.size() > maximumTracked) {
+            Iterator<Map.Entry<String, Stamp>> iterator = stamps.entrySet().iterator();
+            while (stamps.size() > maximumTracked && iterator.hasNext()) {
+                Map.Entry<String, Stamp> entry = iterator.next();
+                if (!entry.getKey().equals(key.getSerialized())) {
+                    forget(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    private void forget(@NotNull String serializedKey, @NotNull Stamp stamp) {
+        if (stamps.remove(serializedKey, stamp)) {
+            leave(serializedKey, stamp);
+        }
+    }
+
+    /**
+     * Takes {@code serializedKey} out of its group, and drops the group once it has no members and was never invalidated.
+     */
+    private void leave(@NotNull String serializedKey, @Nullable Stamp stamp) {
+        if (stamp == null) {
+            return;
+        }
+        Group group = groups.get(stamp.relatedKey);
+        if (group != null) {
+            synchronized (group) {
+                if (group.generation == stamp.generation) {
+                    group.members.remove(serializedKey);
+                }
+                if (group.generation == 0 && group.members.isEmpty() && !group.pruned) {
+                    group.pruned = true;
+                    groups.remove(stamp.relatedKey, group);
+                }
+            }
+        }
+    }
+
+    @NotNull
+    private Group groupOf(@NotNull String relatedKey) {
+        Group ret = groups.get(relatedKey);
+        if (ret == null) {
+            Group created = new Group();
+            ret = groups.putIfAbsent(relatedKey, created);
+            if (ret == null) {
+                ret = created;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Queues {@code reclaim}, and starts a drain unless one is running.
+     */
+    private void reclaimLater(@NotNull Reclaim reclaim) {
+        reclaims.add(reclaim);
+        if (draining.compareAndSet(false, true)) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        drain();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // stays queued for the next drain.
+                draining.set(false);
+            }
+        }
+    }
+
+    private void drain() {
+        do {
+            try {
+                Reclaim reclaim;
+                while ((reclaim = reclaims.poll()) != null) {
+                    for (String serializedKey : reclaim.serializedKeys) {
+                        if (reclaim.queued) {
+                            queued.remove(serializedKey);
+                        }
+                        try {
+                            reclaim(serializedKey, reclaim.relatedKey);
+                        } catch (RuntimeException e) {
+                            // the entry stays stale, and the next read of it queues it again.
+                        }
+                    }
+                }
+            } finally {
+                draining.set(false);
+            }
+            // something queued after the poll above and before the flag was cleared.
+        } while (!reclaims.isEmpty() && draining.compareAndSet(false, true));
+    }
+
+    /**
+     * Deletes {@code serializedKey} unless it was saved again under the current generation.
+     */
+    private void reclaim(@NotNull final String serializedKey, @NotNull final String relatedKey) {
+        Lock lock = locks.get(serializedKey);
+        lock.lock();
+        try {
+            Stamp stamp = stamps.get(serializedKey);
+            if (stamp != null) {
+                if (!stamp.relatedKey.equals(relatedKey) || stamp.generation >= getGeneration(relatedKey)) {
+                    // saved again since it went stale.
+                    return;
+                }
+                stamps.remove(serializedKey, stamp);
+            } else if (getGeneration(relatedKey) == 0) {
+                return;
+            }
+            storage.remove(new DataKey<>(TypeToken.of(Object.class), TypeToken.of(Object.class), serializedKey, relatedKey));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class Group {
+
+        private long generation = 0;
+
+        /**
+         * Set when removed from {@link #groups}; a writer holding it must look the group up again.
+         */
+        private boolean pruned = false;
+
+        @NotNull
+        private Set<String> members = new HashSet<>();
+
+    }
+
+    private static class Stamp {
+
+        @NotNull
+        private final String relatedKey;
+
+        private final long generation;
+
+        private Stamp(@NotNull String relatedKey, long generation) {
+            this.relatedKey = relatedKey;
+            this.generation = generation;
+        }
+
+    }
+
+    private static class Reclaim {
+
+        @NotNull
+        private final Collection<String> serializedKeys;
+
+        @NotNull
+        private final String relatedKey;
+
+        /**
+         * Whether the keys were queued by a read, and are in {@link #queued}.
+         */
+        private final boolean queued;
+
+        private Reclaim(@NotNull Collection<String> serializedKeys, @NotNull String relatedKey, boolean queued) {
+            this.serializedKeys = serializedKeys;
+            this.relatedKey = relatedKey;
+            this.queued = queued;
+        }
+
+    }
+
+}
@@ -0,0 +1,1001 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import jp.s64.java.repoli.base.BaseStorage;
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.core.IRepositoryDataMetadata;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataMetadata;
+
+/**
+ * Bitcask-style storage: saves and removals are appended to segment files, and an in-memory key directory points at
+ * the latest record of every key, so writes are sequential and a read is a single positioned read.
+ * <p>
+ * Each record carries a CRC and a sequence number. On open, segments are replayed from their hint files when present,
+ * otherwise record by record; a torn or corrupt tail is truncated, and the highest sequence number wins.
+ * Compaction merges the immutable segments into new ones with hint files, dropping overwritten, removed and expired records.
+ * The tombstone of a removed key is carried into the new segments while a segment left out of the merge may still hold
+ * an older record of that key, and dropped once none does.
+ */
+public class LogStructuredStorage<TB, BA> extends BaseStorage<TB, BA> implements Closeable {
+
+    public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String DATA_SUFFIX = ".log";
+    private static final String HINT_SUFFIX = ".hint";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private static final byte TYPE_PUT = 0;
+    private static final byte TYPE_DELETE = 1;
+
+    private static final byte FLAG_SAVED_AT = 1;
+    private static final byte FLAG_REQUESTED_AT = 2;
+    private static final byte FLAG_EXPIRES_AT = 4;
+
+    /**
+     * Marks a tombstone in a hint file.
+     */
+    private static final byte FLAG_TOMBSTONE = (byte) 0x80;
+
+    private static final Comparator<Map.Entry<String, Location>> BY_POSITION = new Comparator<Map.Entry<String, Location>>() {
+        @Override
+        public int compare(Map.Entry<String, Location> o1, Map.Entry<String, Location> o2) {
+            Location l1 = o1.getValue();
+            Location l2 = o2.getValue();
+            return l1.segmentId != l2.segmentId ? (l1.segmentId < l2.segmentId ? -1 : 1) : (l1.offset < l2.offset ? -1 : (l1.offset == l2.offset ? 0 : 1));
+        }
+    };
+
+    /**
+     * crc, type, sequence, key length, related key length, flags, savedAt, requestedAt, expiresAt, body length and attachment length;
+     * a null array has length -1.
+     */
+    private static final int RECORD_HEADER_SIZE = 4 + 1 + 8 + 4 + 4 + 1 + 8 + 8 + 8 + 4 + 4;
+
+    @NotNull
+    private final File directory;
+
+    @NotNull
+    private final Durability durability;
+
+    private final long maxSegmentBytes;
+    private final long retentionMillis;
+
+    @Nullable
+    private final ScheduledExecutorService executor;
+
+    private final Map<String, Location> keydir = new HashMap<>();
+    private final Map<String, Set<String>> byRelatedKey = new HashMap<>();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+    /**
+     * The newest tombstone of each removed key that is still in a segment.
+     */
+    private final Map<String, Location> tombstones = new HashMap<>();
+
+    @Nullable
+    private Segment active;
+
+    @Nullable
+    private ScheduledFuture<?> committer;
+
+    private long nextSegmentId = 0;
+    private long nextSequence = 1;
+    private long writtenSequence = 0;
+    private long liveBytes = 0;
+    private long totalBytes = 0;
+    private boolean compacting = false;
+
+    private final Object commitLock = new Object();
+    private long syncedSequence = 0;
+
+    @Nullable
+    private IOException commitFailure;
+
+    public LogStructuredStorage(@NotNull File directory) {
+        this(directory, Durability.none(), DEFAULT_SEGMENT_BYTES, 0, null);
+    }
+
+    /**
+     * @param retentionMillis compaction drops records saved longer ago than this; 0 keeps them.
+     * @param executor        runs group commits and background compaction; required by {@link Durability#groupCommit(long, TimeUnit)}.
+     */
+    public LogStructuredStorage(@NotNull File directory, @NotNull Durability durability, long maxSegmentBytes, long retentionMillis, @Nullable ScheduledExecutorService executor) {
+        if (durability.groupCommitMillis > 0 && executor == null) {
+            throw new IllegalArgumentException("group commit needs an executor");
+        }
+        if (maxSegmentBytes <= 0) {
+            throw new IllegalArgumentException("maxSegmentBytes must be positive: " + maxSegmentBytes);
+        }
+        this.directory = directory;
+        this.durability = durability;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.retentionMillis = retentionMillis;
+        this.executor = executor;
+    }
+
+    @Override
+    public IRepositoryDataContainer<byte[], byte[]> getBySerializedKey(String serializedKey) {
+        Location location;
+        ByteBuffer record;
+        synchronized (this) {
+            open();
+            location = keydir.get(serializedKey);
+            if (location == null) {
+                return ImmutableRepositoryDataContainer.empty();
+            }
+            record = ByteBuffer.allocate(location.size);
+            try {
+                readFully(segments.get(location.segmentId).channel, record, location.offset);
+            } catch (IOException e) {
+                throw new LogStructuredStorageException(e);
+            }
+        }
+        int at = RECORD_HEADER_SIZE + record.getInt(13) + record.getInt(17);
+        return ImmutableRepositoryDataContainer.of(
+                copy(record, at, location.bodyLength),
+                copy(record, at + Math.max(0, location.bodyLength), location.attachmentLength),
+                location.getSavedAtTimeMillis(),
+                location.getRequestedAtTimeMillis(),
+                location.getExpiresAtTimeMillis()
+        );
+    }
+
+    @Override
+    public synchronized IRepositoryDataMetadata getMetadataBySerializedKey(String serializedKey, String relatedKey) {
+        open();
+        Location location = keydir.get(serializedKey);
+        if (location == null) {
+            return ImmutableRepositoryDataMetadata.empty();
+        }
+        return ImmutableRepositoryDataMetadata.of(
+                location.getSavedAtTimeMillis(),
+                location.getRequestedAtTimeMillis(),
+                location.getExpiresAtTimeMillis(),
+                Math.max(0, location.bodyLength),
+                Math.max(0, location.attachmentLength),
+                location.relatedKey
+        );
+    }
+
+    @Override
+    public int removeBySerializedKey(String serializedKey) {
+        long sequence;
+        synchronized (this) {
+            open();
+            if (!keydir.containsKey(serializedKey)) {
+                return 0;
+            }
+            Location tombstone = append(TYPE_DELETE, serializedKey, "", null);
+            tombstones.put(serializedKey, tombstone);
+            sequence = tombstone.sequence;
+            unindex(serializedKey);
+        }
+        awaitDurable(sequence);
+        return 1;
+    }
+
+    @Override
+    public int removeRelativesByRelatedKey(String relatedKey) {
+        long sequence = 0;
+        int ret;
+        synchronized (this) {
+            open();
+            Set<String> keys = byRelatedKey.get(relatedKey);
+            if (keys == null) {
+                return 0;
+            }
+            List<String> removing = new ArrayList<>(keys);
+            for (String key : removing) {
+                Location tombstone = append(TYPE_DELETE, key, "", null);
+                tombstones.put(key, tombstone);
+                sequence = tombstone.sequence;
+                unindex(key);
+            }
+            ret = removing.size();
+        }
+        awaitDurable(sequence);
+        return ret;
+    }
+
+    @Override
+    public void saveBySerializedKey(String serializedKey, String relatedKey, IRepositoryDataContainer<byte[], byte[]> container) {
+        long sequence;
+        synchronized (this) {
+            open();
+            Location location = append(TYPE_PUT, serializedKey, relatedKey, container);
+            index(serializedKey, location);
+            sequence = location.sequence;
+        }
+        awaitDurable(sequence);
+    }
+
+    /**
+     * Merges every segment except the one being written into new segments with hint files.
+     * Only live records are kept, and with a retention set, only those saved within it.
+     * Reads and writes continue while records are copied.
+     */
+    public void compact() {
+        List<Segment> sources;
+        List<Map.Entry<String, Location>> snapshot = new ArrayList<>();
+        List<Map.Entry<String, Location>> kept = new ArrayList<>();
+        List<Map.Entry<String, Location>> dropped = new ArrayList<>();
+        synchronized (this) {
+            open();
+            if (compacting) {
+                return;
+            }
+            sources = new ArrayList<>(segments.headMap(active.id).values());
+            if (sources.isEmpty()) {
+                return;
+            }
+            compacting = true;
+            for (Map.Entry<String, Location> entry : keydir.entrySet()) {
+                if (entry.getValue().segmentId < active.id) {
+                    snapshot.add(new AbstractMap.SimpleImmutableEntry<>(entry));
+                }
+            }
+            long oldestOutside = Long.MAX_VALUE;
+            for (Segment segment : segments.tailMap(active.id).values()) {
+                oldestOutside = Math.min(oldestOutside, segment.minSequence);
+            }
+            for (Map.Entry<String, Location> entry : tombstones.entrySet()) {
+                if (entry.getValue().segmentId < active.id) {
+                    (entry.getValue().sequence > oldestOutside ? kept : dropped).add(new AbstractMap.SimpleImmutableEntry<>(entry));
+                }
+            }
+        }
+        try {
+            onMergeStarted();
+            Collections.sort(snapshot, BY_POSITION);
+            Collections.sort(kept, BY_POSITION);
+            merge(sources, snapshot, kept, dropped);
+        } catch (IOException e) {
+            throw new LogStructuredStorageException(e);
+        } finally {
+            synchronized (this) {
+                compacting = false;
+            }
+        }
+    }
+
+    /**
+     * Called without the lock once {@link #compact()} has chosen what to merge.
+     */
+    void onMergeStarted() {
+        // no-op
+    }
+
+    /**
+     * @return bytes in segment files, including overwritten records and tombstones.
+     */
+    public synchronized long getTotalBytes() {
+        open();
+        return totalBytes;
+    }
+
+    /**
+     * @return bytes of the records the key directory points at.
+     */
+    public synchronized long getLiveBytes() {
+        open();
+        return liveBytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (active == null) {
+                return;
+            }
+            if (committer != null) {
+                committer.cancel(false);
+                committer = null;
+            }
+            active.channel.force(false);
+            for (Segment segment : segments.values()) {
+                segment.channel.close();
+            }
+            segments.clear();
+            keydir.clear();
+            byRelatedKey.clear();
+            tombstones.clear();
+            active = null;
+        }
+        synchronized (commitLock) {
+            syncedSequence = Long.MAX_VALUE;
+            commitLock.notifyAll();
+        }
+    }
+
+    private void open() {
+        if (active != null) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new LogStructuredStorageException("cannot create " + directory);
+        }
+        try {
+            List<Long> ids = new ArrayList<>();
+            {
+                File[] files = directory.listFiles();
+                if (files == null) {
+                    throw new LogStructuredStorageException("cannot list " + directory);
+                }
+                for (File file : files) {
+                    String name = file.getName();
+                    if (name.endsWith(TEMPORARY_SUFFIX)) {
+                        file.delete();
+                    } else if (name.endsWith(DATA_SUFFIX)) {
+                        ids.add(Long.parseLong(name.substring(0, name.length() - DATA_SUFFIX.length())));
+                    }
+                }
+                Collections.sort(ids);
+            }
+            for (long id : ids) {
+                Segment segment = new Segment(id, new RandomAccessFile(dataFile(id), "rw"));
+                segments.put(id, segment);
+                if (!recoverFromHints(segment)) {
+                    recoverFromData(segment);
+                }
+                totalBytes += segment.size;
+                nextSegmentId = id + 1;
+            }
+            active = new Segment(nextSegmentId++, new RandomAccessFile(dataFile(nextSegmentId - 1), "rw"));
+            segments.put(active.id, active);
+            writtenSequence = nextSequence - 1;
+        } catch (IOException e) {
+            throw new LogStructuredStorageException(e);
+        }
+        synchronized (commitLock) {
+            syncedSequence = writtenSequence;
+            commitFailure = null;
+        }
+        if (durability.groupCommitMillis > 0) {
+            committer = executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    commit();
+                }
+            }, durability.groupCommitMillis, durability.groupCommitMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @NotNull
+    private Location append(byte type, @NotNull String serializedKey, @NotNull String relatedKey, @Nullable IRepositoryDataContainer<byte[], byte[]> container) {
+        byte[] key = serializedKey.getBytes(UTF_8);
+        byte[] related = relatedKey.getBytes(UTF_8);
+        byte[] body = container != null ? container.getBody() : null;
+        byte[] attachment = container != null ? container.getAttachment() : null;
+        Long savedAt = container != null ? container.getSavedAtTimeMillis() : null;
+        Long requestedAt = container != null ? container.getRequestedAtTimeMillis() : null;
+        Long expiresAt = container != null ? container.getExpiresAtTimeMillis() : null;
+        byte flags = (byte) ((savedAt != null ? FLAG_SAVED_AT : 0) | (requestedAt != null ? FLAG_REQUESTED_AT : 0) | (expiresAt != null ? FLAG_EXPIRES_AT : 0));
+        long sequence = nextSequence++;
+
+        int size = RECORD_HEADER_SIZE + key.length + related.length + (body != null ? body.length : 0) + (attachment != null ? attachment.length : 0);
+        ByteBuffer record = ByteBuffer.allocate(size);
+        {
+            record.position(4);
+            record.put(type);
+            record.putLong(sequence);
+            record.putInt(key.length);
+            record.putInt(related.length);
+            record.put(flags);
+            record.putLong(savedAt != null ? savedAt : 0);
+            record.putLong(requestedAt != null ? requestedAt : 0);
+            record.putLong(expiresAt != null ? expiresAt : 0);
+            record.putInt(body != null ? body.length : -1);
+            record.putInt(attachment != null ? attachment.length : -1);
+            record.put(key);
+            record.put(related);
+            if (body != null) {
+                record.put(body);
+            }
+            if (attachment != null) {
+                record.put(attachment);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), 4, size - 4);
+            record.putInt(0, (int) crc.getValue());
+            record.flip();
+        }
+
+        try {
+            if (active.size > 0 && active.size + size > maxSegmentBytes) {
+                rotate();
+            }
+            long offset = active.size;
+            writeFully(active.channel, record, offset);
+            active.size += size;
+            active.minSequence = Math.min(active.minSequence, sequence);
+            totalBytes += size;
+            writtenSequence = sequence;
+            if (durability.sync) {
+                active.channel.force(false);
+            }
+            if (type == TYPE_DELETE) {
+                return tombstone(active.id, offset, size, sequence);
+            }
+            return new Location(active.id, offset, size, sequence, relatedKey, flags, savedAt != null ? savedAt : 0, requestedAt != null ? requestedAt : 0, expiresAt != null ? expiresAt : 0, body != null ? body.length : -1, attachment != null ? attachment.length : -1);
+        } catch (IOException e) {
+            throw new LogStructuredStorageException(e);
+        }
+    }
+
+    private void rotate() throws IOException {
+        if (durability.sync || durability.groupCommitMillis > 0) {
+            active.channel.force(false);
+        }
+        active = new Segment(nextSegmentId++, new RandomAccessFile(dataFile(nextSegmentId - 1), "rw"));
+        segments.put(active.id, active);
+        if (executor != null && !compacting && liveBytes * 2 < totalBytes) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    compact();
+                }
+            });
+        }
+    }
+
+    private void commit() {
+        FileChannel channel;
+        long sequence;
+        synchronized (this) {
+            if (active == null) {
+                return;
+            }
+            channel = active.channel;
+            sequence = writtenSequence;
+        }
+        IOException failure = null;
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            failure = e;
+        }
+        synchronized (commitLock) {
+            if (failure != null) {
+                commitFailure = failure;
+            } else if (sequence > syncedSequence) {
+                syncedSequence = sequence;
+            }
+            commitLock.notifyAll();
+        }
+    }
+
+    /**
+     * Blocks a group committed write until a commit has flushed it.
+     */
+    private void awaitDurable(long sequence) {
+        if (durability.groupCommitMillis <= 0) {
+            return;
+        }
+        synchronized (commitLock) {
+            while (syncedSequence < sequence) {
+                if (commitFailure != null) {
+                    throw new LogStructuredStorageException(commitFailure);
+                }
+                try {
+                    commitLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new LogStructuredStorageException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param kept    tombstones in {@code sources} to copy into the outputs.
+     * @param dropped tombstones in {@code sources} to forget.
+     */
+    private void merge(@NotNull List<Segment> sources, @NotNull List<Map.Entry<String, Location>> snapshot, @NotNull List<Map.Entry<String, Location>> kept, @NotNull List<Map.Entry<String, Location>> dropped) throws IOException {
+        long now = System.currentTimeMillis();
+        Map<String, Location> moved = new HashMap<>();
+        Map<String, Location> movedTombstones = new HashMap<>();
+        Set<String> expired = new HashSet<>();
+        List<Segment> outputs = new ArrayList<>();
+        List<Map.Entry<String, Location>> copying = new ArrayList<>(snapshot.size() + kept.size());
+        copying.addAll(snapshot);
+        copying.addAll(kept);
+
+        Segment output = null;
+        DataOutputStream hints = null;
+        FileOutputStream hintsFile = null;
+        try {
+            for (int i = 0; i < copying.size(); i++) {
+                Map.Entry<String, Location> entry = copying.get(i);
+                Location location = entry.getValue();
+                boolean tombstone = i >= snapshot.size();
+                if (!tombstone && retentionMillis > 0 && location.getSavedAtTimeMillis() != null && location.savedAt + retentionMillis < now) {
+                    expired.add(entry.getKey());
+                    continue;
+                }
+                ByteBuffer record = ByteBuffer.allocate(location.size);
+                readFully(segmentOf(location.segmentId).channel, record, location.offset);
+                record.flip();
+
+                if (output != null && output.size + location.size > maxSegmentBytes) {
+                    finish(output, hints, hintsFile);
+                    output = null;
+                }
+                if (output == null) {
+                    long id;
+                    synchronized (this) {
+                        id = nextSegmentId++;
+                    }
+                    output = new Segment(id, new RandomAccessFile(temporary(dataFile(id)), "rw"));
+                    outputs.add(output);
+                    hintsFile = new FileOutputStream(temporary(hintFile(id)));
+                    hints = new DataOutputStream(new BufferedOutputStream(hintsFile));
+                }
+                long offset = output.size;
+                writeFully(output.channel, record, offset);
+                output.size += location.size;
+                output.minSequence = Math.min(output.minSequence, location.sequence);
+
+                Location copied = location.movedTo(output.id, offset);
+                (tombstone ? movedTombstones : moved).put(entry.getKey(), copied);
+                writeHint(hints, entry.getKey(), copied);
+            }
+            if (output != null) {
+                finish(output, hints, hintsFile);
+            }
+        } catch (IOException e) {
+            for (Segment segment : outputs) {
+                segment.channel.close();
+                temporary(dataFile(segment.id)).delete();
+                temporary(hintFile(segment.id)).delete();
+            }
+            throw e;
+        }
+
+        synchronized (this) {
+            for (Segment segment : outputs) {
+                File data = dataFile(segment.id);
+                if (!temporary(data).renameTo(data) || !temporary(hintFile(segment.id)).renameTo(hintFile(segment.id))) {
+                    throw new LogStructuredStorageException("cannot install " + data);
+                }
+                Segment installed = new Segment(segment.id, new RandomAccessFile(data, "rw"));
+                installed.minSequence = segment.minSequence;
+                segments.put(installed.id, installed);
+                totalBytes += installed.size;
+            }
+            for (Map.Entry<String, Location> entry : snapshot) {
+                String key = entry.getKey();
+                if (keydir.get(key) != entry.getValue()) {
+                    // saved or removed again while copying.
+                    continue;
+                }
+                Location copied = moved.get(key);
+                if (copied != null) {
+                    keydir.put(key, copied);
+                } else if (expired.contains(key)) {
+                    unindex(key);
+                }
+            }
+            for (Map.Entry<String, Location> entry : kept) {
+                if (tombstones.get(entry.getKey()) == entry.getValue()) {
+                    tombstones.put(entry.getKey(), movedTombstones.get(entry.getKey()));
+                }
+            }
+            for (Map.Entry<String, Location> entry : dropped) {
+                if (tombstones.get(entry.getKey()) == entry.getValue()) {
+                    tombstones.remove(entry.getKey());
+                }
+            }
+            for (Segment source : sources) {
+                segments.remove(source.id);
+                source.channel.close();
+                totalBytes -= source.size;
+                dataFile(source.id).delete();
+                hintFile(source.id).delete();
+            }
+        }
+    }
+
+    @NotNull
+    private static Location tombstone(long segmentId, long offset, int size, long sequence) {
+        return new Location(segmentId, offset, size, sequence, "", FLAG_TOMBSTONE, 0, 0, 0, -1, -1);
+    }
+
+    @NotNull
+    private synchronized Segment segmentOf(long id) {
+        return segments.get(id);
+    }
+
+    private static void finish(@NotNull Segment output, @NotNull DataOutputStream hints, @NotNull FileOutputStream hintsFile) throws IOException {
+        output.channel.force(false);
+        output.channel.close();
+        hints.flush();
+        hintsFile.getFD().sync();
+        hints.close();
+    }
+
+    private static void writeHint(@NotNull DataOutputStream hints, @NotNull String key, @NotNull Location location) throws IOException {
+        hints.writeLong(location.sequence);
+        hints.writeLong(location.offset);
+        hints.writeInt(location.size);
+        hints.writeByte(location.flags);
+        hints.writeLong(location.savedAt);
+        hints.writeLong(location.requestedAt);
+        hints.writeLong(location.expiresAt);
+        hints.writeInt(location.bodyLength);
+        hints.writeInt(location.attachmentLength);
+        writeString(hints, key);
+        writeString(hints, location.relatedKey);
+    }
+
+    private static void writeString(@NotNull DataOutputStream out, @NotNull String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @NotNull
+    private static String readString(@NotNull DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private boolean recoverFromHints(@NotNull Segment segment) throws IOException {
+        File file = hintFile(segment.id);
+        if (!file.isFile()) {
+            return false;
+        }
+        List<Map.Entry<String, Location>> recovered = new ArrayList<>();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            while (true) {
+                long sequence;
+                try {
+                    sequence = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                long offset = in.readLong();
+                int size = in.readInt();
+                byte flags = in.readByte();
+                long savedAt = in.readLong();
+                long requestedAt = in.readLong();
+                long expiresAt = in.readLong();
+                int bodyLength = in.readInt();
+                int attachmentLength = in.readInt();
+                String key = readString(in);
+                String relatedKey = readString(in);
+                recovered.add(new AbstractMap.SimpleImmutableEntry<>(key, new Location(segment.id, offset, size, sequence, relatedKey, flags, savedAt, requestedAt, expiresAt, bodyLength, attachmentLength)));
+            }
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            in.close();
+        }
+        for (Map.Entry<String, Location> entry : recovered) {
+            Location location = entry.getValue();
+            segment.minSequence = Math.min(segment.minSequence, location.sequence);
+            if ((location.flags & FLAG_TOMBSTONE) != 0) {
+                recoverDelete(entry.getKey(), location);
+            } else {
+                recoverPut(entry.getKey(), location);
+            }
+        }
+        return true;
+    }
+
+    private void recoverFromData(@NotNull Segment segment) throws IOException {
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        while (position + RECORD_HEADER_SIZE <= segment.size) {
+            header.clear();
+            readFully(segment.channel, header, position);
+            byte type = header.get(4);
+            long sequence = header.getLong(5);
+            int keyLength = header.getInt(13);
+            int relatedKeyLength = header.getInt(17);
+            int bodyLength = header.getInt(46);
+            int attachmentLength = header.getInt(50);
+            long size = (long) RECORD_HEADER_SIZE + keyLength + relatedKeyLength + Math.max(0, bodyLength) + Math.max(0, attachmentLength);
+            if (keyLength < 0 || relatedKeyLength < 0 || bodyLength < -1 || attachmentLength < -1 || position + size > segment.size) {
+                break;
+            }
+            ByteBuffer record = ByteBuffer.allocate((int) size);
+            readFully(segment.channel, record, position);
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), 4, (int) size - 4);
+            if (record.getInt(0) != (int) crc.getValue()) {
+                break;
+            }
+            String key = new String(record.array(), RECORD_HEADER_SIZE, keyLength, UTF_8);
+            if (type == TYPE_DELETE) {
+                recoverDelete(key, tombstone(segment.id, position, (int) size, sequence));
+            } else {
+                String relatedKey = new String(record.array(), RECORD_HEADER_SIZE + keyLength, relatedKeyLength, UTF_8);
+                recoverPut(key, new Location(segment.id, position, (int) size, sequence, relatedKey, header.get(21), header.getLong(22), header.getLong(30), header.getLong(38), bodyLength, attachmentLength));
+            }
+            segment.minSequence = Math.min(segment.minSequence, sequence);
+            nextSequence = Math.max(nextSequence, sequence + 1);
+            position += size;
+        }
+        if (position < segment.size) {
+            segment.channel.truncate(position);
+            segment.size = position;
+        }
+    }
+
+    private void recoverPut(@NotNull String key, @NotNull Location location) {
+        nextSequence = Math.max(nextSequence, location.sequence + 1);
+        Location removed = tombstones.get(key);
+        Location current = keydir.get(key);
+        if ((removed != null && removed.sequence > location.sequence) || (current != null && current.sequence >= location.sequence)) {
+            return;
+        }
+        index(key, location);
+    }
+
+    private void recoverDelete(@NotNull String key, @NotNull Location tombstone) {
+        nextSequence = Math.max(nextSequence, tombstone.sequence + 1);
+        Location removed = tombstones.get(key);
+        if (removed == null || removed.sequence < tombstone.sequence) {
+            tombstones.put(key, tombstone);
+        }
+        Location current = keydir.get(key);
+        if (current != null && current.sequence < tombstone.sequence) {
+            unindex(key);
+        }
+    }
+
+    private void index(@NotNull String key, @NotNull Location location) {
+        Location old = keydir.put(key, location);
+        liveBytes += location.size;
+        if (old != null) {
+            liveBytes -= old.size;
+            if (old.relatedKey.equals(location.relatedKey)) {
+                return;
+            }
+            leaveGroup(old.relatedKey, key);
+        }
+        Set<String> keys = byRelatedKey.get(location.relatedKey);
+        if (keys == null) {
+            keys = new HashSet<>();
+            byRelatedKey.put(location.relatedKey, keys);
+        }
+        keys.add(key);
+    }
+
+    private void unindex(@NotNull String key) {
+        Location old = keydir.remove(key);
+        if (old != null) {
+            liveBytes -= old.size;
+            leaveGroup(old.relatedKey, key);
+        }
+    }
+
+    private void leaveGroup(@NotNull String relatedKey, @NotNull String serializedKey) {
+        Set<String> keys = byRelatedKey.get(relatedKey);
+        if (keys != null) {
+            keys.remove(serializedKey);
+            if (keys.isEmpty()) {
+                byRelatedKey.remove(relatedKey);
+            }
+        }
+    }
+
+    @NotNull
+    private File dataFile(long id) {
+        return new File(directory, String.format(Locale.US, "%016d", id) + DATA_SUFFIX);
+    }
+
+    @NotNull
+    private File hintFile(long id) {
+        return new File(directory, String.format(Locale.US, "%016d", id) + HINT_SUFFIX);
+    }
+
+    @NotNull
+    private static File temporary(@NotNull File file) {
+        return new File(file.getParentFile(), file.getName() + TEMPORARY_SUFFIX);
+    }
+
+    @Nullable
+    private static byte[] copy(@NotNull ByteBuffer record, int at, int length) {
+        if (length < 0) {
+            return null;
+        }
+        byte[] ret = new byte[length];
+        System.arraycopy(record.array(), at, ret, 0, length);
+        return ret;
+    }
+
+    private static void readFully(@NotNull FileChannel channel, @NotNull ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private static void writeFully(@NotNull FileChannel channel, @NotNull ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    public static final class Durability {
+
+        private final boolean sync;
+        private final long groupCommitMillis;
+
+        private Durability(boolean sync, long groupCommitMillis) {
+            this.sync = sync;
+            this.groupCommitMillis = groupCommitMillis;
+        }
+
+        /**
+         * Leaves flushing to the OS; a crash may lose the latest writes.
+         */
+        @NotNull
+        public static Durability none() {
+            return new Durability(false, 0);
+        }
+
+        /**
+         * Flushes every write before it returns.
+         */
+        @NotNull
+        public static Durability sync() {
+            return new Durability(true, 0);
+        }
+
+        /**
+         * Flushes the writes of every {@code interval} at once; each write returns after the flush covering it.
+         */
+        @NotNull
+        public static Durability groupCommit(long interval, @NotNull TimeUnit unit) {
+            if (interval <= 0) {
+                throw new IllegalArgumentException("interval must be positive: " + interval);
+            }
+            return new Durability(false, unit.toMillis(interval));
+        }
+
+    }
+
+    private static class Segment {
+
+        private final long id;
+
+        @NotNull
+        private final FileChannel channel;
+
+        private long size;
+
+        /**
+         * Lowest sequence number of the records in this segment; merge outputs hold old sequence numbers under new ids.
+         */
+        private long minSequence = Long.MAX_VALUE;
+
+        private Segment(long id, @NotNull RandomAccessFile file) throws IOException {
+            this.id = id;
+            this.channel = file.getChannel();
+            this.size = file.length();
+        }
+
+    }
+
+    private static class Location {
+
+        private final long segmentId;
+        private final long offset;
+        private final int size;
+        private final long sequence;
+
+        @NotNull
+        private final String relatedKey;
+
+        private final byte flags;
+        private final long savedAt;
+        private final long requestedAt;
+        private final long expiresAt;
+        private final int bodyLength;
+        private final int attachmentLength;
+
+        private Location(long segmentId, long offset, int size, long sequence, @NotNull String relatedKey, byte flags, long savedAt, long requestedAt, long expiresAt, int bodyLength, int attachmentLength) {
+            this.segmentId = segmentId;
+            this.offset = offset;
+            this.size = size;
+            this.sequence = sequence;
+            this.relatedKey = relatedKey;
+            this.flags = flags;
+            this.savedAt = savedAt;
+            this.requestedAt = requestedAt;
+            this.expiresAt = expiresAt;
+            this.bodyLength = bodyLength;
+            this.attachmentLength = attachmentLength;
+        }
+
+        @NotNull
+        private Location movedTo(long segmentId, long offset) {
+            return new Location(segmentId, offset, size, sequence, relatedKey, flags, savedAt, requestedAt, expiresAt, bodyLength, attachmentLength);
+        }
+
+        @Nullable
+        private Long getSavedAtTimeMillis() {
+            return (flags & FLAG_SAVED_AT) != 0 ? savedAt : null;
+        }
+
+        @Nullable
+        private Long getRequestedAtTimeMillis() {
+            return (flags & FLAG_REQUESTED_AT) != 0 ? requestedAt : null;
+        }
+
+        @Nullable
+        private Long getExpiresAtTimeMillis() {
+            return (flags & FLAG_EXPIRES_AT) != 0 ? expiresAt : null;
+        }
+
+    }
+
+    public static class LogStructuredStorageException extends RuntimeException {
+
+        public LogStructuredStorageException(String message) {
+            super(message);
+        }
+
+        public LogStructuredStorageException(Throwable throwable) {
+            super(throwable);
+        }
+
+    }
+
+}
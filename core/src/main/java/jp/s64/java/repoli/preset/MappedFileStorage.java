@@ -0,0 +1,658 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import jp.s64.java.repoli.base.BaseStorage;
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.core.IRepositoryDataMetadata;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataMetadata;
+
+/**
+ * Persists entries in a memory-mapped file, so a restarted process finds its cache warm.
+ * <p>
+ * The file holds a header, an open-addressing table from serialized keys to records, a second table from related keys
+ * to the newest record of their group, and the records themselves, appended and linked into a chain per related key.
+ * Opening maps the file on first use without scanning it, and reads touch mapped memory only.
+ * <p>
+ * An overwrite within the same group is written in place when it fits in the previous record. Other overwrites and
+ * removals leave dead records behind, and {@link #compact()} rewrites the live ones into a fresh file with fresh chains.
+ * A save compacts first when the file would have to grow while at least half of it is dead, or when it would not fit
+ * in {@code maximumBytes}, at most 2 GB. Every method is synchronized.
+ */
+public class MappedFileStorage<TB, BA> extends BaseStorage<TB, BA> implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MAGIC = 0x52504c4d;
+    private static final int VERSION = 3;
+
+    private static final int HEADER_SIZE = 64;
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_DATA_END = 8;
+    private static final int H_KEY_TABLE = 16;
+    private static final int H_KEY_SLOTS = 24;
+    private static final int H_KEY_USED = 28;
+    private static final int H_RELATED_TABLE = 32;
+    private static final int H_RELATED_SLOTS = 40;
+    private static final int H_RELATED_USED = 44;
+    private static final int H_DEAD_BYTES = 48;
+
+    /**
+     * record offset, 0 when empty and -1 when removed, then the key hash and padding.
+     */
+    private static final int SLOT_SIZE = 16;
+    private static final long EMPTY = 0;
+    private static final long REMOVED = -1;
+
+    private static final int R_KEY_LENGTH = 0;
+    private static final int R_RELATED_KEY_LENGTH = 4;
+    private static final int R_SAVED_AT = 8;
+    private static final int R_REQUESTED_AT = 16;
+    private static final int R_EXPIRES_AT = 24;
+    private static final int R_FLAGS = 32;
+    private static final int R_BODY_LENGTH = 33;
+    private static final int R_ATTACHMENT_LENGTH = 37;
+    private static final int R_NEXT_RELATED = 41;
+    private static final int R_CAPACITY = 49;
+    private static final int RECORD_HEADER_SIZE = 53;
+
+    private static final byte FLAG_SAVED_AT = 1;
+    private static final byte FLAG_REQUESTED_AT = 2;
+    private static final byte FLAG_LIVE = 4;
+    private static final byte FLAG_EXPIRES_AT = 8;
+
+    @NotNull
+    private final File file;
+
+    private final int initialSlots;
+
+    private final long maximumBytes;
+
+    @Nullable
+    private RandomAccessFile raf;
+
+    @Nullable
+    private MappedByteBuffer buffer;
+
+    public MappedFileStorage(@NotNull File file) {
+        this(file, 1024);
+    }
+
+    /**
+     * @param initialSlots slots of each table when {@code file} is created; rounded up to a power of two.
+     */
+    public MappedFileStorage(@NotNull File file, int initialSlots) {
+        this(file, initialSlots, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maximumBytes size the file may grow to; at most {@link Integer#MAX_VALUE}.
+     */
+    public MappedFileStorage(@NotNull File file, int initialSlots, long maximumBytes) {
+        this.file = file;
+        this.initialSlots = Integer.highestOneBit(Math.max(16, initialSlots - 1) << 1);
+        if (maximumBytes > Integer.MAX_VALUE || maximumBytes < HEADER_SIZE + 2L * this.initialSlots * SLOT_SIZE) {
+            throw new IllegalArgumentException("maximumBytes must hold the tables and fit in 2 GB: " + maximumBytes);
+        }
+        this.maximumBytes = maximumBytes;
+    }
+
+    public long getMaximumBytes() {
+        return maximumBytes;
+    }
+
+    /**
+     * @return bytes taken by overwritten and removed records and by replaced tables.
+     */
+    public synchronized long getDeadBytes() {
+        return open().getLong(H_DEAD_BYTES);
+    }
+
+    @Override
+    public synchronized IRepositoryDataContainer<byte[], byte[]> getBySerializedKey(String serializedKey) {
+        MappedByteBuffer buffer = open();
+        long record = recordOf(findKeySlot(buffer, serializedKey.getBytes(UTF_8), serializedKey.hashCode()));
+        if (record <= 0) {
+            return ImmutableRepositoryDataContainer.empty();
+        }
+        int position = (int) record;
+        byte flags = buffer.get(position + R_FLAGS);
+        int bodyLength = buffer.getInt(position + R_BODY_LENGTH);
+        int attachmentLength = buffer.getInt(position + R_ATTACHMENT_LENGTH);
+        int bodyAt = position + RECORD_HEADER_SIZE + buffer.getInt(position + R_KEY_LENGTH) + buffer.getInt(position + R_RELATED_KEY_LENGTH);
+        return ImmutableRepositoryDataContainer.of(
+                read(buffer, bodyAt, bodyLength),
+                read(buffer, bodyAt + Math.max(0, bodyLength), attachmentLength),
+                (flags & FLAG_SAVED_AT) != 0 ? buffer.getLong(position + R_SAVED_AT) : null,
+                (flags & FLAG_REQUESTED_AT) != 0 ? buffer.getLong(position + R_REQUESTED_AT) : null,
+                (flags & FLAG_EXPIRES_AT) != 0 ? buffer.getLong(position + R_EXPIRES_AT) : null
+        );
+    }
+
+    @Override
+    public synchronized IRepositoryDataMetadata getMetadataBySerializedKey(String serializedKey, String relatedKey) {
+        MappedByteBuffer buffer = open();
+        long record = recordOf(findKeySlot(buffer, serializedKey.getBytes(UTF_8), serializedKey.hashCode()));
+        if (record <= 0) {
+            return ImmutableRepositoryDataMetadata.empty();
+        }
+        int position = (int) record;
+        byte flags = buffer.get(position + R_FLAGS);
+        return ImmutableRepositoryDataMetadata.of(
+                (flags & FLAG_SAVED_AT) != 0 ? buffer.getLong(position + R_SAVED_AT) : null,
+                (flags & FLAG_REQUESTED_AT) != 0 ? buffer.getLong(position + R_REQUESTED_AT) : null,
+                (flags & FLAG_EXPIRES_AT) != 0 ? buffer.getLong(position + R_EXPIRES_AT) : null,
+                Math.max(0, buffer.getInt(position + R_BODY_LENGTH)),
+                Math.max(0, buffer.getInt(position + R_ATTACHMENT_LENGTH)),
+                readRelatedKey(buffer, position)
+        );
+    }
+
+    @Override
+    public synchronized int removeBySerializedKey(String serializedKey) {
+        MappedByteBuffer buffer = open();
+        int slot = findKeySlot(buffer, serializedKey.getBytes(UTF_8), serializedKey.hashCode());
+        long record = recordOf(slot);
+        if (record <= 0) {
+            return 0;
+        }
+        kill(buffer, (int) record);
+        buffer.putLong(slot, REMOVED);
+        return 1;
+    }
+
+    @Override
+    public synchronized int removeRelativesByRelatedKey(String relatedKey) {
+        MappedByteBuffer buffer = open();
+        int slot = findRelatedSlot(buffer, relatedKey.getBytes(UTF_8), relatedKey.hashCode());
+        long record = recordOf(slot);
+        if (record <= 0) {
+            return 0;
+        }
+        int ret = 0;
+        while (record > 0) {
+            int position = (int) record;
+            if ((buffer.get(position + R_FLAGS) & FLAG_LIVE) != 0) {
+                byte[] key = readBytes(buffer, position + RECORD_HEADER_SIZE, buffer.getInt(position + R_KEY_LENGTH));
+                int keySlot = findKeySlot(buffer, key, new String(key, UTF_8).hashCode());
+                if (recordOf(keySlot) == record) {
+                    buffer.putLong(keySlot, REMOVED);
+                }
+                kill(buffer, position);
+                ret++;
+            }
+            record = buffer.getLong(position + R_NEXT_RELATED);
+        }
+        buffer.putLong(slot, REMOVED);
+        return ret;
+    }
+
+    @Override
+    public synchronized void saveBySerializedKey(String serializedKey, String relatedKey, IRepositoryDataContainer<byte[], byte[]> container) {
+        byte[] key = serializedKey.getBytes(UTF_8);
+        byte[] related = relatedKey.getBytes(UTF_8);
+        byte[] body = container.getBody();
+        byte[] attachment = container.getAttachment();
+        Long savedAt = container.getSavedAtTimeMillis();
+        Long requestedAt = container.getRequestedAtTimeMillis();
+        Long expiresAt = container.getExpiresAtTimeMillis();
+
+        int payload = (body != null ? body.length : 0) + (attachment != null ? attachment.length : 0);
+
+        MappedByteBuffer buffer = open();
+        int keySlot = findKeySlot(buffer, key, serializedKey.hashCode());
+        {
+            long old = recordOf(keySlot);
+            if (old > 0 && buffer.getInt((int) old + R_CAPACITY) >= payload && matches(buffer, (int) old, related, R_RELATED_KEY_LENGTH)) {
+                writeEntry(buffer, (int) old, savedAt, requestedAt, expiresAt, body, attachment);
+                return;
+            }
+        }
+        int size = RECORD_HEADER_SIZE + key.length + related.length + payload;
+        if (shouldCompact(buffer, size)) {
+            compact();
+            buffer = open();
+            keySlot = findKeySlot(buffer, key, serializedKey.hashCode());
+        }
+        if (keySlot < 0) {
+            buffer = growIfNeeded(buffer, H_KEY_TABLE, H_KEY_SLOTS, H_KEY_USED);
+            keySlot = findKeySlot(buffer, key, serializedKey.hashCode());
+        }
+        int relatedSlot = findRelatedSlot(buffer, related, relatedKey.hashCode());
+        if (relatedSlot < 0) {
+            buffer = growIfNeeded(buffer, H_RELATED_TABLE, H_RELATED_SLOTS, H_RELATED_USED);
+            relatedSlot = findRelatedSlot(buffer, related, relatedKey.hashCode());
+        }
+
+        int position = (int) buffer.getLong(H_DATA_END);
+        buffer = reserve(buffer, position, size);
+        {
+            buffer.putInt(position + R_KEY_LENGTH, key.length);
+            buffer.putInt(position + R_RELATED_KEY_LENGTH, related.length);
+            buffer.putLong(position + R_NEXT_RELATED, Math.max(0, recordOf(relatedSlot)));
+            buffer.putInt(position + R_CAPACITY, payload);
+            int at = position + RECORD_HEADER_SIZE;
+            at = write(buffer, at, key);
+            write(buffer, at, related);
+            writeEntry(buffer, position, savedAt, requestedAt, expiresAt, body, attachment);
+        }
+        buffer.putLong(H_DATA_END, position + size);
+
+        claim(buffer, positionOf(relatedSlot), relatedKey.hashCode(), H_RELATED_USED);
+        buffer.putLong(positionOf(relatedSlot), position);
+
+        long old = recordOf(keySlot);
+        if (old > 0) {
+            kill(buffer, (int) old);
+        }
+        claim(buffer, positionOf(keySlot), serializedKey.hashCode(), H_KEY_USED);
+        buffer.putLong(positionOf(keySlot), position);
+    }
+
+    /**
+     * Rewrites the live records into a new file that then replaces the current one, dropping dead records,
+     * replaced tables and dead links of the related key chains.
+     */
+    public synchronized void compact() {
+        MappedByteBuffer buffer = open();
+        int table = (int) buffer.getLong(H_KEY_TABLE);
+        int slots = buffer.getInt(H_KEY_SLOTS);
+        int live = 0;
+        long liveBytes = 0;
+        for (int i = 0; i < slots; i++) {
+            long record = buffer.getLong(table + i * SLOT_SIZE);
+            if (record > 0) {
+                live++;
+                liveBytes += sizeOf(buffer, (int) record, false);
+            }
+        }
+        int newSlots = initialSlots;
+        while ((live + 1) * 4L > newSlots * 3L) {
+            newSlots <<= 1;
+        }
+        long dataStart = HEADER_SIZE + 2L * newSlots * SLOT_SIZE;
+        if (dataStart + liveBytes > maximumBytes) {
+            throw new MappedFileStorageException("file is full: " + file);
+        }
+
+        File temporary = new File(file.getPath() + ".compacting");
+        RandomAccessFile target = null;
+        try {
+            if (temporary.exists() && !temporary.delete()) {
+                throw new IOException("failed to delete " + temporary);
+            }
+            target = new RandomAccessFile(temporary, "rw");
+            MappedByteBuffer to = target.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Math.min(maximumBytes, Math.max(dataStart + liveBytes, 1024 * 1024)));
+            initialize(to, newSlots);
+            int position = (int) dataStart;
+            for (int i = 0; i < slots; i++) {
+                int slot = table + i * SLOT_SIZE;
+                long record = buffer.getLong(slot);
+                if (record > 0) {
+                    position = copy(buffer, (int) record, buffer.getInt(slot + 8), to, position);
+                }
+            }
+            to.putLong(H_DATA_END, position);
+            to.force();
+
+            raf.close();
+            raf = null;
+            this.buffer = null;
+            if (!temporary.renameTo(file)) {
+                throw new IOException("failed to replace " + file);
+            }
+            raf = target;
+            this.buffer = to;
+        } catch (IOException e) {
+            if (target != null && target != raf) {
+                try {
+                    target.close();
+                } catch (IOException ignored) {
+                    // already failing
+                }
+                temporary.delete();
+            }
+            throw new MappedFileStorageException(e);
+        }
+    }
+
+    /**
+     * Writes mapped changes through to the file.
+     */
+    public synchronized void flush() {
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (raf != null) {
+            flush();
+            buffer = null;
+            raf.close();
+            raf = null;
+        }
+    }
+
+    @NotNull
+    private MappedByteBuffer open() {
+        if (buffer != null) {
+            return buffer;
+        }
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            if (raf.length() == 0) {
+                buffer = map(Math.min(maximumBytes, Math.max(HEADER_SIZE + 2L * initialSlots * SLOT_SIZE, 1024 * 1024)));
+                initialize(buffer, initialSlots);
+            } else {
+                buffer = map(raf.length());
+                if (buffer.getInt(H_MAGIC) != MAGIC || buffer.getInt(H_VERSION) != VERSION) {
+                    throw new MappedFileStorageException("not a storage file: " + file);
+                }
+            }
+            return buffer;
+        } catch (IOException e) {
+            throw new MappedFileStorageException(e);
+        }
+    }
+
+    /**
+     * Writes the header and two empty tables of {@code slots} slots into a zero-filled mapping.
+     */
+    private static void initialize(@NotNull MappedByteBuffer buffer, int slots) {
+        long tableSize = (long) slots * SLOT_SIZE;
+        buffer.putInt(H_MAGIC, MAGIC);
+        buffer.putInt(H_VERSION, VERSION);
+        buffer.putLong(H_KEY_TABLE, HEADER_SIZE);
+        buffer.putInt(H_KEY_SLOTS, slots);
+        buffer.putLong(H_RELATED_TABLE, HEADER_SIZE + tableSize);
+        buffer.putInt(H_RELATED_SLOTS, slots);
+        buffer.putLong(H_DATA_END, HEADER_SIZE + 2 * tableSize);
+    }
+
+    @NotNull
+    private MappedByteBuffer map(long size) throws IOException {
+        return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * Remaps a larger file when {@code size} bytes at {@code position} do not fit in the current mapping.
+     */
+    @NotNull
+    private MappedByteBuffer reserve(@NotNull MappedByteBuffer buffer, long position, long size) {
+        long end = position + size;
+        if (end <= buffer.capacity()) {
+            return buffer;
+        }
+        if (end > maximumBytes) {
+            throw new MappedFileStorageException("file is full: " + file);
+        }
+        try {
+            this.buffer = map(Math.min(maximumBytes, Math.max(end, 2L * buffer.capacity())));
+            return this.buffer;
+        } catch (IOException e) {
+            throw new MappedFileStorageException(e);
+        }
+    }
+
+    /**
+     * Rewrites a table twice as large at the end of the data once it is three quarters used, removed slots included.
+     * The header switches to the new table only after it is complete.
+     */
+    @NotNull
+    private MappedByteBuffer growIfNeeded(@NotNull MappedByteBuffer buffer, int tableField, int slotsField, int usedField) {
+        int slots = buffer.getInt(slotsField);
+        if ((buffer.getInt(usedField) + 1) * 4L <= slots * 3L) {
+            return buffer;
+        }
+        int table = (int) buffer.getLong(tableField);
+        int live = 0;
+        for (int i = 0; i < slots; i++) {
+            if (buffer.getLong(table + i * SLOT_SIZE) > 0) {
+                live++;
+            }
+        }
+        int newSlots = (live + 1) * 4L > slots * 3L / 2 ? slots * 2 : slots;
+        int newTable = (int) buffer.getLong(H_DATA_END);
+        buffer = reserve(buffer, newTable, (long) newSlots * SLOT_SIZE);
+        for (int i = 0; i < newSlots; i++) {
+            buffer.putLong(newTable + i * SLOT_SIZE, EMPTY);
+            buffer.putInt(newTable + i * SLOT_SIZE + 8, 0);
+        }
+        for (int i = 0; i < slots; i++) {
+            int from = table + i * SLOT_SIZE;
+            long record = buffer.getLong(from);
+            if (record <= 0) {
+                continue;
+            }
+            int hash = buffer.getInt(from + 8);
+            int index = spread(hash) & (newSlots - 1);
+            while (buffer.getLong(newTable + index * SLOT_SIZE) != EMPTY) {
+                index = (index + 1) & (newSlots - 1);
+            }
+            buffer.putLong(newTable + index * SLOT_SIZE, record);
+            buffer.putInt(newTable + index * SLOT_SIZE + 8, hash);
+        }
+        buffer.putLong(H_DATA_END, newTable + (long) newSlots * SLOT_SIZE);
+        buffer.putInt(slotsField, newSlots);
+        buffer.putInt(usedField, live);
+        buffer.putLong(tableField, newTable);
+        buffer.putLong(H_DEAD_BYTES, buffer.getLong(H_DEAD_BYTES) + (long) slots * SLOT_SIZE);
+        return buffer;
+    }
+
+    /**
+     * @return true when appending {@code size} bytes, and possibly grown tables, would grow the file while at least
+     * half of it is dead, or would not fit in {@code maximumBytes} while compaction frees at least {@code size} bytes.
+     */
+    private boolean shouldCompact(@NotNull MappedByteBuffer buffer, int size) {
+        long end = buffer.getLong(H_DATA_END);
+        long needed = end + size + 2L * SLOT_SIZE * (buffer.getInt(H_KEY_SLOTS) + buffer.getInt(H_RELATED_SLOTS));
+        if (needed <= buffer.capacity()) {
+            return false;
+        }
+        long dead = buffer.getLong(H_DEAD_BYTES);
+        return dead * 2 >= end - HEADER_SIZE || (needed > maximumBytes && dead >= size);
+    }
+
+    /**
+     * Copies a live record to {@code position} of {@code to}, trimmed to its payload, and indexes it there.
+     *
+     * @return the position after the copy.
+     */
+    private int copy(@NotNull MappedByteBuffer from, int record, int hash, @NotNull MappedByteBuffer to, int position) {
+        int size = sizeOf(from, record, false);
+        {
+            ByteBuffer source = from.duplicate();
+            source.limit(record + size);
+            source.position(record);
+            ByteBuffer target = to.duplicate();
+            target.position(position);
+            target.put(source);
+        }
+        to.putInt(position + R_CAPACITY, size - RECORD_HEADER_SIZE - to.getInt(position + R_KEY_LENGTH) - to.getInt(position + R_RELATED_KEY_LENGTH));
+
+        byte[] key = readBytes(to, position + RECORD_HEADER_SIZE, to.getInt(position + R_KEY_LENGTH));
+        int keySlot = ~findSlot(to, H_KEY_TABLE, H_KEY_SLOTS, key, hash, R_KEY_LENGTH);
+        claim(to, keySlot, hash, H_KEY_USED);
+        to.putLong(keySlot, position);
+
+        byte[] related = readBytes(to, position + RECORD_HEADER_SIZE + key.length, to.getInt(position + R_RELATED_KEY_LENGTH));
+        int relatedHash = new String(related, UTF_8).hashCode();
+        int relatedSlot = findSlot(to, H_RELATED_TABLE, H_RELATED_SLOTS, related, relatedHash, R_RELATED_KEY_LENGTH);
+        to.putLong(position + R_NEXT_RELATED, relatedSlot >= 0 ? to.getLong(relatedSlot) : 0);
+        claim(to, positionOf(relatedSlot), relatedHash, H_RELATED_USED);
+        to.putLong(positionOf(relatedSlot), position);
+        return position + size;
+    }
+
+    /**
+     * @return the position of the slot holding {@code key}, or the bitwise complement of the slot to insert it into.
+     */
+    private int findKeySlot(@NotNull ByteBuffer buffer, @NotNull byte[] key, int hash) {
+        return findSlot(buffer, H_KEY_TABLE, H_KEY_SLOTS, key, hash, R_KEY_LENGTH);
+    }
+
+    private int findRelatedSlot(@NotNull ByteBuffer buffer, @NotNull byte[] relatedKey, int hash) {
+        return findSlot(buffer, H_RELATED_TABLE, H_RELATED_SLOTS, relatedKey, hash, R_RELATED_KEY_LENGTH);
+    }
+
+    private int findSlot(@NotNull ByteBuffer buffer, int tableField, int slotsField, @NotNull byte[] key, int hash, int lengthField) {
+        int table = (int) buffer.getLong(tableField);
+        int mask = buffer.getInt(slotsField) - 1;
+        int insertAt = -1;
+        for (int index = spread(hash) & mask; ; index = (index + 1) & mask) {
+            int slot = table + index * SLOT_SIZE;
+            long record = buffer.getLong(slot);
+            if (record == EMPTY) {
+                return ~(insertAt >= 0 ? insertAt : slot);
+            }
+            if (record == REMOVED) {
+                if (insertAt < 0) {
+                    insertAt = slot;
+                }
+            } else if (buffer.getInt(slot + 8) == hash && matches(buffer, (int) record, key, lengthField)) {
+                return slot;
+            }
+        }
+    }
+
+    private void claim(@NotNull ByteBuffer buffer, int slot, int hash, int usedField) {
+        if (buffer.getLong(slot) == EMPTY) {
+            buffer.putInt(usedField, buffer.getInt(usedField) + 1);
+        }
+        buffer.putInt(slot + 8, hash);
+    }
+
+    private static boolean matches(@NotNull ByteBuffer buffer, int record, @NotNull byte[] key, int lengthField) {
+        if (buffer.getInt(record + lengthField) != key.length) {
+            return false;
+        }
+        int at = record + RECORD_HEADER_SIZE + (lengthField == R_KEY_LENGTH ? 0 : buffer.getInt(record + R_KEY_LENGTH));
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(at + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the record a found slot points to, or 0 for an insertion point.
+     */
+    private long recordOf(int slot) {
+        return slot >= 0 ? buffer.getLong(slot) : 0;
+    }
+
+    private static int positionOf(int slot) {
+        return slot >= 0 ? slot : ~slot;
+    }
+
+    private static void kill(@NotNull ByteBuffer buffer, int record) {
+        buffer.put(record + R_FLAGS, (byte) (buffer.get(record + R_FLAGS) & ~FLAG_LIVE));
+        buffer.putLong(H_DEAD_BYTES, buffer.getLong(H_DEAD_BYTES) + sizeOf(buffer, record, true));
+    }
+
+    /**
+     * @param withCapacity whether to count the unused room left by an in-place overwrite.
+     */
+    private static int sizeOf(@NotNull ByteBuffer buffer, int record, boolean withCapacity) {
+        int payload = withCapacity
+                ? buffer.getInt(record + R_CAPACITY)
+                : Math.max(0, buffer.getInt(record + R_BODY_LENGTH)) + Math.max(0, buffer.getInt(record + R_ATTACHMENT_LENGTH));
+        return RECORD_HEADER_SIZE + buffer.getInt(record + R_KEY_LENGTH) + buffer.getInt(record + R_RELATED_KEY_LENGTH) + payload;
+    }
+
+    /**
+     * Writes timestamps, lengths and payload of a record whose keys are already written.
+     */
+    private static void writeEntry(@NotNull ByteBuffer buffer, int record, @Nullable Long savedAt, @Nullable Long requestedAt, @Nullable Long expiresAt, @Nullable byte[] body, @Nullable byte[] attachment) {
+        buffer.putLong(record + R_SAVED_AT, savedAt != null ? savedAt : 0);
+        buffer.putLong(record + R_REQUESTED_AT, requestedAt != null ? requestedAt : 0);
+        buffer.putLong(record + R_EXPIRES_AT, expiresAt != null ? expiresAt : 0);
+        buffer.put(record + R_FLAGS, (byte) (FLAG_LIVE | (savedAt != null ? FLAG_SAVED_AT : 0) | (requestedAt != null ? FLAG_REQUESTED_AT : 0) | (expiresAt != null ? FLAG_EXPIRES_AT : 0)));
+        buffer.putInt(record + R_BODY_LENGTH, body != null ? body.length : -1);
+        buffer.putInt(record + R_ATTACHMENT_LENGTH, attachment != null ? attachment.length : -1);
+        int at = record + RECORD_HEADER_SIZE + buffer.getInt(record + R_KEY_LENGTH) + buffer.getInt(record + R_RELATED_KEY_LENGTH);
+        at = write(buffer, at, body);
+        write(buffer, at, attachment);
+    }
+
+    @NotNull
+    private static String readRelatedKey(@NotNull ByteBuffer buffer, int record) {
+        int at = record + RECORD_HEADER_SIZE + buffer.getInt(record + R_KEY_LENGTH);
+        return new String(readBytes(buffer, at, buffer.getInt(record + R_RELATED_KEY_LENGTH)), UTF_8);
+    }
+
+    @Nullable
+    private static byte[] read(@NotNull ByteBuffer buffer, int at, int length) {
+        return length >= 0 ? readBytes(buffer, at, length) : null;
+    }
+
+    @NotNull
+    private static byte[] readBytes(@NotNull ByteBuffer buffer, int at, int length) {
+        byte[] ret = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(at);
+        view.get(ret);
+        return ret;
+    }
+
+    private static int write(@NotNull ByteBuffer buffer, int at, @Nullable byte[] bytes) {
+        if (bytes == null) {
+            return at;
+        }
+        ByteBuffer view = buffer.duplicate();
+        view.position(at);
+        view.put(bytes);
+        return at + bytes.length;
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        return hash ^ (hash >>> 13);
+    }
+
+    public static class MappedFileStorageException extends RuntimeException {
+
+        public MappedFileStorageException(String message) {
+            super(message);
+        }
+
+        public MappedFileStorageException(Throwable throwable) {
+            super(throwable);
+        }
+
+    }
+
+}
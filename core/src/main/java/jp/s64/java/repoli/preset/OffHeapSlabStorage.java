@@ -0,0 +1,504 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jp.s64.java.repoli.base.BaseStorage;
+import jp.s64.java.repoli.core.IEvictionListener;
+import jp.s64.java.repoli.core.IEvictionPolicy;
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.core.IRepositoryDataMetadata;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataMetadata;
+
+/**
+ * Keeps timestamps, bodies and attachments in direct {@link ByteBuffer} slabs, so they add nothing to GC work.
+ * Only the key indexes stay on the heap.
+ * <p>
+ * Each slab is cut into equal chunks of one size class, which grow by 25% from 64 bytes up to the slab size.
+ * An entry larger than a slab gets a buffer of its own.
+ * Slabs are allocated while they fit in the memory budget. Past it, {@link #compact()} is tried first; then entries
+ * chosen by the {@link IEvictionPolicy} are evicted until the save fits, and without a policy the save fails.
+ * An overwrite releases the previous entry before allocating, so a failed overwrite leaves the key removed.
+ * Every method is synchronized.
+ */
+public class OffHeapSlabStorage<TB, BA> extends BaseStorage<TB, BA> {
+
+    public static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+
+    private static final int MINIMUM_CHUNK_SIZE = 64;
+    private static final float GROWTH_FACTOR = 1.25f;
+
+    /**
+     * savedAt, requestedAt, timestamp flags, body length and attachment length; a null array has length -1.
+     */
+    private static final int HEADER_SIZE = 8 + 8 + 8 + 1 + 4 + 4;
+    private static final byte FLAG_SAVED_AT = 1;
+    private static final byte FLAG_REQUESTED_AT = 2;
+    private static final byte FLAG_EXPIRES_AT = 4;
+
+    private final long maximumBytes;
+    private final int slabSize;
+
+    @NotNull
+    private final SizeClass[] sizeClasses;
+
+    private final Map<String, Entry> byKey = new HashMap<>();
+    private final Map<String, Set<String>> byRelatedKey = new HashMap<>();
+
+    @Nullable
+    private final IEvictionPolicy policy;
+
+    @Nullable
+    private final IEvictionListener listener;
+
+    private long allocatedBytes = 0;
+
+    public OffHeapSlabStorage(long maximumBytes) {
+        this(maximumBytes, DEFAULT_SLAB_SIZE);
+    }
+
+    public OffHeapSlabStorage(long maximumBytes, int slabSize) {
+        this(maximumBytes, slabSize, null, null);
+    }
+
+    public OffHeapSlabStorage(long maximumBytes, int slabSize, @Nullable IEvictionPolicy policy) {
+        this(maximumBytes, slabSize, policy, null);
+    }
+
+    public OffHeapSlabStorage(long maximumBytes, int slabSize, @Nullable IEvictionPolicy policy, @Nullable IEvictionListener listener) {
+        if (slabSize < MINIMUM_CHUNK_SIZE) {
+            throw new IllegalArgumentException("slabSize must be at least " + MINIMUM_CHUNK_SIZE + ": " + slabSize);
+        }
+        if (maximumBytes < slabSize) {
+            throw new IllegalArgumentException("maximumBytes must hold at least one slab: " + maximumBytes);
+        }
+        this.maximumBytes = maximumBytes;
+        this.slabSize = slabSize;
+        this.policy = policy;
+        this.listener = listener;
+        {
+            List<SizeClass> classes = new ArrayList<>();
+            int chunkSize = MINIMUM_CHUNK_SIZE;
+            while (chunkSize < slabSize) {
+                classes.add(new SizeClass(chunkSize, slabSize / chunkSize));
+                chunkSize = Math.max(chunkSize + 8, ((int) (chunkSize * GROWTH_FACTOR) + 7) & ~7);
+            }
+            classes.add(new SizeClass(slabSize, 1));
+            this.sizeClasses = classes.toArray(new SizeClass[classes.size()]);
+        }
+    }
+
+    public long getMaximumBytes() {
+        return maximumBytes;
+    }
+
+    /**
+     * @return bytes of direct memory held by slabs, used or not.
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    @Override
+    public synchronized IRepositoryDataContainer<byte[], byte[]> getBySerializedKey(String serializedKey) {
+        Entry entry = byKey.get(serializedKey);
+        if (entry == null) {
+            return ImmutableRepositoryDataContainer.empty();
+        }
+        if (policy != null) {
+            policy.onAccess(serializedKey);
+        }
+        return read(entry);
+    }
+
+    @NotNull
+    private IRepositoryDataContainer<byte[], byte[]> read(@NotNull Entry entry) {
+        ByteBuffer buffer = entry.slab.buffer;
+        buffer.position(entry.slab.offsetOf(entry.chunk));
+        long savedAt = buffer.getLong();
+        long requestedAt = buffer.getLong();
+        long expiresAt = buffer.getLong();
+        byte flags = buffer.get();
+        int bodyLength = buffer.getInt();
+        int attachmentLength = buffer.getInt();
+        byte[] body = read(buffer, bodyLength);
+        byte[] attachment = read(buffer, attachmentLength);
+        return ImmutableRepositoryDataContainer.of(
+                body,
+                attachment,
+                (flags & FLAG_SAVED_AT) != 0 ? savedAt : null,
+                (flags & FLAG_REQUESTED_AT) != 0 ? requestedAt : null,
+                (flags & FLAG_EXPIRES_AT) != 0 ? expiresAt : null
+        );
+    }
+
+    @Override
+    public synchronized IRepositoryDataMetadata getMetadataBySerializedKey(String serializedKey, String relatedKey) {
+        Entry entry = byKey.get(serializedKey);
+        if (entry == null) {
+            return ImmutableRepositoryDataMetadata.empty();
+        }
+        ByteBuffer buffer = entry.slab.buffer;
+        int offset = entry.slab.offsetOf(entry.chunk);
+        byte flags = buffer.get(offset + 24);
+        return ImmutableRepositoryDataMetadata.of(
+                (flags & FLAG_SAVED_AT) != 0 ? buffer.getLong(offset) : null,
+                (flags & FLAG_REQUESTED_AT) != 0 ? buffer.getLong(offset + 8) : null,
+                (flags & FLAG_EXPIRES_AT) != 0 ? buffer.getLong(offset + 16) : null,
+                Math.max(0, buffer.getInt(offset + 25)),
+                Math.max(0, buffer.getInt(offset + 29)),
+                entry.relatedKey
+        );
+    }
+
+    @Override
+    public synchronized int removeBySerializedKey(String serializedKey) {
+        Entry entry = byKey.remove(serializedKey);
+        if (entry == null) {
+            return 0;
+        }
+        leaveGroup(entry.relatedKey, serializedKey);
+        free(entry);
+        if (policy != null) {
+            policy.onRemove(serializedKey);
+        }
+        return 1;
+    }
+
+    @Override
+    public synchronized int removeRelativesByRelatedKey(String relatedKey) {
+        Set<String> keys = byRelatedKey.remove(relatedKey);
+        if (keys == null) {
+            return 0;
+        }
+        for (String key : keys) {
+            free(byKey.remove(key));
+            if (policy != null) {
+                policy.onRemove(key);
+            }
+        }
+        return keys.size();
+    }
+
+    @Override
+    public synchronized void saveBySerializedKey(String serializedKey, String relatedKey, IRepositoryDataContainer<byte[], byte[]> container) {
+        byte[] body = container.getBody();
+        byte[] attachment = container.getAttachment();
+        Long savedAt = container.getSavedAtTimeMillis();
+        Long requestedAt = container.getRequestedAtTimeMillis();
+        Long expiresAt = container.getExpiresAtTimeMillis();
+        int weight = (body != null ? body.length : 0) + (attachment != null ? attachment.length : 0);
+
+        {
+            Entry old = byKey.remove(serializedKey);
+            if (old != null) {
+                leaveGroup(old.relatedKey, serializedKey);
+                free(old);
+                if (policy != null) {
+                    policy.onRemove(serializedKey);
+                }
+            }
+        }
+        Entry entry = allocate(HEADER_SIZE + weight);
+        entry.relatedKey = relatedKey;
+        {
+            ByteBuffer buffer = entry.slab.buffer;
+            buffer.position(entry.slab.offsetOf(entry.chunk));
+            buffer.putLong(savedAt != null ? savedAt : 0);
+            buffer.putLong(requestedAt != null ? requestedAt : 0);
+            buffer.putLong(expiresAt != null ? expiresAt : 0);
+            buffer.put((byte) ((savedAt != null ? FLAG_SAVED_AT : 0) | (requestedAt != null ? FLAG_REQUESTED_AT : 0) | (expiresAt != null ? FLAG_EXPIRES_AT : 0)));
+            buffer.putInt(body != null ? body.length : -1);
+            buffer.putInt(attachment != null ? attachment.length : -1);
+            if (body != null) {
+                buffer.put(body);
+            }
+            if (attachment != null) {
+                buffer.put(attachment);
+            }
+        }
+
+        byKey.put(serializedKey, entry);
+        if (policy != null) {
+            policy.onInsert(serializedKey, weight);
+        }
+        Set<String> keys = byRelatedKey.get(relatedKey);
+        if (keys == null) {
+            keys = new HashSet<>();
+            byRelatedKey.put(relatedKey, keys);
+        }
+        keys.add(serializedKey);
+    }
+
+    /**
+     * Moves entries out of sparsely used slabs into free chunks of the same size class, and releases every slab left empty.
+     * The released direct memory is returned to the OS once its buffer is garbage collected.
+     *
+     * @return bytes released from the budget.
+     */
+    public synchronized long compact() {
+        long released = 0;
+        for (SizeClass sizeClass : sizeClasses) {
+            while (true) {
+                Slab source = null;
+                int free = 0;
+                for (Slab slab : sizeClass.slabs) {
+                    free += slab.freeCount;
+                    if (source == null || slab.used() < source.used()) {
+                        source = slab;
+                    }
+                }
+                if (source == null || free - source.freeCount < source.used()) {
+                    break;
+                }
+                sizeClass.slabs.remove(source);
+                sizeClass.available.remove(source);
+                for (int i = 0; i < source.owners.length; i++) {
+                    Entry entry = source.owners[i];
+                    if (entry != null) {
+                        move(entry, sizeClass);
+                    }
+                }
+                allocatedBytes -= source.buffer.capacity();
+                released += source.buffer.capacity();
+            }
+        }
+        return released;
+    }
+
+    @NotNull
+    private Entry allocate(int size) {
+        Entry ret = new Entry();
+        if (size > slabSize) {
+            reserve(size, null);
+            ret.slab = new Slab(null, ByteBuffer.allocateDirect(size), 1);
+        } else {
+            SizeClass sizeClass = sizeClassOf(size);
+            if (sizeClass.available.isEmpty() && reserve(slabSize, sizeClass)) {
+                Slab slab = new Slab(sizeClass, ByteBuffer.allocateDirect(slabSize), sizeClass.chunksPerSlab);
+                sizeClass.slabs.add(slab);
+                sizeClass.available.add(slab);
+            }
+            ret.slab = sizeClass.available.peek();
+        }
+        ret.chunk = ret.slab.take(ret);
+        if (ret.slab.sizeClass != null && ret.slab.freeCount == 0) {
+            ret.slab.sizeClass.available.poll();
+        }
+        return ret;
+    }
+
+    /**
+     * Compacts, then evicts, until {@code size} more bytes fit in the budget or a chunk of {@code sizeClass} is freed.
+     *
+     * @return true when {@code size} bytes were added to the budget, false when a freed chunk can be taken instead.
+     */
+    private boolean reserve(long size, @Nullable SizeClass sizeClass) {
+        if (allocatedBytes + size > maximumBytes) {
+            compact();
+        }
+        while (allocatedBytes + size > maximumBytes) {
+            if (sizeClass != null && !sizeClass.available.isEmpty()) {
+                return false;
+            }
+            String victim = policy != null ? policy.evict() : null;
+            if (victim == null) {
+                throw new OffHeapSlabStorageException("memory budget exhausted: " + allocatedBytes + " + " + size + " > " + maximumBytes);
+            }
+            evict(victim);
+            compact();
+        }
+        allocatedBytes += size;
+        return true;
+    }
+
+    private void evict(@NotNull String serializedKey) {
+        Entry entry = byKey.remove(serializedKey);
+        if (entry == null) {
+            return;
+        }
+        leaveGroup(entry.relatedKey, serializedKey);
+        IRepositoryDataContainer<byte[], byte[]> container = listener != null ? read(entry) : null;
+        free(entry);
+        if (listener != null) {
+            listener.onEvicted(serializedKey, entry.relatedKey, container);
+        }
+    }
+
+    private void free(@NotNull Entry entry) {
+        Slab slab = entry.slab;
+        slab.release(entry.chunk);
+        if (slab.sizeClass == null) {
+            allocatedBytes -= slab.buffer.capacity();
+        } else if (slab.freeCount == 1) {
+            slab.sizeClass.available.add(slab);
+        }
+    }
+
+    private void move(@NotNull Entry entry, @NotNull SizeClass sizeClass) {
+        Slab target = sizeClass.available.peek();
+        int chunk = target.take(entry);
+        if (target.freeCount == 0) {
+            sizeClass.available.poll();
+        }
+        {
+            ByteBuffer from = entry.slab.buffer.duplicate();
+            int offset = entry.slab.offsetOf(entry.chunk);
+            from.limit(offset + sizeClass.chunkSize);
+            from.position(offset);
+            ByteBuffer to = target.buffer.duplicate();
+            to.position(target.offsetOf(chunk));
+            to.put(from);
+        }
+        entry.slab = target;
+        entry.chunk = chunk;
+    }
+
+    @NotNull
+    private SizeClass sizeClassOf(int size) {
+        int low = 0;
+        int high = sizeClasses.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sizeClasses[mid].chunkSize < size) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return sizeClasses[low];
+    }
+
+    private void leaveGroup(@NotNull String relatedKey, @NotNull String serializedKey) {
+        Set<String> keys = byRelatedKey.get(relatedKey);
+        if (keys != null) {
+            keys.remove(serializedKey);
+            if (keys.isEmpty()) {
+                byRelatedKey.remove(relatedKey);
+            }
+        }
+    }
+
+    @Nullable
+    private static byte[] read(@NotNull ByteBuffer buffer, int length) {
+        if (length < 0) {
+            return null;
+        }
+        byte[] ret = new byte[length];
+        buffer.get(ret);
+        return ret;
+    }
+
+    private static class SizeClass {
+
+        private final int chunkSize;
+        private final int chunksPerSlab;
+
+        private final List<Slab> slabs = new ArrayList<>();
+
+        /**
+         * Slabs with at least one free chunk.
+         */
+        private final ArrayDeque<Slab> available = new ArrayDeque<>();
+
+        private SizeClass(int chunkSize, int chunksPerSlab) {
+            this.chunkSize = chunkSize;
+            this.chunksPerSlab = chunksPerSlab;
+        }
+
+    }
+
+    private static class Slab {
+
+        /**
+         * null for a buffer holding a single entry larger than a slab.
+         */
+        @Nullable
+        private final SizeClass sizeClass;
+
+        @NotNull
+        private final ByteBuffer buffer;
+
+        @NotNull
+        private final Entry[] owners;
+
+        @NotNull
+        private final int[] freeChunks;
+
+        private int freeCount;
+
+        private Slab(@Nullable SizeClass sizeClass, @NotNull ByteBuffer buffer, int chunks) {
+            this.sizeClass = sizeClass;
+            this.buffer = buffer;
+            this.owners = new Entry[chunks];
+            this.freeChunks = new int[chunks];
+            for (int i = 0; i < chunks; i++) {
+                freeChunks[i] = chunks - 1 - i;
+            }
+            this.freeCount = chunks;
+        }
+
+        private int take(@NotNull Entry owner) {
+            int ret = freeChunks[--freeCount];
+            owners[ret] = owner;
+            return ret;
+        }
+
+        private void release(int chunk) {
+            owners[chunk] = null;
+            freeChunks[freeCount++] = chunk;
+        }
+
+        private int used() {
+            return owners.length - freeCount;
+        }
+
+        private int offsetOf(int chunk) {
+            return sizeClass != null ? chunk * sizeClass.chunkSize : 0;
+        }
+
+    }
+
+    private static class Entry {
+
+        private String relatedKey;
+        private Slab slab;
+        private int chunk;
+
+    }
+
+    public static class OffHeapSlabStorageException extends RuntimeException {
+
+        public OffHeapSlabStorageException(String message) {
+            super(message);
+        }
+
+    }
+
+}
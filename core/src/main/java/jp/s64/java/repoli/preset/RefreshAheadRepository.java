@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.Map;
+
+import jp.s64.java.repoli.base.BaseRefreshAheadScheduler;
+import jp.s64.java.repoli.base.BaseRepository;
+import jp.s64.java.repoli.core.IBatchRepository;
+import jp.s64.java.repoli.core.IDataKey;
+import jp.s64.java.repoli.core.IExpirePolicy;
+import jp.s64.java.repoli.core.IProvider;
+import jp.s64.java.repoli.core.IRemovePolicy;
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.core.IStorage;
+
+/**
+ * Reports every read made with a {@link TimeBasedPolicy} to a {@link BaseRefreshAheadScheduler},
+ * which refreshes through the wrapped repository.
+ */
+public class RefreshAheadRepository<TB, AB> implements IBatchRepository<TB, AB> {
+
+    @NotNull
+    private final BaseRepository<TB, AB> repository;
+
+    @NotNull
+    private final BaseRefreshAheadScheduler scheduler;
+
+    public RefreshAheadRepository(@NotNull BaseRepository<TB, AB> repository, @NotNull BaseRefreshAheadScheduler scheduler) {
+        this.repository = repository;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public <T extends TB, A extends AB> IRepositoryDataContainer<T, A> get(IDataKey<T, A> key, IStorage<TB, AB> storage, IExpirePolicy<TB, AB> policy, IProvider<TB, AB> provider) {
+        IRepositoryDataContainer<T, A> ret = repository.get(key, storage, policy, provider);
+        if (policy instanceof TimeBasedPolicy) {
+            scheduler.onAccess(key, repository, storage, (TimeBasedPolicy<TB, AB>) policy, provider, ret);
+        }
+        return ret;
+    }
+
+    @Override
+    public <T extends TB, A extends AB> Map<String, IRepositoryDataContainer<T, A>> getAll(Collection<? extends IDataKey<T, A>> keys, IStorage<TB, AB> storage, IExpirePolicy<TB, AB> policy, IProvider<TB, AB> provider) {
+        Map<String, IRepositoryDataContainer<T, A>> ret = repository.getAll(keys, storage, policy, provider);
+        if (policy instanceof TimeBasedPolicy) {
+            for (IDataKey<T, A> key : keys) {
+                IRepositoryDataContainer<T, A> container = ret.get(key.getSerialized());
+                if (container != null) {
+                    scheduler.onAccess(key, repository, storage, (TimeBasedPolicy<TB, AB>) policy, provider, container);
+                }
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public <T extends TB, A extends AB> int remove(IDataKey<T, A> key, IStorage<TB, AB> storage, IRemovePolicy<TB, AB> policy) {
+        return repository.remove(key, storage, policy);
+    }
+
+}
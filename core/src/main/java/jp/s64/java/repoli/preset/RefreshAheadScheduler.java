@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import jp.s64.java.repoli.base.BaseRefreshAheadScheduler;
+
+/**
+ * Waits on a {@link ScheduledExecutorService} and runs refreshes on an {@link Executor}.
+ */
+public class RefreshAheadScheduler extends BaseRefreshAheadScheduler {
+
+    @NotNull
+    private final ScheduledExecutorService timer;
+
+    @NotNull
+    private final Executor executor;
+
+    public RefreshAheadScheduler(float refreshFraction, int minAccessCount, int maxConcurrency, @NotNull ScheduledExecutorService timer) {
+        this(refreshFraction, minAccessCount, maxConcurrency, timer, timer);
+    }
+
+    public RefreshAheadScheduler(float refreshFraction, int minAccessCount, int maxConcurrency, @NotNull ScheduledExecutorService timer, @NotNull Executor executor) {
+        super(refreshFraction, minAccessCount, maxConcurrency);
+        this.timer = timer;
+        this.executor = executor;
+    }
+
+    @Override
+    protected void scheduleDispatch(long delayMillis) {
+        try {
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    dispatch();
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // the timer is shut down, entries simply expire.
+        }
+    }
+
+    @Override
+    protected void execute(@NotNull Runnable refresh) {
+        executor.execute(refresh);
+    }
+
+}
@@ -16,98 +16,132 @@
 
 package jp.s64.java.repoli.preset;
 
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.UUID;
 
 import jp.s64.java.repoli.base.BaseStorage;
 import jp.s64.java.repoli.core.IRepositoryDataContainer;
-import jp.s64.java.repoli.internal.ReturningRepositoryDataContainer;
+import jp.s64.java.repoli.core.IRepositoryDataMetadata;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataMetadata;
 
 public class SimpleOnMemoryStorage<TB, BA> extends BaseStorage<TB, BA> {
 
-    private final Map<String, UUID> byKey = new HashMap<>();
-    private final Map<String, Set<UUID>> byRelatedKey = new HashMap<>();
-
-    private final Map<UUID, IRepositoryDataContainer<byte[], byte[]>> db = new HashMap<>();
+    /**
+     * Each item remembers its related key, so leaving a group never scans the other groups.
+     */
+    private final Map<String, Item> byKey = new HashMap<>();
+    private final Map<String, Set<String>> byRelatedKey = new HashMap<>();
 
     @Override
     public IRepositoryDataContainer<byte[], byte[]> getBySerializedKey(String serializedKey) {
-        UUID uuid = byKey.get(serializedKey);
-        IRepositoryDataContainer<byte[], byte[]> item = uuid != null ? db.get(uuid) : null;
-        return item != null ? new ReturningRepositoryDataContainer<>(item) : new ReturningRepositoryDataContainer<byte[], byte[]>();
+        IRepositoryDataContainer<byte[], byte[]> ret = findBySerializedKey(serializedKey);
+        return ret != null ? ret : ImmutableRepositoryDataContainer.<byte[], byte[]>empty();
+    }
+
+    /**
+     * @return the stored container, or null when nothing is stored for {@code serializedKey}.
+     */
+    @Nullable
+    protected IRepositoryDataContainer<byte[], byte[]> findBySerializedKey(@NotNull String serializedKey) {
+        Item item = byKey.get(serializedKey);
+        return item != null ? item.container : null;
+    }
+
+    @Override
+    public IRepositoryDataMetadata getMetadataBySerializedKey(String serializedKey, String relatedKey) {
+        Item item = byKey.get(serializedKey);
+        return item != null ? ImmutableRepositoryDataMetadata.of(item.container, item.relatedKey) : ImmutableRepositoryDataMetadata.empty();
     }
 
     @Override
     public int removeBySerializedKey(String serializedKey) {
-        if (byKey.containsKey(serializedKey)) {
-            UUID uuid = byKey.get(serializedKey);
-            return removeByInternalUuid(uuid, false);
-        } else {
-            return 0;
-        }
+        return removeItem(serializedKey, false);
     }
 
-    protected int removeByInternalUuid(UUID uuid, boolean isRelatedRemoving) {
-        int result;
-        {
-            result = db.containsKey(uuid) ? 1 : 0;
+    protected int removeItem(String serializedKey, boolean isRelatedRemoving) {
+        Item item = byKey.remove(serializedKey);
+        if (item == null) {
+            return 0;
         }
-        db.remove(uuid);
         if (!isRelatedRemoving) {
-            for (String itrRelatedKey : byRelatedKey.keySet()) {
-                Set<UUID> keys = byRelatedKey.get(itrRelatedKey);
-                {
-                    keys.remove(uuid);
-                }
-                byRelatedKey.put(itrRelatedKey, keys);
-            }
+            leaveGroup(item.relatedKey, serializedKey);
         }
-        return result;
+        onItemRemoved(serializedKey, item.relatedKey, item.container);
+        return 1;
+    }
+
+    /**
+     * Called after an entry is removed, whether by its own key or by its related key.
+     */
+    protected void onItemRemoved(@NotNull String serializedKey, @NotNull String relatedKey, @NotNull IRepositoryDataContainer<byte[], byte[]> container) {
+        // no-op
     }
 
     @Override
     public int removeRelativesByRelatedKey(String relatedKey) {
         int result = 0;
-        if (byRelatedKey.containsKey(relatedKey)) {
-            Set<UUID> removes = new HashSet<>();
-            Set<UUID> keys = byRelatedKey.get(relatedKey);
-            for (UUID key : keys) {
-                result += removeByInternalUuid(key, true);
-                removes.add(key);
+        Set<String> keys = byRelatedKey.remove(relatedKey);
+        if (keys != null) {
+            for (String key : keys) {
+                result += removeItem(key, true);
             }
-            keys.removeAll(removes);
-            byRelatedKey.put(relatedKey, keys);
         }
         return result;
     }
 
     @Override
     public void saveBySerializedKey(String serializedKey, String relatedKey, IRepositoryDataContainer<byte[], byte[]> container) {
-        UUID oldId, newId;
-        {
-            newId = UUID.randomUUID();
-            oldId = byKey.containsKey(serializedKey) ? byKey.get(serializedKey) : null;
+        Item old = byKey.put(serializedKey, new Item(relatedKey, ImmutableRepositoryDataContainer.copyOf(container)));
+        if (old != null && old.relatedKey.equals(relatedKey)) {
+            return;
         }
-        for (String itrRelatedKey : byRelatedKey.keySet()) {
-            Set<UUID> keys = byRelatedKey.get(itrRelatedKey);
-            {
-                keys.remove(oldId);
-            }
-            byRelatedKey.put(itrRelatedKey, keys);
+        if (old != null) {
+            leaveGroup(old.relatedKey, serializedKey);
         }
-        if (!byRelatedKey.containsKey(relatedKey)) {
-            byRelatedKey.put(relatedKey, new HashSet<UUID>());
+        Set<String> keys = byRelatedKey.get(relatedKey);
+        if (keys == null) {
+            keys = new HashSet<>();
+            byRelatedKey.put(relatedKey, keys);
         }
-        {
-            db.put(newId, container);
+        keys.add(serializedKey);
+    }
+
+    /**
+     * @return how many related keys currently have at least one entry.
+     */
+    int getGroupCount() {
+        return byRelatedKey.size();
+    }
+
+    private void leaveGroup(@NotNull String relatedKey, @NotNull String serializedKey) {
+        Set<String> keys = byRelatedKey.get(relatedKey);
+        if (keys != null) {
+            keys.remove(serializedKey);
+            if (keys.isEmpty()) {
+                byRelatedKey.remove(relatedKey);
+            }
         }
-        {
-            byKey.put(serializedKey, newId);
-            byRelatedKey.get(relatedKey).add(newId);
+    }
+
+    private static class Item {
+
+        @NotNull
+        private final String relatedKey;
+
+        @NotNull
+        private final IRepositoryDataContainer<byte[], byte[]> container;
+
+        private Item(@NotNull String relatedKey, @NotNull IRepositoryDataContainer<byte[], byte[]> container) {
+            this.relatedKey = relatedKey;
+            this.container = container;
         }
+
     }
 
 }
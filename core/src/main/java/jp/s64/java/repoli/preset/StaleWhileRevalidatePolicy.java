@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.TimeUnit;
+
+import jp.s64.java.repoli.core.IDataKey;
+import jp.s64.java.repoli.core.IDeadlinePolicy;
+import jp.s64.java.repoli.core.IMetadataPolicy;
+import jp.s64.java.repoli.core.IRemovePolicy;
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.core.IRepositoryDataMetadata;
+import jp.s64.java.repoli.core.IStaleWhileRevalidatePolicy;
+import jp.s64.java.repoli.internal.NegativeEntries;
+
+/**
+ * Serves saved entries younger than the soft TTL as-is, serves entries between the soft and
+ * the hard TTL while refreshing them in the background, and blocks on the provider past the hard TTL.
+ */
+public class StaleWhileRevalidatePolicy<TB, AB> implements IStaleWhileRevalidatePolicy<TB, AB>, IRemovePolicy<TB, AB>, IMetadataPolicy<TB, AB>, IDeadlinePolicy {
+
+    private final long softExpireTimeMillis;
+
+    private final long hardExpireTimeMillis;
+
+    public StaleWhileRevalidatePolicy(long softTime, long hardTime, TimeUnit unit) {
+        if (softTime > hardTime) {
+            throw new IllegalArgumentException("softTime must not be greater than hardTime.");
+        }
+        softExpireTimeMillis = unit.toMillis(softTime);
+        hardExpireTimeMillis = unit.toMillis(hardTime);
+    }
+
+    @Override
+    public <T extends TB, A extends AB> boolean shouldExpire(IDataKey<T, A> key, IRepositoryDataContainer<T, A> container) {
+        return container.getSavedAtTimeMillis() != null && isHardExpired(container);
+    }
+
+    @Override
+    public <T extends TB, A extends AB> boolean shouldExpireWithRelatives(IDataKey<T, A> key, IRepositoryDataContainer<T, A> container) {
+        return container.getSavedAtTimeMillis() != null && isHardExpired(container);
+    }
+
+    @Override
+    public <T extends TB, A extends AB> boolean shouldRequest(IDataKey<T, A> key, IRepositoryDataContainer<T, A> container) {
+        return isHardExpired(container) || NegativeEntries.isBlank(container);
+    }
+
+    @Override
+    public <T extends TB, A extends AB> boolean shouldSave(IDataKey<T, A> key, IRepositoryDataContainer<T, A> container) {
+        return container.getRequestedAtTimeMillis() != null && container.getSavedAtTimeMillis() == null && !NegativeEntries.isBlank(container);
+    }
+
+    @Override
+    public <T extends TB, A extends AB> boolean shouldRevalidate(IDataKey<T, A> key, IRepositoryDataContainer<T, A> container) {
+        Long savedAt = container.getSavedAtTimeMillis();
+        return savedAt != null && !isHardExpired(container) && System.currentTimeMillis() > (savedAt + softExpireTimeMillis);
+    }
+
+    @Override
+    public <T extends TB, A extends AB> boolean shouldRemoveWithRelatives(IDataKey<T, A> key, IRepositoryDataContainer<T, A> container) {
+        return true;
+    }
+
+    @Override
+    public <T extends TB, A extends AB> boolean shouldRemoveWithRelatives(@NotNull IDataKey<T, A> key, @NotNull IRepositoryDataMetadata metadata) {
+        return true;
+    }
+
+    @Nullable
+    @Override
+    public Long getDeadlineTimeMillis(@NotNull IRepositoryDataContainer<?, ?> saved) {
+        Long savedAt = saved.getSavedAtTimeMillis();
+        return savedAt != null ? savedAt + hardExpireTimeMillis : null;
+    }
+
+    protected <T extends TB, A extends AB> boolean isHardExpired(IRepositoryDataContainer<T, A> container) {
+        Long savedAt = container.getSavedAtTimeMillis();
+        return savedAt == null || System.currentTimeMillis() > (savedAt + hardExpireTimeMillis);
+    }
+
+    public long getSoftExpireTimeMillis() {
+        return softExpireTimeMillis;
+    }
+
+    public long getHardExpireTimeMillis() {
+        return hardExpireTimeMillis;
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import jp.s64.java.repoli.base.BaseStorage;
+import jp.s64.java.repoli.core.IDeadlinePolicy;
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.core.IRepositoryDataMetadata;
+import jp.s64.java.repoli.internal.TimingWheel;
+
+/**
+ * Drops entries from a byte-level storage once their {@link IDeadlinePolicy} deadline passes, whether or not
+ * anyone reads them. Deadlines are filed in a {@link TimingWheel} at save time and reaped on every call, or
+ * periodically after {@link #startReaper(ScheduledExecutorService)}.
+ * <p>
+ * Every method is synchronized, so a storage that is not thread-safe, like {@link SimpleOnMemoryStorage}, can be wrapped.
+ */
+public class SweepingStorage<TB, AB> extends BaseStorage<TB, AB> {
+
+    @NotNull
+    private final BaseStorage<?, ?> storage;
+
+    @NotNull
+    private final IDeadlinePolicy policy;
+
+    private final long tickMillis;
+
+    @NotNull
+    private final TimingWheel wheel;
+
+    private long expiredCount = 0;
+
+    /**
+     * @param tick resolution of deadlines; entries live up to one tick past theirs.
+     */
+    public SweepingStorage(@NotNull BaseStorage<?, ?> storage, @NotNull IDeadlinePolicy policy, long tick, @NotNull TimeUnit unit) {
+        this.storage = storage;
+        this.policy = policy;
+        this.tickMillis = unit.toMillis(tick);
+        this.wheel = new TimingWheel(tickMillis, System.currentTimeMillis());
+    }
+
+    @Override
+    public synchronized IRepositoryDataContainer<byte[], byte[]> getBySerializedKey(String serializedKey) {
+        reap();
+        return storage.getBySerializedKey(serializedKey);
+    }
+
+    @Override
+    public synchronized IRepositoryDataMetadata getMetadataBySerializedKey(String serializedKey, String relatedKey) {
+        reap();
+        return storage.getMetadataBySerializedKey(serializedKey, relatedKey);
+    }
+
+    @Override
+    public synchronized int removeBySerializedKey(String serializedKey) {
+        reap();
+        wheel.cancel(serializedKey);
+        return storage.removeBySerializedKey(serializedKey);
+    }
+
+    /**
+     * Timers of the removed entries stay filed; they find nothing to remove when they fire.
+     */
+    @Override
+    public synchronized int removeRelativesByRelatedKey(String relatedKey) {
+        reap();
+        return storage.removeRelativesByRelatedKey(relatedKey);
+    }
+
+    @Override
+    public synchronized void saveBySerializedKey(String serializedKey, String relatedKey, IRepositoryDataContainer<byte[], byte[]> container) {
+        reap();
+        storage.saveBySerializedKey(serializedKey, relatedKey, container);
+        Long deadline = policy.getDeadlineTimeMillis(container);
+        if (deadline != null) {
+            wheel.schedule(serializedKey, deadline);
+        } else {
+            wheel.cancel(serializedKey);
+        }
+    }
+
+    /**
+     * Removes every entry whose deadline has passed.
+     *
+     * @return the number of entries removed.
+     */
+    public synchronized int reap() {
+        List<String> due = wheel.advance(System.currentTimeMillis());
+        int ret = 0;
+        for (String serializedKey : due) {
+            ret += storage.removeBySerializedKey(serializedKey);
+        }
+        expiredCount += ret;
+        return ret;
+    }
+
+    /**
+     * Reaps every tick on {@code executor}, so expired entries go away while the storage is idle.
+     */
+    @NotNull
+    public ScheduledFuture<?> startReaper(@NotNull ScheduledExecutorService executor) {
+        return executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                reap();
+            }
+        }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return entries removed because their deadline passed.
+     */
+    public synchronized long getExpiredCount() {
+        return expiredCount;
+    }
+
+    /**
+     * @return entries waiting for their deadline.
+     */
+    public synchronized int getScheduledCount() {
+        return wheel.size();
+    }
+
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jp.s64.java.repoli.base.BatchHelper;
+import jp.s64.java.repoli.base.MetadataHelper;
+import jp.s64.java.repoli.core.IBatchStorage;
+import jp.s64.java.repoli.core.IDataKey;
+import jp.s64.java.repoli.core.IMetadataStorage;
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.core.IRepositoryDataMetadata;
+import jp.s64.java.repoli.core.IStorage;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
+
+/**
+ * Keeps deserialized containers in a bounded L1 in front of any {@link IStorage}, so hits skip deserialization.
+ * Saves write through both tiers, but skip the L1 when another write raced with them; removals go to the L2 first,
+ * then drop the L1 entries, including related ones.
+ * <p>
+ * Without a {@link Copier}, hits share the cached body and attachment with every caller, so they must not be mutated.
+ */
+public class TieredStorage<TB, AB> implements IBatchStorage<TB, AB>, IMetadataStorage<TB, AB> {
+
+    @NotNull
+    private final IStorage<TB, AB> storage;
+
+    @NotNull
+    private final Cache<String, Entry> cache;
+
+    @Nullable
+    private final Copier copier;
+
+    /**
+     * Cached serialized keys by related key; guarded by itself.
+     */
+    private final Map<String, Set<String>> byRelatedKey = new HashMap<>();
+
+    /**
+     * Bumped by every write, so a read or a save that raced with another write does not cache what it read or saved.
+     */
+    private final AtomicLong writes = new AtomicLong();
+
+    public TieredStorage(@NotNull IStorage<TB, AB> storage, long maximumSize) {
+        this(storage, maximumSize, null, null);
+    }
+
+    /**
+     * @param weigher weight of a deserialized container, in the unit of {@code maximum}; null to count entries.
+     * @param copier  copies bodies and attachments going into and out of the L1; null to share them.
+     */
+    public TieredStorage(@NotNull IStorage<TB, AB> storage, long maximum, @Nullable final Weigher<String, IRepositoryDataContainer<?, ?>> weigher, @Nullable Copier copier) {
+        this.storage = storage;
+        this.copier = copier;
+        CacheBuilder<String, Entry> builder = CacheBuilder.newBuilder()
+                .removalListener(new RemovalListener<String, Entry>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<String, Entry> notification) {
+                        if (notification.wasEvicted()) {
+                            leaveGroup(notification.getValue().relatedKey, notification.getKey());
+                        }
+                    }
+                });
+        if (weigher != null) {
+            builder.maximumWeight(maximum).weigher(new Weigher<String, Entry>() {
+                @Override
+                public int weigh(String key, Entry value) {
+                    return weigher.weigh(key, value.container);
+                }
+            });
+        } else {
+            builder.maximumSize(maximum);
+        }
+        this.cache = builder.build();
+    }
+
+    @NotNull
+    @Override
+    public <T extends TB, A extends AB> IRepositoryDataContainer<T, A> get(@NotNull IDataKey<T, A> key) {
+        Entry cached = cache.getIfPresent(key.getSerialized());
+        if (cached != null) {
+            return copy(TieredStorage.<T, A>cast(cached.container));
+        }
+        long stamp = writes.get();
+        IRepositoryDataContainer<T, A> ret = storage.get(key);
+        if (ret.getSavedAtTimeMillis() != null) {
+            cacheIfUnchanged(key, ret, stamp);
+        }
+        return copy(ret);
+    }
+
+    @NotNull
+    @Override
+    public <T extends TB, A extends AB> Map<String, IRepositoryDataContainer<T, A>> getAll(@NotNull Collection<? extends IDataKey<T, A>> keys) {
+        Map<String, IRepositoryDataContainer<T, A>> hits = new HashMap<>();
+        List<IDataKey<T, A>> misses = new ArrayList<>();
+        for (IDataKey<T, A> key : keys) {
+            Entry cached = cache.getIfPresent(key.getSerialized());
+            if (cached != null) {
+                hits.put(key.getSerialized(), copy(TieredStorage.<T, A>cast(cached.container)));
+            } else {
+                misses.add(key);
+            }
+        }
+        if (!misses.isEmpty()) {
+            long stamp = writes.get();
+            Map<String, IRepositoryDataContainer<T, A>> loaded = BatchHelper.getAll(storage, misses);
+            for (IDataKey<T, A> key : misses) {
+                IRepositoryDataContainer<T, A> container = loaded.get(key.getSerialized());
+                if (container == null) {
+                    continue;
+                }
+                if (container.getSavedAtTimeMillis() != null) {
+                    cacheIfUnchanged(key, container, stamp);
+                }
+                hits.put(key.getSerialized(), copy(container));
+            }
+        }
+        Map<String, IRepositoryDataContainer<T, A>> ret = new LinkedHashMap<>();
+        for (IDataKey<T, A> key : keys) {
+            IRepositoryDataContainer<T, A> container = hits.get(key.getSerialized());
+            if (container != null) {
+                ret.put(key.getSerialized(), container);
+            }
+        }
+        return ret;
+    }
+
+    @NotNull
+    @Override
+    public IRepositoryDataMetadata getMetadata(@NotNull IDataKey<?, ?> key) {
+        return MetadataHelper.getMetadata(storage, key);
+    }
+
+    @Override
+    public int remove(@NotNull IDataKey<?, ?> key) {
+        writes.incrementAndGet();
+        int ret = storage.remove(key);
+        invalidate(key.getSerialized());
+        return ret;
+    }
+
+    @Override
+    public int removeAll(@NotNull Collection<? extends IDataKey<?, ?>> keys) {
+        writes.incrementAndGet();
+        int ret = BatchHelper.removeAll(storage, keys);
+        for (IDataKey<?, ?> key : keys) {
+            invalidate(key.getSerialized());
+        }
+        return ret;
+    }
+
+    @Override
+    public int removeRelatives(@NotNull IDataKey<?, ?> key) {
+        writes.incrementAndGet();
+        int ret = storage.removeRelatives(key);
+        Set<String> keys;
+        synchronized (byRelatedKey) {
+            keys = byRelatedKey.remove(key.getRelatedKey());
+        }
+        if (keys != null) {
+            cache.invalidateAll(keys);
+        }
+        return ret;
+    }
+
+    @NotNull
+    @Override
+    public <T extends TB, A extends AB> IRepositoryDataContainer<T, A> save(@NotNull IDataKey<T, A> key, @NotNull IRepositoryDataContainer<T, A> container) {
+        long stamp = writes.incrementAndGet();
+        invalidate(key.getSerialized());
+        IRepositoryDataContainer<T, A> ret = storage.save(key, container);
+        cacheIfUnchanged(key, ret, stamp);
+        return ret;
+    }
+
+    @NotNull
+    @Override
+    public <T extends TB, A extends AB> Map<String, IRepositoryDataContainer<T, A>> saveAll(@NotNull Collection<? extends IDataKey<T, A>> keys, @NotNull Map<String, ? extends IRepositoryDataContainer<T, A>> containers) {
+        long stamp = writes.incrementAndGet();
+        for (IDataKey<T, A> key : keys) {
+            invalidate(key.getSerialized());
+        }
+        Map<String, IRepositoryDataContainer<T, A>> ret = BatchHelper.saveAll(storage, keys, containers);
+        for (IDataKey<T, A> key : keys) {
+            IRepositoryDataContainer<T, A> saved = ret.get(key.getSerialized());
+            if (saved != null) {
+                cacheIfUnchanged(key, saved, stamp);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Drops every L1 entry; the L2 is left untouched.
+     */
+    public void invalidateAll() {
+        writes.incrementAndGet();
+        synchronized (byRelatedKey) {
+            byRelatedKey.clear();
+        }
+        cache.invalidateAll();
+    }
+
+    public long getCachedCount() {
+        return cache.size();
+    }
+
+    private void cacheIfUnchanged(@NotNull IDataKey<?, ?> key, @NotNull IRepositoryDataContainer<?, ?> container, long stamp) {
+        synchronized (byRelatedKey) {
+            if (writes.get() != stamp) {
+                return;
+            }
+            joinGroup(key);
+        }
+        cache.put(key.getSerialized(), new Entry(key.getRelatedKey(), copy(container)));
+        if (writes.get() != stamp) {
+            invalidate(key.getSerialized());
+        }
+    }
+
+    private void invalidate(@NotNull String serializedKey) {
+        Entry entry = cache.asMap().remove(serializedKey);
+        if (entry != null) {
+            leaveGroup(entry.relatedKey, serializedKey);
+        }
+    }
+
+    private void joinGroup(@NotNull IDataKey<?, ?> key) {
+        Set<String> keys = byRelatedKey.get(key.getRelatedKey());
+        if (keys == null) {
+            keys = new HashSet<>();
+            byRelatedKey.put(key.getRelatedKey(), keys);
+        }
+        keys.add(key.getSerialized());
+    }
+
+    private void leaveGroup(@NotNull String relatedKey, @NotNull String serializedKey) {
+        synchronized (byRelatedKey) {
+            Set<String> keys = byRelatedKey.get(relatedKey);
+            if (keys != null) {
+                keys.remove(serializedKey);
+                if (keys.isEmpty()) {
+                    byRelatedKey.remove(relatedKey);
+                }
+            }
+        }
+    }
+
+    @NotNull
+    private <T, A> IRepositoryDataContainer<T, A> copy(@NotNull IRepositoryDataContainer<T, A> container) {
+        if (copier == null) {
+            return container;
+        }
+        return ImmutableRepositoryDataContainer.of(
+                copier.copy(container.getBody()),
+                copier.copy(container.getAttachment()),
+                container.getSavedAtTimeMillis(),
+                container.getRequestedAtTimeMillis(),
+                container.getExpiresAtTimeMillis()
+        );
+    }
+
+    @SuppressWarnings("unchecked")
+    @NotNull
+    private static <T, A> IRepositoryDataContainer<T, A> cast(@NotNull IRepositoryDataContainer<?, ?> container) {
+        return (IRepositoryDataContainer<T, A>) container;
+    }
+
+    /**
+     * Copies a mutable body or attachment, so callers cannot change what the L1 holds.
+     */
+    public interface Copier {
+
+        @Nullable
+        <V> V copy(@Nullable V value);
+
+    }
+
+    private static class Entry {
+
+        @NotNull
+        private final String relatedKey;
+
+        @NotNull
+        private final IRepositoryDataContainer<?, ?> container;
+
+        private Entry(@NotNull String relatedKey, @NotNull IRepositoryDataContainer<?, ?> container) {
+            this.relatedKey = relatedKey;
+            this.container = container;
+        }
+
+    }
+
+}
@@ -16,19 +16,35 @@
 
 package jp.s64.java.repoli.preset;
 
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
 import java.util.concurrent.TimeUnit;
 
 import jp.s64.java.repoli.core.IDataKey;
+import jp.s64.java.repoli.core.IDeadlinePolicy;
 import jp.s64.java.repoli.core.IExpirePolicy;
+import jp.s64.java.repoli.core.IMetadataPolicy;
 import jp.s64.java.repoli.core.IRemovePolicy;
 import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.core.IRepositoryDataMetadata;
+import jp.s64.java.repoli.internal.NegativeEntries;
 
-public class TimeBasedPolicy<TB, AB> implements IExpirePolicy<TB, AB>, IRemovePolicy<TB, AB> {
+public class TimeBasedPolicy<TB, AB> implements IExpirePolicy<TB, AB>, IRemovePolicy<TB, AB>, IMetadataPolicy<TB, AB>, IDeadlinePolicy {
 
     private final long expireTimeMillis;
+    private final long negativeExpireTimeMillis;
 
     public TimeBasedPolicy(long time, TimeUnit unit) {
+        this(time, 0, unit);
+    }
+
+    /**
+     * @param negativeTime how long a provider miss is answered from the storage. {@code 0} disables negative caching.
+     */
+    public TimeBasedPolicy(long time, long negativeTime, TimeUnit unit) {
         expireTimeMillis = unit.toMillis(time);
+        negativeExpireTimeMillis = unit.toMillis(negativeTime);
     }
 
     @Override
@@ -46,6 +62,11 @@ public class TimeBasedPolicy<TB, AB> implements IExpirePolicy<TB, AB>, IRemovePo
         return isExpired(container);
     }
 
+    @Override
+    public <T extends TB, A extends AB> boolean shouldRemoveWithRelatives(@NotNull IDataKey<T, A> key, @NotNull IRepositoryDataMetadata metadata) {
+        return isExpired(metadata.getSavedAtTimeMillis(), NegativeEntries.isNegative(metadata));
+    }
+
     @Override
     public <T extends TB, A extends AB> boolean shouldRequest(IDataKey<T, A> key, IRepositoryDataContainer<T, A> container) {
         return isExpired(container);
@@ -53,12 +74,37 @@ public class TimeBasedPolicy<TB, AB> implements IExpirePolicy<TB, AB>, IRemovePo
 
     @Override
     public <T extends TB, A extends AB> boolean shouldSave(IDataKey<T, A> key, IRepositoryDataContainer<T, A> container) {
-        return !isExpired(container);
+        if (NegativeEntries.isMissResponse(container)) {
+            return negativeExpireTimeMillis > 0;
+        }
+        return container.getSavedAtTimeMillis() == null && container.getRequestedAtTimeMillis() != null && !NegativeEntries.isBlank(container);
+    }
+
+    @Nullable
+    @Override
+    public Long getDeadlineTimeMillis(@NotNull IRepositoryDataContainer<?, ?> saved) {
+        Long savedAt = saved.getSavedAtTimeMillis();
+        if (savedAt == null) {
+            return null;
+        }
+        return savedAt + (NegativeEntries.isNegative(saved) ? negativeExpireTimeMillis : expireTimeMillis);
+    }
+
+    public long getExpireTimeMillis() {
+        return expireTimeMillis;
+    }
+
+    public long getNegativeExpireTimeMillis() {
+        return negativeExpireTimeMillis;
     }
 
     protected <T extends TB, A extends AB> boolean isExpired(IRepositoryDataContainer<T, A> container) {
-        Long savedAt = container.getSavedAtTimeMillis();
-        return savedAt == null || System.currentTimeMillis() > (savedAt + expireTimeMillis);
+        return isExpired(container.getSavedAtTimeMillis(), NegativeEntries.isNegative(container));
+    }
+
+    protected boolean isExpired(@Nullable Long savedAtTimeMillis, boolean negative) {
+        long lifetime = negative ? negativeExpireTimeMillis : expireTimeMillis;
+        return savedAtTimeMillis == null || System.currentTimeMillis() > (savedAtTimeMillis + lifetime);
     }
 
 }
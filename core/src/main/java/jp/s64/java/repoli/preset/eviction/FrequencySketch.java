@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset.eviction;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Count-min sketch of 4-bit counters, four per key, packed sixteen to a long.
+ * Every counter is halved once the number of increments reaches ten times the table size, so old popularity fades.
+ */
+final class FrequencySketch {
+
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final int MAXIMUM_CAPACITY = 1 << 26;
+
+    private long[] table;
+    private int sampleSize;
+    private int size;
+
+    FrequencySketch() {
+        ensureCapacity(16);
+    }
+
+    /**
+     * Grows the table for {@code capacity} keys. Growing forgets the counted frequencies.
+     */
+    void ensureCapacity(int capacity) {
+        int length = 16;
+        while (length < capacity && length < MAXIMUM_CAPACITY) {
+            length <<= 1;
+        }
+        if (table != null && table.length >= length) {
+            return;
+        }
+        table = new long[length];
+        sampleSize = 10 * length;
+        size = 0;
+    }
+
+    int capacity() {
+        return table.length;
+    }
+
+    /**
+     * @return estimated number of recent occurrences of {@code key}, at most 15.
+     */
+    int frequency(@NotNull String key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int ret = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+            ret = Math.min(ret, count);
+        }
+        return ret;
+    }
+
+    void increment(@NotNull String key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++size == sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter << 2;
+        long mask = 0xfL << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    private void reset() {
+        int odd = 0;
+        for (int i = 0; i < table.length; i++) {
+            odd += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size = (size >>> 1) - (odd >>> 2);
+    }
+
+    private int indexOf(int hash, int i) {
+        long ret = (hash + SEEDS[i]) * SEEDS[i];
+        ret += ret >>> 32;
+        return ((int) ret) & (table.length - 1);
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+}
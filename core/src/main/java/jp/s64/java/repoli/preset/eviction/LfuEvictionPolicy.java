@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset.eviction;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jp.s64.java.repoli.core.IEvictionPolicy;
+
+/**
+ * Evicts the entry read the fewest times since it was saved, the least recently saved one among ties.
+ * Weights are ignored.
+ */
+public class LfuEvictionPolicy implements IEvictionPolicy {
+
+    private final Map<String, Integer> frequencies = new HashMap<>();
+    private final TreeMap<Integer, LinkedHashSet<String>> byFrequency = new TreeMap<>();
+
+    @Override
+    public void onInsert(@NotNull String serializedKey, long weight) {
+        frequencies.put(serializedKey, 1);
+        bucket(1).add(serializedKey);
+    }
+
+    @Override
+    public void onUpdate(@NotNull String serializedKey, long weight) {
+        onAccess(serializedKey);
+    }
+
+    @Override
+    public void onAccess(@NotNull String serializedKey) {
+        Integer frequency = frequencies.get(serializedKey);
+        if (frequency == null) {
+            return;
+        }
+        leave(frequency, serializedKey);
+        frequencies.put(serializedKey, frequency + 1);
+        bucket(frequency + 1).add(serializedKey);
+    }
+
+    @Override
+    public void onRemove(@NotNull String serializedKey) {
+        Integer frequency = frequencies.remove(serializedKey);
+        if (frequency != null) {
+            leave(frequency, serializedKey);
+        }
+    }
+
+    @Nullable
+    @Override
+    public String evict() {
+        Map.Entry<Integer, LinkedHashSet<String>> lowest = byFrequency.firstEntry();
+        if (lowest == null) {
+            return null;
+        }
+        Iterator<String> it = lowest.getValue().iterator();
+        String ret = it.next();
+        it.remove();
+        if (lowest.getValue().isEmpty()) {
+            byFrequency.remove(lowest.getKey());
+        }
+        frequencies.remove(ret);
+        return ret;
+    }
+
+    @NotNull
+    private LinkedHashSet<String> bucket(int frequency) {
+        LinkedHashSet<String> ret = byFrequency.get(frequency);
+        if (ret == null) {
+            ret = new LinkedHashSet<>();
+            byFrequency.put(frequency, ret);
+        }
+        return ret;
+    }
+
+    private void leave(int frequency, @NotNull String serializedKey) {
+        LinkedHashSet<String> keys = byFrequency.get(frequency);
+        keys.remove(serializedKey);
+        if (keys.isEmpty()) {
+            byFrequency.remove(frequency);
+        }
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset.eviction;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Weighted keys from least to most recently used.
+ */
+final class LruQueue {
+
+    private final Map<String, Node> nodes = new HashMap<>();
+    private final Node sentinel = new Node(null, 0);
+
+    private long weight = 0;
+
+    LruQueue() {
+        sentinel.prev = sentinel;
+        sentinel.next = sentinel;
+    }
+
+    boolean contains(@NotNull String key) {
+        return nodes.containsKey(key);
+    }
+
+    void add(@NotNull String key, long weight) {
+        Node node = new Node(key, weight);
+        nodes.put(key, node);
+        link(node);
+        this.weight += weight;
+    }
+
+    /**
+     * @return weight of the removed key, or null when it was not queued.
+     */
+    @Nullable
+    Long remove(@NotNull String key) {
+        Node node = nodes.remove(key);
+        if (node == null) {
+            return null;
+        }
+        unlink(node);
+        weight -= node.weight;
+        return node.weight;
+    }
+
+    /**
+     * Marks {@code key} as the most recently used.
+     */
+    boolean touch(@NotNull String key) {
+        Node node = nodes.get(key);
+        if (node == null) {
+            return false;
+        }
+        unlink(node);
+        link(node);
+        return true;
+    }
+
+    boolean setWeight(@NotNull String key, long weight) {
+        Node node = nodes.get(key);
+        if (node == null) {
+            return false;
+        }
+        this.weight += weight - node.weight;
+        node.weight = weight;
+        return true;
+    }
+
+    /**
+     * @return the least recently used key.
+     */
+    @Nullable
+    String head() {
+        return sentinel.next.key;
+    }
+
+    /**
+     * @return the most recently used key.
+     */
+    @Nullable
+    String tail() {
+        return sentinel.prev.key;
+    }
+
+    long weight() {
+        return weight;
+    }
+
+    int size() {
+        return nodes.size();
+    }
+
+    private void link(@NotNull Node node) {
+        node.prev = sentinel.prev;
+        node.next = sentinel;
+        sentinel.prev.next = node;
+        sentinel.prev = node;
+    }
+
+    private static void unlink(@NotNull Node node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+    }
+
+    private static class Node {
+
+        @Nullable
+        private final String key;
+
+        private long weight;
+
+        private Node prev;
+        private Node next;
+
+        private Node(@Nullable String key, long weight) {
+            this.key = key;
+            this.weight = weight;
+        }
+
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset.eviction;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import jp.s64.java.repoli.core.IEvictionPolicy;
+
+/**
+ * New entries are put on probation, and are protected once they are read again.
+ * Eviction takes the least recently used entry on probation first, so a scan cannot flush the protected entries.
+ */
+public class SegmentedLruEvictionPolicy implements IEvictionPolicy {
+
+    private final float protectedFraction;
+
+    private final LruQueue probation = new LruQueue();
+    private final LruQueue protectedQueue = new LruQueue();
+
+    public SegmentedLruEvictionPolicy() {
+        this(0.8f);
+    }
+
+    /**
+     * @param protectedFraction share of the total weight the protected segment may hold.
+     */
+    public SegmentedLruEvictionPolicy(float protectedFraction) {
+        if (protectedFraction < 0 || protectedFraction > 1) {
+            throw new IllegalArgumentException("protectedFraction must be in [0, 1]: " + protectedFraction);
+        }
+        this.protectedFraction = protectedFraction;
+    }
+
+    @Override
+    public void onInsert(@NotNull String serializedKey, long weight) {
+        probation.add(serializedKey, weight);
+    }
+
+    @Override
+    public void onUpdate(@NotNull String serializedKey, long weight) {
+        if (!probation.setWeight(serializedKey, weight)) {
+            protectedQueue.setWeight(serializedKey, weight);
+        }
+        onAccess(serializedKey);
+    }
+
+    @Override
+    public void onAccess(@NotNull String serializedKey) {
+        Long weight = probation.remove(serializedKey);
+        if (weight != null) {
+            protectedQueue.add(serializedKey, weight);
+        } else {
+            protectedQueue.touch(serializedKey);
+        }
+    }
+
+    @Override
+    public void onRemove(@NotNull String serializedKey) {
+        if (probation.remove(serializedKey) == null) {
+            protectedQueue.remove(serializedKey);
+        }
+    }
+
+    @Nullable
+    @Override
+    public String evict() {
+        demote();
+        String ret = probation.head();
+        if (ret != null) {
+            probation.remove(ret);
+            return ret;
+        }
+        ret = protectedQueue.head();
+        if (ret != null) {
+            protectedQueue.remove(ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Runs only when evicting, where the total weight is close to the budget the fraction refers to.
+     */
+    private void demote() {
+        while (protectedQueue.weight() > protectedFraction * (protectedQueue.weight() + probation.weight())) {
+            String key = protectedQueue.head();
+            if (key == null) {
+                break;
+            }
+            probation.add(key, protectedQueue.remove(key));
+        }
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset.eviction;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import jp.s64.java.repoli.core.IEvictionPolicy;
+
+/**
+ * W-TinyLFU: new entries go into a small LRU window, then into a segmented LRU.
+ * When something must go, the newest entry on probation is kept only if it was read more often than the oldest one,
+ * judged by a {@link FrequencySketch} that also remembers keys already evicted.
+ */
+public class WindowTinyLfuEvictionPolicy implements IEvictionPolicy {
+
+    private final float windowFraction;
+    private final float protectedFraction;
+
+    private final FrequencySketch sketch = new FrequencySketch();
+
+    private final LruQueue window = new LruQueue();
+    private final LruQueue probation = new LruQueue();
+    private final LruQueue protectedQueue = new LruQueue();
+
+    public WindowTinyLfuEvictionPolicy() {
+        this(0.01f, 0.8f);
+    }
+
+    /**
+     * @param windowFraction    share of the total weight the window may hold.
+     * @param protectedFraction share of the total weight the protected segment may hold.
+     */
+    public WindowTinyLfuEvictionPolicy(float windowFraction, float protectedFraction) {
+        if (windowFraction < 0 || protectedFraction < 0 || windowFraction + protectedFraction > 1) {
+            throw new IllegalArgumentException("fractions must be non-negative and sum to at most 1: " + windowFraction + ", " + protectedFraction);
+        }
+        this.windowFraction = windowFraction;
+        this.protectedFraction = protectedFraction;
+    }
+
+    @Override
+    public void onInsert(@NotNull String serializedKey, long weight) {
+        sketch.increment(serializedKey);
+        window.add(serializedKey, weight);
+        {
+            int size = window.size() + probation.size() + protectedQueue.size();
+            if (size > sketch.capacity()) {
+                sketch.ensureCapacity(2 * size);
+            }
+        }
+        while (window.size() > 1 && window.weight() > windowFraction * totalWeight()) {
+            String key = window.head();
+            probation.add(key, window.remove(key));
+        }
+    }
+
+    @Override
+    public void onUpdate(@NotNull String serializedKey, long weight) {
+        if (!window.setWeight(serializedKey, weight) && !probation.setWeight(serializedKey, weight)) {
+            protectedQueue.setWeight(serializedKey, weight);
+        }
+        onAccess(serializedKey);
+    }
+
+    @Override
+    public void onAccess(@NotNull String serializedKey) {
+        sketch.increment(serializedKey);
+        if (window.touch(serializedKey)) {
+            return;
+        }
+        Long weight = probation.remove(serializedKey);
+        if (weight != null) {
+            protectedQueue.add(serializedKey, weight);
+        } else {
+            protectedQueue.touch(serializedKey);
+        }
+    }
+
+    @Override
+    public void onRemove(@NotNull String serializedKey) {
+        if (window.remove(serializedKey) == null && probation.remove(serializedKey) == null) {
+            protectedQueue.remove(serializedKey);
+        }
+    }
+
+    @Nullable
+    @Override
+    public String evict() {
+        // demoting only here measures the protected share against a nearly full budget.
+        while (protectedQueue.weight() > protectedFraction * totalWeight()) {
+            String key = protectedQueue.head();
+            probation.add(key, protectedQueue.remove(key));
+        }
+        String victim = probation.head();
+        String candidate = probation.tail();
+        if (victim != null) {
+            String ret = victim.equals(candidate) || sketch.frequency(candidate) > sketch.frequency(victim) ? victim : candidate;
+            probation.remove(ret);
+            return ret;
+        }
+        String ret = protectedQueue.head();
+        if (ret != null) {
+            protectedQueue.remove(ret);
+            return ret;
+        }
+        ret = window.head();
+        if (ret != null) {
+            window.remove(ret);
+        }
+        return ret;
+    }
+
+    private long totalWeight() {
+        return window.weight() + probation.weight() + protectedQueue.weight();
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset.serializer;
+
+import com.google.common.reflect.TypeToken;
+
+import jp.s64.java.repoli.base.SerializerRegistry;
+import jp.s64.java.repoli.internal.FrameInput;
+import jp.s64.java.repoli.internal.FrameOutput;
+
+/**
+ * Writes a {@code byte[]} as its length and bytes, see {@link FramedSerializer}. Payloads written by
+ * {@link SerializableSerializer} are still read.
+ */
+public class ByteArraySerializer extends FramedSerializer {
+
+    public static ByteArraySerializer INSTANCE = newInstance();
+
+    public static ByteArraySerializer newInstance() {
+        return new ByteArraySerializer();
+    }
+
+    protected ByteArraySerializer() {
+
+    }
+
+    @Override
+    protected void writeFrame(TypeToken<?> type, Object value, SerializerRegistry registry, FrameOutput out) {
+        out.writeBytes((byte[]) value);
+    }
+
+    @Override
+    protected Object readFrame(TypeToken<?> type, SerializerRegistry registry, FrameInput in) {
+        return in.readBytes();
+    }
+
+    @Override
+    protected Object deserializeLegacy(TypeToken<?> type, byte[] serialized, SerializerRegistry registry) {
+        return SerializableSerializer.INSTANCE.deserialize(type, serialized, registry.getSerializers());
+    }
+
+    @Override
+    protected int getInlineSince() {
+        return 2;
+    }
+
+    @Override
+    public boolean canSerialize(TypeToken<?> type) {
+        return type.getRawType() == byte[].class;
+    }
+
+    @Override
+    public float getPriority() {
+        return 2.3f;
+    }
+
+}
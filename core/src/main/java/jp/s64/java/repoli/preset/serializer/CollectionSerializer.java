@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset.serializer;
+
+import com.google.common.reflect.TypeToken;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jp.s64.java.repoli.base.SerializerRegistry;
+import jp.s64.java.repoli.core.ISerializer;
+import jp.s64.java.repoli.internal.FrameInput;
+import jp.s64.java.repoli.internal.FrameOutput;
+
+/**
+ * Writes a set, queue, multiset or other collection as its element count, the order of a sorted set, and every
+ * element, see {@link FramedSerializer}. It is read back as the declared class, or as a default implementation of an
+ * interface such as {@link java.util.LinkedHashSet} for {@code Set} and {@link java.util.TreeSet} for
+ * {@code SortedSet}. Payloads written by {@link SerializableSerializer} are still read.
+ */
+public class CollectionSerializer extends FramedSerializer {
+
+    public static CollectionSerializer INSTANCE = newInstance();
+
+    private static final ConcurrentHashMap<TypeToken<?>, TypeToken<?>> ELEMENT_TYPES = new ConcurrentHashMap<>();
+
+    public static CollectionSerializer newInstance() {
+        return new CollectionSerializer();
+    }
+
+    protected CollectionSerializer() {
+
+    }
+
+    @Override
+    protected void writeFrame(TypeToken<?> type, Object value, SerializerRegistry registry, FrameOutput out) {
+        if (value == null) {
+            out.writeVarint(0);
+            return;
+        }
+        Collection<?> collection = (Collection<?>) value;
+        TypeToken<?> innerType = elementType(type);
+        ISerializer serializer = registry.findByClass(innerType);
+        out.writeVarint(collection.size() + 1);
+        Containers.writeOrder(type.getRawType(), value, registry, out);
+        for (Object item : collection) {
+            writeElement(serializer, innerType, item, registry, out);
+        }
+    }
+
+    @Override
+    protected Object readFrame(TypeToken<?> type, SerializerRegistry registry, FrameInput in) {
+        int count = in.readCount();
+        if (count < 0) {
+            return null;
+        }
+        Class<?> raw = type.getRawType();
+        TypeToken<?> innerType = elementType(type);
+        ISerializer serializer = registry.findByClass(innerType);
+        Comparator<Object> order = Containers.readOrder(raw, registry, in);
+        Collection<Object> ret = Containers.newCollection(raw, innerType.getRawType(), order, count);
+        for (int i = 0; i < count; i++) {
+            ret.add(readElement(serializer, innerType, registry, in));
+        }
+        return Containers.toCollection(raw, ret, order);
+    }
+
+    @Override
+    protected Object deserializeLegacy(TypeToken<?> type, byte[] serialized, SerializerRegistry registry) {
+        return SerializableSerializer.INSTANCE.deserialize(type, serialized, registry.getSerializers());
+    }
+
+    @Override
+    protected int getInlineSince() {
+        return 3;
+    }
+
+    @Override
+    public boolean canSerialize(TypeToken<?> type) {
+        return Collection.class.isAssignableFrom(type.getRawType()) && Containers.canCreate(type.getRawType());
+    }
+
+    @Override
+    public float getPriority() {
+        return 1.2f;
+    }
+
+    /**
+     * @return the element type of {@code type} as a {@link Collection}, which need not be its first type argument.
+     */
+    private static TypeToken<?> elementType(TypeToken<?> type) {
+        TypeToken<?> ret = ELEMENT_TYPES.get(type);
+        if (ret == null) {
+            ret = type.resolveType(Collection.class.getTypeParameters()[0]);
+            ELEMENT_TYPES.putIfAbsent(type, ret);
+        }
+        return ret;
+    }
+
+}
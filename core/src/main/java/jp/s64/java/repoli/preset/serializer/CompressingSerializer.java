@@ -0,0 +1,404 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset.serializer;
+
+import com.google.common.reflect.TypeToken;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import jp.s64.java.repoli.base.SerializerRegistry;
+import jp.s64.java.repoli.core.ISerializer;
+
+/**
+ * Deflates what another serializer writes.
+ * <p>
+ * Every payload starts with a four byte magic and a method byte telling whether it is stored as is or deflated, so
+ * entries written with different thresholds or dictionaries can be read back side by side. Payloads without a valid
+ * header were written by the wrapped serializer alone and are passed to it unchanged. Payloads below the threshold, and payloads that do not shrink
+ * by at least {@link #MIN_SAVING}, are stored as is; large payloads are probed on a sample before being deflated whole.
+ * <p>
+ * A preset dictionary, see {@link #trainDictionary(Collection, int)}, helps payloads too small to compress on their own.
+ * Dictionaries are told apart by their Adler-32 checksum, which deflate records in the stream, so a replaced dictionary
+ * must be passed as a retired one for as long as entries written with it are stored.
+ */
+public class CompressingSerializer implements ISerializer {
+
+    public static final int DEFAULT_THRESHOLD = 256;
+
+    /**
+     * The fraction of the size a payload has to save to be stored deflated.
+     */
+    public static final float MIN_SAVING = 0.1f;
+
+    private static final byte[] MAGIC = {(byte) 0xC5, 'R', 'P', 'Z'};
+    private static final byte STORED = 0;
+    private static final byte DEFLATED = 1;
+    private static final int METHOD_OFFSET = MAGIC.length;
+    private static final int LENGTH_OFFSET = METHOD_OFFSET + 1;
+    private static final int STORED_HEADER_SIZE = LENGTH_OFFSET;
+    private static final int DEFLATED_HEADER_SIZE = LENGTH_OFFSET + 4;
+
+    private static final int PROBE_SIZE = 4 * 1024;
+
+    private static final int GRAM_SIZE = 8;
+    private static final int SEGMENT_SIZE = 64;
+
+    @NotNull
+    private final ISerializer delegate;
+
+    private final int threshold;
+    private final int level;
+
+    @Nullable
+    private final byte[] dictionary;
+
+    @NotNull
+    private final Map<Integer, byte[]> dictionaries = new HashMap<>();
+
+    public CompressingSerializer(@NotNull ISerializer delegate) {
+        this(delegate, DEFAULT_THRESHOLD, null);
+    }
+
+    public CompressingSerializer(@NotNull ISerializer delegate, int threshold, @Nullable byte[] dictionary) {
+        this(delegate, threshold, Deflater.DEFAULT_COMPRESSION, dictionary, Collections.<byte[]>emptyList());
+    }
+
+    /**
+     * @param threshold          payloads smaller than this are never deflated.
+     * @param level              a {@link Deflater} compression level.
+     * @param dictionary         the preset dictionary new payloads are deflated with, or null.
+     * @param retiredDictionaries dictionaries payloads were deflated with before, still needed to read them.
+     */
+    public CompressingSerializer(@NotNull ISerializer delegate, int threshold, int level, @Nullable byte[] dictionary, @NotNull Collection<byte[]> retiredDictionaries) {
+        this.delegate = delegate;
+        this.threshold = threshold;
+        this.level = level;
+        this.dictionary = dictionary != null && dictionary.length > 0 ? dictionary.clone() : null;
+        for (byte[] retired : retiredDictionaries) {
+            dictionaries.put(checksum(retired), retired.clone());
+        }
+        if (this.dictionary != null) {
+            dictionaries.put(checksum(this.dictionary), this.dictionary);
+        }
+    }
+
+    @Override
+    public <T> T deserialize(TypeToken<T> type, byte[] serialized, Set<ISerializer> serializers) {
+        if (!isFramed(serialized)) {
+            // written before compression was enabled.
+            return delegate.deserialize(type, serialized, withoutThis(serializers));
+        }
+        byte[] raw;
+        if (serialized[METHOD_OFFSET] == DEFLATED) {
+            raw = inflate(serialized);
+        } else {
+            raw = Arrays.copyOfRange(serialized, STORED_HEADER_SIZE, serialized.length);
+        }
+        return delegate.deserialize(type, raw, withoutThis(serializers));
+    }
+
+    @Override
+    public <T> byte[] serialize(TypeToken<T> type, Object deserialized, Set<ISerializer> serializers) {
+        byte[] raw = delegate.serialize(type, deserialized, withoutThis(serializers));
+        if (raw == null || raw.length == 0) {
+            return raw;
+        }
+        if (raw.length >= threshold && !isIncompressible(raw)) {
+            byte[] deflated = deflate(raw, 0, raw.length, level, dictionary, DEFLATED_HEADER_SIZE);
+            if (deflated != null) {
+                System.arraycopy(MAGIC, 0, deflated, 0, MAGIC.length);
+                deflated[METHOD_OFFSET] = DEFLATED;
+                writeInt(deflated, LENGTH_OFFSET, raw.length);
+                return deflated;
+            }
+        }
+        byte[] ret = new byte[STORED_HEADER_SIZE + raw.length];
+        {
+            System.arraycopy(MAGIC, 0, ret, 0, MAGIC.length);
+            ret[METHOD_OFFSET] = STORED;
+            System.arraycopy(raw, 0, ret, STORED_HEADER_SIZE, raw.length);
+        }
+        return ret;
+    }
+
+    @Override
+    public boolean canSerialize(TypeToken<?> type) {
+        return delegate.canSerialize(type);
+    }
+
+    /**
+     * Sorts just before the wrapped serializer, so it takes over the types both accept.
+     */
+    @Override
+    public float getPriority() {
+        return delegate.getPriority() - 0.5f;
+    }
+
+    /**
+     * Builds a preset dictionary from the content most samples share, e.g. class descriptors and common field values.
+     * The most common content is placed last, where deflate reaches it with the shortest distances.
+     *
+     * @param samples typical payloads as written by the wrapped serializer.
+     * @param size    the maximum dictionary size; deflate uses at most the last 32 KB.
+     */
+    @NotNull
+    public static byte[] trainDictionary(@NotNull Collection<byte[]> samples, int size) {
+        final Map<Long, Integer> frequencies = new HashMap<>();
+        for (byte[] sample : samples) {
+            Set<Long> seen = new HashSet<>();
+            for (int i = 0; i + GRAM_SIZE <= sample.length; i++) {
+                Long gram = gram(sample, i);
+                if (seen.add(gram)) {
+                    Integer count = frequencies.get(gram);
+                    frequencies.put(gram, count != null ? count + 1 : 1);
+                }
+            }
+        }
+
+        PriorityQueue<Segment> queue = new PriorityQueue<>(16, new Comparator<Segment>() {
+            @Override
+            public int compare(Segment o1, Segment o2) {
+                return o2.score - o1.score;
+            }
+        });
+        for (byte[] sample : samples) {
+            for (int start = 0; start < sample.length; start += SEGMENT_SIZE / 2) {
+                Segment segment = new Segment(sample, start, Math.min(SEGMENT_SIZE, sample.length - start));
+                segment.score = segment.score(frequencies);
+                if (segment.score > 0) {
+                    queue.add(segment);
+                }
+            }
+        }
+
+        // lazy greedy: scores only drop as grams are taken, so a segment still on top after rescoring is the best one.
+        List<Segment> selected = new ArrayList<>();
+        int total = 0;
+        while (total < size && !queue.isEmpty()) {
+            Segment segment = queue.poll();
+            int score = segment.score(frequencies);
+            if (score <= 0) {
+                continue;
+            }
+            if (!queue.isEmpty() && score < queue.peek().score) {
+                segment.score = score;
+                queue.add(segment);
+                continue;
+            }
+            for (int i = segment.start; i + GRAM_SIZE <= segment.start + segment.length; i++) {
+                frequencies.remove(gram(segment.sample, i));
+            }
+            selected.add(segment);
+            total += segment.length;
+        }
+
+        byte[] ret = new byte[Math.min(total, size)];
+        int at = ret.length;
+        for (Segment segment : selected) {
+            int length = Math.min(segment.length, at);
+            at -= length;
+            System.arraycopy(segment.sample, segment.start + segment.length - length, ret, at, length);
+        }
+        return ret;
+    }
+
+    @NotNull
+    private Set<ISerializer> withoutThis(@NotNull Set<ISerializer> serializers) {
+        if (!serializers.contains(this)) {
+            return serializers;
+        }
+        // nested values are written by the wrapped serializer; the outermost payload is deflated once as a whole.
+        return SerializerRegistry.from(serializers).without(this).getSerializers();
+    }
+
+    /**
+     * @return whether the payload starts with a complete header, as opposed to one the wrapped serializer wrote alone.
+     */
+    private static boolean isFramed(@Nullable byte[] serialized) {
+        if (serialized == null || serialized.length < STORED_HEADER_SIZE) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (serialized[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        switch (serialized[METHOD_OFFSET]) {
+            case STORED:
+                return true;
+            case DEFLATED:
+                return serialized.length >= DEFLATED_HEADER_SIZE && readInt(serialized, LENGTH_OFFSET) >= 0;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Deflates a sample from the middle, skipping the headers most formats start with.
+     */
+    private boolean isIncompressible(@NotNull byte[] raw) {
+        if (raw.length < 4 * PROBE_SIZE) {
+            return false;
+        }
+        return deflate(raw, (raw.length - PROBE_SIZE) / 2, PROBE_SIZE, Deflater.BEST_SPEED, null, 0) == null;
+    }
+
+    /**
+     * @return the deflated bytes after {@code headerSize} free bytes, or null when they do not save {@link #MIN_SAVING}.
+     */
+    @Nullable
+    private static byte[] deflate(@NotNull byte[] input, int offset, int length, int level, @Nullable byte[] dictionary, int headerSize) {
+        Deflater deflater = new Deflater(level);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(input, offset, length);
+            deflater.finish();
+            byte[] out = new byte[headerSize + (int) (length * (1 - MIN_SAVING))];
+            int written = headerSize;
+            while (!deflater.finished()) {
+                if (written == out.length) {
+                    return null;
+                }
+                written += deflater.deflate(out, written, out.length - written);
+            }
+            return Arrays.copyOf(out, written);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @NotNull
+    private byte[] inflate(@NotNull byte[] serialized) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(serialized, DEFLATED_HEADER_SIZE, serialized.length - DEFLATED_HEADER_SIZE);
+            byte[] ret = new byte[readInt(serialized, LENGTH_OFFSET)];
+            int read = 0;
+            while (read < ret.length) {
+                int inflated = inflater.inflate(ret, read, ret.length - read);
+                if (inflated == 0) {
+                    if (inflater.needsDictionary()) {
+                        byte[] preset = dictionaries.get(inflater.getAdler());
+                        if (preset == null) {
+                            throw new CompressingSerializerException("unknown dictionary: " + Integer.toHexString(inflater.getAdler()));
+                        }
+                        inflater.setDictionary(preset);
+                        continue;
+                    }
+                    if (inflater.finished() || inflater.needsInput()) {
+                        throw new CompressingSerializerException("truncated payload");
+                    }
+                }
+                read += inflated;
+            }
+            return ret;
+        } catch (DataFormatException e) {
+            throw new CompressingSerializerException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static int checksum(@NotNull byte[] dictionary) {
+        Adler32 adler = new Adler32();
+        adler.update(dictionary);
+        return (int) adler.getValue();
+    }
+
+    private static long gram(@NotNull byte[] bytes, int offset) {
+        long ret = 0;
+        for (int i = 0; i < GRAM_SIZE; i++) {
+            ret = (ret << 8) | (bytes[offset + i] & 0xff);
+        }
+        return ret;
+    }
+
+    private static void writeInt(@NotNull byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(@NotNull byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16) | ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+    }
+
+    private static class Segment {
+
+        @NotNull
+        private final byte[] sample;
+
+        private final int start;
+        private final int length;
+
+        private int score;
+
+        private Segment(@NotNull byte[] sample, int start, int length) {
+            this.sample = sample;
+            this.start = start;
+            this.length = length;
+        }
+
+        /**
+         * @return how many samples share each gram of this segment, summed over the grams shared by two or more.
+         */
+        private int score(@NotNull Map<Long, Integer> frequencies) {
+            int ret = 0;
+            for (int i = start; i + GRAM_SIZE <= start + length; i++) {
+                Integer count = frequencies.get(gram(sample, i));
+                if (count != null && count > 1) {
+                    ret += count;
+                }
+            }
+            return ret;
+        }
+
+    }
+
+    public static class CompressingSerializerException extends RuntimeException {
+
+        public CompressingSerializerException(String message) {
+            super(message);
+        }
+
+        public CompressingSerializerException(Throwable throwable) {
+            super(throwable);
+        }
+
+    }
+
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset.serializer;
+
+import com.google.common.collect.HashBiMap;
+import com.google.common.collect.ImmutableBiMap;
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.LinkedHashMultiset;
+import com.google.common.collect.Ordering;
+import com.google.common.reflect.TypeToken;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import jp.s64.java.repoli.base.SerializerRegistry;
+import jp.s64.java.repoli.internal.FrameInput;
+import jp.s64.java.repoli.internal.FrameOutput;
+
+/**
+ * Creates the collections and maps that framed serializers read into: the declared class when it is concrete, a
+ * default implementation of it otherwise, and a Guava immutable copy for the {@code Immutable*} types.
+ * <p>
+ * Sorted sets and maps are written with an order byte, {@code 0} for the natural ordering and {@code 1} followed by
+ * the comparator serialized by {@link SerializableSerializer}.
+ */
+final class Containers {
+
+    private static final TypeToken<Comparator<?>> COMPARATOR = new TypeToken<Comparator<?>>() {
+    };
+
+    private static final List<Class<?>> COLLECTIONS = Arrays.<Class<?>>asList(
+            ArrayList.class,
+            LinkedHashSet.class,
+            TreeSet.class,
+            LinkedList.class,
+            LinkedHashMultiset.class
+    );
+
+    private static final List<Class<?>> MAPS = Arrays.<Class<?>>asList(
+            HashMap.class,
+            TreeMap.class,
+            ConcurrentHashMap.class,
+            ConcurrentSkipListMap.class,
+            HashBiMap.class
+    );
+
+    private static final List<Class<?>> IMMUTABLES = Arrays.<Class<?>>asList(
+            ImmutableList.class,
+            ImmutableSet.class,
+            ImmutableSortedSet.class,
+            ImmutableMultiset.class,
+            ImmutableMap.class,
+            ImmutableSortedMap.class,
+            ImmutableBiMap.class
+    );
+
+    private static final Creator UNSUPPORTED = new Creator(Object.class, null, null);
+
+    private static final ConcurrentHashMap<Class<?>, Creator> CREATORS = new ConcurrentHashMap<>();
+
+    private Containers() {
+
+    }
+
+    /**
+     * @return whether {@link #newCollection} or {@link #newMap} can create an instance of {@code raw}.
+     */
+    static boolean canCreate(@NotNull Class<?> raw) {
+        if (raw == EnumSet.class || raw == EnumMap.class) {
+            return true;
+        }
+        if (ImmutableCollection.class.isAssignableFrom(raw) || ImmutableMap.class.isAssignableFrom(raw)) {
+            return immutable(raw) != null;
+        }
+        return creator(raw) != UNSUPPORTED;
+    }
+
+    static boolean isOrdered(@NotNull Class<?> raw) {
+        return SortedSet.class.isAssignableFrom(raw) || SortedMap.class.isAssignableFrom(raw);
+    }
+
+    /**
+     * Writes the order byte of {@code value} if {@code raw} is sorted.
+     */
+    static void writeOrder(@NotNull Class<?> raw, @NotNull Object value, @NotNull SerializerRegistry registry, @NotNull FrameOutput out) {
+        if (!isOrdered(raw)) {
+            return;
+        }
+        Comparator<?> comparator = value instanceof SortedSet ? ((SortedSet<?>) value).comparator() : ((SortedMap<?, ?>) value).comparator();
+        if (comparator == null || comparator == Ordering.natural()) {
+            out.writeByte(0);
+            return;
+        }
+        out.writeByte(1);
+        FramedSerializer.writeElement(SerializableSerializer.INSTANCE, COMPARATOR, comparator, registry, out);
+    }
+
+    /**
+     * @return the comparator written by {@link #writeOrder}, null for the natural ordering.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    static Comparator<Object> readOrder(@NotNull Class<?> raw, @NotNull SerializerRegistry registry, @NotNull FrameInput in) {
+        if (!isOrdered(raw) || in.getVersion() < 3) {
+            return null;
+        }
+        int flag = in.readByte();
+        if (flag == 0) {
+            return null;
+        }
+        if (flag != 1) {
+            throw new FrameInput.MalformedFrameException("unknown order: " + flag);
+        }
+        return (Comparator<Object>) FramedSerializer.readElement(SerializableSerializer.INSTANCE, COMPARATOR, registry, in);
+    }
+
+    /**
+     * @return an empty collection to add the elements to, to be passed to {@link #toCollection} afterwards.
+     */
+    @NotNull
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Collection<Object> newCollection(@NotNull Class<?> raw, @NotNull Class<?> elementRaw, @Nullable Comparator<Object> order, int count) {
+        if (raw == EnumSet.class) {
+            return (Collection) EnumSet.noneOf((Class) elementRaw);
+        }
+        if (ImmutableCollection.class.isAssignableFrom(raw)) {
+            return new ArrayList<>(count);
+        }
+        Creator creator = creator(raw);
+        if (creator.target == ArrayList.class) {
+            return new ArrayList<>(count);
+        }
+        return (Collection<Object>) creator.create(order);
+    }
+
+    @NotNull
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Collection<?> toCollection(@NotNull Class<?> raw, @NotNull Collection<Object> filled, @Nullable Comparator<Object> order) {
+        if (!ImmutableCollection.class.isAssignableFrom(raw)) {
+            return filled;
+        }
+        Class<?> target = immutable(raw);
+        if (target == ImmutableList.class) {
+            return ImmutableList.copyOf(filled);
+        } else if (target == ImmutableSet.class) {
+            return ImmutableSet.copyOf(filled);
+        } else if (target == ImmutableSortedSet.class) {
+            return ImmutableSortedSet.copyOf(order != null ? order : (Comparator) Ordering.natural(), filled);
+        }
+        return ImmutableMultiset.copyOf(filled);
+    }
+
+    /**
+     * @return an empty map to put the entries in, to be passed to {@link #toMap} afterwards.
+     */
+    @NotNull
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Map<Object, Object> newMap(@NotNull Class<?> raw, @NotNull Class<?> keyRaw, @Nullable Comparator<Object> order, int count) {
+        if (raw == EnumMap.class) {
+            return new EnumMap(keyRaw);
+        }
+        if (ImmutableMap.class.isAssignableFrom(raw)) {
+            return new LinkedHashMap<>(Math.max(16, (int) (count / 0.75f) + 1));
+        }
+        Creator creator = creator(raw);
+        if (creator.target == HashMap.class) {
+            return new HashMap<>(Math.max(16, (int) (count / 0.75f) + 1));
+        }
+        return (Map<Object, Object>) creator.create(order);
+    }
+
+    @NotNull
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Map<?, ?> toMap(@NotNull Class<?> raw, @NotNull Map<Object, Object> filled, @Nullable Comparator<Object> order) {
+        if (!ImmutableMap.class.isAssignableFrom(raw)) {
+            return filled;
+        }
+        Class<?> target = immutable(raw);
+        if (target == ImmutableSortedMap.class) {
+            return ImmutableSortedMap.copyOf(filled, order != null ? order : (Comparator) Ordering.natural());
+        } else if (target == ImmutableBiMap.class) {
+            return ImmutableBiMap.copyOf(filled);
+        }
+        return ImmutableMap.copyOf(filled);
+    }
+
+    @Nullable
+    private static Class<?> immutable(@NotNull Class<?> raw) {
+        for (Class<?> candidate : IMMUTABLES) {
+            if (raw.isAssignableFrom(candidate)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    @NotNull
+    private static Creator creator(@NotNull Class<?> raw) {
+        Creator ret = CREATORS.get(raw);
+        if (ret == null) {
+            ret = findCreator(raw);
+            CREATORS.putIfAbsent(raw, ret);
+        }
+        return ret;
+    }
+
+    @NotNull
+    private static Creator findCreator(@NotNull Class<?> raw) {
+        if (raw.isInterface() || Modifier.isAbstract(raw.getModifiers())) {
+            List<Class<?>> defaults = Map.class.isAssignableFrom(raw) ? MAPS : COLLECTIONS;
+            for (Class<?> candidate : defaults) {
+                if (raw.isAssignableFrom(candidate)) {
+                    return creator(candidate);
+                }
+            }
+            return UNSUPPORTED;
+        }
+        if (!Modifier.isPublic(raw.getModifiers())) {
+            return UNSUPPORTED;
+        }
+        Member plain = find(raw);
+        if (plain == null) {
+            return UNSUPPORTED;
+        }
+        return new Creator(raw, plain, isOrdered(raw) ? find(raw, Comparator.class) : null);
+    }
+
+    /**
+     * @return the public constructor taking {@code parameters}, otherwise a public static {@code create} method taking
+     * them, as the Guava collections have.
+     */
+    @Nullable
+    private static Member find(@NotNull Class<?> raw, @NotNull Class<?>... parameters) {
+        try {
+            return raw.getConstructor(parameters);
+        } catch (NoSuchMethodException e) {
+            // falls through to the factory method.
+        }
+        try {
+            Method ret = raw.getMethod("create", parameters);
+            if (Modifier.isStatic(ret.getModifiers()) && raw.isAssignableFrom(ret.getReturnType())) {
+                return ret;
+            }
+        } catch (NoSuchMethodException e) {
+            // neither exists.
+        }
+        return null;
+    }
+
+    private static final class Creator {
+
+        @NotNull
+        private final Class<?> target;
+
+        @Nullable
+        private final Member plain;
+
+        @Nullable
+        private final Member ordered;
+
+        private Creator(@NotNull Class<?> target, @Nullable Member plain, @Nullable Member ordered) {
+            this.target = target;
+            this.plain = plain;
+            this.ordered = ordered;
+        }
+
+        @NotNull
+        private Object create(@Nullable Comparator<Object> order) {
+            if (order == null) {
+                return invoke(plain);
+            }
+            if (ordered == null) {
+                throw new ContainerException("no constructor of " + target.getName() + " takes a comparator");
+            }
+            return invoke(ordered, order);
+        }
+
+        @NotNull
+        private static Object invoke(@Nullable Member member, @NotNull Object... args) {
+            try {
+                if (member instanceof Constructor) {
+                    return ((Constructor<?>) member).newInstance(args);
+                }
+                return ((Method) member).invoke(null, args);
+            } catch (InstantiationException e) {
+                throw new ContainerException(e);
+            } catch (IllegalAccessException e) {
+                throw new ContainerException(e);
+            } catch (InvocationTargetException e) {
+                throw new ContainerException(e.getCause());
+            }
+        }
+
+    }
+
+    public static class ContainerException extends RuntimeException {
+
+        public ContainerException(String message) {
+            super(message);
+        }
+
+        public ContainerException(Throwable throwable) {
+            super(throwable);
+        }
+
+    }
+
+}
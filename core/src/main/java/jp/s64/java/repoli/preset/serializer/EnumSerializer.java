@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset.serializer;
+
+import com.google.common.reflect.TypeToken;
+
+import jp.s64.java.repoli.base.SerializerRegistry;
+import jp.s64.java.repoli.internal.FrameInput;
+import jp.s64.java.repoli.internal.FrameOutput;
+
+/**
+ * Writes an enum constant by name, so that reordering the constants keeps cached values readable, see
+ * {@link FramedSerializer}. Payloads written by {@link SerializableSerializer} are still read.
+ */
+public class EnumSerializer extends FramedSerializer {
+
+    public static EnumSerializer INSTANCE = newInstance();
+
+    public static EnumSerializer newInstance() {
+        return new EnumSerializer();
+    }
+
+    protected EnumSerializer() {
+
+    }
+
+    @Override
+    protected void writeFrame(TypeToken<?> type, Object value, SerializerRegistry registry, FrameOutput out) {
+        out.writeString(value != null ? ((Enum<?>) value).name() : null);
+    }
+
+    @Override
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    protected Object readFrame(TypeToken<?> type, SerializerRegistry registry, FrameInput in) {
+        String name = in.readString();
+        if (name == null) {
+            return null;
+        }
+        Class<?> enumType = type.getRawType();
+        if (!enumType.isEnum()) {
+            // the class of a constant with a body.
+            enumType = enumType.getSuperclass();
+        }
+        return Enum.valueOf((Class) enumType, name);
+    }
+
+    @Override
+    protected Object deserializeLegacy(TypeToken<?> type, byte[] serialized, SerializerRegistry registry) {
+        return SerializableSerializer.INSTANCE.deserialize(type, serialized, registry.getSerializers());
+    }
+
+    @Override
+    protected int getInlineSince() {
+        return 2;
+    }
+
+    @Override
+    public boolean canSerialize(TypeToken<?> type) {
+        return Enum.class.isAssignableFrom(type.getRawType()) && type.getRawType() != Enum.class;
+    }
+
+    @Override
+    public float getPriority() {
+        return 2.4f;
+    }
+
+}
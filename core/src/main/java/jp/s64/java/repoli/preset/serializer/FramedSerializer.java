@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset.serializer;
+
+import com.google.common.reflect.TypeToken;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Set;
+
+import jp.s64.java.repoli.base.BaseStreamingSerializer;
+import jp.s64.java.repoli.base.SerializerRegistry;
+import jp.s64.java.repoli.core.ISerializer;
+import jp.s64.java.repoli.core.IStreamingSerializer;
+import jp.s64.java.repoli.internal.FrameInput;
+import jp.s64.java.repoli.internal.FrameOutput;
+
+/**
+ * A serializer for containers that writes its elements into one length-prefixed binary frame.
+ * <p>
+ * A payload is {@link #MAGIC}, {@link #VERSION} and the frame. Elements handled by another {@code FramedSerializer}
+ * are written inline into the same buffer instead of being serialized to a separate array first; other elements are
+ * written as length-prefixed byte arrays, streamed into the buffer and read in place when their serializer is an
+ * {@link IStreamingSerializer}. Payloads without the marker are handed to {@link #deserializeLegacy}.
+ */
+public abstract class FramedSerializer extends BaseStreamingSerializer {
+
+    public static final byte MAGIC = (byte) 0xF1;
+
+    /**
+     * 2: primitive, string, array and enum serializers write inline.
+     * 3: sorted sets and maps carry their order; collection, object array and optional serializers write inline.
+     */
+    public static final byte VERSION = 3;
+
+    @Override
+    public <T> T deserialize(TypeToken<T> type, byte[] serialized, Set<ISerializer> serializers) {
+        if (serialized == null) {
+            return deserialize(type, null, 0, 0, SerializerRegistry.from(serializers));
+        }
+        return deserialize(type, serialized, 0, serialized.length, SerializerRegistry.from(serializers));
+    }
+
+    @Override
+    public <T> T deserialize(TypeToken<T> type, ByteBuffer serialized, Set<ISerializer> serializers) {
+        if (!serialized.hasArray()) {
+            return deserialize(type, toByteArray(serialized), serializers);
+        }
+        int offset = serialized.arrayOffset();
+        return deserialize(type, serialized.array(), offset + serialized.position(), offset + serialized.limit(), SerializerRegistry.from(serializers));
+    }
+
+    @Override
+    public <T> byte[] serialize(TypeToken<T> type, Object deserialized, Set<ISerializer> serializers) {
+        FrameOutput out = new FrameOutput(256);
+        write(type, deserialized, SerializerRegistry.from(serializers), out);
+        return out.toByteArray();
+    }
+
+    @Override
+    public <T> void serialize(TypeToken<T> type, Object deserialized, OutputStream out, Set<ISerializer> serializers) throws IOException {
+        if (out instanceof FrameOutput) {
+            write(type, deserialized, SerializerRegistry.from(serializers), (FrameOutput) out);
+            return;
+        }
+        FrameOutput buffer = new FrameOutput(256);
+        write(type, deserialized, SerializerRegistry.from(serializers), buffer);
+        buffer.writeTo(out);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T deserialize(@NotNull TypeToken<T> type, @Nullable byte[] serialized, int offset, int limit, @NotNull SerializerRegistry registry) {
+        if (serialized == null || limit - offset < 2 || serialized[offset] != MAGIC) {
+            if (serialized != null && (offset != 0 || limit != serialized.length)) {
+                serialized = Arrays.copyOfRange(serialized, offset, limit);
+            }
+            return (T) deserializeLegacy(type, serialized, registry);
+        }
+        int version = serialized[offset + 1];
+        if (version < 1 || version > VERSION) {
+            throw new FrameInput.MalformedFrameException("unsupported version: " + version);
+        }
+        FrameInput in = new FrameInput(serialized, offset + 2, limit, version);
+        Object ret = readFrame(type, registry, in);
+        if (!in.isFinished()) {
+            throw new FrameInput.MalformedFrameException("trailing bytes");
+        }
+        return (T) ret;
+    }
+
+    private void write(@NotNull TypeToken<?> type, @Nullable Object deserialized, @NotNull SerializerRegistry registry, @NotNull FrameOutput out) {
+        {
+            out.writeByte(MAGIC);
+            out.writeByte(VERSION);
+        }
+        writeFrame(type, deserialized, registry, out);
+    }
+
+    /**
+     * Writes {@code value}, which may be null, so that {@link #readFrame} can find where it ends.
+     */
+    protected abstract void writeFrame(@NotNull TypeToken<?> type, @Nullable Object value, @NotNull SerializerRegistry registry, @NotNull FrameOutput out);
+
+    @Nullable
+    protected abstract Object readFrame(@NotNull TypeToken<?> type, @NotNull SerializerRegistry registry, @NotNull FrameInput in);
+
+    /**
+     * Reads a payload written before the framing format, or by a serializer that did not use it.
+     */
+    @Nullable
+    protected abstract Object deserializeLegacy(@NotNull TypeToken<?> type, @Nullable byte[] serialized, @NotNull SerializerRegistry registry);
+
+    @NotNull
+    protected static TypeToken<?> typeArgument(@NotNull TypeToken<?> type, int index) {
+        return SerializerRegistry.resolveTypeArgument(type, index);
+    }
+
+    /**
+     * @return the {@link #VERSION} since which this serializer writes inline into the frames of others; in older frames
+     * its values are length-prefixed byte arrays.
+     */
+    protected int getInlineSince() {
+        return 1;
+    }
+
+    protected static void writeElement(@NotNull TypeToken<?> type, @Nullable Object value, @NotNull SerializerRegistry registry, @NotNull FrameOutput out) {
+        writeElement(registry.findByClass(type), type, value, registry, out);
+    }
+
+    /**
+     * Like {@link #writeElement(TypeToken, Object, SerializerRegistry, FrameOutput)} with the serializer for
+     * {@code type} already resolved, for containers that write many elements of one type.
+     */
+    protected static void writeElement(@NotNull ISerializer serializer, @NotNull TypeToken<?> type, @Nullable Object value, @NotNull SerializerRegistry registry, @NotNull FrameOutput out) {
+        if (serializer instanceof FramedSerializer) {
+            ((FramedSerializer) serializer).writeFrame(type, value, registry, out);
+        } else if (serializer instanceof IStreamingSerializer) {
+            int mark = out.beginBytes();
+            try {
+                ((IStreamingSerializer) serializer).serialize(type, value, out, registry.getSerializers());
+            } catch (IOException e) {
+                // FrameOutput never throws.
+                throw new StreamingSerializerException(e);
+            }
+            out.endBytes(mark);
+        } else {
+            out.writeBytes(serializer.serialize(type, value, registry.getSerializers()));
+        }
+    }
+
+    @Nullable
+    protected static Object readElement(@NotNull TypeToken<?> type, @NotNull SerializerRegistry registry, @NotNull FrameInput in) {
+        return readElement(registry.findByClass(type), type, registry, in);
+    }
+
+    @Nullable
+    protected static Object readElement(@NotNull ISerializer serializer, @NotNull TypeToken<?> type, @NotNull SerializerRegistry registry, @NotNull FrameInput in) {
+        if (serializer instanceof FramedSerializer && in.getVersion() >= ((FramedSerializer) serializer).getInlineSince()) {
+            return ((FramedSerializer) serializer).readFrame(type, registry, in);
+        }
+        if (serializer instanceof IStreamingSerializer) {
+            ByteBuffer slice = in.readSlice();
+            if (slice != null) {
+                return ((IStreamingSerializer) serializer).deserialize(type, slice, registry.getSerializers());
+            }
+            return serializer.deserialize(type, (byte[]) null, registry.getSerializers());
+        }
+        return serializer.deserialize(type, in.readBytes(), registry.getSerializers());
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset.serializer;
+
+import com.google.common.reflect.TypeToken;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Serializable;
+
+import jp.s64.java.repoli.base.SerializerRegistry;
+import jp.s64.java.repoli.internal.FrameInput;
+import jp.s64.java.repoli.internal.FrameOutput;
+
+/**
+ * The base of serializers generated for classes annotated with {@link jp.s64.java.repoli.annotation.GenerateSerializer}.
+ * <p>
+ * Each object starts with a four-byte layout id, {@code 0} for null, which changes with the names and types of the
+ * fields; a payload written for another layout fails to read instead of filling the wrong fields. Payloads written
+ * before the class was annotated are read by {@link SerializableSerializer} if the class is {@link Serializable}.
+ */
+public abstract class GeneratedSerializer<T> extends FramedSerializer {
+
+    /**
+     * Ahead of {@link SerializableSerializer}, and of a {@link CompressingSerializer} wrapping it.
+     */
+    public static final float PRIORITY = 2.45f;
+
+    @NotNull
+    private final Class<T> type;
+
+    private final int layout;
+
+    protected GeneratedSerializer(@NotNull Class<T> type, int layout) {
+        if (layout == 0) {
+            throw new IllegalArgumentException("layout 0 marks null");
+        }
+        this.type = type;
+        this.layout = layout;
+    }
+
+    protected abstract void writeFields(@NotNull T value, @NotNull SerializerRegistry registry, @NotNull FrameOutput out);
+
+    @NotNull
+    protected abstract T readFields(@NotNull SerializerRegistry registry, @NotNull FrameInput in);
+
+    @Override
+    protected final void writeFrame(TypeToken<?> type, Object value, SerializerRegistry registry, FrameOutput out) {
+        if (value == null) {
+            out.writeFixed32(0);
+            return;
+        }
+        out.writeFixed32(layout);
+        writeFields(this.type.cast(value), registry, out);
+    }
+
+    @Override
+    protected final Object readFrame(TypeToken<?> type, SerializerRegistry registry, FrameInput in) {
+        int layout = in.readFixed32();
+        if (layout == 0) {
+            return null;
+        }
+        if (layout != this.layout) {
+            throw new GeneratedSerializerException(String.format(
+                    "`%s` was written with layout %08x, but the current layout is %08x.",
+                    this.type.getName(),
+                    layout,
+                    this.layout
+            ));
+        }
+        return readFields(registry, in);
+    }
+
+    @Override
+    protected Object deserializeLegacy(TypeToken<?> type, byte[] serialized, SerializerRegistry registry) {
+        if (!Serializable.class.isAssignableFrom(this.type)) {
+            throw new GeneratedSerializerException(String.format("`%s` has no legacy format.", this.type.getName()));
+        }
+        return SerializableSerializer.INSTANCE.deserialize(type, serialized, registry.getSerializers());
+    }
+
+    @Override
+    public boolean canSerialize(TypeToken<?> type) {
+        return type.getRawType() == this.type;
+    }
+
+    @Override
+    public float getPriority() {
+        return PRIORITY;
+    }
+
+    protected static void writeEnum(@Nullable Enum<?> value, @NotNull FrameOutput out) {
+        out.writeString(value != null ? value.name() : null);
+    }
+
+    @Nullable
+    protected static <E extends Enum<E>> E readEnum(@NotNull Class<E> type, @NotNull FrameInput in) {
+        String name = in.readString();
+        return name != null ? Enum.valueOf(type, name) : null;
+    }
+
+    public static class GeneratedSerializerException extends RuntimeException {
+
+        public GeneratedSerializerException(String message) {
+            super(message);
+        }
+
+        public GeneratedSerializerException(Throwable throwable) {
+            super(throwable);
+        }
+
+    }
+
+}
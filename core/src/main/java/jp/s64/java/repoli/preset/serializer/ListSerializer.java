@@ -19,19 +19,22 @@ package jp.s64.java.repoli.preset.serializer;
 import com.google.common.reflect.TypeToken;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Collection;
 import java.util.List;
-import java.util.Set;
 
-import jp.s64.java.repoli.base.SerializerUserHelper;
+import jp.s64.java.repoli.base.SerializerRegistry;
 import jp.s64.java.repoli.core.ISerializer;
+import jp.s64.java.repoli.internal.FrameInput;
+import jp.s64.java.repoli.internal.FrameOutput;
 
-public class ListSerializer implements ISerializer {
+/**
+ * Writes the element count and then every element, see {@link FramedSerializer}. The list is read back as the
+ * declared class, an {@link ArrayList} for {@code List}, or a copy for {@code ImmutableList}.
+ */
+public class ListSerializer extends FramedSerializer {
 
     public static ListSerializer INSTANCE = newInstance();
 
@@ -44,12 +47,44 @@ public class ListSerializer implements ISerializer {
     }
 
     @Override
-    public <T> T deserialize(TypeToken<T> type, byte[] serialized, Set<ISerializer> serializers) {
-        SerializerUserHelper helper = new SerializerUserHelper();
-        {
-            helper.addSerializer(serializers);
+    protected void writeFrame(TypeToken<?> type, Object value, SerializerRegistry registry, FrameOutput out) {
+        if (value == null) {
+            out.writeVarint(0);
+            return;
+        }
+        List<?> list = (List<?>) value;
+        TypeToken<?> innerType = typeArgument(type, 0);
+        ISerializer serializer = registry.findByClass(innerType);
+        out.writeVarint(list.size() + 1);
+        for (Object item : list) {
+            writeElement(serializer, innerType, item, registry, out);
+        }
+    }
+
+    @Override
+    protected Object readFrame(TypeToken<?> type, SerializerRegistry registry, FrameInput in) {
+        int count = in.readCount();
+        if (count < 0) {
+            return null;
+        }
+        TypeToken<?> innerType = typeArgument(type, 0);
+        ISerializer serializer = registry.findByClass(innerType);
+        Collection<Object> ret = Containers.newCollection(type.getRawType(), innerType.getRawType(), null, count);
+        for (int i = 0; i < count; i++) {
+            ret.add(readElement(serializer, innerType, registry, in));
+        }
+        return Containers.toCollection(type.getRawType(), ret, null);
+    }
+
+    /**
+     * Reads the former format: a {@code List<byte[]>} of serialized elements written by {@link java.io.ObjectOutputStream}.
+     */
+    @Override
+    protected Object deserializeLegacy(TypeToken<?> type, byte[] serialized, SerializerRegistry registry) {
+        if (serialized == null) {
+            return null;
         }
-        TypeToken<?> innerType = type.resolveType(type.getRawType().getTypeParameters()[0]);
+        TypeToken<?> innerType = typeArgument(type, 0);
 
         ByteArrayInputStream in = new ByteArrayInputStream(serialized);
         ObjectInputStream ois = null;
@@ -78,56 +113,17 @@ public class ListSerializer implements ISerializer {
         if (org != null) {
             dest = new ArrayList<>();
             for (byte[] item : org) {
-                Object deserialized = helper.deserializeByClass(innerType, item);
+                Object deserialized = registry.deserializeByClass(innerType, item);
                 dest.add(deserialized);
             }
         }
 
-        return (T) dest;
-    }
-
-    @Override
-    public <T> byte[] serialize(TypeToken<T> type, Object deserialized, Set<ISerializer> serializers) {
-        SerializerUserHelper helper = new SerializerUserHelper();
-        {
-            helper.addSerializer(serializers);
-        }
-        List<byte[]> dest = new LinkedList<>();
-
-        List<?> list = (List<?>) deserialized;
-        TypeToken<?> innerType = type.resolveType(type.getRawType().getTypeParameters()[0]);
-
-        for (Object item : list) {
-            byte[] serialized = helper.serializeByClass(innerType, item);
-            dest.add(serialized);
-        }
-
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        ObjectOutputStream oos = null;
-        try {
-            oos = new ObjectOutputStream(out);
-            {
-                oos.writeObject(dest);
-                oos.flush();
-            }
-            return out.toByteArray();
-        } catch (IOException e) {
-            throw new ListSerializerException(e);
-        } finally {
-            try {
-                if (oos != null) {
-                    oos.close();
-                }
-                out.close();
-            } catch (IOException e) {
-                throw new ListSerializerException(e);
-            }
-        }
+        return dest;
     }
 
     @Override
     public boolean canSerialize(TypeToken<?> type) {
-        return List.class.isAssignableFrom(type.getRawType());
+        return List.class.isAssignableFrom(type.getRawType()) && Containers.canCreate(type.getRawType());
     }
 
     @Override
@@ -19,18 +19,23 @@ package jp.s64.java.repoli.preset.serializer;
 import com.google.common.reflect.TypeToken;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
 
-import jp.s64.java.repoli.base.SerializerUserHelper;
+import jp.s64.java.repoli.base.SerializerRegistry;
 import jp.s64.java.repoli.core.ISerializer;
+import jp.s64.java.repoli.internal.FrameInput;
+import jp.s64.java.repoli.internal.FrameOutput;
 
-public class MapSerializer implements ISerializer {
+/**
+ * Writes the entry count, the order of a sorted map, and then every key followed by its value, see
+ * {@link FramedSerializer}. The map is read back as the declared class, or as a default implementation of an
+ * interface such as {@link HashMap} for {@code Map}.
+ */
+public class MapSerializer extends FramedSerializer {
 
     public static MapSerializer INSTANCE = newInstance();
 
@@ -43,13 +48,53 @@ public class MapSerializer implements ISerializer {
     }
 
     @Override
-    public <T> T deserialize(TypeToken<T> type, byte[] serialized, Set<ISerializer> serializers) {
-        SerializerUserHelper helper = new SerializerUserHelper();
-        {
-            helper.addSerializer(serializers);
+    protected void writeFrame(TypeToken<?> type, Object value, SerializerRegistry registry, FrameOutput out) {
+        if (value == null) {
+            out.writeVarint(0);
+            return;
+        }
+        Map<?, ?> map = (Map<?, ?>) value;
+        TypeToken<?> keyType = typeArgument(type, 0);
+        TypeToken<?> valueType = typeArgument(type, 1);
+        ISerializer keySerializer = registry.findByClass(keyType);
+        ISerializer valueSerializer = registry.findByClass(valueType);
+        out.writeVarint(map.size() + 1);
+        Containers.writeOrder(type.getRawType(), value, registry, out);
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            writeElement(keySerializer, keyType, entry.getKey(), registry, out);
+            writeElement(valueSerializer, valueType, entry.getValue(), registry, out);
+        }
+    }
+
+    @Override
+    protected Object readFrame(TypeToken<?> type, SerializerRegistry registry, FrameInput in) {
+        int count = in.readCount();
+        if (count < 0) {
+            return null;
+        }
+        TypeToken<?> keyType = typeArgument(type, 0);
+        TypeToken<?> valueType = typeArgument(type, 1);
+        ISerializer keySerializer = registry.findByClass(keyType);
+        ISerializer valueSerializer = registry.findByClass(valueType);
+        Comparator<Object> order = Containers.readOrder(type.getRawType(), registry, in);
+        Map<Object, Object> ret = Containers.newMap(type.getRawType(), keyType.getRawType(), order, count);
+        for (int i = 0; i < count; i++) {
+            Object key = readElement(keySerializer, keyType, registry, in);
+            ret.put(key, readElement(valueSerializer, valueType, registry, in));
+        }
+        return Containers.toMap(type.getRawType(), ret, order);
+    }
+
+    /**
+     * Reads the former format: a {@code Map<byte[], byte[]>} of serialized entries written by {@link java.io.ObjectOutputStream}.
+     */
+    @Override
+    protected Object deserializeLegacy(TypeToken<?> type, byte[] serialized, SerializerRegistry registry) {
+        if (serialized == null) {
+            return null;
         }
-        TypeToken<?> keyType = type.resolveType(type.getRawType().getTypeParameters()[0]);
-        TypeToken<?> valueType = type.resolveType(type.getRawType().getTypeParameters()[1]);
+        TypeToken<?> keyType = typeArgument(type, 0);
+        TypeToken<?> valueType = typeArgument(type, 1);
 
         ByteArrayInputStream in = new ByteArrayInputStream(serialized);
         ObjectInputStream ois = null;
@@ -80,61 +125,18 @@ public class MapSerializer implements ISerializer {
             for (byte[] key : org.keySet()) {
                 byte[] value = org.get(key);
                 dest.put(
-                        helper.deserializeByClass(keyType, key),
-                        helper.deserializeByClass(valueType, value)
+                        registry.deserializeByClass(keyType, key),
+                        registry.deserializeByClass(valueType, value)
                 );
             }
         }
 
-        return (T) dest;
-    }
-
-    @Override
-    public <T> byte[] serialize(TypeToken<T> type, Object deserialized, Set<ISerializer> serializers) {
-        SerializerUserHelper helper = new SerializerUserHelper();
-        {
-            helper.addSerializer(serializers);
-        }
-        TypeToken<?> keyType = type.resolveType(type.getRawType().getTypeParameters()[0]);
-        TypeToken<?> valueType = type.resolveType(type.getRawType().getTypeParameters()[1]);
-
-        Map<?, ?> map = (Map<?, ?>) deserialized;
-
-        Map<byte[], byte[]> dest = new HashMap<>();
-        for (Object key : map.keySet()) {
-            Object value = map.get(key);
-            dest.put(
-                    helper.serializeByClass(keyType, key),
-                    helper.serializeByClass(valueType, value)
-            );
-        }
-
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        ObjectOutputStream oos = null;
-        try {
-            oos = new ObjectOutputStream(out);
-            {
-                oos.writeObject(dest);
-                oos.flush();
-            }
-            return out.toByteArray();
-        } catch (IOException e) {
-            throw new MapSerializerException(e);
-        } finally {
-            try {
-                if (oos != null) {
-                    oos.close();
-                }
-                out.close();
-            } catch (IOException e) {
-                throw new MapSerializerException(e);
-            }
-        }
+        return dest;
     }
 
     @Override
     public boolean canSerialize(TypeToken<?> type) {
-        return Map.class.isAssignableFrom(type.getRawType());
+        return Map.class.isAssignableFrom(type.getRawType()) && Containers.canCreate(type.getRawType());
     }
 
     @Override
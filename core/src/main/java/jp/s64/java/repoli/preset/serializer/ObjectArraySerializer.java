@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset.serializer;
+
+import com.google.common.reflect.TypeToken;
+
+import java.lang.reflect.Array;
+
+import jp.s64.java.repoli.base.SerializerRegistry;
+import jp.s64.java.repoli.core.ISerializer;
+import jp.s64.java.repoli.internal.FrameInput;
+import jp.s64.java.repoli.internal.FrameOutput;
+
+/**
+ * Writes an array of objects as its length and every element, see {@link FramedSerializer}; the array is read back
+ * with the declared component type. Payloads written by {@link SerializableSerializer} are still read.
+ */
+public class ObjectArraySerializer extends FramedSerializer {
+
+    public static ObjectArraySerializer INSTANCE = newInstance();
+
+    public static ObjectArraySerializer newInstance() {
+        return new ObjectArraySerializer();
+    }
+
+    protected ObjectArraySerializer() {
+
+    }
+
+    @Override
+    protected void writeFrame(TypeToken<?> type, Object value, SerializerRegistry registry, FrameOutput out) {
+        if (value == null) {
+            out.writeVarint(0);
+            return;
+        }
+        Object[] array = (Object[]) value;
+        TypeToken<?> innerType = type.getComponentType();
+        ISerializer serializer = registry.findByClass(innerType);
+        out.writeVarint(array.length + 1);
+        for (Object item : array) {
+            writeElement(serializer, innerType, item, registry, out);
+        }
+    }
+
+    @Override
+    protected Object readFrame(TypeToken<?> type, SerializerRegistry registry, FrameInput in) {
+        int count = in.readCount();
+        if (count < 0) {
+            return null;
+        }
+        TypeToken<?> innerType = type.getComponentType();
+        ISerializer serializer = registry.findByClass(innerType);
+        Object[] ret = (Object[]) Array.newInstance(innerType.getRawType(), count);
+        for (int i = 0; i < count; i++) {
+            ret[i] = readElement(serializer, innerType, registry, in);
+        }
+        return ret;
+    }
+
+    @Override
+    protected Object deserializeLegacy(TypeToken<?> type, byte[] serialized, SerializerRegistry registry) {
+        return SerializableSerializer.INSTANCE.deserialize(type, serialized, registry.getSerializers());
+    }
+
+    @Override
+    protected int getInlineSince() {
+        return 3;
+    }
+
+    @Override
+    public boolean canSerialize(TypeToken<?> type) {
+        Class<?> raw = type.getRawType();
+        return raw.isArray() && !raw.getComponentType().isPrimitive();
+    }
+
+    @Override
+    public float getPriority() {
+        return 2.3f;
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset.serializer;
+
+import com.google.common.base.Optional;
+import com.google.common.reflect.TypeToken;
+
+import jp.s64.java.repoli.base.SerializerRegistry;
+import jp.s64.java.repoli.internal.FrameInput;
+import jp.s64.java.repoli.internal.FrameOutput;
+
+/**
+ * Writes a Guava {@link Optional} as a byte, {@code 0} for null, {@code 1} for absent and {@code 2} followed by the
+ * present reference, see {@link FramedSerializer}. Payloads written by {@link SerializableSerializer} are still read.
+ */
+public class OptionalSerializer extends FramedSerializer {
+
+    public static OptionalSerializer INSTANCE = newInstance();
+
+    public static OptionalSerializer newInstance() {
+        return new OptionalSerializer();
+    }
+
+    protected OptionalSerializer() {
+
+    }
+
+    @Override
+    protected void writeFrame(TypeToken<?> type, Object value, SerializerRegistry registry, FrameOutput out) {
+        if (value == null) {
+            out.writeByte(0);
+            return;
+        }
+        Optional<?> optional = (Optional<?>) value;
+        if (!optional.isPresent()) {
+            out.writeByte(1);
+            return;
+        }
+        out.writeByte(2);
+        writeElement(typeArgument(type, 0), optional.get(), registry, out);
+    }
+
+    @Override
+    protected Object readFrame(TypeToken<?> type, SerializerRegistry registry, FrameInput in) {
+        int flag = in.readByte();
+        switch (flag) {
+            case 0:
+                return null;
+            case 1:
+                return Optional.absent();
+            case 2:
+                return Optional.of(readElement(typeArgument(type, 0), registry, in));
+            default:
+                throw new FrameInput.MalformedFrameException("unknown optional: " + flag);
+        }
+    }
+
+    @Override
+    protected Object deserializeLegacy(TypeToken<?> type, byte[] serialized, SerializerRegistry registry) {
+        return SerializableSerializer.INSTANCE.deserialize(type, serialized, registry.getSerializers());
+    }
+
+    @Override
+    protected int getInlineSince() {
+        return 3;
+    }
+
+    @Override
+    public boolean canSerialize(TypeToken<?> type) {
+        return type.getRawType() == Optional.class;
+    }
+
+    @Override
+    public float getPriority() {
+        return 2.4f;
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset.serializer;
+
+import com.google.common.reflect.TypeToken;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import jp.s64.java.repoli.base.SerializerRegistry;
+import jp.s64.java.repoli.internal.FrameInput;
+import jp.s64.java.repoli.internal.FrameOutput;
+
+/**
+ * Writes a list of boxed primitives or strings as its size and one packed column of values, instead of an element at a time like
+ * {@link ListSerializer}; see {@link FramedSerializer}. Reads everything {@link ListSerializer} wrote before.
+ */
+public class PackedListSerializer extends FramedSerializer {
+
+    public static PackedListSerializer INSTANCE = newInstance();
+
+    public static PackedListSerializer newInstance() {
+        return new PackedListSerializer();
+    }
+
+    protected PackedListSerializer() {
+
+    }
+
+    @Override
+    protected void writeFrame(TypeToken<?> type, Object value, SerializerRegistry registry, FrameOutput out) {
+        if (value == null) {
+            out.writeVarint(0);
+            return;
+        }
+        List<?> list = (List<?>) value;
+        out.writeVarint(list.size() + 1);
+        codec(type).writeColumn(list.toArray(), out);
+    }
+
+    @Override
+    protected Object readFrame(TypeToken<?> type, SerializerRegistry registry, FrameInput in) {
+        if (in.getVersion() < 2) {
+            return ListSerializer.INSTANCE.readFrame(type, registry, in);
+        }
+        int count = in.readCount(8);
+        if (count < 0) {
+            return null;
+        }
+        Collection<Object> ret = Containers.newCollection(type.getRawType(), typeArgument(type, 0).getRawType(), null, count);
+        ret.addAll(Arrays.asList(codec(type).readColumn(count, in)));
+        return Containers.toCollection(type.getRawType(), ret, null);
+    }
+
+    @Override
+    protected Object deserializeLegacy(TypeToken<?> type, byte[] serialized, SerializerRegistry registry) {
+        return ListSerializer.INSTANCE.deserializeLegacy(type, serialized, registry);
+    }
+
+    @Override
+    public boolean canSerialize(TypeToken<?> type) {
+        if (!List.class.isAssignableFrom(type.getRawType()) || type.getRawType().getTypeParameters().length != 1
+                || !Containers.canCreate(type.getRawType())) {
+            return false;
+        }
+        return PrimitiveCodec.of(typeArgument(type, 0).getRawType()) != null;
+    }
+
+    @Override
+    public float getPriority() {
+        return 0.5f;
+    }
+
+    private static PrimitiveCodec codec(TypeToken<?> type) {
+        return PrimitiveCodec.of(typeArgument(type, 0).getRawType());
+    }
+
+}
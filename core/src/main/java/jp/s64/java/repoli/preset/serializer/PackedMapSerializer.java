@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset.serializer;
+
+import com.google.common.reflect.TypeToken;
+
+import java.util.Comparator;
+import java.util.Map;
+
+import jp.s64.java.repoli.base.SerializerRegistry;
+import jp.s64.java.repoli.internal.FrameInput;
+import jp.s64.java.repoli.internal.FrameOutput;
+
+/**
+ * Writes a map whose keys and values are boxed primitives or strings as its size, a packed column of keys and a
+ * packed column of values, instead of an entry at a time like {@link MapSerializer}; see {@link FramedSerializer}.
+ * Reads everything {@link MapSerializer} wrote before.
+ */
+public class PackedMapSerializer extends FramedSerializer {
+
+    public static PackedMapSerializer INSTANCE = newInstance();
+
+    public static PackedMapSerializer newInstance() {
+        return new PackedMapSerializer();
+    }
+
+    protected PackedMapSerializer() {
+
+    }
+
+    @Override
+    protected void writeFrame(TypeToken<?> type, Object value, SerializerRegistry registry, FrameOutput out) {
+        if (value == null) {
+            out.writeVarint(0);
+            return;
+        }
+        Map<?, ?> map = (Map<?, ?>) value;
+        Object[] keys = new Object[map.size()];
+        Object[] values = new Object[keys.length];
+        {
+            int i = 0;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                keys[i] = entry.getKey();
+                values[i] = entry.getValue();
+                i++;
+            }
+        }
+        out.writeVarint(keys.length + 1);
+        Containers.writeOrder(type.getRawType(), value, registry, out);
+        PrimitiveCodec.of(typeArgument(type, 0).getRawType()).writeColumn(keys, out);
+        PrimitiveCodec.of(typeArgument(type, 1).getRawType()).writeColumn(values, out);
+    }
+
+    @Override
+    protected Object readFrame(TypeToken<?> type, SerializerRegistry registry, FrameInput in) {
+        if (in.getVersion() < 2) {
+            return MapSerializer.INSTANCE.readFrame(type, registry, in);
+        }
+        int count = in.readCount(8);
+        if (count < 0) {
+            return null;
+        }
+        Comparator<Object> order = Containers.readOrder(type.getRawType(), registry, in);
+        Class<?> keyRaw = typeArgument(type, 0).getRawType();
+        Object[] keys = PrimitiveCodec.of(keyRaw).readColumn(count, in);
+        Object[] values = PrimitiveCodec.of(typeArgument(type, 1).getRawType()).readColumn(count, in);
+        Map<Object, Object> ret = Containers.newMap(type.getRawType(), keyRaw, order, count);
+        for (int i = 0; i < count; i++) {
+            ret.put(keys[i], values[i]);
+        }
+        return Containers.toMap(type.getRawType(), ret, order);
+    }
+
+    @Override
+    protected Object deserializeLegacy(TypeToken<?> type, byte[] serialized, SerializerRegistry registry) {
+        return MapSerializer.INSTANCE.deserializeLegacy(type, serialized, registry);
+    }
+
+    @Override
+    public boolean canSerialize(TypeToken<?> type) {
+        if (!Map.class.isAssignableFrom(type.getRawType()) || type.getRawType().getTypeParameters().length != 2
+                || !Containers.canCreate(type.getRawType())) {
+            return false;
+        }
+        return PrimitiveCodec.of(typeArgument(type, 0).getRawType()) != null
+                && PrimitiveCodec.of(typeArgument(type, 1).getRawType()) != null;
+    }
+
+    @Override
+    public float getPriority() {
+        return 1.5f;
+    }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset.serializer;
+
+import com.google.common.reflect.TypeToken;
+
+import jp.s64.java.repoli.base.SerializerRegistry;
+import jp.s64.java.repoli.internal.FrameInput;
+import jp.s64.java.repoli.internal.FrameOutput;
+
+/**
+ * Writes an array of primitives other than {@code byte} as its length and then the values back to back: integers as
+ * zigzag varints, floating point numbers as their raw bits, booleans eight to a byte, see {@link FramedSerializer}.
+ * Payloads written by {@link SerializableSerializer} are still read.
+ */
+public class PrimitiveArraySerializer extends FramedSerializer {
+
+    public static PrimitiveArraySerializer INSTANCE = newInstance();
+
+    public static PrimitiveArraySerializer newInstance() {
+        return new PrimitiveArraySerializer();
+    }
+
+    protected PrimitiveArraySerializer() {
+
+    }
+
+    @Override
+    protected void writeFrame(TypeToken<?> type, Object value, SerializerRegistry registry, FrameOutput out) {
+        if (value == null) {
+            out.writeVarint(0);
+        } else if (value instanceof int[]) {
+            int[] array = (int[]) value;
+            out.writeVarint(array.length + 1);
+            for (int item : array) {
+                out.writeSignedVarint(item);
+            }
+        } else if (value instanceof long[]) {
+            long[] array = (long[]) value;
+            out.writeVarint(array.length + 1);
+            for (long item : array) {
+                out.writeSignedVarlong(item);
+            }
+        } else if (value instanceof short[]) {
+            short[] array = (short[]) value;
+            out.writeVarint(array.length + 1);
+            for (short item : array) {
+                out.writeSignedVarint(item);
+            }
+        } else if (value instanceof char[]) {
+            char[] array = (char[]) value;
+            out.writeVarint(array.length + 1);
+            for (char item : array) {
+                out.writeVarint(item);
+            }
+        } else if (value instanceof float[]) {
+            float[] array = (float[]) value;
+            out.writeVarint(array.length + 1);
+            for (float item : array) {
+                out.writeFixed32(Float.floatToRawIntBits(item));
+            }
+        } else if (value instanceof double[]) {
+            double[] array = (double[]) value;
+            out.writeVarint(array.length + 1);
+            for (double item : array) {
+                out.writeFixed64(Double.doubleToRawLongBits(item));
+            }
+        } else {
+            boolean[] array = (boolean[]) value;
+            out.writeVarint(array.length + 1);
+            for (int i = 0; i < array.length; i += 8) {
+                int bits = 0;
+                for (int bit = 0; bit < 8 && i + bit < array.length; bit++) {
+                    if (array[i + bit]) {
+                        bits |= 1 << bit;
+                    }
+                }
+                out.writeByte(bits);
+            }
+        }
+    }
+
+    @Override
+    protected Object readFrame(TypeToken<?> type, SerializerRegistry registry, FrameInput in) {
+        Class<?> arrayType = type.getRawType();
+        int length = in.readCount(arrayType == boolean[].class ? 8 : 1);
+        if (length < 0) {
+            return null;
+        }
+        if (arrayType == int[].class) {
+            int[] ret = new int[length];
+            for (int i = 0; i < length; i++) {
+                ret[i] = in.readSignedVarint();
+            }
+            return ret;
+        } else if (arrayType == long[].class) {
+            long[] ret = new long[length];
+            for (int i = 0; i < length; i++) {
+                ret[i] = in.readSignedVarlong();
+            }
+            return ret;
+        } else if (arrayType == short[].class) {
+            short[] ret = new short[length];
+            for (int i = 0; i < length; i++) {
+                ret[i] = (short) in.readSignedVarint();
+            }
+            return ret;
+        } else if (arrayType == char[].class) {
+            char[] ret = new char[length];
+            for (int i = 0; i < length; i++) {
+                ret[i] = (char) in.readVarint();
+            }
+            return ret;
+        } else if (arrayType == float[].class) {
+            float[] ret = new float[length];
+            for (int i = 0; i < length; i++) {
+                ret[i] = Float.intBitsToFloat(in.readFixed32());
+            }
+            return ret;
+        } else if (arrayType == double[].class) {
+            double[] ret = new double[length];
+            for (int i = 0; i < length; i++) {
+                ret[i] = Double.longBitsToDouble(in.readFixed64());
+            }
+            return ret;
+        }
+        boolean[] ret = new boolean[length];
+        int bits = 0;
+        for (int i = 0; i < length; i++) {
+            if ((i & 7) == 0) {
+                bits = in.readByte();
+            }
+            ret[i] = (bits & (1 << (i & 7))) != 0;
+        }
+        return ret;
+    }
+
+    @Override
+    protected Object deserializeLegacy(TypeToken<?> type, byte[] serialized, SerializerRegistry registry) {
+        return SerializableSerializer.INSTANCE.deserialize(type, serialized, registry.getSerializers());
+    }
+
+    @Override
+    protected int getInlineSince() {
+        return 2;
+    }
+
+    @Override
+    public boolean canSerialize(TypeToken<?> type) {
+        Class<?> component = type.getRawType().getComponentType();
+        return component != null && component.isPrimitive() && component != byte.class;
+    }
+
+    @Override
+    public float getPriority() {
+        return 2.3f;
+    }
+
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset.serializer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import jp.s64.java.repoli.internal.FrameInput;
+import jp.s64.java.repoli.internal.FrameOutput;
+
+/**
+ * How the boxed primitives and {@link String} are written into a frame, by themselves and packed into columns.
+ * <p>
+ * A column is a flag byte, then a bitmap of the null positions if the flag is {@code 1}, then the non-null values
+ * back to back; booleans are packed eight to a byte.
+ */
+enum PrimitiveCodec {
+
+    BOOLEAN(Boolean.class, boolean.class) {
+        @Override
+        void write(@NotNull Object value, @NotNull FrameOutput out) {
+            out.writeByte((Boolean) value ? 1 : 0);
+        }
+
+        @NotNull
+        @Override
+        Object read(@NotNull FrameInput in) {
+            return in.readByte() != 0;
+        }
+    },
+    BYTE(Byte.class, byte.class) {
+        @Override
+        void write(@NotNull Object value, @NotNull FrameOutput out) {
+            out.writeByte((Byte) value);
+        }
+
+        @NotNull
+        @Override
+        Object read(@NotNull FrameInput in) {
+            return (byte) in.readByte();
+        }
+    },
+    SHORT(Short.class, short.class) {
+        @Override
+        void write(@NotNull Object value, @NotNull FrameOutput out) {
+            out.writeSignedVarint((Short) value);
+        }
+
+        @NotNull
+        @Override
+        Object read(@NotNull FrameInput in) {
+            return (short) in.readSignedVarint();
+        }
+    },
+    CHAR(Character.class, char.class) {
+        @Override
+        void write(@NotNull Object value, @NotNull FrameOutput out) {
+            out.writeVarint((Character) value);
+        }
+
+        @NotNull
+        @Override
+        Object read(@NotNull FrameInput in) {
+            return (char) in.readVarint();
+        }
+    },
+    INT(Integer.class, int.class) {
+        @Override
+        void write(@NotNull Object value, @NotNull FrameOutput out) {
+            out.writeSignedVarint((Integer) value);
+        }
+
+        @NotNull
+        @Override
+        Object read(@NotNull FrameInput in) {
+            return in.readSignedVarint();
+        }
+    },
+    LONG(Long.class, long.class) {
+        @Override
+        void write(@NotNull Object value, @NotNull FrameOutput out) {
+            out.writeSignedVarlong((Long) value);
+        }
+
+        @NotNull
+        @Override
+        Object read(@NotNull FrameInput in) {
+            return in.readSignedVarlong();
+        }
+    },
+    FLOAT(Float.class, float.class) {
+        @Override
+        void write(@NotNull Object value, @NotNull FrameOutput out) {
+            out.writeFixed32(Float.floatToRawIntBits((Float) value));
+        }
+
+        @NotNull
+        @Override
+        Object read(@NotNull FrameInput in) {
+            return Float.intBitsToFloat(in.readFixed32());
+        }
+    },
+    DOUBLE(Double.class, double.class) {
+        @Override
+        void write(@NotNull Object value, @NotNull FrameOutput out) {
+            out.writeFixed64(Double.doubleToRawLongBits((Double) value));
+        }
+
+        @NotNull
+        @Override
+        Object read(@NotNull FrameInput in) {
+            return Double.longBitsToDouble(in.readFixed64());
+        }
+    },
+    STRING(String.class, null) {
+        @Override
+        void write(@NotNull Object value, @NotNull FrameOutput out) {
+            out.writeString((String) value);
+        }
+
+        @Nullable
+        @Override
+        Object read(@NotNull FrameInput in) {
+            return in.readString();
+        }
+    };
+
+    private static final Map<Class<?>, PrimitiveCodec> BY_CLASS = new HashMap<>();
+
+    static {
+        for (PrimitiveCodec codec : values()) {
+            BY_CLASS.put(codec.boxed, codec);
+            if (codec.primitive != null) {
+                BY_CLASS.put(codec.primitive, codec);
+            }
+        }
+    }
+
+    @NotNull
+    private final Class<?> boxed;
+
+    @Nullable
+    private final Class<?> primitive;
+
+    PrimitiveCodec(@NotNull Class<?> boxed, @Nullable Class<?> primitive) {
+        this.boxed = boxed;
+        this.primitive = primitive;
+    }
+
+    /**
+     * @return the codec for a boxed or primitive class, or {@link String}; null for any other class.
+     */
+    @Nullable
+    static PrimitiveCodec of(@NotNull Class<?> type) {
+        return BY_CLASS.get(type);
+    }
+
+    abstract void write(@NotNull Object value, @NotNull FrameOutput out);
+
+    abstract Object read(@NotNull FrameInput in);
+
+    void writeColumn(@NotNull Object[] values, @NotNull FrameOutput out) {
+        int nulls = 0;
+        for (Object value : values) {
+            if (value == null) {
+                nulls++;
+            }
+        }
+        if (nulls == 0) {
+            out.writeByte(0);
+        } else {
+            out.writeByte(1);
+            writeBits(values, true, out);
+        }
+        if (this == BOOLEAN) {
+            writeBits(values, false, out);
+            return;
+        }
+        for (Object value : values) {
+            if (value != null) {
+                write(value, out);
+            }
+        }
+    }
+
+    @NotNull
+    Object[] readColumn(int count, @NotNull FrameInput in) {
+        Object[] ret = new Object[count];
+        boolean[] nulls = null;
+        int present = count;
+        int flag = in.readByte();
+        if (flag == 1) {
+            nulls = new boolean[count];
+            readBits(nulls, in);
+            for (boolean isNull : nulls) {
+                if (isNull) {
+                    present--;
+                }
+            }
+        } else if (flag != 0) {
+            throw new FrameInput.MalformedFrameException("unknown column flag: " + flag);
+        }
+        boolean[] bits = null;
+        if (this == BOOLEAN) {
+            bits = new boolean[present];
+            readBits(bits, in);
+        }
+        for (int i = 0, j = 0; i < count; i++) {
+            if (nulls != null && nulls[i]) {
+                continue;
+            }
+            ret[i] = bits != null ? Boolean.valueOf(bits[j++]) : read(in);
+        }
+        return ret;
+    }
+
+    /**
+     * Writes a bit per value: whether it is null if {@code nullMask}, otherwise the non-null values as booleans.
+     */
+    private static void writeBits(@NotNull Object[] values, boolean nullMask, @NotNull FrameOutput out) {
+        int current = 0;
+        int bit = 0;
+        for (Object value : values) {
+            if (!nullMask && value == null) {
+                continue;
+            }
+            if (nullMask ? value == null : (Boolean) value) {
+                current |= 1 << bit;
+            }
+            if (++bit == 8) {
+                out.writeByte(current);
+                current = 0;
+                bit = 0;
+            }
+        }
+        if (bit > 0) {
+            out.writeByte(current);
+        }
+    }
+
+    private static void readBits(@NotNull boolean[] into, @NotNull FrameInput in) {
+        int current = 0;
+        for (int i = 0; i < into.length; i++) {
+            if ((i & 7) == 0) {
+                current = in.readByte();
+            }
+            into[i] = (current & (1 << (i & 7))) != 0;
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset.serializer;
+
+import com.google.common.reflect.TypeToken;
+
+import jp.s64.java.repoli.base.SerializerRegistry;
+import jp.s64.java.repoli.internal.FrameInput;
+import jp.s64.java.repoli.internal.FrameOutput;
+
+/**
+ * Writes a boxed primitive as a presence byte and then the value: integers as zigzag varints, floating point numbers as
+ * their raw bits, see {@link FramedSerializer}. Payloads written by {@link SerializableSerializer} are still read.
+ */
+public class PrimitiveSerializer extends FramedSerializer {
+
+    public static PrimitiveSerializer INSTANCE = newInstance();
+
+    public static PrimitiveSerializer newInstance() {
+        return new PrimitiveSerializer();
+    }
+
+    protected PrimitiveSerializer() {
+
+    }
+
+    @Override
+    protected void writeFrame(TypeToken<?> type, Object value, SerializerRegistry registry, FrameOutput out) {
+        if (value == null) {
+            out.writeByte(0);
+            return;
+        }
+        out.writeByte(1);
+        PrimitiveCodec.of(type.getRawType()).write(value, out);
+    }
+
+    @Override
+    protected Object readFrame(TypeToken<?> type, SerializerRegistry registry, FrameInput in) {
+        if (in.readByte() == 0) {
+            return null;
+        }
+        return PrimitiveCodec.of(type.getRawType()).read(in);
+    }
+
+    @Override
+    protected Object deserializeLegacy(TypeToken<?> type, byte[] serialized, SerializerRegistry registry) {
+        return SerializableSerializer.INSTANCE.deserialize(type, serialized, registry.getSerializers());
+    }
+
+    @Override
+    protected int getInlineSince() {
+        return 2;
+    }
+
+    @Override
+    public boolean canSerialize(TypeToken<?> type) {
+        PrimitiveCodec codec = PrimitiveCodec.of(type.getRawType());
+        return codec != null && codec != PrimitiveCodec.STRING;
+    }
+
+    @Override
+    public float getPriority() {
+        return 2.1f;
+    }
+
+}
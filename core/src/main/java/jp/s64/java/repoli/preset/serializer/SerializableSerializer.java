@@ -18,17 +18,19 @@ package jp.s64.java.repoli.preset.serializer;
 
 import com.google.common.reflect.TypeToken;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Set;
 
+import jp.s64.java.repoli.base.BaseStreamingSerializer;
 import jp.s64.java.repoli.core.ISerializer;
 
-public class SerializableSerializer implements ISerializer {
+public class SerializableSerializer extends BaseStreamingSerializer {
 
     public static SerializableSerializer INSTANCE = newInstance();
 
@@ -41,55 +43,49 @@ public class SerializableSerializer implements ISerializer {
     }
 
     @Override
-    public <T> T deserialize(TypeToken<T> type, byte[] serialized, Set<ISerializer> serializers) {
-        ByteArrayInputStream in = new ByteArrayInputStream(serialized);
+    public <T> T deserialize(TypeToken<T> type, ByteBuffer serialized, Set<ISerializer> serializers) {
+        if (!serialized.hasRemaining()) {
+            return null;
+        }
+        InputStream in = asInputStream(serialized);
         ObjectInputStream ois = null;
 
         T ret = null;
-        if (serialized != null && serialized.length > 0) {
+        try {
+            ois = new ObjectInputStream(in);
+            ret = (T) ois.readObject();
+        } catch (IOException e) {
+            throw new SerializableSerializerException(e);
+        } catch (ClassNotFoundException e) {
+            throw new SerializableSerializerException(e);
+        } finally {
             try {
-                ois = new ObjectInputStream(in);
-                ret = (T) ois.readObject();
+                if (ois != null) {
+                    ois.close();
+                }
+                in.close();
             } catch (IOException e) {
                 throw new SerializableSerializerException(e);
-            } catch (ClassNotFoundException e) {
-                throw new SerializableSerializerException(e);
-            } finally {
-                try {
-                    if (ois != null) {
-                        ois.close();
-                    }
-                    in.close();
-                } catch (IOException e) {
-                    throw new SerializableSerializerException(e);
-                }
             }
         }
         return ret;
     }
 
+    /**
+     * Failures of {@code out} are reported as {@link SerializableSerializerException}, like encoding failures, since
+     * {@link ObjectOutputStream} does not tell them apart.
+     */
     @Override
-    public <T> byte[] serialize(TypeToken<T> type, Object deserialized, Set<ISerializer> serializers) {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        ObjectOutputStream oos = null;
+    public <T> void serialize(TypeToken<T> type, Object deserialized, OutputStream out, Set<ISerializer> serializers) {
         try {
-            oos = new ObjectOutputStream(out);
+            ObjectOutputStream oos = new ObjectOutputStream(out);
             {
                 oos.writeObject(deserialized);
                 oos.flush();
             }
-            return out.toByteArray();
+            // not closed, which would close out.
         } catch (IOException e) {
             throw new SerializableSerializerException(e);
-        } finally {
-            try {
-                if (oos != null) {
-                    oos.close();
-                }
-                out.close();
-            } catch (IOException e) {
-                throw new SerializableSerializerException(e);
-            }
         }
     }
 
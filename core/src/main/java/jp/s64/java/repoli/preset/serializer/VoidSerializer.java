@@ -18,11 +18,14 @@ package jp.s64.java.repoli.preset.serializer;
 
 import com.google.common.reflect.TypeToken;
 
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Set;
 
 import jp.s64.java.repoli.core.ISerializer;
+import jp.s64.java.repoli.core.IStreamingSerializer;
 
-public class VoidSerializer implements ISerializer {
+public class VoidSerializer implements IStreamingSerializer {
 
     public static VoidSerializer INSTANCE = newInstance();
 
@@ -39,11 +42,21 @@ public class VoidSerializer implements ISerializer {
         return null;
     }
 
+    @Override
+    public <T> T deserialize(TypeToken<T> type, ByteBuffer serialized, Set<ISerializer> serializers) {
+        return null;
+    }
+
     @Override
     public <T> byte[] serialize(TypeToken<T> type, Object deserialized, Set<ISerializer> serializers) {
         return new byte[0];
     }
 
+    @Override
+    public <T> void serialize(TypeToken<T> type, Object deserialized, OutputStream out, Set<ISerializer> serializers) {
+        // writes nothing.
+    }
+
     @Override
     public boolean canSerialize(TypeToken<?> type) {
         return Void.class.isAssignableFrom(type.getRawType());
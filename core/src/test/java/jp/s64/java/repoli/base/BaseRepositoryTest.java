@@ -0,0 +1,570 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.base;
+
+import com.google.common.collect.Sets;
+import com.google.common.reflect.TypeToken;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jp.s64.java.repoli.core.DataKey;
+import jp.s64.java.repoli.core.IDataKey;
+import jp.s64.java.repoli.core.IProvider;
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.core.IRepositoryDataMetadata;
+import jp.s64.java.repoli.core.ISerializer;
+import jp.s64.java.repoli.core.IStorage;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
+import jp.s64.java.repoli.internal.LazyRepositoryDataContainer;
+import jp.s64.java.repoli.internal.NegativeEntries;
+import jp.s64.java.repoli.preset.DefaultPolicy;
+import jp.s64.java.repoli.preset.SimpleOnMemoryStorage;
+import jp.s64.java.repoli.preset.StaleWhileRevalidatePolicy;
+import jp.s64.java.repoli.preset.TimeBasedPolicy;
+import jp.s64.java.repoli.preset.serializer.SerializableSerializer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BaseRepositoryTest {
+
+    private static final int THREADS = 8;
+
+    @Test
+    public void testCoalescing() throws Exception {
+        final DataKey<String, String> key = new DataKey<>(TypeToken.of(String.class), TypeToken.of(String.class), "single-key", "relative-key");
+        final AtomicInteger arrived = new AtomicInteger();
+        final AtomicInteger requested = new AtomicInteger();
+        final AtomicInteger saved = new AtomicInteger();
+
+        final SimpleOnMemoryStorage<Object, Object> storage = new SimpleOnMemoryStorage<Object, Object>() {
+
+            @Override
+            public synchronized IRepositoryDataContainer<byte[], byte[]> getBySerializedKey(String serializedKey) {
+                arrived.incrementAndGet();
+                return super.getBySerializedKey(serializedKey);
+            }
+
+            @Override
+            public synchronized void saveBySerializedKey(String serializedKey, String relatedKey, IRepositoryDataContainer<byte[], byte[]> container) {
+                saved.incrementAndGet();
+                super.saveBySerializedKey(serializedKey, relatedKey, container);
+            }
+
+        };
+        final BaseProvider<Object, Object> provider = new BaseProvider<Object, Object>() {
+
+            @Override
+            public ProvidedContainer requestBySerializedKey(String serializedKey) {
+                requested.incrementAndGet();
+                while (arrived.get() < THREADS) {
+                    Thread.yield();
+                }
+                sleep(100);
+                ProvidedContainer ret = new ProvidedContainer(System.currentTimeMillis());
+                {
+                    ret.setBody(SerializableSerializer.INSTANCE.serialize(key.getBodyType(), "body-value", Sets.<ISerializer>newHashSet()));
+                    ret.setAttachment(SerializableSerializer.INSTANCE.serialize(key.getAttachmentType(), "attachment-value", Sets.<ISerializer>newHashSet()));
+                }
+                return ret;
+            }
+
+        };
+        final BaseRepository<Object, Object> repository = new BaseRepository<Object, Object>() {
+        };
+
+        final List<IRepositoryDataContainer<String, String>> results = new ArrayList<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    awaitQuietly(start);
+                    IRepositoryDataContainer<String, String> ret = repository.get(key, storage, new DefaultPolicy<Object, Object>(), provider);
+                    synchronized (results) {
+                        results.add(ret);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, requested.get());
+        assertEquals(1, saved.get());
+        assertEquals(THREADS, results.size());
+        for (IRepositoryDataContainer<String, String> ret : results) {
+            assertEquals("body-value", ret.getBody());
+            assertEquals("attachment-value", ret.getAttachment());
+        }
+    }
+
+    @Test
+    public void testCoalescedError() throws Exception {
+        final InFlightRegistry registry = new InFlightRegistry();
+        final AtomicInteger called = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final IllegalStateException error = new IllegalStateException();
+
+        Thread leader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    registry.execute("key", new InFlightRegistry.Call<Object>() {
+                        @Override
+                        public Object call() {
+                            called.incrementAndGet();
+                            entered.countDown();
+                            sleep(200);
+                            throw error;
+                        }
+                    });
+                } catch (IllegalStateException e) {
+                    failed.incrementAndGet();
+                }
+            }
+        });
+        leader.start();
+        entered.await();
+
+        List<Thread> followers = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Thread follower = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        registry.execute("key", new InFlightRegistry.Call<Object>() {
+                            @Override
+                            public Object call() {
+                                called.incrementAndGet();
+                                return null;
+                            }
+                        });
+                    } catch (IllegalStateException e) {
+                        if (e == error) {
+                            failed.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            follower.start();
+            followers.add(follower);
+        }
+        leader.join();
+        for (Thread follower : followers) {
+            follower.join();
+        }
+
+        assertEquals(0, registry.size());
+        assertEquals(1, called.get());
+        assertEquals(THREADS + 1, failed.get());
+    }
+
+    @Test
+    public void testStaleWhileRevalidate() throws Exception {
+        final DataKey<String, String> key = new DataKey<>(TypeToken.of(String.class), TypeToken.of(String.class), "stale-key", "relative-key");
+        final AtomicInteger requested = new AtomicInteger();
+        final List<Runnable> scheduled = new ArrayList<>();
+
+        SimpleOnMemoryStorage<Object, Object> storage = new SimpleOnMemoryStorage<>();
+        BaseProvider<Object, Object> provider = new BaseProvider<Object, Object>() {
+
+            @Override
+            public ProvidedContainer requestBySerializedKey(String serializedKey) {
+                ProvidedContainer ret = new ProvidedContainer(System.currentTimeMillis());
+                {
+                    ret.setBody(SerializableSerializer.INSTANCE.serialize(key.getBodyType(), "body-" + requested.incrementAndGet(), Sets.<ISerializer>newHashSet()));
+                }
+                return ret;
+            }
+
+        };
+        BaseRepository<Object, Object> repository = new BaseRepository<Object, Object>(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                scheduled.add(command);
+            }
+        }) {
+        };
+        StaleWhileRevalidatePolicy<Object, Object> policy = new StaleWhileRevalidatePolicy<>(50, 60 * 1000, TimeUnit.MILLISECONDS);
+
+        assertEquals("body-1", repository.get(key, storage, policy, provider).getBody());
+        assertEquals("body-1", repository.get(key, storage, policy, provider).getBody());
+        assertEquals(0, scheduled.size());
+
+        sleep(100);
+
+        {   // stale entries are returned at once, and only one refresh is scheduled
+            assertEquals("body-1", repository.get(key, storage, policy, provider).getBody());
+            assertEquals("body-1", repository.get(key, storage, policy, provider).getBody());
+            assertEquals(1, requested.get());
+            assertEquals(1, scheduled.size());
+        }
+        scheduled.remove(0).run();
+
+        assertEquals(2, requested.get());
+        assertEquals("body-2", repository.get(key, storage, policy, provider).getBody());
+        assertEquals(0, scheduled.size());
+    }
+
+    @Test
+    public void testGetAll() {
+        final AtomicInteger batches = new AtomicInteger();
+        final AtomicInteger requested = new AtomicInteger();
+        List<IDataKey<String, String>> keys = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            keys.add(new DataKey<>(TypeToken.of(String.class), TypeToken.of(String.class), "batch-key-" + i, "relative-key"));
+        }
+
+        SimpleOnMemoryStorage<Object, Object> storage = new SimpleOnMemoryStorage<>();
+        BaseProvider<Object, Object> provider = new BaseProvider<Object, Object>() {
+
+            @Override
+            public ProvidedContainer requestBySerializedKey(String serializedKey) {
+                requested.incrementAndGet();
+                ProvidedContainer ret = new ProvidedContainer(System.currentTimeMillis());
+                {
+                    ret.setBody(SerializableSerializer.INSTANCE.serialize(TypeToken.of(String.class), "body-of-" + serializedKey, Sets.<ISerializer>newHashSet()));
+                }
+                return ret;
+            }
+
+            @Override
+            public Map<String, ProvidedContainer> requestBySerializedKeys(Collection<String> serializedKeys) {
+                batches.incrementAndGet();
+                return super.requestBySerializedKeys(serializedKeys);
+            }
+
+        };
+        BaseRepository<Object, Object> repository = new BaseRepository<Object, Object>() {
+        };
+
+        for (int i = 0; i < 2; i++) {
+            Map<String, IRepositoryDataContainer<String, String>> ret = repository.getAll(keys, storage, new DefaultPolicy<Object, Object>(), provider);
+            assertEquals(keys.size(), ret.size());
+            for (IDataKey<String, String> key : keys) {
+                assertEquals("body-of-" + key.getSerialized(), ret.get(key.getSerialized()).getBody());
+            }
+        }
+        assertEquals(1, batches.get());
+        assertEquals(keys.size(), requested.get());
+    }
+
+    /**
+     * A batch joins a request already in flight for one of its keys, and calls a provider that does not batch
+     * one key at a time.
+     */
+    @Test
+    public void testGetAllJoinsInFlight() throws Exception {
+        final Map<String, AtomicInteger> requested = new ConcurrentHashMap<>();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<IDataKey<String, String>> keys = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            keys.add(new DataKey<>(TypeToken.of(String.class), TypeToken.of(String.class), "joining-key-" + i, "relative-key"));
+            requested.put(keys.get(i).getSerialized(), new AtomicInteger());
+        }
+
+        final SimpleOnMemoryStorage<Object, Object> storage = new SimpleOnMemoryStorage<>();
+        final BaseProvider<Object, Object> batching = new BaseProvider<Object, Object>() {
+
+            @Override
+            public ProvidedContainer requestBySerializedKey(String serializedKey) {
+                requested.get(serializedKey).incrementAndGet();
+                if (serializedKey.equals("joining-key-0")) {
+                    entered.countDown();
+                    awaitQuietly(release);
+                }
+                ProvidedContainer ret = new ProvidedContainer(System.currentTimeMillis());
+                {
+                    ret.setBody(SerializableSerializer.INSTANCE.serialize(TypeToken.of(String.class), "body-of-" + serializedKey, Sets.<ISerializer>newHashSet()));
+                }
+                return ret;
+            }
+
+        };
+        final IProvider<Object, Object> provider = new IProvider<Object, Object>() {
+            @Override
+            public <T, A> IRepositoryDataContainer<T, A> request(IDataKey<T, A> key) {
+                return batching.request(key);
+            }
+        };
+        final BaseRepository<Object, Object> repository = new BaseRepository<Object, Object>() {
+        };
+
+        Thread single = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                repository.get(keys.get(0), storage, new DefaultPolicy<Object, Object>(), provider);
+            }
+        });
+        single.start();
+        awaitQuietly(entered);
+
+        final List<Map<String, IRepositoryDataContainer<String, String>>> results = new ArrayList<>();
+        Thread batch = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                results.add(repository.getAll(keys, storage, new DefaultPolicy<Object, Object>(), provider));
+            }
+        });
+        batch.start();
+        while (requested.get("joining-key-1").get() == 0) {
+            Thread.yield();
+        }
+        release.countDown();
+        single.join();
+        batch.join();
+
+        assertEquals(1, requested.get("joining-key-0").get());
+        assertEquals(1, requested.get("joining-key-1").get());
+        for (IDataKey<String, String> key : keys) {
+            assertEquals("body-of-" + key.getSerialized(), results.get(0).get(key.getSerialized()).getBody());
+        }
+    }
+
+    @Test
+    public void testNegativeCaching() throws Exception {
+        final DataKey<String, String> key = new DataKey<>(TypeToken.of(String.class), TypeToken.of(String.class), "missing-key", "relative-key");
+        final AtomicInteger requested = new AtomicInteger();
+
+        SimpleOnMemoryStorage<Object, Object> storage = new SimpleOnMemoryStorage<>();
+        BaseProvider<Object, Object> provider = new BaseProvider<Object, Object>() {
+
+            @Override
+            public ProvidedContainer requestBySerializedKey(String serializedKey) {
+                requested.incrementAndGet();
+                return new ProvidedContainer(System.currentTimeMillis());
+            }
+
+        };
+        BaseRepository<Object, Object> repository = new BaseRepository<Object, Object>() {
+        };
+
+        {   // disabled by default
+            repository.get(key, storage, new DefaultPolicy<Object, Object>(), provider);
+            repository.get(key, storage, new DefaultPolicy<Object, Object>(), provider);
+            assertEquals(2, requested.get());
+        }
+        {
+            DefaultPolicy<Object, Object> policy = new DefaultPolicy<>(1, TimeUnit.DAYS);
+            assertNull(repository.get(key, storage, policy, provider).getBody());
+            assertNull(repository.get(key, storage, policy, provider).getBody());
+            assertEquals(3, requested.get());
+        }
+        {
+            TimeBasedPolicy<Object, Object> policy = new TimeBasedPolicy<>(60 * 1000, 50, TimeUnit.MILLISECONDS);
+            sleep(100);
+            repository.get(key, storage, policy, provider);
+            repository.get(key, storage, policy, provider);
+            assertEquals(4, requested.get());
+        }
+    }
+
+    @Test
+    public void testRemoveReadsMetadataOnly() {
+        DataKey<String, String> key = new DataKey<>(TypeToken.of(String.class), TypeToken.of(String.class), "removing-key", "removing-relative-key");
+        DataKey<String, String> relative = new DataKey<>(TypeToken.of(String.class), TypeToken.of(String.class), "relative-of-removing-key", "removing-relative-key");
+        final AtomicInteger deserialized = new AtomicInteger();
+
+        SimpleOnMemoryStorage<Object, Object> storage = new SimpleOnMemoryStorage<Object, Object>() {
+
+            @Override
+            public <T, A> IRepositoryDataContainer<T, A> get(IDataKey<T, A> key) {
+                deserialized.incrementAndGet();
+                return super.get(key);
+            }
+
+        };
+        BaseRepository<Object, Object> repository = new BaseRepository<Object, Object>() {
+        };
+        storage.save(key, ImmutableRepositoryDataContainer.<String, String>of("body", "attachment", null, System.currentTimeMillis()));
+        storage.save(relative, ImmutableRepositoryDataContainer.<String, String>of("body", "attachment", null, System.currentTimeMillis()));
+
+        IRepositoryDataMetadata metadata = storage.getMetadata(key);
+        assertNotNull(metadata.getSavedAtTimeMillis());
+        assertEquals("removing-relative-key", metadata.getRelatedKey());
+        assertTrue(metadata.getBodySize() > 0);
+
+        assertEquals(1, repository.remove(key, storage, new TimeBasedPolicy<Object, Object>(1, TimeUnit.DAYS)));
+        assertEquals(1, repository.remove(relative, storage, new DefaultPolicy<Object, Object>()));
+        assertNull(storage.getMetadata(relative).getSavedAtTimeMillis());
+        assertEquals(0, deserialized.get());
+    }
+
+    /**
+     * A storage without metadata gets the policy's container overload.
+     */
+    @Test
+    public void testRemoveWithoutMetadataStorage() {
+        DataKey<String, String> key = new DataKey<>(TypeToken.of(String.class), TypeToken.of(String.class), "plain-removing-key", "plain-relative-key");
+        DataKey<String, String> relative = new DataKey<>(TypeToken.of(String.class), TypeToken.of(String.class), "relative-of-plain-removing-key", "plain-relative-key");
+        final SimpleOnMemoryStorage<Object, Object> wrapped = new SimpleOnMemoryStorage<>();
+        IStorage<Object, Object> storage = new IStorage<Object, Object>() {
+            @Override
+            public <T, A> IRepositoryDataContainer<T, A> get(IDataKey<T, A> key) {
+                return wrapped.get(key);
+            }
+
+            @Override
+            public int remove(IDataKey<?, ?> key) {
+                return wrapped.remove(key);
+            }
+
+            @Override
+            public int removeRelatives(IDataKey<?, ?> key) {
+                return wrapped.removeRelatives(key);
+            }
+
+            @Override
+            public <T, A> IRepositoryDataContainer<T, A> save(IDataKey<T, A> key, IRepositoryDataContainer<T, A> container) {
+                return wrapped.save(key, container);
+            }
+        };
+        BaseRepository<Object, Object> repository = new BaseRepository<Object, Object>() {
+        };
+        storage.save(key, ImmutableRepositoryDataContainer.<String, String>of("body", "attachment", null, System.currentTimeMillis()));
+        storage.save(relative, ImmutableRepositoryDataContainer.<String, String>of("body", "attachment", null, System.currentTimeMillis()));
+
+        assertEquals(2, repository.remove(key, storage, new DefaultPolicy<Object, Object>()));
+        assertNull(wrapped.getMetadata(relative).getSavedAtTimeMillis());
+    }
+
+    /**
+     * A hit under {@link DefaultPolicy} is re-saved from the bytes it was read from, and deserialized only once it is read.
+     */
+    @Test
+    public void testHitDeserializesOnRead() {
+        DataKey<String, String> key = new DataKey<>(TypeToken.of(String.class), TypeToken.of(String.class), "lazy-key", "lazy-relative-key");
+        final AtomicInteger deserialized = new AtomicInteger();
+        final AtomicInteger serialized = new AtomicInteger();
+        final List<byte[]> savedBodies = new ArrayList<>();
+
+        SimpleOnMemoryStorage<Object, Object> storage = new SimpleOnMemoryStorage<Object, Object>() {
+
+            @Override
+            public synchronized void saveBySerializedKey(String serializedKey, String relatedKey, IRepositoryDataContainer<byte[], byte[]> container) {
+                savedBodies.add(container.getBody());
+                super.saveBySerializedKey(serializedKey, relatedKey, container);
+            }
+
+        };
+        storage.addSerializer(new ISerializer() {
+
+            @Override
+            public <T> T deserialize(TypeToken<T> type, byte[] serialized, Set<ISerializer> serializers) {
+                deserialized.incrementAndGet();
+                return SerializableSerializer.INSTANCE.deserialize(type, serialized, serializers);
+            }
+
+            @Override
+            public <T> byte[] serialize(TypeToken<T> type, Object deserialized, Set<ISerializer> serializers) {
+                serialized.incrementAndGet();
+                return SerializableSerializer.INSTANCE.serialize(type, deserialized, serializers);
+            }
+
+            @Override
+            public boolean canSerialize(TypeToken<?> type) {
+                return String.class.equals(type.getRawType());
+            }
+
+            @Override
+            public float getPriority() {
+                return -1;
+            }
+
+        });
+        BaseRepository<Object, Object> repository = new BaseRepository<Object, Object>() {
+        };
+        storage.save(key, ImmutableRepositoryDataContainer.<String, String>of("body", "attachment", null, System.currentTimeMillis()));
+        assertEquals(2, serialized.get());
+
+        IRepositoryDataContainer<String, String> ret = repository.get(key, storage, new DefaultPolicy<Object, Object>(), new BaseProvider<Object, Object>() {
+
+            @Override
+            public ProvidedContainer requestBySerializedKey(String serializedKey) {
+                throw new AssertionError();
+            }
+
+        });
+        assertEquals(0, deserialized.get());
+        assertEquals(2, serialized.get());
+        assertEquals(2, savedBodies.size());
+        assertArrayEquals(savedBodies.get(0), savedBodies.get(1));
+
+        assertEquals("body", ret.getBody());
+        assertEquals(1, deserialized.get());
+        assertEquals("attachment", ret.getAttachment());
+        assertEquals(2, deserialized.get());
+    }
+
+    @Test
+    public void testResaveResolvedHit() {
+        DataKey<String, String> key = new DataKey<>(TypeToken.of(String.class), TypeToken.of(String.class), "resolved-key", "resolved-relative-key");
+        SimpleOnMemoryStorage<Object, Object> storage = new SimpleOnMemoryStorage<>();
+        storage.save(key, ImmutableRepositoryDataContainer.<String, String>of("body", "attachment", null, System.currentTimeMillis()));
+
+        IRepositoryDataContainer<String, String> hit = storage.get(key);
+        assertTrue(hit instanceof LazyRepositoryDataContainer);
+        assertEquals("body", hit.getBody());
+        assertEquals("attachment", hit.getAttachment());
+
+        IRepositoryDataContainer<String, String> saved = storage.save(key, hit);
+        assertFalse(NegativeEntries.isBlank(saved));
+        assertFalse(NegativeEntries.isNegative(saved));
+        assertEquals("body", saved.getBody());
+        assertFalse(NegativeEntries.isNegative(storage.get(key)));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
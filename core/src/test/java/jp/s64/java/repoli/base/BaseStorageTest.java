@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.base;
+
+import com.google.common.reflect.TypeToken;
+
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jp.s64.java.repoli.core.DataKey;
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.core.ISerializer;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
+import jp.s64.java.repoli.preset.SimpleOnMemoryStorage;
+import jp.s64.java.repoli.preset.serializer.SerializableSerializer;
+
+import static org.junit.Assert.assertEquals;
+
+public class BaseStorageTest {
+
+    @Test
+    public void testLazyDeserialization() {
+        final AtomicInteger deserialized = new AtomicInteger();
+        DataKey<String, String> key = new DataKey<>(TypeToken.of(String.class), TypeToken.of(String.class), "lazy-key", "relative-key");
+
+        SimpleOnMemoryStorage<Object, Object> storage = new SimpleOnMemoryStorage<>();
+        storage.addSerializer(new ISerializer() {
+
+            @Override
+            public <T> T deserialize(TypeToken<T> type, byte[] serialized, Set<ISerializer> serializers) {
+                deserialized.incrementAndGet();
+                return SerializableSerializer.INSTANCE.deserialize(type, serialized, serializers);
+            }
+
+            @Override
+            public <T> byte[] serialize(TypeToken<T> type, Object deserialized, Set<ISerializer> serializers) {
+                return SerializableSerializer.INSTANCE.serialize(type, deserialized, serializers);
+            }
+
+            @Override
+            public boolean canSerialize(TypeToken<?> type) {
+                return String.class.equals(type.getRawType());
+            }
+
+            @Override
+            public float getPriority() {
+                return -1;
+            }
+
+        });
+        storage.save(key, ImmutableRepositoryDataContainer.<String, String>of("body", "attachment", null, System.currentTimeMillis()));
+
+        IRepositoryDataContainer<String, String> container = storage.get(key);
+        assertEquals(0, deserialized.get());
+        assertEquals("body", container.getBody());
+        assertEquals("body", container.getBody());
+        assertEquals(1, deserialized.get());
+        assertEquals("attachment", container.getAttachment());
+        assertEquals(2, deserialized.get());
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.base;
+
+import com.google.common.collect.Sets;
+import com.google.common.reflect.TypeToken;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jp.s64.java.repoli.core.ISerializer;
+import jp.s64.java.repoli.core.IStreamingSerializer;
+import jp.s64.java.repoli.preset.serializer.CollectionSerializer;
+import jp.s64.java.repoli.preset.serializer.CompressingSerializer;
+import jp.s64.java.repoli.preset.serializer.ListSerializer;
+import jp.s64.java.repoli.preset.serializer.MapSerializer;
+import jp.s64.java.repoli.preset.serializer.PackedListSerializer;
+import jp.s64.java.repoli.preset.serializer.SerializableSerializer;
+import jp.s64.java.repoli.preset.serializer.StringSerializer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SerializerRegistryTest {
+
+    @Test
+    public void testResolution() {
+        SerializerRegistry registry = SerializerRegistry.defaults();
+        TypeToken<Map<String, List<Date>>> type = new TypeToken<Map<String, List<Date>>>() {
+        };
+        assertSame(MapSerializer.INSTANCE, registry.findByClass(type));
+        assertSame(ListSerializer.INSTANCE, registry.findByClass(SerializerRegistry.resolveTypeArgument(type, 1)));
+        assertSame(StringSerializer.INSTANCE, registry.findByClass(TypeToken.of(String.class)));
+        assertSame(PackedListSerializer.INSTANCE, registry.findByClass(new TypeToken<List<Integer>>() {
+        }));
+        assertSame(SerializerRegistry.resolveTypeArgument(type, 0), SerializerRegistry.resolveTypeArgument(type, 0));
+        assertEquals(TypeToken.of(String.class), SerializerRegistry.resolveTypeArgument(type, 0));
+
+        assertSame(registry, SerializerRegistry.from(registry.getSerializers()));
+        assertSame(registry.without(ListSerializer.INSTANCE), registry.without(ListSerializer.INSTANCE));
+        assertSame(CollectionSerializer.INSTANCE, registry.without(ListSerializer.INSTANCE).findByClass(new TypeToken<ArrayList<Date>>() {
+        }));
+
+        Set<ISerializer> foreign = Sets.<ISerializer>newHashSet(SerializableSerializer.INSTANCE);
+        SerializerRegistry fromForeign = SerializerRegistry.from(foreign);
+        assertEquals(foreign, fromForeign.getSerializers());
+        assertSame(fromForeign, SerializerRegistry.from(Sets.<ISerializer>newHashSet(SerializableSerializer.INSTANCE)));
+        foreign.add(StringSerializer.INSTANCE);
+        assertEquals(foreign, SerializerRegistry.from(foreign).getSerializers());
+        assertSame(SerializerRegistry.empty(), SerializerRegistry.from(Collections.<ISerializer>emptySet()));
+    }
+
+    @Test
+    public void testRegistrationOrder() {
+        ISerializer first = new CompressingSerializer(StringSerializer.INSTANCE);
+        ISerializer second = new CompressingSerializer(StringSerializer.INSTANCE);
+        SerializerRegistry registry = SerializerRegistry.empty()
+                .withAdded(Collections.singleton(first))
+                .withAdded(Collections.singleton(second));
+        assertEquals(Arrays.asList(first, second), new ArrayList<>(registry.getSerializers()));
+        assertSame(first, registry.findByClass(TypeToken.of(String.class)));
+        assertEquals(Arrays.asList(first, second), new ArrayList<>(SerializerRegistry.from(Sets.newHashSet(second, first)).getSerializers()));
+    }
+
+    @Test
+    public void testSnapshot() {
+        SerializerUserHelper helper = new SerializerUserHelper();
+        SerializerRegistry before = helper.getRegistry();
+        helper.removeSerializer(ListSerializer.INSTANCE);
+        assertEquals(14, before.getSerializers().size());
+        assertEquals(13, helper.getSerializers().size());
+        helper.addSerializer(Collections.<ISerializer>singleton(ListSerializer.INSTANCE));
+        assertSame(ListSerializer.INSTANCE, helper.findByClass(new TypeToken<List<Date>>() {
+        }));
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+        SerializerUserHelper helper = new SerializerUserHelper();
+        TypeToken<List<String>> type = new TypeToken<List<String>>() {
+        };
+        char[] large = new char[1000];
+        Arrays.fill(large, 'x');
+        List<String> value = Arrays.asList("a", null, new String(large), "b");
+
+        byte[] array = helper.serializeByClass(type, value);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        {
+            out.write(new byte[]{9, 9, 9});
+            helper.serializeByClass(type, value, out);
+            out.write(9);
+        }
+        byte[] streamed = out.toByteArray();
+        assertArrayEquals(array, Arrays.copyOfRange(streamed, 3, streamed.length - 1));
+
+        ByteBuffer slice = ByteBuffer.wrap(streamed, 3, array.length);
+        assertEquals(value, helper.deserializeByClass(type, slice));
+        assertEquals(3, slice.position());
+        assertEquals(value, helper.deserializeByClass(type, array));
+
+        assertSame(SerializableSerializer.INSTANCE, StreamingSerializerAdapter.of(SerializableSerializer.INSTANCE));
+        helper.addSerializer(new CompressingSerializer(StringSerializer.INSTANCE));
+        IStreamingSerializer adapted = helper.getRegistry().findStreamingByClass(TypeToken.of(String.class));
+        assertTrue(adapted instanceof StreamingSerializerAdapter);
+        assertSame(adapted, helper.getRegistry().findStreamingByClass(TypeToken.of(String.class)));
+        assertEquals(value, helper.deserializeByClass(type, helper.serializeByClass(type, value)));
+        assertNull(helper.deserializeByClass(TypeToken.of(String.class), ByteBuffer.allocate(0)));
+    }
+
+}
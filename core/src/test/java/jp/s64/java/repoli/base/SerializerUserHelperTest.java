@@ -40,7 +40,7 @@ public class SerializerUserHelperTest {
             assertEquals(0, helper.getSerializers().size());
         }
         {   // でたらめな優先順位でserializerを入れる
-            helper.addSerializer(Lists.newArrayList(
+            helper.addSerializer(Lists.<ISerializer>newArrayList(
                     ListSerializer.INSTANCE,
                     SerializableSerializer.INSTANCE,
                     VoidSerializer.INSTANCE,
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.internal;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimingWheelTest {
+
+    @Test
+    public void testFiresOnDeadlineTick() {
+        Random random = new Random(42);
+        long start = 1000000;
+        TimingWheel wheel = new TimingWheel(10, start);
+        long[] deadlines = new long[2000];
+        for (int i = 0; i < deadlines.length; i++) {
+            // up to 2^26 ticks, beyond the reach of the top level.
+            long delay = i % 2 == 0 ? random.nextInt(5000) : (long) random.nextInt(1 << 26) * 10;
+            deadlines[i] = start + delay;
+            wheel.schedule("key-" + i, deadlines[i]);
+        }
+        wheel.schedule("key-cancelled", start + 500);
+        assertTrue(wheel.cancel("key-cancelled"));
+        wheel.schedule("key-0", start - 100);
+        deadlines[0] = start + 10;
+
+        int fired = 0;
+        long now = start;
+        while (wheel.size() > 0) {
+            now += random.nextInt(1000) == 0 ? 3600000 : 10 * (1 + random.nextInt(50));
+            List<String> due = wheel.advance(now);
+            for (String key : due) {
+                long deadline = deadlines[Integer.parseInt(key.substring(4))];
+                assertTrue(key, deadline <= now);
+                fired++;
+            }
+        }
+        assertEquals(deadlines.length, fired);
+    }
+
+    @Test
+    public void testNotEarly() {
+        TimingWheel wheel = new TimingWheel(100, 0);
+        wheel.schedule("a", 6450);
+        assertEquals(Collections.<String>emptyList(), wheel.advance(6400));
+        assertEquals(Collections.singletonList("a"), wheel.advance(6500));
+        assertEquals(0, wheel.size());
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.s64.java.repoli.core.IEvictionListener;
+import jp.s64.java.repoli.core.IEvictionPolicy;
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
+import jp.s64.java.repoli.preset.eviction.LfuEvictionPolicy;
+import jp.s64.java.repoli.preset.eviction.SegmentedLruEvictionPolicy;
+import jp.s64.java.repoli.preset.eviction.WindowTinyLfuEvictionPolicy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BoundedOnMemoryStorageTest {
+
+    private static final IRepositoryDataContainer<byte[], byte[]> CONTAINER = ImmutableRepositoryDataContainer.of(new byte[8], new byte[2], 1L, 1L);
+
+    @Test
+    public void testBudgetAndRelatedKeys() {
+        for (IEvictionPolicy policy : new IEvictionPolicy[]{new SegmentedLruEvictionPolicy(), new LfuEvictionPolicy(), new WindowTinyLfuEvictionPolicy()}) {
+            final List<String> evicted = new ArrayList<>();
+            BoundedOnMemoryStorage<Object, Object> storage = new BoundedOnMemoryStorage<>(100, policy, new IEvictionListener() {
+                @Override
+                public void onEvicted(String serializedKey, String relatedKey, IRepositoryDataContainer<byte[], byte[]> container) {
+                    evicted.add(serializedKey);
+                }
+            });
+
+            for (int i = 0; i < 50; i++) {
+                storage.saveBySerializedKey("key-" + i, "group-" + (i % 5), CONTAINER);
+                assertTrue(storage.getCurrentBytes() <= 100);
+            }
+            assertEquals(100, storage.getCurrentBytes());
+            assertEquals(40, evicted.size());
+
+            int remaining = 0;
+            for (int i = 0; i < 5; i++) {
+                remaining += storage.removeRelativesByRelatedKey("group-" + i);
+            }
+            assertEquals(10, remaining);
+            assertEquals(0, storage.getCurrentBytes());
+            for (String key : evicted) {
+                assertNull(storage.getBySerializedKey(key).getSavedAtTimeMillis());
+            }
+        }
+    }
+
+    @Test
+    public void testFrequentEntriesSurviveScan() {
+        for (IEvictionPolicy policy : new IEvictionPolicy[]{new SegmentedLruEvictionPolicy(), new LfuEvictionPolicy(), new WindowTinyLfuEvictionPolicy()}) {
+            BoundedOnMemoryStorage<Object, Object> storage = new BoundedOnMemoryStorage<>(100, policy);
+            for (int i = 0; i < 5; i++) {
+                storage.saveBySerializedKey("hot-" + i, "hot", CONTAINER);
+                storage.getBySerializedKey("hot-" + i);
+                storage.getBySerializedKey("hot-" + i);
+            }
+            for (int i = 0; i < 1000; i++) {
+                storage.saveBySerializedKey("scan-" + i, "scan", CONTAINER);
+                if (i % 100 == 0) {
+                    for (int j = 0; j < 5; j++) {
+                        storage.getBySerializedKey("hot-" + j);
+                    }
+                }
+            }
+            for (int i = 0; i < 5; i++) {
+                assertNotNull(policy.getClass().getSimpleName(), storage.getBySerializedKey("hot-" + i).getSavedAtTimeMillis());
+            }
+        }
+    }
+
+    @Test
+    public void testOversizedEntry() {
+        BoundedOnMemoryStorage<Object, Object> storage = new BoundedOnMemoryStorage<>(5, new SegmentedLruEvictionPolicy());
+        storage.saveBySerializedKey("key", "group", CONTAINER);
+        assertNull(storage.getBySerializedKey("key").getSavedAtTimeMillis());
+        assertEquals(0, storage.getCurrentBytes());
+        assertEquals(0, storage.removeRelativesByRelatedKey("group"));
+    }
+
+}
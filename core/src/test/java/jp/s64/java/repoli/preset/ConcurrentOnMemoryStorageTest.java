@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ConcurrentOnMemoryStorageTest {
+
+    private static final int THREADS = 8;
+    private static final int KEYS = 200;
+    private static final int ROUNDS = 2000;
+
+    @Test
+    public void testRelatedKeyIndex() {
+        ConcurrentOnMemoryStorage<Object, Object> storage = new ConcurrentOnMemoryStorage<>();
+        IRepositoryDataContainer<byte[], byte[]> container = ImmutableRepositoryDataContainer.of(new byte[]{1}, null, 1L, 1L);
+
+        storage.saveBySerializedKey("a", "group-1", container);
+        storage.saveBySerializedKey("b", "group-1", container);
+        storage.saveBySerializedKey("b", "group-2", container);
+
+        assertEquals(1, storage.removeRelativesByRelatedKey("group-1"));
+        assertNull(storage.getBySerializedKey("a").getSavedAtTimeMillis());
+        assertNotNull(storage.getBySerializedKey("b").getSavedAtTimeMillis());
+        assertEquals("group-2", storage.getMetadataBySerializedKey("b", "group-2").getRelatedKey());
+
+        assertEquals(1, storage.removeBySerializedKey("b"));
+        assertEquals(0, storage.removeBySerializedKey("b"));
+        assertEquals(0, storage.removeRelativesByRelatedKey("group-2"));
+    }
+
+    @Test
+    public void testConcurrentWrites() throws Exception {
+        final ConcurrentOnMemoryStorage<Object, Object> storage = new ConcurrentOnMemoryStorage<>(4);
+        final IRepositoryDataContainer<byte[], byte[]> container = ImmutableRepositoryDataContainer.of(new byte[]{1}, null, 1L, 1L);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int seed = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    for (int i = 0; i < ROUNDS; i++) {
+                        String key = "key-" + ((i * 31 + seed) % KEYS);
+                        if (i % 5 == 0) {
+                            storage.removeBySerializedKey(key);
+                        } else if (i % 17 == 0) {
+                            storage.removeRelativesByRelatedKey("group-" + (i % 3));
+                        } else {
+                            storage.saveBySerializedKey(key, "group-" + ((i + seed) % 3), container);
+                        }
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        int saved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            if (storage.getBySerializedKey("key-" + i).getSavedAtTimeMillis() != null) {
+                saved++;
+            }
+        }
+        int removed = 0;
+        for (int g = 0; g < 3; g++) {
+            removed += storage.removeRelativesByRelatedKey("group-" + g);
+        }
+        assertEquals(saved, removed);
+        for (int i = 0; i < KEYS; i++) {
+            assertNull(storage.getBySerializedKey("key-" + i).getSavedAtTimeMillis());
+        }
+    }
+
+}
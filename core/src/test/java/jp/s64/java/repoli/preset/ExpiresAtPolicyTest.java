@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset;
+
+import com.google.common.collect.Sets;
+import com.google.common.reflect.TypeToken;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jp.s64.java.repoli.base.BaseProvider;
+import jp.s64.java.repoli.base.BaseRepository;
+import jp.s64.java.repoli.core.DataKey;
+import jp.s64.java.repoli.core.ISerializer;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
+import jp.s64.java.repoli.preset.serializer.SerializableSerializer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ExpiresAtPolicyTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @Test
+    public void testPerEntryExpiry() throws Exception {
+        final DataKey<String, String> shortLived = new DataKey<>(TypeToken.of(String.class), TypeToken.of(String.class), "short-key", "short-group");
+        final DataKey<String, String> defaulted = new DataKey<>(TypeToken.of(String.class), TypeToken.of(String.class), "default-key", "default-group");
+        final Map<String, AtomicInteger> requested = new ConcurrentHashMap<>();
+        requested.put(shortLived.getSerialized(), new AtomicInteger());
+        requested.put(defaulted.getSerialized(), new AtomicInteger());
+
+        SimpleOnMemoryStorage<Object, Object> storage = new SimpleOnMemoryStorage<>();
+        BaseProvider<Object, Object> provider = new BaseProvider<Object, Object>() {
+
+            @Override
+            public ProvidedContainer requestBySerializedKey(String serializedKey) {
+                int count = requested.get(serializedKey).incrementAndGet();
+                long now = System.currentTimeMillis();
+                ProvidedContainer ret = new ProvidedContainer(now);
+                {
+                    ret.setBody(serialize(serializedKey + "-" + count));
+                    if (serializedKey.equals("short-key")) {
+                        ret.setExpiresAtTimeMillis(now + HOUR / 2);
+                    }
+                }
+                return ret;
+            }
+
+        };
+        BaseRepository<Object, Object> repository = new BaseRepository<Object, Object>() {
+        };
+        ExpiresAtPolicy<Object, Object> policy = new ExpiresAtPolicy<>(1, TimeUnit.HOURS);
+
+        assertEquals("short-key-1", repository.get(shortLived, storage, policy, provider).getBody());
+        assertEquals("default-key-1", repository.get(defaulted, storage, policy, provider).getBody());
+        assertNotNull(storage.getBySerializedKey(shortLived.getSerialized()).getExpiresAtTimeMillis());
+        assertNull(storage.getBySerializedKey(defaulted.getSerialized()).getExpiresAtTimeMillis());
+        assertEquals("short-key-1", repository.get(shortLived, storage, policy, provider).getBody());
+
+        // the short-lived entry is past its own deadline but well within the default lifetime
+        long now = System.currentTimeMillis();
+        storage.saveBySerializedKey(shortLived.getSerialized(), shortLived.getRelatedKey(), ImmutableRepositoryDataContainer.<byte[], byte[]>of(serialize("short-key-1"), null, now - 1000, now - 1000, now - 1));
+
+        assertEquals("short-key-2", repository.get(shortLived, storage, policy, provider).getBody());
+        assertEquals("default-key-1", repository.get(defaulted, storage, policy, provider).getBody());
+        assertEquals(2, requested.get(shortLived.getSerialized()).get());
+        assertEquals(1, requested.get(defaulted.getSerialized()).get());
+    }
+
+    @Test
+    public void testFallbackLifetime() throws Exception {
+        final DataKey<String, String> key = new DataKey<>(TypeToken.of(String.class), TypeToken.of(String.class), "key", "group");
+        final AtomicInteger requested = new AtomicInteger();
+
+        SimpleOnMemoryStorage<Object, Object> storage = new SimpleOnMemoryStorage<>();
+        BaseProvider<Object, Object> provider = new BaseProvider<Object, Object>() {
+
+            @Override
+            public ProvidedContainer requestBySerializedKey(String serializedKey) {
+                ProvidedContainer ret = new ProvidedContainer(System.currentTimeMillis());
+                {
+                    ret.setBody(serialize("fresh-" + requested.incrementAndGet()));
+                }
+                return ret;
+            }
+
+        };
+        BaseRepository<Object, Object> repository = new BaseRepository<Object, Object>() {
+        };
+        ExpiresAtPolicy<Object, Object> policy = new ExpiresAtPolicy<>(1, TimeUnit.HOURS);
+
+        long now = System.currentTimeMillis();
+        {
+            // a far deadline wins over the elapsed default lifetime
+            storage.saveBySerializedKey(key.getSerialized(), key.getRelatedKey(), ImmutableRepositoryDataContainer.<byte[], byte[]>of(serialize("seeded"), null, now - 2 * HOUR, now - 2 * HOUR, now + HOUR));
+            assertEquals("seeded", repository.get(key, storage, policy, provider).getBody());
+            assertEquals(0, requested.get());
+        }
+        {
+            // without a deadline the default lifetime applies
+            storage.saveBySerializedKey(key.getSerialized(), key.getRelatedKey(), ImmutableRepositoryDataContainer.<byte[], byte[]>of(serialize("seeded"), null, now - 2 * HOUR, now - 2 * HOUR, null));
+            assertEquals("fresh-1", repository.get(key, storage, policy, provider).getBody());
+            assertEquals(1, requested.get());
+        }
+    }
+
+    private static byte[] serialize(String value) {
+        return SerializableSerializer.INSTANCE.serialize(TypeToken.of(String.class), value, Sets.<ISerializer>newHashSet());
+    }
+
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset;
+
+import com.google.common.reflect.TypeToken;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import jp.s64.java.repoli.core.DataKey;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class GenerationalStorageTest {
+
+    @Test
+    public void testLazyInvalidation() {
+        final List<Runnable> pending = new ArrayList<>();
+        SimpleOnMemoryStorage<Object, Object> l2 = new SimpleOnMemoryStorage<>();
+        GenerationalStorage<Object, Object> storage = new GenerationalStorage<>(l2, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                pending.add(command);
+            }
+        });
+        DataKey<String, String> a = key("a", "group");
+        DataKey<String, String> b = key("b", "group");
+        DataKey<String, String> c = key("c", "other");
+
+        storage.save(a, ImmutableRepositoryDataContainer.<String, String>of("old-a", null, null, 1L));
+        storage.save(b, ImmutableRepositoryDataContainer.<String, String>of("old-b", null, null, 1L));
+        storage.save(c, ImmutableRepositoryDataContainer.<String, String>of("c", null, null, 1L));
+
+        assertEquals(2, storage.removeRelatives(a));
+        assertEquals(1, storage.getGeneration("group"));
+        assertNull(storage.get(a).getBody());
+        assertNull(storage.get(b).getBody());
+        assertEquals("c", storage.get(c).getBody());
+        assertEquals("old-a", l2.get(a).getBody());
+
+        storage.save(a, ImmutableRepositoryDataContainer.<String, String>of("new-a", null, null, 1L));
+        for (Runnable runnable : pending) {
+            runnable.run();
+        }
+        assertEquals("new-a", storage.get(a).getBody());
+        assertEquals("new-a", l2.get(a).getBody());
+        assertNull(l2.get(b).getBody());
+
+        assertEquals(1, storage.removeRelatives(a));
+        assertEquals(0, storage.removeRelatives(a));
+    }
+
+    @Test
+    public void testUnknownEntriesOfBumpedGroup() {
+        SimpleOnMemoryStorage<Object, Object> l2 = new SimpleOnMemoryStorage<>();
+        GenerationalStorage<Object, Object> storage = new GenerationalStorage<>(l2, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        DataKey<String, String> a = key("a", "group");
+        l2.save(a, ImmutableRepositoryDataContainer.<String, String>of("persisted", null, null, 1L));
+
+        assertEquals("persisted", storage.get(a).getBody());
+        storage.removeRelatives(a);
+        assertNull(storage.get(a).getBody());
+        assertNull(l2.get(a).getBody());
+    }
+
+    @Test
+    public void testReclaimsCoalesced() {
+        final List<Runnable> pending = new ArrayList<>();
+        SimpleOnMemoryStorage<Object, Object> l2 = new SimpleOnMemoryStorage<>();
+        GenerationalStorage<Object, Object> storage = new GenerationalStorage<>(l2, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                pending.add(command);
+            }
+        });
+        DataKey<String, String> a = key("a", "group");
+        DataKey<String, String> b = key("b", "group");
+        DataKey<String, String> c = key("c", "other");
+        storage.save(a, ImmutableRepositoryDataContainer.<String, String>of("a", null, null, 1L));
+        storage.save(b, ImmutableRepositoryDataContainer.<String, String>of("b", null, null, 1L));
+        storage.save(c, ImmutableRepositoryDataContainer.<String, String>of("c", null, null, 1L));
+
+        assertEquals(2, storage.removeRelatives(a));
+        assertEquals(1, storage.removeRelatives(c));
+        for (int i = 0; i < 10; i++) {
+            assertNull(storage.get(a).getBody());
+        }
+        assertEquals(1, pending.size());
+        pending.remove(0).run();
+        assertNull(l2.get(a).getBody());
+        assertNull(l2.get(b).getBody());
+        assertNull(l2.get(c).getBody());
+        assertEquals(0, storage.getTrackedCount());
+
+        assertNull(storage.get(a).getBody());
+        assertEquals(1, pending.size());
+    }
+
+    @Test
+    public void testReclaimFailures() {
+        final List<Runnable> pending = new ArrayList<>();
+        final AtomicBoolean rejecting = new AtomicBoolean(true);
+        final AtomicBoolean failing = new AtomicBoolean(true);
+        SimpleOnMemoryStorage<Object, Object> l2 = new SimpleOnMemoryStorage<Object, Object>() {
+
+            @Override
+            public int removeBySerializedKey(String serializedKey) {
+                if (serializedKey.equals("a") && failing.getAndSet(false)) {
+                    throw new IllegalStateException();
+                }
+                return super.removeBySerializedKey(serializedKey);
+            }
+
+        };
+        GenerationalStorage<Object, Object> storage = new GenerationalStorage<>(l2, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (rejecting.getAndSet(false)) {
+                    throw new RejectedExecutionException();
+                }
+                pending.add(command);
+            }
+        });
+        DataKey<String, String> a = key("a", "group");
+        DataKey<String, String> b = key("b", "group");
+        DataKey<String, String> c = key("c", "other");
+        storage.save(a, ImmutableRepositoryDataContainer.<String, String>of("a", null, null, 1L));
+        storage.save(b, ImmutableRepositoryDataContainer.<String, String>of("b", null, null, 1L));
+        storage.save(c, ImmutableRepositoryDataContainer.<String, String>of("c", null, null, 1L));
+
+        assertEquals(2, storage.removeRelatives(a));
+        assertEquals(0, pending.size());
+        assertEquals(1, storage.removeRelatives(c));
+        assertEquals(1, pending.size());
+        pending.remove(0).run();
+        assertEquals("a", l2.get(a).getBody());
+        assertNull(l2.get(b).getBody());
+        assertNull(l2.get(c).getBody());
+
+        assertNull(storage.get(a).getBody());
+        assertEquals(1, pending.size());
+        pending.remove(0).run();
+        assertNull(l2.get(a).getBody());
+    }
+
+    @Test
+    public void testPruning() {
+        SimpleOnMemoryStorage<Object, Object> l2 = new SimpleOnMemoryStorage<>();
+        GenerationalStorage<Object, Object> storage = new GenerationalStorage<>(l2, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        }, 10);
+        for (int i = 0; i < 100; i++) {
+            storage.save(key("key-" + i, "group-" + i), ImmutableRepositoryDataContainer.<String, String>of("body-" + i, null, null, 1L));
+        }
+        assertEquals(10, storage.getTrackedCount());
+        assertEquals(10, storage.getGroupCount());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("body-" + i, storage.get(key("key-" + i, "group-" + i)).getBody());
+        }
+        for (int i = 0; i < 100; i++) {
+            storage.remove(key("key-" + i, "group-" + i));
+        }
+        assertEquals(0, storage.getTrackedCount());
+        assertEquals(0, storage.getGroupCount());
+
+        DataKey<String, String> a = key("a", "group");
+        storage.save(a, ImmutableRepositoryDataContainer.<String, String>of("a", null, null, 1L));
+        l2.remove(a);
+        assertNull(storage.get(a).getBody());
+        assertEquals(0, storage.getTrackedCount());
+        assertEquals(0, storage.getGroupCount());
+    }
+
+    private static DataKey<String, String> key(String serializedKey, String relatedKey) {
+        return new DataKey<>(TypeToken.of(String.class), TypeToken.of(String.class), serializedKey, relatedKey);
+    }
+
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LogStructuredStorageTest {
+
+    private File directory;
+    private ScheduledExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("repoli", ".log");
+        directory.delete();
+        executor = Executors.newScheduledThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        LogStructuredStorage<Object, Object> storage = new LogStructuredStorage<>(directory, LogStructuredStorage.Durability.none(), 1024, 0, null);
+        for (int i = 0; i < 100; i++) {
+            storage.saveBySerializedKey("key-" + i, "group-" + (i % 10), container(i, 10L));
+        }
+        storage.saveBySerializedKey("key-0", "group-1", ImmutableRepositoryDataContainer.<byte[], byte[]>of(null, new byte[]{7}, null, 20L, 30L));
+        assertEquals(1, storage.removeBySerializedKey("key-2"));
+        assertEquals(10, storage.removeRelativesByRelatedKey("group-3"));
+        storage.close();
+
+        LogStructuredStorage<Object, Object> reopened = new LogStructuredStorage<>(directory);
+        IRepositoryDataContainer<byte[], byte[]> overwritten = reopened.getBySerializedKey("key-0");
+        assertNull(overwritten.getBody());
+        assertArrayEquals(new byte[]{7}, overwritten.getAttachment());
+        assertNull(overwritten.getSavedAtTimeMillis());
+        assertEquals(Long.valueOf(20L), overwritten.getRequestedAtTimeMillis());
+        assertEquals(Long.valueOf(30L), overwritten.getExpiresAtTimeMillis());
+        assertNull(reopened.getBySerializedKey("key-99").getExpiresAtTimeMillis());
+        assertNull(reopened.getBySerializedKey("key-2").getRequestedAtTimeMillis());
+        assertNull(reopened.getBySerializedKey("key-13").getRequestedAtTimeMillis());
+        assertArrayEquals(new byte[]{99}, reopened.getBySerializedKey("key-99").getBody());
+        assertEquals(11, reopened.removeRelativesByRelatedKey("group-1"));
+        reopened.close();
+    }
+
+    @Test
+    public void testTornTail() throws Exception {
+        LogStructuredStorage<Object, Object> storage = new LogStructuredStorage<>(directory);
+        storage.saveBySerializedKey("a", "group", container(1, 10L));
+        storage.saveBySerializedKey("b", "group", container(2, 10L));
+        storage.close();
+
+        File[] files = directory.listFiles();
+        assertEquals(1, files.length);
+        RandomAccessFile raf = new RandomAccessFile(files[0], "rw");
+        try {
+            raf.setLength(raf.length() - 1);
+        } finally {
+            raf.close();
+        }
+
+        LogStructuredStorage<Object, Object> reopened = new LogStructuredStorage<>(directory);
+        assertArrayEquals(new byte[]{1}, reopened.getBySerializedKey("a").getBody());
+        assertNull(reopened.getBySerializedKey("b").getSavedAtTimeMillis());
+        reopened.saveBySerializedKey("c", "group", container(3, 10L));
+        reopened.close();
+
+        reopened = new LogStructuredStorage<>(directory);
+        assertArrayEquals(new byte[]{3}, reopened.getBySerializedKey("c").getBody());
+        reopened.close();
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        long now = System.currentTimeMillis();
+        LogStructuredStorage<Object, Object> storage = new LogStructuredStorage<>(directory, LogStructuredStorage.Durability.none(), 512, TimeUnit.HOURS.toMillis(1), null);
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 20; i++) {
+                storage.saveBySerializedKey("key-" + i, "group", container(round, now));
+            }
+        }
+        storage.saveBySerializedKey("expired", "old", container(1, now - TimeUnit.HOURS.toMillis(2)));
+        for (int i = 0; i < 20; i++) {
+            storage.saveBySerializedKey("padding-" + i, "padding", container(i, now));
+        }
+        long before = storage.getTotalBytes();
+        storage.compact();
+        assertTrue(storage.getTotalBytes() < before);
+        assertNull(storage.getBySerializedKey("expired").getSavedAtTimeMillis());
+        assertEquals(0, storage.removeRelativesByRelatedKey("old"));
+        storage.close();
+
+        LogStructuredStorage<Object, Object> reopened = new LogStructuredStorage<>(directory);
+        for (int i = 0; i < 20; i++) {
+            assertArrayEquals(new byte[]{4}, reopened.getBySerializedKey("key-" + i).getBody());
+            assertArrayEquals(new byte[]{(byte) i}, reopened.getBySerializedKey("padding-" + i).getBody());
+        }
+        assertNull(reopened.getBySerializedKey("expired").getSavedAtTimeMillis());
+        reopened.close();
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        final LogStructuredStorage<Object, Object> storage = new LogStructuredStorage<>(directory, LogStructuredStorage.Durability.groupCommit(5, TimeUnit.MILLISECONDS), LogStructuredStorage.DEFAULT_SEGMENT_BYTES, 0, executor);
+        final CountDownLatch done = new CountDownLatch(4);
+        final List<Throwable> errors = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int thread = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 50; i++) {
+                            storage.saveBySerializedKey("key-" + thread + "-" + i, "group-" + thread, container(i, 1L));
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertTrue(errors.isEmpty());
+        assertEquals(50, storage.removeRelativesByRelatedKey("group-0"));
+        storage.close();
+    }
+
+    @Test
+    public void testRemovedDuringCompaction() throws Exception {
+        final CountDownLatch merging = new CountDownLatch(1);
+        final CountDownLatch removed = new CountDownLatch(1);
+        final LogStructuredStorage<Object, Object> storage = new LogStructuredStorage<Object, Object>(directory, LogStructuredStorage.Durability.none(), 1, 0, null) {
+            @Override
+            void onMergeStarted() {
+                if (merging.getCount() > 0) {
+                    merging.countDown();
+                    try {
+                        removed.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+        };
+        storage.saveBySerializedKey("removed", "group", container(1, 10L));
+        storage.saveBySerializedKey("kept", "group", container(2, 10L));
+
+        Thread compaction = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                storage.compact();
+            }
+        });
+        compaction.start();
+        assertTrue(merging.await(30, TimeUnit.SECONDS));
+        assertEquals(1, storage.removeBySerializedKey("removed"));
+        storage.saveBySerializedKey("padding", "padding", container(3, 10L));
+        removed.countDown();
+        compaction.join();
+
+        storage.compact();
+        assertNull(storage.getBySerializedKey("removed").getSavedAtTimeMillis());
+        storage.close();
+
+        LogStructuredStorage<Object, Object> reopened = new LogStructuredStorage<>(directory);
+        assertNull(reopened.getBySerializedKey("removed").getSavedAtTimeMillis());
+        assertArrayEquals(new byte[]{2}, reopened.getBySerializedKey("kept").getBody());
+        assertEquals(1, reopened.removeRelativesByRelatedKey("group"));
+        reopened.close();
+    }
+
+    private static IRepositoryDataContainer<byte[], byte[]> container(int body, long savedAt) {
+        return ImmutableRepositoryDataContainer.of(new byte[]{(byte) body}, null, savedAt, savedAt);
+    }
+
+}
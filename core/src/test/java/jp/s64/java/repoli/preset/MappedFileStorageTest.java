@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MappedFileStorageTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("repoli", ".map");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        MappedFileStorage<Object, Object> storage = new MappedFileStorage<>(file, 16);
+        for (int i = 0; i < 1000; i++) {
+            storage.saveBySerializedKey("key-" + i, "group-" + (i % 10), ImmutableRepositoryDataContainer.<byte[], byte[]>of(new byte[]{(byte) i}, null, (long) i, null));
+        }
+        storage.saveBySerializedKey("key-0", "group-1", ImmutableRepositoryDataContainer.of(new byte[]{42}, new byte[]{7}, 1L, 2L, 3L));
+        assertEquals(1, storage.removeBySerializedKey("key-1"));
+        storage.close();
+
+        MappedFileStorage<Object, Object> reopened = new MappedFileStorage<>(file);
+        IRepositoryDataContainer<byte[], byte[]> overwritten = reopened.getBySerializedKey("key-0");
+        assertArrayEquals(new byte[]{42}, overwritten.getBody());
+        assertArrayEquals(new byte[]{7}, overwritten.getAttachment());
+        assertEquals(Long.valueOf(2L), overwritten.getRequestedAtTimeMillis());
+        assertEquals(Long.valueOf(3L), overwritten.getExpiresAtTimeMillis());
+        assertEquals(Long.valueOf(3L), reopened.getMetadataBySerializedKey("key-0", "group-1").getExpiresAtTimeMillis());
+        assertEquals("group-1", reopened.getMetadataBySerializedKey("key-0", "group-1").getRelatedKey());
+
+        assertNull(reopened.getBySerializedKey("key-1").getSavedAtTimeMillis());
+        for (int i = 2; i < 1000; i++) {
+            IRepositoryDataContainer<byte[], byte[]> container = reopened.getBySerializedKey("key-" + i);
+            assertArrayEquals(new byte[]{(byte) i}, container.getBody());
+            assertNull(container.getAttachment());
+            assertEquals(Long.valueOf(i), container.getSavedAtTimeMillis());
+        }
+        reopened.close();
+    }
+
+    @Test
+    public void testRelatedKeyIndex() throws Exception {
+        MappedFileStorage<Object, Object> storage = new MappedFileStorage<>(file, 16);
+        for (int i = 0; i < 100; i++) {
+            storage.saveBySerializedKey("key-" + i, "group-" + (i % 10), ImmutableRepositoryDataContainer.<byte[], byte[]>of(new byte[]{1}, null, 1L, 1L));
+        }
+        storage.saveBySerializedKey("key-0", "group-1", ImmutableRepositoryDataContainer.<byte[], byte[]>of(new byte[]{1}, null, 1L, 1L));
+        assertEquals(1, storage.removeBySerializedKey("key-10"));
+
+        assertEquals(8, storage.removeRelativesByRelatedKey("group-0"));
+        assertEquals(11, storage.removeRelativesByRelatedKey("group-1"));
+        assertEquals(0, storage.removeRelativesByRelatedKey("group-1"));
+        assertNull(storage.getBySerializedKey("key-0").getSavedAtTimeMillis());
+
+        storage.saveBySerializedKey("key-0", "group-0", ImmutableRepositoryDataContainer.<byte[], byte[]>of(new byte[]{1}, null, 1L, 1L));
+        assertEquals(1, storage.removeRelativesByRelatedKey("group-0"));
+        storage.close();
+    }
+
+    @Test
+    public void testOverwriteInPlace() throws Exception {
+        MappedFileStorage<Object, Object> storage = new MappedFileStorage<>(file, 16);
+        storage.saveBySerializedKey("key", "group-1", ImmutableRepositoryDataContainer.<byte[], byte[]>of(new byte[100], null, 1L, 1L));
+        for (int i = 0; i < 100; i++) {
+            storage.saveBySerializedKey("key", "group-1", ImmutableRepositoryDataContainer.of(new byte[]{(byte) i}, new byte[]{(byte) i}, 2L, 2L));
+        }
+        assertEquals(0, storage.getDeadBytes());
+        assertArrayEquals(new byte[]{99}, storage.getBySerializedKey("key").getAttachment());
+
+        storage.saveBySerializedKey("key", "group-2", ImmutableRepositoryDataContainer.<byte[], byte[]>of(new byte[]{1}, null, 3L, 3L));
+        assertTrue(storage.getDeadBytes() > 0);
+        assertEquals(0, storage.removeRelativesByRelatedKey("group-1"));
+        assertEquals(1, storage.removeRelativesByRelatedKey("group-2"));
+        storage.close();
+    }
+
+    @Test
+    public void testCapacity() throws Exception {
+        long maximumBytes = 256 * 1024;
+        MappedFileStorage<Object, Object> storage = new MappedFileStorage<>(file, 16, maximumBytes);
+        for (int round = 0; round < 100; round++) {
+            for (int i = 0; i < 20; i++) {
+                storage.saveBySerializedKey("key-" + i, "group-" + (round % 2), ImmutableRepositoryDataContainer.<byte[], byte[]>of(new byte[100 + round], null, (long) round, null));
+            }
+        }
+        assertTrue(file.length() <= maximumBytes);
+        assertEquals(20, storage.removeRelativesByRelatedKey("group-1"));
+        assertEquals(0, storage.removeRelativesByRelatedKey("group-0"));
+
+        for (int i = 0; i < 20; i++) {
+            storage.saveBySerializedKey("key-" + i, "group-" + (i % 2), ImmutableRepositoryDataContainer.<byte[], byte[]>of(new byte[]{(byte) i}, null, (long) i, null));
+        }
+        storage.removeBySerializedKey("key-0");
+        storage.compact();
+        assertEquals(0, storage.getDeadBytes());
+        storage.close();
+
+        MappedFileStorage<Object, Object> reopened = new MappedFileStorage<>(file, 16, maximumBytes);
+        assertNull(reopened.getBySerializedKey("key-0").getSavedAtTimeMillis());
+        for (int i = 1; i < 20; i++) {
+            assertArrayEquals(new byte[]{(byte) i}, reopened.getBySerializedKey("key-" + i).getBody());
+        }
+        assertEquals(9, reopened.removeRelativesByRelatedKey("group-0"));
+        assertEquals(10, reopened.removeRelativesByRelatedKey("group-1"));
+
+        try {
+            reopened.saveBySerializedKey("huge", "group", ImmutableRepositoryDataContainer.<byte[], byte[]>of(new byte[(int) maximumBytes], null, 1L, 1L));
+            fail();
+        } catch (MappedFileStorage.MappedFileStorageException e) {
+            // expected
+        }
+        reopened.close();
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jp.s64.java.repoli.core.IEvictionListener;
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
+import jp.s64.java.repoli.preset.eviction.SegmentedLruEvictionPolicy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OffHeapSlabStorageTest {
+
+    private static final int SLAB_SIZE = 4096;
+
+    @Test
+    public void testRoundTrip() {
+        OffHeapSlabStorage<Object, Object> storage = new OffHeapSlabStorage<>(16 * SLAB_SIZE, SLAB_SIZE);
+        storage.saveBySerializedKey("a", "group-1", ImmutableRepositoryDataContainer.<byte[], byte[]>of(new byte[]{1, 2, 3}, null, 10L, null));
+        storage.saveBySerializedKey("b", "group-1", ImmutableRepositoryDataContainer.<byte[], byte[]>of(null, new byte[]{4}, null, 20L, 25L));
+        storage.saveBySerializedKey("large", "group-2", ImmutableRepositoryDataContainer.of(new byte[SLAB_SIZE * 2], new byte[0], 30L, 30L));
+
+        IRepositoryDataContainer<byte[], byte[]> a = storage.getBySerializedKey("a");
+        assertArrayEquals(new byte[]{1, 2, 3}, a.getBody());
+        assertNull(a.getAttachment());
+        assertEquals(Long.valueOf(10L), a.getSavedAtTimeMillis());
+        assertNull(a.getRequestedAtTimeMillis());
+        assertNull(a.getExpiresAtTimeMillis());
+
+        IRepositoryDataContainer<byte[], byte[]> b = storage.getBySerializedKey("b");
+        assertNull(b.getBody());
+        assertArrayEquals(new byte[]{4}, b.getAttachment());
+        assertEquals(Long.valueOf(20L), b.getRequestedAtTimeMillis());
+        assertEquals(Long.valueOf(25L), b.getExpiresAtTimeMillis());
+        assertEquals(Long.valueOf(25L), storage.getMetadataBySerializedKey("b", "group-1").getExpiresAtTimeMillis());
+
+        assertEquals(SLAB_SIZE * 2, storage.getBySerializedKey("large").getBody().length);
+        assertEquals(SLAB_SIZE * 2, storage.getMetadataBySerializedKey("large", "group-2").getBodySize());
+        assertEquals("group-2", storage.getMetadataBySerializedKey("large", "group-2").getRelatedKey());
+
+        assertEquals(2, storage.removeRelativesByRelatedKey("group-1"));
+        assertNull(storage.getBySerializedKey("a").getSavedAtTimeMillis());
+        assertEquals(1, storage.removeBySerializedKey("large"));
+        assertEquals(SLAB_SIZE, storage.getAllocatedBytes());
+    }
+
+    @Test
+    public void testBudgetAndCompaction() {
+        OffHeapSlabStorage<Object, Object> storage = new OffHeapSlabStorage<>(4 * SLAB_SIZE, SLAB_SIZE);
+        IRepositoryDataContainer<byte[], byte[]> container = ImmutableRepositoryDataContainer.of(new byte[100], null, 1L, 1L);
+
+        int saved = 0;
+        try {
+            while (true) {
+                storage.saveBySerializedKey("key-" + saved, "group", container);
+                saved++;
+            }
+        } catch (OffHeapSlabStorage.OffHeapSlabStorageException e) {
+            // expected
+        }
+        assertTrue(saved > 0);
+        assertEquals(4 * SLAB_SIZE, storage.getAllocatedBytes());
+
+        for (int i = 0; i < saved; i++) {
+            if (i % 4 != 0) {
+                storage.removeBySerializedKey("key-" + i);
+            }
+        }
+        assertEquals(3 * SLAB_SIZE, storage.compact());
+        assertEquals(SLAB_SIZE, storage.getAllocatedBytes());
+        for (int i = 0; i < saved; i += 4) {
+            assertArrayEquals(new byte[100], storage.getBySerializedKey("key-" + i).getBody());
+        }
+
+        try {
+            storage.saveBySerializedKey("huge", "group", ImmutableRepositoryDataContainer.<byte[], byte[]>of(new byte[5 * SLAB_SIZE], null, 1L, 1L));
+            fail();
+        } catch (OffHeapSlabStorage.OffHeapSlabStorageException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testOverwriteAtBudget() {
+        OffHeapSlabStorage<Object, Object> storage = new OffHeapSlabStorage<>(2 * SLAB_SIZE, SLAB_SIZE);
+        IRepositoryDataContainer<byte[], byte[]> container = ImmutableRepositoryDataContainer.of(new byte[100], null, 1L, 1L);
+
+        int saved = 0;
+        try {
+            while (true) {
+                storage.saveBySerializedKey("key-" + saved, "group", container);
+                saved++;
+            }
+        } catch (OffHeapSlabStorage.OffHeapSlabStorageException e) {
+            // expected
+        }
+        assertEquals(2 * SLAB_SIZE, storage.getAllocatedBytes());
+
+        for (int i = 0; i < saved; i++) {
+            storage.saveBySerializedKey("key-" + i, "group", ImmutableRepositoryDataContainer.<byte[], byte[]>of(filled(100, i), null, 2L, 2L));
+        }
+        assertEquals(2 * SLAB_SIZE, storage.getAllocatedBytes());
+        for (int i = 0; i < saved; i++) {
+            assertArrayEquals(filled(100, i), storage.getBySerializedKey("key-" + i).getBody());
+        }
+        assertEquals(saved, storage.removeRelativesByRelatedKey("group"));
+    }
+
+    @Test
+    public void testEvictionAtBudget() {
+        final List<String> evicted = new ArrayList<>();
+        OffHeapSlabStorage<Object, Object> storage = new OffHeapSlabStorage<>(2 * SLAB_SIZE, SLAB_SIZE, new SegmentedLruEvictionPolicy(), new IEvictionListener() {
+            @Override
+            public void onEvicted(@NotNull String serializedKey, @NotNull String relatedKey, @NotNull IRepositoryDataContainer<byte[], byte[]> container) {
+                assertEquals(100, container.getBody().length);
+                evicted.add(serializedKey);
+            }
+        });
+        IRepositoryDataContainer<byte[], byte[]> container = ImmutableRepositoryDataContainer.of(new byte[100], null, 1L, 1L);
+
+        for (int i = 0; i < 200; i++) {
+            storage.saveBySerializedKey("key-" + i, "group", container);
+        }
+        assertEquals(2 * SLAB_SIZE, storage.getAllocatedBytes());
+        assertTrue(evicted.size() > 0);
+        assertNull(storage.getBySerializedKey(evicted.get(0)).getSavedAtTimeMillis());
+        assertArrayEquals(new byte[100], storage.getBySerializedKey("key-199").getBody());
+
+        storage.saveBySerializedKey("large", "group", ImmutableRepositoryDataContainer.<byte[], byte[]>of(new byte[SLAB_SIZE + 1], null, 1L, 1L));
+        assertEquals(SLAB_SIZE + 1, storage.getBySerializedKey("large").getBody().length);
+        assertTrue(storage.getAllocatedBytes() <= 2 * SLAB_SIZE);
+        assertEquals(200 - evicted.size() + 1, storage.removeRelativesByRelatedKey("group"));
+    }
+
+    private static byte[] filled(int length, int value) {
+        byte[] ret = new byte[length];
+        Arrays.fill(ret, (byte) value);
+        return ret;
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset;
+
+import com.google.common.collect.Sets;
+import com.google.common.reflect.TypeToken;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jp.s64.java.repoli.base.BaseProvider;
+import jp.s64.java.repoli.base.BaseRepository;
+import jp.s64.java.repoli.core.DataKey;
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.core.ISerializer;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
+import jp.s64.java.repoli.preset.serializer.SerializableSerializer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RefreshAheadRepositoryTest {
+
+    private ScheduledExecutorService timer;
+
+    @Before
+    public void setUp() {
+        timer = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    @Test
+    public void testRefreshAhead() throws Exception {
+        final DataKey<String, String> hot = new DataKey<>(TypeToken.of(String.class), TypeToken.of(String.class), "hot-key", "relative-key");
+        final DataKey<String, String> cold = new DataKey<>(TypeToken.of(String.class), TypeToken.of(String.class), "cold-key", "relative-key");
+        final Map<String, AtomicInteger> requested = new ConcurrentHashMap<>();
+        requested.put(hot.getSerialized(), new AtomicInteger());
+        requested.put(cold.getSerialized(), new AtomicInteger());
+
+        SimpleOnMemoryStorage<Object, Object> storage = new SimpleOnMemoryStorage<>();
+        BaseProvider<Object, Object> provider = new BaseProvider<Object, Object>() {
+
+            @Override
+            public ProvidedContainer requestBySerializedKey(String serializedKey) {
+                int count = requested.get(serializedKey).incrementAndGet();
+                ProvidedContainer ret = new ProvidedContainer(System.currentTimeMillis());
+                {
+                    ret.setBody(SerializableSerializer.INSTANCE.serialize(TypeToken.of(String.class), serializedKey + "-" + count, Sets.<ISerializer>newHashSet()));
+                }
+                return ret;
+            }
+
+        };
+        RefreshAheadScheduler scheduler = new RefreshAheadScheduler(0.3f, 2, 1, timer);
+        RefreshAheadRepository<Object, Object> repository = new RefreshAheadRepository<>(new BaseRepository<Object, Object>() {
+        }, scheduler);
+        TimeBasedPolicy<Object, Object> policy = new TimeBasedPolicy<>(1000, TimeUnit.MILLISECONDS);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("hot-key-1", repository.get(hot, storage, policy, provider).getBody());
+        }
+        assertEquals("cold-key-1", repository.get(cold, storage, policy, provider).getBody());
+
+        long deadline = System.currentTimeMillis() + 900;
+        while (requested.get(hot.getSerialized()).get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+
+        assertEquals(2, requested.get(hot.getSerialized()).get());
+        assertEquals(1, requested.get(cold.getSerialized()).get());
+        assertEquals("hot-key-2", repository.get(hot, storage, policy, provider).getBody());
+    }
+
+    @Test
+    public void testRemovedDuringRefresh() throws Exception {
+        final DataKey<String, String> key = new DataKey<>(TypeToken.of(String.class), TypeToken.of(String.class), "removed-key", "relative-key");
+        final AtomicInteger requested = new AtomicInteger();
+        final CountDownLatch refreshing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch removedTwice = new CountDownLatch(2);
+
+        SimpleOnMemoryStorage<Object, Object> storage = new SimpleOnMemoryStorage<Object, Object>() {
+            @Override
+            public int removeBySerializedKey(String serializedKey) {
+                int ret = super.removeBySerializedKey(serializedKey);
+                removedTwice.countDown();
+                return ret;
+            }
+        };
+        BaseProvider<Object, Object> provider = new BaseProvider<Object, Object>() {
+
+            @Override
+            public ProvidedContainer requestBySerializedKey(String serializedKey) {
+                if (requested.incrementAndGet() > 1) {
+                    refreshing.countDown();
+                    Uninterruptibles.awaitUninterruptibly(release);
+                }
+                ProvidedContainer ret = new ProvidedContainer(System.currentTimeMillis());
+                {
+                    ret.setBody(SerializableSerializer.INSTANCE.serialize(TypeToken.of(String.class), "body-value", Sets.<ISerializer>newHashSet()));
+                }
+                return ret;
+            }
+
+        };
+        RefreshAheadScheduler scheduler = new RefreshAheadScheduler(0.1f, 1, 1, timer);
+        RefreshAheadRepository<Object, Object> repository = new RefreshAheadRepository<>(new BaseRepository<Object, Object>() {
+        }, scheduler);
+        TimeBasedPolicy<Object, Object> policy = new TimeBasedPolicy<>(1000, TimeUnit.MILLISECONDS);
+
+        repository.get(key, storage, policy, provider);
+        assertTrue(refreshing.await(900, TimeUnit.MILLISECONDS));
+        repository.remove(key, storage, policy);
+        release.countDown();
+
+        // the second removal drops what the refresh saved.
+        assertTrue(removedTwice.await(1, TimeUnit.SECONDS));
+        assertNull(storage.getBySerializedKey(key.getSerialized()).getBody());
+    }
+
+    @Test
+    public void testQueuedCount() {
+        DataKey<String, String> key = new DataKey<>(TypeToken.of(String.class), TypeToken.of(String.class), "queued-key", "relative-key");
+        RefreshAheadScheduler scheduler = new RefreshAheadScheduler(0.5f, 1, 1, timer);
+        BaseRepository<Object, Object> repository = new BaseRepository<Object, Object>() {
+        };
+        TimeBasedPolicy<Object, Object> policy = new TimeBasedPolicy<>(1, TimeUnit.HOURS);
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            IRepositoryDataContainer<String, String> saved = ImmutableRepositoryDataContainer.of("body-value", null, now + i, now);
+            scheduler.onAccess(key, repository, new SimpleOnMemoryStorage<>(), policy, new BaseProvider<Object, Object>() {
+                @Override
+                public ProvidedContainer requestBySerializedKey(String serializedKey) {
+                    throw new UnsupportedOperationException();
+                }
+            }, saved);
+        }
+        assertEquals(1, scheduler.getQueuedCount());
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset;
+
+import org.junit.Test;
+
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class SimpleOnMemoryStorageTest {
+
+    private final IRepositoryDataContainer<byte[], byte[]> container = ImmutableRepositoryDataContainer.of(new byte[]{1}, null, 1L, 1L);
+
+    @Test
+    public void testMoveBetweenGroups() {
+        SimpleOnMemoryStorage<Object, Object> storage = new SimpleOnMemoryStorage<>();
+        storage.saveBySerializedKey("a", "group-1", container);
+        storage.saveBySerializedKey("b", "group-1", container);
+        storage.saveBySerializedKey("a", "group-2", container);
+
+        assertEquals("group-2", storage.getMetadataBySerializedKey("a", "group-2").getRelatedKey());
+        assertEquals(1, storage.removeRelativesByRelatedKey("group-1"));
+        assertNull(storage.getBySerializedKey("b").getSavedAtTimeMillis());
+        assertNotNull(storage.getBySerializedKey("a").getSavedAtTimeMillis());
+        assertEquals(1, storage.removeRelativesByRelatedKey("group-2"));
+        assertNull(storage.getBySerializedKey("a").getSavedAtTimeMillis());
+    }
+
+    @Test
+    public void testEmptiedGroupIsRemoved() {
+        SimpleOnMemoryStorage<Object, Object> storage = new SimpleOnMemoryStorage<>();
+        storage.saveBySerializedKey("a", "group-1", container);
+        storage.saveBySerializedKey("b", "group-2", container);
+        assertEquals(2, storage.getGroupCount());
+
+        storage.saveBySerializedKey("a", "group-2", container);
+        assertEquals(1, storage.getGroupCount());
+
+        assertEquals(1, storage.removeBySerializedKey("a"));
+        assertEquals(1, storage.getGroupCount());
+        assertEquals(1, storage.removeBySerializedKey("b"));
+        assertEquals(0, storage.getGroupCount());
+        assertEquals(0, storage.removeRelativesByRelatedKey("group-2"));
+    }
+
+    @Test
+    public void testRemoveRelativesAfterOverwrite() {
+        SimpleOnMemoryStorage<Object, Object> storage = new SimpleOnMemoryStorage<>();
+        storage.saveBySerializedKey("a", "group-1", container);
+        storage.saveBySerializedKey("a", "group-1", container);
+        storage.saveBySerializedKey("b", "group-1", container);
+        storage.saveBySerializedKey("b", "group-1", ImmutableRepositoryDataContainer.<byte[], byte[]>of(new byte[]{2}, null, 2L, 2L));
+
+        assertEquals(2, storage.removeRelativesByRelatedKey("group-1"));
+        assertNull(storage.getBySerializedKey("a").getSavedAtTimeMillis());
+        assertNull(storage.getBySerializedKey("b").getSavedAtTimeMillis());
+        assertEquals(0, storage.getGroupCount());
+        assertEquals(0, storage.removeRelativesByRelatedKey("group-1"));
+    }
+
+}
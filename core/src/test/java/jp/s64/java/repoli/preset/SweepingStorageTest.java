@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class SweepingStorageTest {
+
+    @Test
+    public void testColdEntriesExpire() throws Exception {
+        SimpleOnMemoryStorage<Object, Object> storage = new SimpleOnMemoryStorage<>();
+        SweepingStorage<Object, Object> sweeping = new SweepingStorage<>(storage, new TimeBasedPolicy<>(20, TimeUnit.MILLISECONDS), 5, TimeUnit.MILLISECONDS);
+        long now = System.currentTimeMillis();
+
+        sweeping.saveBySerializedKey("short", "group", ImmutableRepositoryDataContainer.<byte[], byte[]>of(new byte[]{1}, null, now, now));
+        sweeping.saveBySerializedKey("long", "group", ImmutableRepositoryDataContainer.<byte[], byte[]>of(new byte[]{1}, null, now + TimeUnit.DAYS.toMillis(1), now));
+        sweeping.saveBySerializedKey("removed", "group", ImmutableRepositoryDataContainer.<byte[], byte[]>of(new byte[]{1}, null, now, now));
+        sweeping.removeBySerializedKey("removed");
+        assertEquals(2, sweeping.getScheduledCount());
+
+        Thread.sleep(50);
+        assertEquals(1, sweeping.reap());
+        assertNull(storage.getBySerializedKey("short").getSavedAtTimeMillis());
+        assertNotNull(storage.getBySerializedKey("long").getSavedAtTimeMillis());
+        assertEquals(1, sweeping.getExpiredCount());
+        assertEquals(1, sweeping.getScheduledCount());
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset;
+
+import com.google.common.reflect.TypeToken;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jp.s64.java.repoli.core.DataKey;
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TieredStorageTest {
+
+    @Test
+    public void testHitsAndInvalidation() {
+        final AtomicInteger reads = new AtomicInteger();
+        SimpleOnMemoryStorage<Object, Object> l2 = new SimpleOnMemoryStorage<Object, Object>() {
+
+            @Override
+            public IRepositoryDataContainer<byte[], byte[]> getBySerializedKey(String serializedKey) {
+                reads.incrementAndGet();
+                return super.getBySerializedKey(serializedKey);
+            }
+
+        };
+        TieredStorage<Object, Object> storage = new TieredStorage<>(l2, 100);
+        DataKey<String, String> a = new DataKey<>(TypeToken.of(String.class), TypeToken.of(String.class), "a", "group");
+        DataKey<String, String> b = new DataKey<>(TypeToken.of(String.class), TypeToken.of(String.class), "b", "group");
+        DataKey<String, String> c = new DataKey<>(TypeToken.of(String.class), TypeToken.of(String.class), "c", "other");
+
+        l2.save(a, ImmutableRepositoryDataContainer.<String, String>of("body-a", null, null, 1L));
+        storage.save(b, ImmutableRepositoryDataContainer.<String, String>of("body-b", null, null, 1L));
+        storage.save(c, ImmutableRepositoryDataContainer.<String, String>of("body-c", null, null, 1L));
+
+        IRepositoryDataContainer<String, String> first = storage.get(a);
+        assertEquals("body-a", first.getBody());
+        assertSame(first, storage.get(a));
+        assertEquals("body-b", storage.get(b).getBody());
+        assertEquals(1, reads.get());
+        assertEquals(3, storage.getCachedCount());
+
+        assertEquals(2, storage.removeRelatives(a));
+        assertEquals(1, storage.getCachedCount());
+        assertNull(storage.get(a).getBody());
+        assertNull(storage.get(b).getBody());
+        assertEquals(3, reads.get());
+
+        assertEquals(1, storage.remove(c));
+        assertNull(storage.get(c).getBody());
+        assertEquals(0, storage.getCachedCount());
+    }
+
+    @Test
+    public void testCopier() {
+        TieredStorage<Object, Object> storage = new TieredStorage<>(new SimpleOnMemoryStorage<>(), 100, null, new TieredStorage.Copier() {
+            @SuppressWarnings("unchecked")
+            @Override
+            public <V> V copy(V value) {
+                return value instanceof ArrayList ? (V) new ArrayList<>((ArrayList<?>) value) : value;
+            }
+        });
+        DataKey<ArrayList<String>, String> key = new DataKey<>(new TypeToken<ArrayList<String>>() {
+        }, TypeToken.of(String.class), "list", "group");
+
+        ArrayList<String> body = new ArrayList<>();
+        body.add("saved");
+        storage.save(key, ImmutableRepositoryDataContainer.<ArrayList<String>, String>of(body, null, null, 1L));
+        body.add("mutated after save");
+
+        List<String> read = storage.get(key).getBody();
+        assertEquals(1, read.size());
+        read.add("mutated after read");
+        assertEquals(1, storage.get(key).getBody().size());
+        assertNotSame(storage.get(key).getBody(), storage.get(key).getBody());
+    }
+
+    @Test
+    public void testRemoveDuringSave() throws Exception {
+        final CountDownLatch saved = new CountDownLatch(1);
+        final CountDownLatch removed = new CountDownLatch(1);
+        SimpleOnMemoryStorage<Object, Object> l2 = new SimpleOnMemoryStorage<Object, Object>() {
+
+            @Override
+            public void saveBySerializedKey(String serializedKey, String relatedKey, IRepositoryDataContainer<byte[], byte[]> container) {
+                super.saveBySerializedKey(serializedKey, relatedKey, container);
+                saved.countDown();
+                try {
+                    removed.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+        };
+        final TieredStorage<Object, Object> storage = new TieredStorage<>(l2, 100);
+        final DataKey<String, String> key = new DataKey<>(TypeToken.of(String.class), TypeToken.of(String.class), "key", "group");
+
+        Thread saving = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                storage.save(key, ImmutableRepositoryDataContainer.<String, String>of("body", null, null, 1L));
+            }
+        });
+        saving.start();
+        assertTrue(saved.await(30, TimeUnit.SECONDS));
+        assertEquals(1, storage.remove(key));
+        removed.countDown();
+        saving.join();
+
+        assertEquals(0, storage.getCachedCount());
+        assertNull(storage.get(key).getBody());
+        assertEquals(0, storage.removeRelatives(key));
+    }
+
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset.serializer;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.HashBiMap;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Ordering;
+import com.google.common.reflect.TypeToken;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import jp.s64.java.repoli.base.SerializerRegistry;
+import jp.s64.java.repoli.internal.FrameOutput;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CollectionSerializerTest {
+
+    private final SerializerRegistry registry = SerializerRegistry.defaults();
+
+    @Test
+    public void testCollections() {
+        HashSet<String> hashSet = new HashSet<>(Arrays.asList("a", null, "b"));
+        assertSameCollection(hashSet, roundTrip(new TypeToken<HashSet<String>>() {
+        }, hashSet));
+
+        Set<Date> dates = new LinkedHashSet<>(Arrays.asList(new Date(2), new Date(1)));
+        Set<Date> readDates = roundTrip(new TypeToken<Set<Date>>() {
+        }, dates);
+        assertSameCollection(dates, readDates);
+        assertEquals(new ArrayList<>(dates), new ArrayList<>(readDates));
+
+        SortedSet<String> natural = new TreeSet<>(Arrays.asList("b", "c", "a"));
+        assertSameCollection(natural, roundTrip(new TypeToken<SortedSet<String>>() {
+        }, natural));
+
+        TreeSet<String> reversed = new TreeSet<>(Collections.<String>reverseOrder());
+        reversed.addAll(Arrays.asList("b", "c", "a"));
+        TreeSet<String> readReversed = roundTrip(new TypeToken<TreeSet<String>>() {
+        }, reversed);
+        assertEquals(Arrays.asList("c", "b", "a"), new ArrayList<>(readReversed));
+        readReversed.add("d");
+        assertEquals("d", readReversed.first());
+
+        Queue<Integer> queue = new LinkedList<>(Arrays.asList(3, null, 1));
+        assertSameCollection(queue, roundTrip(new TypeToken<Queue<Integer>>() {
+        }, queue));
+
+        Collection<String> collection = new ArrayList<>(Arrays.asList("x", "x"));
+        assertSameCollection(collection, roundTrip(new TypeToken<Collection<String>>() {
+        }, collection));
+
+        EnumSet<TimeUnit> units = EnumSet.of(TimeUnit.DAYS, TimeUnit.SECONDS);
+        assertEquals(units, roundTrip(new TypeToken<EnumSet<TimeUnit>>() {
+        }, units));
+        assertEquals(EnumSet.noneOf(TimeUnit.class), roundTrip(new TypeToken<EnumSet<TimeUnit>>() {
+        }, EnumSet.noneOf(TimeUnit.class)));
+
+        HashMultiset<String> multiset = HashMultiset.create(Arrays.asList("a", "a", "b"));
+        assertSameCollection(multiset, roundTrip(new TypeToken<HashMultiset<String>>() {
+        }, multiset));
+
+        assertNull(roundTrip(new TypeToken<Set<String>>() {
+        }, null));
+        assertSame(CollectionSerializer.INSTANCE, registry.findByClass(new TypeToken<Set<List<Integer>>>() {
+        }));
+    }
+
+    @Test
+    public void testImmutables() {
+        ImmutableList<Integer> packed = ImmutableList.of(1, 2, 3);
+        assertSameCollection(packed, roundTrip(new TypeToken<ImmutableList<Integer>>() {
+        }, packed));
+        ImmutableList<Date> list = ImmutableList.of(new Date(1));
+        assertSameCollection(list, roundTrip(new TypeToken<ImmutableList<Date>>() {
+        }, list));
+        ImmutableSet<String> set = ImmutableSet.of("b", "a");
+        assertEquals(set.asList(), roundTrip(new TypeToken<ImmutableSet<String>>() {
+        }, set).asList());
+        ImmutableSortedSet<String> sortedSet = ImmutableSortedSet.orderedBy(Ordering.<String>natural().reverse()).add("a", "c", "b").build();
+        assertEquals(sortedSet.asList(), roundTrip(new TypeToken<ImmutableSortedSet<String>>() {
+        }, sortedSet).asList());
+        ImmutableMultiset<String> multiset = ImmutableMultiset.of("a", "a");
+        assertEquals(multiset, roundTrip(new TypeToken<ImmutableMultiset<String>>() {
+        }, multiset));
+
+        ImmutableMap<String, Long> map = ImmutableMap.of("b", 2L, "a", 1L);
+        assertEquals(map.entrySet().asList(), roundTrip(new TypeToken<ImmutableMap<String, Long>>() {
+        }, map).entrySet().asList());
+        ImmutableSortedMap<String, Date> sortedMap = ImmutableSortedMap.<String, Date>reverseOrder().put("a", new Date(1)).put("b", new Date(2)).build();
+        assertEquals(sortedMap.entrySet().asList(), roundTrip(new TypeToken<ImmutableSortedMap<String, Date>>() {
+        }, sortedMap).entrySet().asList());
+    }
+
+    @Test
+    public void testMaps() {
+        TreeMap<String, Integer> reversed = new TreeMap<>(Collections.<String>reverseOrder());
+        reversed.put("a", 1);
+        reversed.put("b", null);
+        TreeMap<String, Integer> readReversed = roundTrip(new TypeToken<TreeMap<String, Integer>>() {
+        }, reversed);
+        assertEquals(reversed, readReversed);
+        assertEquals("b", readReversed.firstKey());
+
+        SortedMap<String, Date> natural = new TreeMap<>();
+        natural.put("a", new Date(1));
+        assertEquals(TreeMap.class, roundTrip(new TypeToken<SortedMap<String, Date>>() {
+        }, natural).getClass());
+
+        EnumMap<TimeUnit, String> enumMap = new EnumMap<>(TimeUnit.class);
+        enumMap.put(TimeUnit.DAYS, "days");
+        assertEquals(enumMap, roundTrip(new TypeToken<EnumMap<TimeUnit, String>>() {
+        }, enumMap));
+
+        HashBiMap<String, Date> biMap = HashBiMap.create();
+        biMap.put("a", new Date(1));
+        assertEquals(biMap, roundTrip(new TypeToken<HashBiMap<String, Date>>() {
+        }, biMap));
+    }
+
+    @Test
+    public void testArraysAndOptionals() {
+        String[] strings = {"a", null, "c"};
+        assertArrayEquals(strings, roundTrip(TypeToken.of(String[].class), strings));
+        Date[][] nested = {{new Date(1)}, null, {}};
+        Date[][] readNested = roundTrip(TypeToken.of(Date[][].class), nested);
+        assertEquals(Date[][].class, readNested.getClass());
+        assertTrue(Arrays.deepEquals(nested, readNested));
+        assertNull(roundTrip(TypeToken.of(Object[].class), null));
+
+        TypeToken<Optional<List<Integer>>> type = new TypeToken<Optional<List<Integer>>>() {
+        };
+        assertEquals(Optional.of(Arrays.asList(1, 2)), roundTrip(type, Optional.of(Arrays.asList(1, 2))));
+        assertFalse(roundTrip(type, Optional.<List<Integer>>absent()).isPresent());
+        assertNull(roundTrip(type, null));
+    }
+
+    /**
+     * These types used to go through {@link SerializableSerializer}, also as the elements of framed containers.
+     */
+    @Test
+    public void testLegacy() {
+        TypeToken<HashSet<String>> type = new TypeToken<HashSet<String>>() {
+        };
+        HashSet<String> set = new HashSet<>(Arrays.asList("a", "b"));
+        byte[] legacy = SerializableSerializer.INSTANCE.serialize(type, set, registry.getSerializers());
+        assertEquals(set, registry.deserializeByClass(type, legacy));
+        assertArrayEquals(new String[]{"a"}, registry.deserializeByClass(TypeToken.of(String[].class),
+                SerializableSerializer.INSTANCE.serialize(TypeToken.of(String[].class), new String[]{"a"}, registry.getSerializers())));
+
+        FrameOutput out = new FrameOutput(64);
+        {
+            out.writeByte(FramedSerializer.MAGIC);
+            out.writeByte(2);
+            out.writeVarint(1 + 1);
+            out.writeBytes(legacy);
+        }
+        assertEquals(Arrays.asList(set), registry.deserializeByClass(new TypeToken<List<HashSet<String>>>() {
+        }, out.toByteArray()));
+    }
+
+    @Test
+    public void testSize() {
+        TypeToken<Set<Long>> type = new TypeToken<Set<Long>>() {
+        };
+        Set<Long> set = new HashSet<>();
+        for (long i = 0; i < 1000; i++) {
+            set.add(i * 1000);
+        }
+        byte[] framed = registry.serializeByClass(type, set);
+        byte[] legacy = SerializableSerializer.INSTANCE.serialize(type, set, registry.getSerializers());
+        assertTrue(framed.length + " < " + legacy.length, framed.length * 3 < legacy.length);
+    }
+
+    private <T> T roundTrip(TypeToken<T> type, T value) {
+        assertTrue(registry.findByClass(type) instanceof FramedSerializer);
+        return registry.deserializeByClass(type, registry.serializeByClass(type, value));
+    }
+
+    private static void assertSameCollection(Collection<?> expected, Collection<?> actual) {
+        assertEquals(expected.getClass(), actual.getClass());
+        assertEquals(expected, actual);
+    }
+
+}
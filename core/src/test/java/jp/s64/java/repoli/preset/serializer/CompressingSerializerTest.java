@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset.serializer;
+
+import com.google.common.collect.Sets;
+import com.google.common.reflect.TypeToken;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+import jp.s64.java.repoli.core.ISerializer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompressingSerializerTest {
+
+    private static final TypeToken<HashMap<String, String>> MAP_TYPE = new TypeToken<HashMap<String, String>>() {
+    };
+
+    private static final TypeToken<byte[]> BYTES_TYPE = TypeToken.of(byte[].class);
+
+    @Test
+    public void testThresholdAndIncompressible() {
+        CompressingSerializer serializer = new CompressingSerializer(SerializableSerializer.INSTANCE);
+        Set<ISerializer> serializers = Sets.<ISerializer>newHashSet(serializer, SerializableSerializer.INSTANCE);
+
+        HashMap<String, String> large = record(0, 200);
+        byte[] raw = SerializableSerializer.INSTANCE.serialize(MAP_TYPE, large, serializers);
+        byte[] compressed = serializer.serialize(MAP_TYPE, large, serializers);
+        assertTrue(compressed.length * 4 < raw.length);
+        assertEquals(large, serializer.deserialize(MAP_TYPE, compressed, serializers));
+
+        HashMap<String, String> small = record(0, 1);
+        byte[] stored = serializer.serialize(MAP_TYPE, small, serializers);
+        assertEquals(SerializableSerializer.INSTANCE.serialize(MAP_TYPE, small, serializers).length + 5, stored.length);
+        assertEquals(small, serializer.deserialize(MAP_TYPE, stored, serializers));
+
+        byte[] noise = new byte[64 * 1024];
+        new Random(1).nextBytes(noise);
+        byte[] incompressible = serializer.serialize(BYTES_TYPE, noise, serializers);
+        assertEquals(SerializableSerializer.INSTANCE.serialize(BYTES_TYPE, noise, serializers).length + 5, incompressible.length);
+        assertArrayEquals(noise, serializer.deserialize(BYTES_TYPE, incompressible, serializers));
+
+        // written before the serializer was wrapped.
+        assertEquals(large, serializer.deserialize(MAP_TYPE, raw, serializers));
+    }
+
+    @Test
+    public void testDictionary() {
+        Set<ISerializer> serializers = Collections.<ISerializer>singleton(SerializableSerializer.INSTANCE);
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            samples.add(SerializableSerializer.INSTANCE.serialize(MAP_TYPE, record(i, 3), serializers));
+        }
+        byte[] dictionary = CompressingSerializer.trainDictionary(samples, 4 * 1024);
+        assertTrue(dictionary.length > 0);
+
+        CompressingSerializer plain = new CompressingSerializer(SerializableSerializer.INSTANCE, 64, null);
+        CompressingSerializer trained = new CompressingSerializer(SerializableSerializer.INSTANCE, 64, dictionary);
+        HashMap<String, String> value = record(1000, 3);
+        byte[] withDictionary = trained.serialize(MAP_TYPE, value, serializers);
+        assertTrue(withDictionary.length * 2 < plain.serialize(MAP_TYPE, value, serializers).length);
+        assertEquals(value, trained.deserialize(MAP_TYPE, withDictionary, serializers));
+
+        CompressingSerializer retrained = new CompressingSerializer(SerializableSerializer.INSTANCE, 64, Deflater.DEFAULT_COMPRESSION, null, Collections.singletonList(dictionary));
+        assertEquals(value, retrained.deserialize(MAP_TYPE, withDictionary, serializers));
+        try {
+            plain.deserialize(MAP_TYPE, withDictionary, serializers);
+            fail();
+        } catch (CompressingSerializer.CompressingSerializerException expected) {
+        }
+    }
+
+    @Test
+    public void testUnframedPayloads() {
+        CompressingSerializer serializer = new CompressingSerializer(PassThrough.INSTANCE);
+        Set<ISerializer> serializers = Sets.<ISerializer>newHashSet(serializer, PassThrough.INSTANCE);
+
+        // written by the wrapped serializer alone, sharing a prefix with the header.
+        byte[][] legacy = {
+                {(byte) 0xC5},
+                {(byte) 0xC5, 0, 1, 2},
+                {(byte) 0xC5, 1, 0, 0, 0, 0},
+                {(byte) 0xC5, 'R', 'P', 'Z'},
+                {(byte) 0xC5, 'R', 'P', 'Z', 7, 1, 2},
+                {(byte) 0xC5, 'R', 'P', 'Z', 1, 0},
+        };
+        for (byte[] payload : legacy) {
+            assertArrayEquals(payload, serializer.deserialize(BYTES_TYPE, payload, serializers));
+        }
+
+        byte[] framed = {(byte) 0xC5, 'R', 'P', 'Z', 0, 42};
+        assertArrayEquals(new byte[]{42}, serializer.deserialize(BYTES_TYPE, framed, serializers));
+        assertArrayEquals(framed, serializer.deserialize(BYTES_TYPE, serializer.serialize(BYTES_TYPE, framed, serializers), serializers));
+    }
+
+    private static HashMap<String, String> record(int seed, int fields) {
+        HashMap<String, String> ret = new HashMap<>();
+        for (int i = 0; i < fields; i++) {
+            ret.put("description-" + i, "a fairly repetitive description of item " + (seed + i) + " in the catalogue");
+            ret.put("status-" + i, i % 2 == 0 ? "AVAILABLE" : "SOLD_OUT");
+        }
+        return ret;
+    }
+
+    private static class PassThrough implements ISerializer {
+
+        private static final PassThrough INSTANCE = new PassThrough();
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T deserialize(TypeToken<T> type, byte[] serialized, Set<ISerializer> serializers) {
+            return (T) serialized;
+        }
+
+        @Override
+        public <T> byte[] serialize(TypeToken<T> type, Object deserialized, Set<ISerializer> serializers) {
+            return (byte[]) deserialized;
+        }
+
+        @Override
+        public boolean canSerialize(TypeToken<?> type) {
+            return BYTES_TYPE.equals(type);
+        }
+
+        @Override
+        public float getPriority() {
+            return 0;
+        }
+
+    }
+
+}
@@ -22,12 +22,17 @@ import com.google.common.reflect.TypeToken;
 
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
 import jp.s64.java.repoli.core.ISerializer;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class ListSerializerTest {
@@ -41,7 +46,7 @@ public class ListSerializerTest {
         );
 
         ListSerializer serializer = new ListSerializer();
-        Set<ISerializer> serializers = Sets.newHashSet(
+        Set<ISerializer> serializers = Sets.<ISerializer>newHashSet(
                 serializer,
                 new SerializableSerializer()
         );
@@ -61,5 +66,48 @@ public class ListSerializerTest {
         assertEquals(org.get(0).get(0), deserialized.get(0).get(0));
     }
 
+    @Test
+    public void testFraming() {
+        TypeToken<List<List<String>>> type = new TypeToken<List<List<String>>>() {
+        };
+        List<List<String>> org = Lists.<List<String>>newArrayList(
+                Lists.newArrayList("a", null, "c"),
+                null,
+                Lists.<String>newArrayList()
+        );
+        Set<ISerializer> serializers = Sets.<ISerializer>newHashSet(ListSerializer.INSTANCE, SerializableSerializer.INSTANCE);
+
+        byte[] serialized = ListSerializer.INSTANCE.serialize(type, org, serializers);
+        assertEquals(FramedSerializer.MAGIC, serialized[0]);
+        assertEquals(FramedSerializer.VERSION, serialized[1]);
+        // the count of the outer list is followed by the count of the first nested one, written inline.
+        assertEquals(4, serialized[2]);
+        assertEquals(4, serialized[3]);
+        assertEquals(org, ListSerializer.INSTANCE.deserialize(type, serialized, serializers));
+        assertNull(ListSerializer.INSTANCE.deserialize(type, ListSerializer.INSTANCE.serialize(type, null, serializers), serializers));
+    }
+
+    @Test
+    public void testLegacy() throws Exception {
+        TypeToken<List<List<String>>> type = new TypeToken<List<List<String>>>() {
+        };
+        Set<ISerializer> serializers = Sets.<ISerializer>newHashSet(ListSerializer.INSTANCE, SerializableSerializer.INSTANCE);
+
+        List<byte[]> inner = new LinkedList<>();
+        inner.add(SerializableSerializer.INSTANCE.serialize(TypeToken.of(String.class), "hoge", serializers));
+        List<byte[]> outer = new LinkedList<>();
+        outer.add(writeObject(inner));
+
+        assertEquals(Arrays.asList(Arrays.asList("hoge")), ListSerializer.INSTANCE.deserialize(type, writeObject(outer), serializers));
+    }
+
+    private static byte[] writeObject(Object value) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(out);
+        oos.writeObject(value);
+        oos.close();
+        return out.toByteArray();
+    }
+
 
 }
@@ -49,7 +49,7 @@ public class MapSerializerTest {
         }
 
         MapSerializer serializer = new MapSerializer();
-        Set<ISerializer> serializers = Sets.newHashSet(
+        Set<ISerializer> serializers = Sets.<ISerializer>newHashSet(
                 serializer,
                 new SerializableSerializer(),
                 new ListSerializer()
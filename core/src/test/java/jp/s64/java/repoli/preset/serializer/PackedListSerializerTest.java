@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset.serializer;
+
+import com.google.common.reflect.TypeToken;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jp.s64.java.repoli.base.SerializerRegistry;
+import jp.s64.java.repoli.internal.FrameOutput;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PackedListSerializerTest {
+
+    private final SerializerRegistry registry = SerializerRegistry.defaults();
+
+    @Test
+    public void testPacking() {
+        TypeToken<List<Integer>> type = new TypeToken<List<Integer>>() {
+        };
+        assertSame(PackedListSerializer.INSTANCE, registry.findByClass(type));
+
+        List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            values.add(i % 64);
+        }
+        byte[] serialized = registry.serializeByClass(type, values);
+        // header, count, column flag, then one byte per value.
+        assertEquals(2 + 2 + 1 + 1000, serialized.length);
+        assertEquals(values, registry.deserializeByClass(type, serialized));
+
+        List<Long> nulls = Arrays.asList(null, 1L, null, Long.MIN_VALUE);
+        assertEquals(nulls, roundTrip(new TypeToken<List<Long>>() {
+        }, nulls));
+        List<Boolean> booleans = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            booleans.add(i % 3 == 0 ? null : i % 2 == 0);
+        }
+        assertEquals(booleans, roundTrip(new TypeToken<List<Boolean>>() {
+        }, booleans));
+        List<Double> doubles = Arrays.asList(0.5, -1.0);
+        assertEquals(doubles, roundTrip(new TypeToken<ArrayList<Double>>() {
+        }, new ArrayList<>(doubles)));
+        assertNull(roundTrip(type, null));
+        assertEquals(new ArrayList<Integer>(), roundTrip(type, new ArrayList<Integer>()));
+    }
+
+    @Test
+    public void testStrings() {
+        TypeToken<List<String>> type = new TypeToken<List<String>>() {
+        };
+        assertSame(PackedListSerializer.INSTANCE, registry.findByClass(type));
+
+        List<String> values = Arrays.asList("a", null, "", "\u3042", null);
+        assertEquals(values, roundTrip(type, values));
+        // header, count, column flag, null bitmap, then each string with its length.
+        assertEquals(2 + 1 + 1 + 1 + 2 + 1 + 4, registry.serializeByClass(type, values).length);
+    }
+
+    @Test
+    public void testMaps() {
+        TypeToken<Map<String, Long>> type = new TypeToken<Map<String, Long>>() {
+        };
+        assertSame(PackedMapSerializer.INSTANCE, registry.findByClass(type));
+        assertSame(MapSerializer.INSTANCE, registry.findByClass(new TypeToken<Map<String, List<Long>>>() {
+        }));
+
+        Map<String, Long> map = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            map.put("key-" + i, i % 5 == 0 ? null : (long) i);
+        }
+        map.put(null, 7L);
+        assertEquals(map, roundTrip(type, map));
+        assertNull(roundTrip(type, null));
+    }
+
+    /**
+     * Frames written before packing wrote lists and maps an element at a time, and their elements as
+     * {@link SerializableSerializer} payloads.
+     */
+    @Test
+    public void testVersion1() {
+        TypeToken<Map<String, List<Integer>>> type = new TypeToken<Map<String, List<Integer>>>() {
+        };
+        TypeToken<String> keyType = TypeToken.of(String.class);
+        TypeToken<Integer> valueType = TypeToken.of(Integer.class);
+
+        FrameOutput out = new FrameOutput(64);
+        {
+            out.writeByte(FramedSerializer.MAGIC);
+            out.writeByte(1);
+            out.writeVarint(1 + 1);
+            out.writeBytes(SerializableSerializer.INSTANCE.serialize(keyType, "key", registry.getSerializers()));
+            out.writeVarint(2 + 1);
+            out.writeBytes(SerializableSerializer.INSTANCE.serialize(valueType, 1, registry.getSerializers()));
+            out.writeBytes(SerializableSerializer.INSTANCE.serialize(valueType, null, registry.getSerializers()));
+        }
+        Map<String, List<Integer>> expected = new HashMap<>();
+        expected.put("key", Arrays.asList(1, null));
+        assertEquals(expected, registry.deserializeByClass(type, out.toByteArray()));
+
+        out = new FrameOutput(64);
+        {
+            out.writeByte(FramedSerializer.MAGIC);
+            out.writeByte(1);
+            out.writeVarint(1 + 1);
+            out.writeBytes(SerializableSerializer.INSTANCE.serialize(valueType, 3, registry.getSerializers()));
+        }
+        assertEquals(Arrays.asList(3), registry.deserializeByClass(new TypeToken<List<Integer>>() {
+        }, out.toByteArray()));
+    }
+
+    private <T> T roundTrip(TypeToken<T> type, T value) {
+        assertTrue(registry.findByClass(type) instanceof FramedSerializer);
+        return registry.deserializeByClass(type, registry.serializeByClass(type, value));
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.preset.serializer;
+
+import com.google.common.reflect.TypeToken;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import jp.s64.java.repoli.base.SerializerRegistry;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PrimitiveSerializerTest {
+
+    private final SerializerRegistry registry = SerializerRegistry.defaults();
+
+    @Test
+    public void testScalars() {
+        assertEquals(Integer.valueOf(-1), roundTrip(TypeToken.of(Integer.class), -1));
+        assertEquals(Integer.valueOf(Integer.MIN_VALUE), roundTrip(TypeToken.of(int.class), Integer.MIN_VALUE));
+        assertEquals(Long.valueOf(Long.MAX_VALUE), roundTrip(TypeToken.of(Long.class), Long.MAX_VALUE));
+        assertEquals(Short.valueOf((short) -300), roundTrip(TypeToken.of(Short.class), (short) -300));
+        assertEquals(Byte.valueOf((byte) 0x80), roundTrip(TypeToken.of(Byte.class), (byte) 0x80));
+        assertEquals(Character.valueOf('あ'), roundTrip(TypeToken.of(Character.class), 'あ'));
+        assertEquals(Boolean.TRUE, roundTrip(TypeToken.of(Boolean.class), true));
+        assertEquals(Double.valueOf(-0.0), roundTrip(TypeToken.of(Double.class), -0.0));
+        assertTrue(Float.isNaN(roundTrip(TypeToken.of(Float.class), Float.NaN)));
+        assertNull(roundTrip(TypeToken.of(Long.class), null));
+
+        String text = "aéあ😀";
+        assertEquals(text, roundTrip(TypeToken.of(String.class), text));
+        assertEquals("?x", roundTrip(TypeToken.of(String.class), "\udc00x"));
+        assertEquals("", roundTrip(TypeToken.of(String.class), ""));
+        assertNull(roundTrip(TypeToken.of(String.class), null));
+
+        assertArrayEquals(new byte[]{1, -1}, roundTrip(TypeToken.of(byte[].class), new byte[]{1, -1}));
+        assertSame(TimeUnit.DAYS, roundTrip(TypeToken.of(TimeUnit.class), TimeUnit.DAYS));
+
+        // 2 bytes of header, a presence byte and one varint byte.
+        assertEquals(4, registry.serializeByClass(TypeToken.of(Integer.class), 42).length);
+    }
+
+    @Test
+    public void testArrays() {
+        assertArrayEquals(new int[]{0, -1, Integer.MAX_VALUE}, roundTrip(TypeToken.of(int[].class), new int[]{0, -1, Integer.MAX_VALUE}));
+        assertArrayEquals(new long[]{Long.MIN_VALUE, 1}, roundTrip(TypeToken.of(long[].class), new long[]{Long.MIN_VALUE, 1}));
+        assertTrue(Arrays.equals(new short[]{-2, 2}, roundTrip(TypeToken.of(short[].class), new short[]{-2, 2})));
+        assertTrue(Arrays.equals(new char[]{'a', '\uffff'}, roundTrip(TypeToken.of(char[].class), new char[]{'a', '\uffff'})));
+        assertTrue(Arrays.equals(new double[]{0.5, Double.NaN}, roundTrip(TypeToken.of(double[].class), new double[]{0.5, Double.NaN})));
+        assertTrue(Arrays.equals(new float[]{0.25f}, roundTrip(TypeToken.of(float[].class), new float[]{0.25f})));
+        boolean[] bits = new boolean[]{true, false, false, true, true, false, true, false, true};
+        assertTrue(Arrays.equals(bits, roundTrip(TypeToken.of(boolean[].class), bits)));
+        assertEquals(0, roundTrip(TypeToken.of(int[].class), new int[0]).length);
+        assertNull(roundTrip(TypeToken.of(int[].class), null));
+    }
+
+    @Test
+    public void testLegacy() {
+        List<Object> values = Arrays.<Object>asList(42, "hoge", new byte[]{1}, new int[]{1, 2}, TimeUnit.SECONDS);
+        for (Object value : values) {
+            TypeToken<Object> type = TypeToken.of((Class<Object>) value.getClass());
+            byte[] legacy = SerializableSerializer.INSTANCE.serialize(type, value, registry.getSerializers());
+            Object read = registry.deserializeByClass(type, legacy);
+            assertTrue(String.valueOf(value), Arrays.deepEquals(new Object[]{value}, new Object[]{read}));
+        }
+    }
+
+    private <T> T roundTrip(TypeToken<T> type, T value) {
+        assertTrue(registry.findByClass(type) instanceof FramedSerializer);
+        return registry.deserializeByClass(type, registry.serializeByClass(type, value));
+    }
+
+}
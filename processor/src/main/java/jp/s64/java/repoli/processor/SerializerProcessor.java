@@ -0,0 +1,499 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.processor;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+import jp.s64.java.repoli.annotation.GenerateSerializer;
+
+/**
+ * Generates a {@code GeneratedSerializer} for every class annotated with {@link GenerateSerializer}.
+ * <p>
+ * Primitives, their boxes, {@code String}, {@code byte[]} and enums are written directly; fields of any other type
+ * go through the registry, so nested annotated classes, lists and maps are written inline. Nothing is looked up
+ * reflectively at runtime, except that generic field types are captured once, by a {@code TypeToken} subclass.
+ */
+public class SerializerProcessor extends AbstractProcessor {
+
+    private static final String TYPE_TOKEN = "com.google.common.reflect.TypeToken";
+    private static final String REGISTRY = "jp.s64.java.repoli.base.SerializerRegistry";
+    private static final String FRAME_OUTPUT = "jp.s64.java.repoli.internal.FrameOutput";
+    private static final String FRAME_INPUT = "jp.s64.java.repoli.internal.FrameInput";
+    private static final String BASE = "jp.s64.java.repoli.preset.serializer.GeneratedSerializer";
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(GenerateSerializer.class.getCanonicalName());
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(GenerateSerializer.class)) {
+            try {
+                generate(element);
+            } catch (InvalidElementException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, e.getMessage(), e.element);
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write the serializer: " + e, element);
+            }
+        }
+        return true;
+    }
+
+    private void generate(@NotNull Element element) throws IOException {
+        TypeElement type = checkClass(element);
+        List<Property> properties = new ArrayList<>();
+        {
+            Set<String> constants = new HashSet<>();
+            for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+                if (field.getModifiers().contains(Modifier.STATIC) || field.getModifiers().contains(Modifier.TRANSIENT)) {
+                    continue;
+                }
+                properties.add(property(type, field, constants));
+            }
+        }
+
+        String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String simpleName = generatedName(type);
+        String typeName = type.getQualifiedName().toString();
+        String generated = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+
+        PrintWriter w = new PrintWriter(processingEnv.getFiler().createSourceFile(generated, type).openWriter());
+        try {
+            w.println("// Generated by " + SerializerProcessor.class.getName() + ". Do not edit.");
+            if (!packageName.isEmpty()) {
+                w.println("package " + packageName + ";");
+            }
+            w.println();
+            w.println("public final class " + simpleName + " extends " + BASE + "<" + typeName + "> {");
+            w.println();
+            w.println("    public static final " + simpleName + " INSTANCE = new " + simpleName + "();");
+            w.println();
+            for (Property property : properties) {
+                if (property.constant == null) {
+                    continue;
+                }
+                String token = TYPE_TOKEN + "<" + property.typeName + ">";
+                if (property.typeName.indexOf('<') < 0) {
+                    w.println("    private static final " + token + " " + property.constant + " = " + TYPE_TOKEN + ".of(" + property.typeName + ".class);");
+                } else {
+                    w.println("    private static final " + token + " " + property.constant + " = new " + token + "() {");
+                    w.println("    };");
+                }
+                w.println();
+            }
+            w.println("    private " + simpleName + "() {");
+            w.println("        super(" + typeName + ".class, " + layout(properties) + ");");
+            w.println("    }");
+            w.println();
+            w.println("    @Override");
+            w.println("    protected void writeFields(" + typeName + " value, " + REGISTRY + " registry, " + FRAME_OUTPUT + " out) {");
+            for (Property property : properties) {
+                w.println("        " + property.write());
+            }
+            w.println("    }");
+            w.println();
+            w.println("    @Override");
+            w.println("    @SuppressWarnings(\"unchecked\")");
+            w.println("    protected " + typeName + " readFields(" + REGISTRY + " registry, " + FRAME_INPUT + " in) {");
+            w.println("        " + typeName + " ret = new " + typeName + "();");
+            for (Property property : properties) {
+                w.println("        " + property.read());
+            }
+            w.println("        return ret;");
+            w.println("    }");
+            w.println();
+            w.println("}");
+        } finally {
+            w.close();
+        }
+    }
+
+    @NotNull
+    private TypeElement checkClass(@NotNull Element element) {
+        if (element.getKind() != ElementKind.CLASS) {
+            throw new InvalidElementException("@GenerateSerializer is only for classes.", element);
+        }
+        TypeElement type = (TypeElement) element;
+        if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+            throw new InvalidElementException("@GenerateSerializer class must not be abstract.", type);
+        }
+        if (!type.getTypeParameters().isEmpty()) {
+            throw new InvalidElementException("@GenerateSerializer class must not be generic.", type);
+        }
+        for (Element e = type; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            if (e.getModifiers().contains(Modifier.PRIVATE)) {
+                throw new InvalidElementException("@GenerateSerializer class must not be private.", type);
+            }
+            if (((TypeElement) e).getNestingKind() == NestingKind.MEMBER && !e.getModifiers().contains(Modifier.STATIC)) {
+                throw new InvalidElementException("@GenerateSerializer class must not be an inner class.", type);
+            }
+        }
+        boolean constructor = false;
+        for (ExecutableElement c : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (c.getParameters().isEmpty() && !c.getModifiers().contains(Modifier.PRIVATE)) {
+                constructor = true;
+            }
+        }
+        if (!constructor) {
+            throw new InvalidElementException("@GenerateSerializer class needs a non-private constructor without arguments.", type);
+        }
+        TypeMirror superclass = type.getSuperclass();
+        while (superclass.getKind() == TypeKind.DECLARED) {
+            TypeElement parent = (TypeElement) ((DeclaredType) superclass).asElement();
+            for (VariableElement field : ElementFilter.fieldsIn(parent.getEnclosedElements())) {
+                if (!field.getModifiers().contains(Modifier.STATIC) && !field.getModifiers().contains(Modifier.TRANSIENT)) {
+                    throw new InvalidElementException(String.format("Field `%s` of the superclass `%s` would not be written.", field.getSimpleName(), parent.getQualifiedName()), type);
+                }
+            }
+            superclass = parent.getSuperclass();
+        }
+        return type;
+    }
+
+    @NotNull
+    private Property property(@NotNull TypeElement owner, @NotNull VariableElement field, @NotNull Set<String> constants) {
+        String name = field.getSimpleName().toString();
+        TypeMirror type = field.asType();
+        if (field.getModifiers().contains(Modifier.FINAL)) {
+            throw new InvalidElementException("Final fields cannot be read back; make it transient or non-final.", field);
+        }
+        String typeName = sourceName(type, field);
+        Encoding encoding = encoding(type);
+
+        String getter;
+        String setter;
+        if (!field.getModifiers().contains(Modifier.PRIVATE)) {
+            getter = "value." + name;
+            setter = "ret." + name + " = %s;";
+        } else {
+            String suffix = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+            ExecutableElement get = findMethod(owner, "get" + suffix, type, null);
+            if (get == null && type.getKind() == TypeKind.BOOLEAN) {
+                get = findMethod(owner, "is" + suffix, type, null);
+            }
+            ExecutableElement set = findMethod(owner, "set" + suffix, null, type);
+            if (get == null || set == null) {
+                throw new InvalidElementException(String.format("Private field `%s` needs a non-private getter and setter.", name), field);
+            }
+            getter = "value." + get.getSimpleName() + "()";
+            setter = "ret." + set.getSimpleName() + "(%s);";
+        }
+
+        String constant = null;
+        if (encoding == Encoding.OBJECT) {
+            constant = "TYPE_" + name.replaceAll("([a-z0-9])([A-Z])", "$1_$2").toUpperCase(Locale.US);
+            while (!constants.add(constant)) {
+                constant += "_";
+            }
+        }
+        return new Property(field, typeName, encoding, getter, setter, constant);
+    }
+
+    @Nullable
+    private ExecutableElement findMethod(@NotNull TypeElement owner, @NotNull String name, @Nullable TypeMirror returns, @Nullable TypeMirror parameter) {
+        for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(owner))) {
+            if (!method.getSimpleName().contentEquals(name) || method.getModifiers().contains(Modifier.PRIVATE) || method.getModifiers().contains(Modifier.STATIC)) {
+                continue;
+            }
+            if (returns != null && method.getParameters().isEmpty() && processingEnv.getTypeUtils().isSameType(returns, method.getReturnType())) {
+                return method;
+            }
+            if (parameter != null && method.getParameters().size() == 1 && processingEnv.getTypeUtils().isSameType(parameter, method.getParameters().get(0).asType())) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    @NotNull
+    private Encoding encoding(@NotNull TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return Encoding.valueOf(type.getKind().name());
+        }
+        if (type.getKind() == TypeKind.ARRAY) {
+            return ((ArrayType) type).getComponentType().getKind() == TypeKind.BYTE ? Encoding.BYTES : Encoding.OBJECT;
+        }
+        if (type.getKind() == TypeKind.DECLARED) {
+            TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+            if (element.getKind() == ElementKind.ENUM) {
+                return Encoding.ENUM;
+            }
+            if (element.getQualifiedName().contentEquals("java.lang.String")) {
+                return Encoding.STRING;
+            }
+            try {
+                processingEnv.getTypeUtils().unboxedType(type);
+                return Encoding.BOXED;
+            } catch (IllegalArgumentException e) {
+                // not a box.
+            }
+        }
+        return Encoding.OBJECT;
+    }
+
+    @NotNull
+    private String sourceName(@NotNull TypeMirror type, @NotNull Element field) {
+        if (type.getKind().isPrimitive()) {
+            return type.getKind().name().toLowerCase(Locale.US);
+        }
+        switch (type.getKind()) {
+            case ARRAY:
+                return sourceName(((ArrayType) type).getComponentType(), field) + "[]";
+            case DECLARED: {
+                DeclaredType declared = (DeclaredType) type;
+                StringBuilder ret = new StringBuilder(((TypeElement) declared.asElement()).getQualifiedName());
+                if (!declared.getTypeArguments().isEmpty()) {
+                    ret.append('<');
+                    for (int i = 0; i < declared.getTypeArguments().size(); i++) {
+                        if (i > 0) {
+                            ret.append(", ");
+                        }
+                        ret.append(sourceName(declared.getTypeArguments().get(i), field));
+                    }
+                    ret.append('>');
+                }
+                return ret.toString();
+            }
+            case WILDCARD: {
+                WildcardType wildcard = (WildcardType) type;
+                if (wildcard.getExtendsBound() != null) {
+                    return "? extends " + sourceName(wildcard.getExtendsBound(), field);
+                }
+                if (wildcard.getSuperBound() != null) {
+                    return "? super " + sourceName(wildcard.getSuperBound(), field);
+                }
+                return "?";
+            }
+            default:
+                throw new InvalidElementException(String.format("Type `%s` is not supported.", type), field);
+        }
+    }
+
+    @NotNull
+    private String erasure(@NotNull TypeMirror type, @NotNull Element field) {
+        return sourceName(processingEnv.getTypeUtils().erasure(type), field);
+    }
+
+    @NotNull
+    private static String generatedName(@NotNull TypeElement type) {
+        StringBuilder ret = new StringBuilder(type.getSimpleName());
+        for (Element e = type.getEnclosingElement(); e instanceof TypeElement; e = e.getEnclosingElement()) {
+            ret.insert(0, e.getSimpleName() + "_");
+        }
+        return ret.append("_Serializer").toString();
+    }
+
+    /**
+     * A 32-bit hash of the field names, types and encodings, never {@code 0}, which marks null.
+     */
+    private static int layout(@NotNull List<Property> properties) {
+        StringBuilder signature = new StringBuilder();
+        for (Property property : properties) {
+            signature.append(property.name).append(' ').append(property.typeName).append(' ').append(property.encoding).append(';');
+        }
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(signature.toString().getBytes(Charset.forName("UTF-8")));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        int hash = (digest[0] & 0xff) << 24 | (digest[1] & 0xff) << 16 | (digest[2] & 0xff) << 8 | (digest[3] & 0xff);
+        return hash != 0 ? hash : 1;
+    }
+
+    private enum Encoding {
+        BOOLEAN, BYTE, SHORT, CHAR, INT, LONG, FLOAT, DOUBLE, BOXED, STRING, BYTES, ENUM, OBJECT
+    }
+
+    private final class Property {
+
+        @NotNull
+        private final VariableElement field;
+
+        @NotNull
+        private final String name;
+
+        @NotNull
+        private final TypeMirror type;
+
+        @NotNull
+        private final String typeName;
+
+        @NotNull
+        private final Encoding encoding;
+
+        @NotNull
+        private final String getter;
+
+        @NotNull
+        private final String setter;
+
+        @Nullable
+        private final String constant;
+
+        private Property(@NotNull VariableElement field, @NotNull String typeName, @NotNull Encoding encoding, @NotNull String getter, @NotNull String setter, @Nullable String constant) {
+            this.field = field;
+            this.name = field.getSimpleName().toString();
+            this.type = field.asType();
+            this.typeName = typeName;
+            this.encoding = encoding;
+            this.getter = getter;
+            this.setter = setter;
+            this.constant = constant;
+        }
+
+        @NotNull
+        private String write() {
+            switch (encoding) {
+                case BOXED: {
+                    TypeMirror primitive = processingEnv.getTypeUtils().unboxedType(type);
+                    return "{ " + typeName + " boxed = " + getter + "; if (boxed == null) { out.writeByte(0); } else { out.writeByte(1); "
+                            + writePrimitive(Encoding.valueOf(primitive.getKind().name()), "boxed") + " } }";
+                }
+                case STRING:
+                    return "out.writeString(" + getter + ");";
+                case BYTES:
+                    return "out.writeBytes(" + getter + ");";
+                case ENUM:
+                    return "writeEnum(" + getter + ", out);";
+                case OBJECT:
+                    return "writeElement(" + constant + ", " + getter + ", registry, out);";
+                default:
+                    return writePrimitive(encoding, getter);
+            }
+        }
+
+        @NotNull
+        private String read() {
+            switch (encoding) {
+                case BOXED: {
+                    TypeMirror primitive = processingEnv.getTypeUtils().unboxedType(type);
+                    return String.format(setter, "in.readByte() != 0 ? " + typeName + ".valueOf(" + readPrimitive(Encoding.valueOf(primitive.getKind().name())) + ") : null");
+                }
+                case STRING:
+                    return String.format(setter, "in.readString()");
+                case BYTES:
+                    return String.format(setter, "in.readBytes()");
+                case ENUM:
+                    return String.format(setter, "readEnum(" + erasure(type, field) + ".class, in)");
+                case OBJECT:
+                    return String.format(setter, "(" + typeName + ") readElement(" + constant + ", registry, in)");
+                default:
+                    return String.format(setter, readPrimitive(encoding));
+            }
+        }
+
+    }
+
+    @NotNull
+    private static String writePrimitive(@NotNull Encoding encoding, @NotNull String value) {
+        switch (encoding) {
+            case BOOLEAN:
+                return "out.writeByte(" + value + " ? 1 : 0);";
+            case BYTE:
+                return "out.writeByte(" + value + ");";
+            case SHORT:
+            case INT:
+                return "out.writeSignedVarint(" + value + ");";
+            case CHAR:
+                return "out.writeVarint(" + value + ");";
+            case LONG:
+                return "out.writeSignedVarlong(" + value + ");";
+            case FLOAT:
+                return "out.writeFixed32(Float.floatToRawIntBits(" + value + "));";
+            case DOUBLE:
+                return "out.writeFixed64(Double.doubleToRawLongBits(" + value + "));";
+            default:
+                throw new IllegalArgumentException(encoding.name());
+        }
+    }
+
+    @NotNull
+    private static String readPrimitive(@NotNull Encoding encoding) {
+        switch (encoding) {
+            case BOOLEAN:
+                return "in.readByte() != 0";
+            case BYTE:
+                return "(byte) in.readByte()";
+            case SHORT:
+                return "(short) in.readSignedVarint()";
+            case CHAR:
+                return "(char) in.readVarint()";
+            case INT:
+                return "in.readSignedVarint()";
+            case LONG:
+                return "in.readSignedVarlong()";
+            case FLOAT:
+                return "Float.intBitsToFloat(in.readFixed32())";
+            case DOUBLE:
+                return "Double.longBitsToDouble(in.readFixed64())";
+            default:
+                throw new IllegalArgumentException(encoding.name());
+        }
+    }
+
+    private static class InvalidElementException extends RuntimeException {
+
+        @NotNull
+        private final Element element;
+
+        private InvalidElementException(String message, @NotNull Element element) {
+            super(message);
+            this.element = element;
+        }
+
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.processor;
+
+import com.google.common.reflect.TypeToken;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URI;
+import java.net.URLClassLoader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import jp.s64.java.repoli.base.SerializerUserHelper;
+import jp.s64.java.repoli.core.ISerializer;
+import jp.s64.java.repoli.preset.serializer.CompressingSerializer;
+import jp.s64.java.repoli.preset.serializer.SerializableSerializer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SerializerProcessorTest {
+
+    private static final String MODEL = ""
+            + "package fixture;\n"
+            + "import java.util.*;\n"
+            + "import jp.s64.java.repoli.annotation.GenerateSerializer;\n"
+            + "@GenerateSerializer\n"
+            + "public class Model implements java.io.Serializable {\n"
+            + "    public enum Kind { A, B }\n"
+            + "    @GenerateSerializer\n"
+            + "    public static class Child implements java.io.Serializable {\n"
+            + "        String name;\n"
+            + "        public boolean equals(Object o) { return o instanceof Child && Objects.equals(name, ((Child) o).name); }\n"
+            + "        public int hashCode() { return Objects.hashCode(name); }\n"
+            + "    }\n"
+            + "    static int ignored;\n"
+            + "    transient String cache;\n"
+            + "    int id; long createdAt; boolean active; double score; float ratio; char initial; short level; byte flags;\n"
+            + "    Integer count; Boolean flag; Long missing; String name; String nothing; byte[] data; Kind kind;\n"
+            + "    List<Child> children; Map<String, Integer> tags; int[] points;\n"
+            + "    private String secret;\n"
+            + "    public String getSecret() { return secret; }\n"
+            + "    public void setSecret(String secret) { this.secret = secret; }\n"
+            + "    public static Model sample() {\n"
+            + "        Model ret = new Model();\n"
+            + "        ret.cache = \"cache\"; ret.id = -7; ret.createdAt = 1500000000000L; ret.active = true; ret.score = 0.5;\n"
+            + "        ret.ratio = Float.NaN; ret.initial = '\\u3042'; ret.level = -300; ret.flags = (byte) 0x80;\n"
+            + "        ret.count = 42; ret.flag = false; ret.name = \"\\u30ea\\u30dd\\u30ea \\ud83d\\ude00\"; ret.data = new byte[]{1, 2};\n"
+            + "        ret.kind = Kind.B; ret.points = new int[]{3, 4}; ret.secret = \"secret\";\n"
+            + "        ret.children = new ArrayList<>();\n"
+            + "        for (int i = 0; i < 3; i++) { Child child = new Child(); child.name = \"child-\" + i; ret.children.add(child); }\n"
+            + "        ret.tags = new HashMap<>(); ret.tags.put(\"a\", 1);\n"
+            + "        return ret;\n"
+            + "    }\n"
+            + "    public String toString() {\n"
+            + "        return Arrays.asList(cache, id, createdAt, active, score, ratio, initial, level, flags, count, flag, missing,\n"
+            + "                name, nothing, Arrays.toString(data), kind, children, tags, Arrays.toString(points), secret).toString();\n"
+            + "    }\n"
+            + "    public boolean equals(Object o) { return o instanceof Model && toString().equals(o.toString()); }\n"
+            + "    public int hashCode() { return toString().hashCode(); }\n"
+            + "}\n";
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("repoli", ".processor");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        delete(directory);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRoundTrip() throws Exception {
+        DiagnosticCollector<JavaFileObject> diagnostics = compile("fixture.Model", MODEL);
+        assertTrue(diagnostics.getDiagnostics().toString(), diagnostics.getDiagnostics().isEmpty());
+
+        URLClassLoader loader = new URLClassLoader(new URL[]{directory.toURI().toURL()}, getClass().getClassLoader());
+        try {
+            Class<Object> model = (Class<Object>) loader.loadClass("fixture.Model");
+            ISerializer modelSerializer = (ISerializer) loader.loadClass("fixture.Model_Serializer").getField("INSTANCE").get(null);
+            ISerializer childSerializer = (ISerializer) loader.loadClass("fixture.Model_Child_Serializer").getField("INSTANCE").get(null);
+
+            SerializerUserHelper helper = new SerializerUserHelper();
+            helper.addSerializer(Arrays.asList(modelSerializer, childSerializer));
+            assertEquals(16, helper.getSerializers().size());
+            TypeToken<Object> type = TypeToken.of(model);
+            assertSame(modelSerializer, helper.findByClass(type));
+            helper.addSerializer(Collections.<ISerializer>singleton(new CompressingSerializer(SerializableSerializer.INSTANCE)));
+            assertSame(modelSerializer, helper.findByClass(type));
+
+            Object sample = model.getMethod("sample").invoke(null);
+            byte[] serialized = helper.serializeByClass(type, sample);
+            Object deserialized = helper.deserializeByClass(type, serialized);
+            assertFalse(deserialized.toString().startsWith("[cache"));
+            assertEquals(sample.toString().replaceFirst("^\\[cache", "[null"), deserialized.toString());
+            assertEquals(null, helper.deserializeByClass(type, helper.serializeByClass(type, null)));
+
+            byte[] legacy = SerializableSerializer.INSTANCE.serialize(type, sample, helper.getSerializers());
+            assertTrue(serialized.length * 4 < legacy.length);
+        } finally {
+            loader.close();
+        }
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        String source = ""
+                + "package fixture;\n"
+                + "@jp.s64.java.repoli.annotation.GenerateSerializer\n"
+                + "public class Broken {\n"
+                + "    private String hidden;\n"
+                + "}\n";
+        List<String> messages = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : compile("fixture.Broken", source).getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                messages.add(diagnostic.getMessage(null));
+            }
+        }
+        assertEquals(Arrays.asList("Private field `hidden` needs a non-private getter and setter."), messages);
+    }
+
+    private DiagnosticCollector<JavaFileObject> compile(String name, final String source) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///" + name.replace('.', '/') + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        JavaCompiler.CompilationTask task = compiler.getTask(
+                null,
+                null,
+                diagnostics,
+                Arrays.asList("-d", directory.getPath(), "-s", directory.getPath(), "-classpath", System.getProperty("java.class.path")),
+                null,
+                Arrays.asList(file)
+        );
+        task.setProcessors(Arrays.asList(new SerializerProcessor()));
+        task.call();
+        return diagnostics;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+}
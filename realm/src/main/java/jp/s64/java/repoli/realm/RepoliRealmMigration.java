@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.realm;
+
+import android.support.annotation.NonNull;
+
+import org.jetbrains.annotations.NotNull;
+
+import io.realm.DynamicRealm;
+import io.realm.RealmMigration;
+import io.realm.RealmObjectSchema;
+import io.realm.RealmSchema;
+import jp.s64.java.repoli.realm.obj.SavingObject;
+
+/**
+ * Adds the columns that newer versions of Repoli store to {@code BinaryStorageObject} and every {@link SavingObject}
+ * class. Use it as the {@link RealmMigration} of a realm holding only Repoli objects, or call {@link #migrate(DynamicRealm)}
+ * from an existing migration.
+ */
+public class RepoliRealmMigration implements RealmMigration {
+
+    public static final String EXPIRES_AT_FIELD_NAME = "expiresAtTimeMillis";
+
+    @Override
+    public void migrate(DynamicRealm realm, long oldVersion, long newVersion) {
+        migrate(realm);
+    }
+
+    public static void migrate(@NotNull @NonNull DynamicRealm realm) {
+        RealmSchema schema = realm.getSchema();
+        for (RealmObjectSchema objectSchema : schema.getAll()) {
+            if (!isRepoliObject(objectSchema)) {
+                continue;
+            }
+            if (!objectSchema.hasField(EXPIRES_AT_FIELD_NAME)) {
+                objectSchema.addField(EXPIRES_AT_FIELD_NAME, Long.class);
+            }
+        }
+    }
+
+    protected static boolean isRepoliObject(@NotNull @NonNull RealmObjectSchema objectSchema) {
+        for (String fieldName : SavingObject.REQUIRED_FIELD_NAMES) {
+            if (!objectSchema.hasField(fieldName)) {
+                return false;
+            }
+        }
+        return objectSchema.hasField("savedAtTimeMillis") && objectSchema.hasField("requestedAtTimeMillis");
+    }
+
+}
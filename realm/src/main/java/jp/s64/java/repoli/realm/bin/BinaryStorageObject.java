@@ -56,6 +56,10 @@ public class BinaryStorageObject extends RealmObject implements IRepositoryDataC
     @android.support.annotation.Nullable
     private Long requestedAtTimeMillis;
 
+    @Nullable
+    @android.support.annotation.Nullable
+    private Long expiresAtTimeMillis;
+
     public String getSerializedKey() {
         return serializedKey;
     }
@@ -108,4 +112,13 @@ public class BinaryStorageObject extends RealmObject implements IRepositoryDataC
         this.requestedAtTimeMillis = requestedAtTimeMillis;
     }
 
+    @Override
+    public Long getExpiresAtTimeMillis() {
+        return expiresAtTimeMillis;
+    }
+
+    public void setExpiresAtTimeMillis(Long expiresAtTimeMillis) {
+        this.expiresAtTimeMillis = expiresAtTimeMillis;
+    }
+
 }
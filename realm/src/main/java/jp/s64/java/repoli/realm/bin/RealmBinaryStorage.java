@@ -22,7 +22,7 @@ import com.google.common.base.Suppliers;
 import io.realm.Realm;
 import io.realm.RealmResults;
 import jp.s64.java.repoli.core.IRepositoryDataContainer;
-import jp.s64.java.repoli.internal.ReturningRepositoryDataContainer;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
 import jp.s64.java.repoli.realm.core.IRealmStorage;
 import jp.s64.java.repoli.rxjava1.base.BaseRxStorage;
 import rx.Observable;
@@ -57,7 +57,7 @@ public abstract class RealmBinaryStorage<TB, AB> extends BaseRxStorage<TB, AB> i
                 .map(new Func1<RealmResults<BinaryStorageObject>, IRepositoryDataContainer<byte[], byte[]>>() {
                     @Override
                     public IRepositoryDataContainer<byte[], byte[]> call(RealmResults<BinaryStorageObject> rows) {
-                        return rows.size() > 0 ? new ReturningRepositoryDataContainer<byte[], byte[]>(rows.first()) : new ReturningRepositoryDataContainer<byte[], byte[]>();
+                        return rows.size() > 0 ? ImmutableRepositoryDataContainer.<byte[], byte[]>copyOf(rows.first()) : ImmutableRepositoryDataContainer.<byte[], byte[]>empty();
                     }
                 })
                 .doOnNext(new Action1<IRepositoryDataContainer<byte[], byte[]>>() {
@@ -196,6 +196,7 @@ public abstract class RealmBinaryStorage<TB, AB> extends BaseRxStorage<TB, AB> i
                         {
                             obj.setSavedAtTimeMillis(container.getSavedAtTimeMillis());
                             obj.setRequestedAtTimeMillis(container.getRequestedAtTimeMillis());
+                            obj.setExpiresAtTimeMillis(container.getExpiresAtTimeMillis());
                             obj.setBody(container.getBody());
                             obj.setAttachment(container.getAttachment());
                         }
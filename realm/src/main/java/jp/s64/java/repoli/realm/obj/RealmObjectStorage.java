@@ -31,13 +31,16 @@ import io.realm.RealmModel;
 import io.realm.RealmResults;
 import jp.s64.java.repoli.core.IDataKey;
 import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.core.IRepositoryDataMetadata;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataMetadata;
 import jp.s64.java.repoli.internal.ReturningRepositoryDataContainer;
 import jp.s64.java.repoli.realm.core.IRealmStorage;
+import jp.s64.java.repoli.rxjava1.core.IRxMetadataStorage;
 import rx.Observable;
 import rx.functions.Action1;
 import rx.functions.Func1;
 
-public abstract class RealmObjectStorage<TB extends RealmModel, AB extends RealmModel> implements IRealmStorage<TB, AB> {
+public abstract class RealmObjectStorage<TB extends RealmModel, AB extends RealmModel> implements IRealmStorage<TB, AB>, IRxMetadataStorage<TB, AB> {
 
     @Override
     public <T extends TB, A extends AB> Observable<IRepositoryDataContainer<T, A>> getAsync(final IDataKey<T, A> key) {
@@ -77,6 +80,7 @@ public abstract class RealmObjectStorage<TB extends RealmModel, AB extends Realm
                                 ret.setBody((T) obj.getBody());
                                 ret.setAttachment((A) obj.getAttachment());
                                 ret.setRequestedAtTimeMillis(obj.getRequestedAtTimeMillis());
+                                ret.setExpiresAtTimeMillis(obj.getExpiresAtTimeMillis());
                                 ret.setSavedAtTimeMillis(obj.getSavedAtTimeMillis());
                             }
                         }
@@ -91,6 +95,62 @@ public abstract class RealmObjectStorage<TB extends RealmModel, AB extends Realm
                 });
     }
 
+    /**
+     * Realm objects have no serialized size, so a present body or attachment is reported with size {@code 1}.
+     */
+    @Override
+    public Observable<IRepositoryDataMetadata> getMetadataAsync(final IDataKey<?, ?> key) {
+        final Supplier<Realm> realm;
+        final Class<? extends SavingObject<?, ?>> clazz;
+        {
+            realm = Suppliers.memoize(new Supplier<Realm>() {
+                @Override
+                public Realm get() {
+                    return getRealmInstance();
+                }
+            });
+            clazz = getOrFailSavingClass(key);
+        }
+
+        return Observable
+                .<Void>just(null)
+                .observeOn(getScheduler())
+                .map(new Func1<Void, RealmResults<? extends SavingObject<?, ?>>>() {
+
+                    @Override
+                    public RealmResults<? extends SavingObject<?, ?>> call(Void _) {
+                        return realm.get()
+                                .where(clazz)
+                                .equalTo("serializedKey", key.getSerialized())
+                                .findAll();
+                    }
+
+                })
+                .map(new Func1<RealmResults<? extends SavingObject<?, ?>>, IRepositoryDataMetadata>() {
+                    @Override
+                    public IRepositoryDataMetadata call(RealmResults<? extends SavingObject<?, ?>> rows) {
+                        if (rows.size() < 1) {
+                            return ImmutableRepositoryDataMetadata.empty();
+                        }
+                        SavingObject<?, ?> obj = rows.first();
+                        return ImmutableRepositoryDataMetadata.of(
+                                obj.getSavedAtTimeMillis(),
+                                obj.getRequestedAtTimeMillis(),
+                                obj.getExpiresAtTimeMillis(),
+                                obj.getBody() != null ? 1 : 0,
+                                obj.getAttachment() != null ? 1 : 0,
+                                obj.getRelatedKey()
+                        );
+                    }
+                })
+                .doOnNext(new Action1<IRepositoryDataMetadata>() {
+                    @Override
+                    public void call(IRepositoryDataMetadata _) {
+                        if (closeAfter()) realm.get().close();
+                    }
+                });
+    }
+
     @Override
     public Observable<Integer> removeAsync(final IDataKey<?, ?> key) {
         final Supplier<Realm> realm;
@@ -245,6 +305,7 @@ public abstract class RealmObjectStorage<TB extends RealmModel, AB extends Realm
                             saving.setRawBody(container.getBody());
                             saving.setRawAttachment(container.getAttachment());
                             saving.setRequestedAtTimeMillis(container.getRequestedAtTimeMillis());
+                            saving.setExpiresAtTimeMillis(container.getExpiresAtTimeMillis());
                             saving.setSavedAtTimeMillis(container.getSavedAtTimeMillis());
                         }
                         return saving;
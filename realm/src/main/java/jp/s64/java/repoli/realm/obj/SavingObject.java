@@ -52,6 +52,8 @@ public interface SavingObject<T extends RealmModel, A extends RealmModel> extend
 
     void setRequestedAtTimeMillis(@Nullable @android.support.annotation.Nullable Long requestedAtTimeMillis);
 
+    void setExpiresAtTimeMillis(@Nullable @android.support.annotation.Nullable Long expiresAtTimeMillis);
+
     void setRawBody(@Nullable @android.support.annotation.Nullable Object body);
 
     void setRawAttachment(@Nullable @android.support.annotation.Nullable Object attachment);
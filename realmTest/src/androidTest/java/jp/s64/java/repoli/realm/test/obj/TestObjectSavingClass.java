@@ -37,6 +37,7 @@ public class TestObjectSavingClass extends RealmObject implements SavingObject<T
     private TestObject attachment;
     private Long savedAtTimeMillis;
     private Long requestedAtTimeMillis;
+    private Long expiresAtTimeMillis;
 
     @Override
     public String getSerializedKey() {
@@ -98,6 +99,16 @@ public class TestObjectSavingClass extends RealmObject implements SavingObject<T
         this.requestedAtTimeMillis = requestedAtTimeMillis;
     }
 
+    @Override
+    public Long getExpiresAtTimeMillis() {
+        return expiresAtTimeMillis;
+    }
+
+    @Override
+    public void setExpiresAtTimeMillis(Long expiresAtTimeMillis) {
+        this.expiresAtTimeMillis = expiresAtTimeMillis;
+    }
+
     @Override
     public void setRawBody(Object body) {
         setBody((TestObject) body);
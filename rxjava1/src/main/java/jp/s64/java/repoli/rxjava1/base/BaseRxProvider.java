@@ -26,7 +26,6 @@ import jp.s64.java.repoli.core.IDataKey;
 import jp.s64.java.repoli.core.IRepositoryDataContainer;
 import jp.s64.java.repoli.core.ISerializer;
 import jp.s64.java.repoli.core.ISerializerUser;
-import jp.s64.java.repoli.internal.ReturningRepositoryDataContainer;
 import jp.s64.java.repoli.rxjava1.core.IRxProvider;
 import rx.Observable;
 import rx.functions.Func1;
@@ -66,13 +65,14 @@ public abstract class BaseRxProvider implements IRxProvider<Object, Object>, ISe
                 .map(new Func1<BaseProvider.ProvidedContainer, IRepositoryDataContainer<T, A>>() {
                     @Override
                     public IRepositoryDataContainer<T, A> call(BaseProvider.ProvidedContainer bytes) {
-                        ReturningRepositoryDataContainer<byte[], byte[]> org = new ReturningRepositoryDataContainer<byte[], byte[]>();
-                        {
-                            org.setBody(bytes.getBody());
-                            org.setAttachment(bytes.getAttachment());
-                            org.setRequestedAtTimeMillis(bytes.getRequestedAtTimeMillis());
-                        }
-                        return helper.convertBytesToReturning(key, org);
+                        return helper.convertBytesToReturning(
+                                key,
+                                bytes.getBody(),
+                                bytes.getAttachment(),
+                                null,
+                                bytes.getRequestedAtTimeMillis(),
+                                bytes.getExpiresAtTimeMillis()
+                        );
                     }
                 });
     }
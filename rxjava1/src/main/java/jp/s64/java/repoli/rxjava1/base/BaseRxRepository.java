@@ -18,7 +18,12 @@ package jp.s64.java.repoli.rxjava1.base;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.util.Collection;
+import java.util.Map;
+
 import jp.s64.java.repoli.base.BaseRepository;
+import jp.s64.java.repoli.base.BatchHelper;
+import jp.s64.java.repoli.core.IBatchRepository;
 import jp.s64.java.repoli.core.IDataKey;
 import jp.s64.java.repoli.core.IExpirePolicy;
 import jp.s64.java.repoli.core.IProvider;
@@ -30,21 +35,30 @@ import jp.s64.java.repoli.rxjava1.core.IRxProvider;
 import jp.s64.java.repoli.rxjava1.core.IRxRepository;
 import jp.s64.java.repoli.rxjava1.core.IRxStorage;
 import rx.Observable;
+import rx.Scheduler;
 
-public class BaseRxRepository<TB, AB> implements IRxRepository<TB, AB>, IRepository<TB, AB> {
+public class BaseRxRepository<TB, AB> implements IRxRepository<TB, AB>, IBatchRepository<TB, AB> {
 
     @NotNull
     private final IRepository repository;
 
-    private final RxRepositoryHelper<TB, AB> helper = new RxRepositoryHelper<>();
+    @NotNull
+    private final RxRepositoryHelper<TB, AB> helper;
 
     public BaseRxRepository() {
         repository = new BaseRepository() {
         };
+        helper = new RxRepositoryHelper<>();
     }
 
     public BaseRxRepository(@NotNull IRepository repository) {
         this.repository = repository;
+        this.helper = new RxRepositoryHelper<>();
+    }
+
+    public BaseRxRepository(@NotNull IRepository repository, @NotNull Scheduler revalidateScheduler) {
+        this.repository = repository;
+        this.helper = new RxRepositoryHelper<>(revalidateScheduler);
     }
 
     @Override
@@ -52,6 +66,11 @@ public class BaseRxRepository<TB, AB> implements IRxRepository<TB, AB>, IReposit
         return repository.get(key, storage, policy, provider);
     }
 
+    @Override
+    public <T extends TB, A extends AB> Map<String, IRepositoryDataContainer<T, A>> getAll(Collection<? extends IDataKey<T, A>> keys, IStorage<TB, AB> storage, IExpirePolicy<TB, AB> policy, IProvider<TB, AB> provider) {
+        return BatchHelper.getAll(repository, keys, storage, policy, provider);
+    }
+
     @Override
     public <T extends TB, A extends AB> int remove(IDataKey<T, A> key, IStorage<TB, AB> storage, IRemovePolicy<TB, AB> policy) {
         return repository.remove(key, storage, policy);
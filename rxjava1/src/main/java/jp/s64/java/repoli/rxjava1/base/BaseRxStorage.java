@@ -23,14 +23,15 @@ import java.util.Collection;
 import jp.s64.java.repoli.base.StorageHelper;
 import jp.s64.java.repoli.core.IDataKey;
 import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.core.IRepositoryDataMetadata;
 import jp.s64.java.repoli.core.ISerializer;
 import jp.s64.java.repoli.core.ISerializerUser;
-import jp.s64.java.repoli.internal.ReturningRepositoryDataContainer;
-import jp.s64.java.repoli.rxjava1.core.IRxStorage;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataMetadata;
+import jp.s64.java.repoli.rxjava1.core.IRxMetadataStorage;
 import rx.Observable;
 import rx.functions.Func1;
 
-public abstract class BaseRxStorage<TB, AB> implements IRxStorage<TB, AB>, ISerializerUser {
+public abstract class BaseRxStorage<TB, AB> implements IRxMetadataStorage<TB, AB>, ISerializerUser {
 
     private final StorageHelper helper = new StorageHelper();
 
@@ -65,7 +66,18 @@ public abstract class BaseRxStorage<TB, AB> implements IRxStorage<TB, AB>, ISeri
                 .map(new Func1<IRepositoryDataContainer<byte[], byte[]>, IRepositoryDataContainer<T, A>>() {
                     @Override
                     public IRepositoryDataContainer<T, A> call(IRepositoryDataContainer<byte[], byte[]> bytes) {
-                        return helper.convertBytesToReturning(key, bytes);
+                        return helper.convertBytesToLazy(key, bytes);
+                    }
+                });
+    }
+
+    @Override
+    public Observable<IRepositoryDataMetadata> getMetadataAsync(final IDataKey<?, ?> key) {
+        return getBySerializedKey(key.getSerialized())
+                .map(new Func1<IRepositoryDataContainer<byte[], byte[]>, IRepositoryDataMetadata>() {
+                    @Override
+                    public IRepositoryDataMetadata call(IRepositoryDataContainer<byte[], byte[]> raw) {
+                        return ImmutableRepositoryDataMetadata.of(raw, key.getRelatedKey());
                     }
                 });
     }
@@ -82,10 +94,7 @@ public abstract class BaseRxStorage<TB, AB> implements IRxStorage<TB, AB>, ISeri
 
     @Override
     public <T extends TB, A extends AB> Observable<IRepositoryDataContainer<T, A>> saveAsync(IDataKey<T, A> key, IRepositoryDataContainer<T, A> original) {
-        final ReturningRepositoryDataContainer<T, A> container = new ReturningRepositoryDataContainer<>(original);
-        {
-            container.setSavedAtTimeMillis(System.currentTimeMillis());
-        }
+        final IRepositoryDataContainer<T, A> container = helper.withSavedAtTimeMillis(original, System.currentTimeMillis());
         IRepositoryDataContainer<byte[], byte[]> save = helper.convertContainerToBytes(key, container);
         return saveBySerializedKey(key.getSerialized(), key.getRelatedKey(), save)
                 .map(new Func1<Void, IRepositoryDataContainer<T, A>>() {
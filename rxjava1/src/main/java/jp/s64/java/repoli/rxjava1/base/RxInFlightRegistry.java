@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.rxjava1.base;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Action1;
+
+/**
+ * Shares one subscription to the source between every subscriber asking for the same serialized key.
+ * The key is released as soon as the source emits or terminates, and the upstream is
+ * unsubscribed once the last subscriber has unsubscribed.
+ */
+public class RxInFlightRegistry {
+
+    private final ConcurrentMap<String, Observable<?>> calls = new ConcurrentHashMap<>();
+
+    @NotNull
+    @SuppressWarnings("unchecked")
+    public <V> Observable<V> execute(@NotNull final String serializedKey, @NotNull Observable<V> source) {
+        final AtomicReference<Observable<V>> self = new AtomicReference<>();
+        Action0 release = new Action0() {
+            @Override
+            public void call() {
+                calls.remove(serializedKey, self.get());
+            }
+        };
+        Observable<V> shared = source
+                .doOnNext(new Action1<V>() {
+                    @Override
+                    public void call(V value) {
+                        calls.remove(serializedKey, self.get());
+                    }
+                })
+                .doOnTerminate(release)
+                .doOnUnsubscribe(release)
+                .share();
+        self.set(shared);
+
+        Observable<V> existing = (Observable<V>) calls.putIfAbsent(serializedKey, shared);
+        return existing != null ? existing : shared;
+    }
+
+    public int size() {
+        return calls.size();
+    }
+
+}
@@ -16,57 +16,64 @@
 
 package jp.s64.java.repoli.rxjava1.base;
 
+import org.jetbrains.annotations.NotNull;
+
 import jp.s64.java.repoli.core.IDataKey;
 import jp.s64.java.repoli.core.IExpirePolicy;
+import jp.s64.java.repoli.core.IMetadataPolicy;
 import jp.s64.java.repoli.core.IRemovePolicy;
 import jp.s64.java.repoli.core.IRepositoryDataContainer;
-import jp.s64.java.repoli.internal.ReturningRepositoryDataContainer;
+import jp.s64.java.repoli.core.IRepositoryDataMetadata;
+import jp.s64.java.repoli.core.IStaleWhileRevalidatePolicy;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
+import jp.s64.java.repoli.rxjava1.core.IRxMetadataStorage;
 import jp.s64.java.repoli.rxjava1.core.IRxProvider;
 import jp.s64.java.repoli.rxjava1.core.IRxRepository;
 import jp.s64.java.repoli.rxjava1.core.IRxStorage;
 import rx.Observable;
+import rx.Scheduler;
+import rx.functions.Action1;
 import rx.functions.Func1;
+import rx.schedulers.Schedulers;
 
 public class RxRepositoryHelper<TB, AB> implements IRxRepository<TB, AB> {
 
+    private final RxInFlightRegistry inFlight = new RxInFlightRegistry();
+
+    @NotNull
+    private final Scheduler revalidateScheduler;
+
+    public RxRepositoryHelper() {
+        this(Schedulers.io());
+    }
+
+    public RxRepositoryHelper(@NotNull Scheduler revalidateScheduler) {
+        this.revalidateScheduler = revalidateScheduler;
+    }
+
     @Override
     public <T extends TB, A extends AB> Observable<IRepositoryDataContainer<T, A>> get(final IDataKey<T, A> key, final IRxStorage<TB, AB> storage, final IExpirePolicy<TB, AB> policy, final IRxProvider<TB, AB> provider) {
         return storage.getAsync(key)
                 //.onErrorResumeNext(Observable.empty())
-                .map(new Func1<IRepositoryDataContainer<T, A>, ReturningRepositoryDataContainer<T, A>>() {
-                    @Override
-                    public ReturningRepositoryDataContainer<T, A> call(IRepositoryDataContainer<T, A> org) {
-                        //return org != null ? new ReturningRepositoryDataContainer<>(org) : new ReturningRepositoryDataContainer<>();
-                        return new ReturningRepositoryDataContainer<>(org);
-                    }
-                })
-                .flatMap(new Func1<ReturningRepositoryDataContainer<T, A>, Observable<ReturningRepositoryDataContainer<T, A>>>() {
+                .flatMap(new Func1<IRepositoryDataContainer<T, A>, Observable<IRepositoryDataContainer<T, A>>>() {
                     @Override
-                    public Observable<ReturningRepositoryDataContainer<T, A>> call(final ReturningRepositoryDataContainer<T, A> container) {
-                        Observable<Integer> obs;
+                    public Observable<IRepositoryDataContainer<T, A>> call(final IRepositoryDataContainer<T, A> container) {
                         if (policy.shouldExpire(key, container)) {
-                            {
-                                container.setBody(null);
-                                container.setAttachment(null);
-                                container.setSavedAtTimeMillis(null);
-                                container.setRequestedAtTimeMillis(null);
-                            }
-                            obs = storage.removeAsync(key);
+                            return storage.removeAsync(key)//.onErrorResumeNext(Observable.empty())
+                                    .map(new Func1<Integer, IRepositoryDataContainer<T, A>>() {
+                                        @Override
+                                        public IRepositoryDataContainer<T, A> call(Integer removed) {
+                                            return ImmutableRepositoryDataContainer.empty();
+                                        }
+                                    });
                         } else {
-                            obs = Observable.just(null);
+                            return Observable.just(container);
                         }
-                        return obs//.onErrorResumeNext(Observable.empty())
-                                .map(new Func1<Integer, ReturningRepositoryDataContainer<T, A>>() {
-                                    @Override
-                                    public ReturningRepositoryDataContainer<T, A> call(Integer removed) {
-                                        return container;
-                                    }
-                                });
                     }
                 })
-                .flatMap(new Func1<ReturningRepositoryDataContainer<T, A>, Observable<ReturningRepositoryDataContainer<T, A>>>() {
+                .flatMap(new Func1<IRepositoryDataContainer<T, A>, Observable<IRepositoryDataContainer<T, A>>>() {
                     @Override
-                    public Observable<ReturningRepositoryDataContainer<T, A>> call(final ReturningRepositoryDataContainer<T, A> container) {
+                    public Observable<IRepositoryDataContainer<T, A>> call(final IRepositoryDataContainer<T, A> container) {
                         Observable<Integer> obs;
                         if (policy.shouldExpireWithRelatives(key, container)) {
                             obs = storage.removeRelativesAsync(key);
@@ -74,9 +81,9 @@ public class RxRepositoryHelper<TB, AB> implements IRxRepository<TB, AB> {
                             obs = Observable.just(null);
                         }
                         return obs//.onErrorResumeNext(Observable.empty())
-                                .map(new Func1<Integer, ReturningRepositoryDataContainer<T, A>>() {
+                                .map(new Func1<Integer, IRepositoryDataContainer<T, A>>() {
                                     @Override
-                                    public ReturningRepositoryDataContainer<T, A> call(Integer removed) {
+                                    public IRepositoryDataContainer<T, A> call(Integer removed) {
                                         return container;
                                     }
                                 });
@@ -88,55 +95,80 @@ public class RxRepositoryHelper<TB, AB> implements IRxRepository<TB, AB> {
                     public Observable<IRepositoryDataContainer<T, A>> call(IRepositoryDataContainer<T, A> container) {
                         Observable<IRepositoryDataContainer<T, A>> obs;
                         if (policy.shouldRequest(key, container)) {
-                            obs = provider.request(key);
+                            obs = requestAndSave(key, storage, policy, provider);
                         } else {
-                            obs = Observable.just(container);
+                            if (policy instanceof IStaleWhileRevalidatePolicy && ((IStaleWhileRevalidatePolicy<TB, AB>) policy).shouldRevalidate(key, container)) {
+                                revalidate(key, storage, policy, provider);
+                            }
+                            obs = policy.shouldSave(key, container) ? storage.saveAsync(key, container) : Observable.just(container);
                         }
-                        return obs
-                                //.onErrorResumeNext(Observable.empty())
-                                .map(new Func1<IRepositoryDataContainer<T, A>, IRepositoryDataContainer<T, A>>() {
-                                    @Override
-                                    public ReturningRepositoryDataContainer<T, A> call(IRepositoryDataContainer<T, A> container) {
-                                        return new ReturningRepositoryDataContainer<>(container);
-                                    }
-                                });
+                        return obs;
                     }
 
-                })
+                });
+    }
+
+    /**
+     * Requests the key from the provider and saves the result, sharing one subscription between
+     * every subscriber that misses on the same serialized key at the same time.
+     */
+    @NotNull
+    protected <T extends TB, A extends AB> Observable<IRepositoryDataContainer<T, A>> requestAndSave(@NotNull final IDataKey<T, A> key, @NotNull final IRxStorage<TB, AB> storage, @NotNull final IExpirePolicy<TB, AB> policy, @NotNull final IRxProvider<TB, AB> provider) {
+        Observable<IRepositoryDataContainer<T, A>> source = provider.request(key)
                 .flatMap(new Func1<IRepositoryDataContainer<T, A>, Observable<IRepositoryDataContainer<T, A>>>() {
                     @Override
                     public Observable<IRepositoryDataContainer<T, A>> call(IRepositoryDataContainer<T, A> container) {
-                        Observable<IRepositoryDataContainer<T, A>> obs;
-                        if (policy.shouldSave(key, container)) {
-                            obs = storage.saveAsync(key, container);
-                        } else {
-                            obs = Observable.just(container);
-                        }
-                        return obs
-                                //.onErrorResumeNext(Observable.empty())
-                                .map(new Func1<IRepositoryDataContainer<T, A>, IRepositoryDataContainer<T, A>>() {
-                                    @Override
-                                    public IRepositoryDataContainer<T, A> call(IRepositoryDataContainer<T, A> container) {
-                                        return new ReturningRepositoryDataContainer<T, A>(container);
-                                    }
-                                });
+                        return policy.shouldSave(key, container) ? storage.saveAsync(key, container) : Observable.just(container);
                     }
                 });
+        return inFlight.execute(key.getSerialized(), source);
+    }
+
+    /**
+     * Refreshes a stale entry on the revalidate scheduler. Concurrent refreshes of the same key share one request.
+     */
+    protected <T extends TB, A extends AB> void revalidate(@NotNull IDataKey<T, A> key, @NotNull IRxStorage<TB, AB> storage, @NotNull IExpirePolicy<TB, AB> policy, @NotNull IRxProvider<TB, AB> provider) {
+        requestAndSave(key, storage, policy, provider)
+                .subscribeOn(revalidateScheduler)
+                .subscribe(
+                        new Action1<IRepositoryDataContainer<T, A>>() {
+                            @Override
+                            public void call(IRepositoryDataContainer<T, A> container) {
+                                // saved by requestAndSave.
+                            }
+                        },
+                        new Action1<Throwable>() {
+                            @Override
+                            public void call(Throwable throwable) {
+                                // the stale entry stays available, and the next get retries.
+                            }
+                        }
+                );
     }
 
     @Override
     public <T extends TB, A extends AB> Observable<Integer> remove(final IDataKey<T, A> key, final IRxStorage<TB, AB> storage, final IRemovePolicy<TB, AB> policy) {
-        return storage.getAsync(key)
-                .map(new Func1<IRepositoryDataContainer<T, A>, ReturningRepositoryDataContainer<T, A>>() {
-                    @Override
-                    public ReturningRepositoryDataContainer<T, A> call(IRepositoryDataContainer<T, A> org) {
-                        return new ReturningRepositoryDataContainer<>(org);
-                    }
-                })
-                .flatMap(new Func1<ReturningRepositoryDataContainer<T, A>, Observable<Integer>>() {
+        Observable<Boolean> withRelatives;
+        if (policy instanceof IMetadataPolicy && storage instanceof IRxMetadataStorage) {
+            withRelatives = ((IRxMetadataStorage<TB, AB>) storage).getMetadataAsync(key).map(new Func1<IRepositoryDataMetadata, Boolean>() {
+                @Override
+                public Boolean call(IRepositoryDataMetadata metadata) {
+                    return ((IMetadataPolicy<TB, AB>) policy).shouldRemoveWithRelatives(key, metadata);
+                }
+            });
+        } else {
+            withRelatives = storage.getAsync(key).map(new Func1<IRepositoryDataContainer<T, A>, Boolean>() {
+                @Override
+                public Boolean call(IRepositoryDataContainer<T, A> container) {
+                    return policy.shouldRemoveWithRelatives(key, container);
+                }
+            });
+        }
+        return withRelatives
+                .flatMap(new Func1<Boolean, Observable<Integer>>() {
                     @Override
-                    public Observable<Integer> call(ReturningRepositoryDataContainer<T, A> container) {
-                        return policy.shouldRemoveWithRelatives(key, container) ? storage.removeRelativesAsync(key) : Observable.just(0);
+                    public Observable<Integer> call(Boolean withRelatives) {
+                        return withRelatives ? storage.removeRelativesAsync(key) : Observable.just(0);
                     }
                 })
                 .flatMap(new Func1<Integer, Observable<Integer>>() {
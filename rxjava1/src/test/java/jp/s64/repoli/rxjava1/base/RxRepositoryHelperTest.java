@@ -23,6 +23,9 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import jp.s64.java.repoli.base.BaseProvider;
 import jp.s64.java.repoli.core.DataKey;
 import jp.s64.java.repoli.core.IRepositoryDataContainer;
@@ -37,6 +40,7 @@ import jp.s64.java.repoli.rxjava1.core.IRxProvider;
 import jp.s64.java.repoli.rxjava1.core.IRxStorage;
 import jp.s64.java.repoli.rxjava1.preset.SimpleRxOnMemoryStorage;
 import rx.Observable;
+import rx.functions.Func0;
 import rx.observers.TestSubscriber;
 
 import static org.junit.Assert.assertEquals;
@@ -128,4 +132,49 @@ public class RxRepositoryHelperTest {
         }
     }
 
+
+    @Test
+    public void testCoalescing() {
+        final DataKey<String, String> key = new DataKey<>(TypeToken.of(String.class), TypeToken.of(String.class), "coalesced-key", "relative-key");
+        final AtomicInteger requested = new AtomicInteger();
+        final BaseProvider.ProvidedContainer provided = new BaseProvider.ProvidedContainer(System.currentTimeMillis());
+        {
+            SerializableSerializer serializer = SerializableSerializer.INSTANCE;
+            provided.setBody(serializer.serialize(key.getBodyType(), "body-value", Sets.<ISerializer>newHashSet()));
+            provided.setAttachment(serializer.serialize(key.getAttachmentType(), "attachment-value", Sets.<ISerializer>newHashSet()));
+        }
+
+        IRxProvider provider = new BaseRxProvider() {
+            @Override
+            public Observable<BaseProvider.ProvidedContainer> requestBySerializedKey(String serializedKey) {
+                return Observable
+                        .defer(new Func0<Observable<BaseProvider.ProvidedContainer>>() {
+                            @Override
+                            public Observable<BaseProvider.ProvidedContainer> call() {
+                                requested.incrementAndGet();
+                                return Observable.just(provided);
+                            }
+                        })
+                        .delay(200, TimeUnit.MILLISECONDS);
+            }
+        };
+
+        RxRepositoryHelper helper = new RxRepositoryHelper();
+
+        TestSubscriber<IRepositoryDataContainer<String, String>> first = new TestSubscriber<>();
+        TestSubscriber<IRepositoryDataContainer<String, String>> second = new TestSubscriber<>();
+        helper.get(key, storage, new DefaultPolicy(), provider).subscribe(first);
+        helper.get(key, storage, new DefaultPolicy(), provider).subscribe(second);
+
+        first.awaitTerminalEvent();
+        second.awaitTerminalEvent();
+
+        first.assertNoErrors();
+        second.assertNoErrors();
+        first.assertValueCount(1);
+        second.assertValueCount(1);
+        assertEquals(1, requested.get());
+        assertEquals("body-value", second.getOnNextEvents().get(0).getBody());
+    }
+
 }
@@ -27,12 +27,13 @@ import io.reactivex.functions.Function;
 import jp.s64.java.repoli.base.StorageHelper;
 import jp.s64.java.repoli.core.IDataKey;
 import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.core.IRepositoryDataMetadata;
 import jp.s64.java.repoli.core.ISerializer;
 import jp.s64.java.repoli.core.ISerializerUser;
-import jp.s64.java.repoli.internal.ReturningRepositoryDataContainer;
-import jp.s64.java.repoli.rxjava2.core.IRxStorage;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataMetadata;
+import jp.s64.java.repoli.rxjava2.core.IRxMetadataStorage;
 
-public abstract class BaseRxStorage<TB, AB> implements IRxStorage<TB, AB>, ISerializerUser {
+public abstract class BaseRxStorage<TB, AB> implements IRxMetadataStorage<TB, AB>, ISerializerUser {
 
     private final StorageHelper helper = new StorageHelper();
 
@@ -67,7 +68,18 @@ public abstract class BaseRxStorage<TB, AB> implements IRxStorage<TB, AB>, ISeri
                 .map(new Function<IRepositoryDataContainer<byte[], byte[]>, IRepositoryDataContainer<T, A>>() {
                     @Override
                     public IRepositoryDataContainer<T, A> apply(IRepositoryDataContainer<byte[], byte[]> bytes) throws Exception {
-                        return helper.convertBytesToReturning(key, bytes);
+                        return helper.convertBytesToLazy(key, bytes);
+                    }
+                });
+    }
+
+    @Override
+    public Single<IRepositoryDataMetadata> getMetadataAsync(final IDataKey<?, ?> key) {
+        return getBySerializedKey(key.getSerialized())
+                .map(new Function<IRepositoryDataContainer<byte[], byte[]>, IRepositoryDataMetadata>() {
+                    @Override
+                    public IRepositoryDataMetadata apply(IRepositoryDataContainer<byte[], byte[]> raw) throws Exception {
+                        return ImmutableRepositoryDataMetadata.of(raw, key.getRelatedKey());
                     }
                 });
     }
@@ -84,10 +96,7 @@ public abstract class BaseRxStorage<TB, AB> implements IRxStorage<TB, AB>, ISeri
 
     @Override
     public <T extends TB, A extends AB> Single<IRepositoryDataContainer<T, A>> saveAsync(IDataKey<T, A> key, IRepositoryDataContainer<T, A> original) {
-        final ReturningRepositoryDataContainer<T, A> container = new ReturningRepositoryDataContainer<>(original);
-        {
-            container.setSavedAtTimeMillis(System.currentTimeMillis());
-        }
+        final IRepositoryDataContainer<T, A> container = helper.withSavedAtTimeMillis(original, System.currentTimeMillis());
         IRepositoryDataContainer<byte[], byte[]> save = helper.convertContainerToBytes(key, container);
         return saveBySerializedKey(key.getSerialized(), key.getRelatedKey(), save)
                 .toSingle(new Callable<IRepositoryDataContainer<T, A>>() {
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.rxjava2.base;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.reactivex.Single;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Consumer;
+
+/**
+ * Shares one subscription to the source between every observer asking for the same serialized key.
+ * The key is released as soon as the source succeeds or fails, and the upstream is
+ * disposed once the last observer has disposed.
+ */
+public class RxInFlightRegistry {
+
+    private final ConcurrentMap<String, Single<?>> calls = new ConcurrentHashMap<>();
+
+    @NotNull
+    @SuppressWarnings("unchecked")
+    public <V> Single<V> execute(@NotNull final String serializedKey, @NotNull Single<V> source) {
+        final AtomicReference<Single<V>> self = new AtomicReference<>();
+        Single<V> shared = source
+                .doOnSuccess(new Consumer<V>() {
+                    @Override
+                    public void accept(V value) throws Exception {
+                        calls.remove(serializedKey, self.get());
+                    }
+                })
+                .doOnError(new Consumer<Throwable>() {
+                    @Override
+                    public void accept(Throwable throwable) throws Exception {
+                        calls.remove(serializedKey, self.get());
+                    }
+                })
+                .doOnDispose(new Action() {
+                    @Override
+                    public void run() throws Exception {
+                        calls.remove(serializedKey, self.get());
+                    }
+                })
+                .toObservable()
+                .share()
+                .singleOrError();
+        self.set(shared);
+
+        Single<V> existing = (Single<V>) calls.putIfAbsent(serializedKey, shared);
+        return existing != null ? existing : shared;
+    }
+
+    public int size() {
+        return calls.size();
+    }
+
+}
@@ -18,61 +18,68 @@ package jp.s64.java.repoli.rxjava2.base;
 
 import com.google.common.base.Optional;
 
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.Callable;
+
+import io.reactivex.Scheduler;
 import io.reactivex.Single;
 import io.reactivex.SingleSource;
+import io.reactivex.functions.Consumer;
 import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
+import jp.s64.java.repoli.base.RemovalStamps;
 import jp.s64.java.repoli.core.IDataKey;
 import jp.s64.java.repoli.core.IExpirePolicy;
+import jp.s64.java.repoli.core.IMetadataPolicy;
 import jp.s64.java.repoli.core.IRemovePolicy;
 import jp.s64.java.repoli.core.IRepositoryDataContainer;
-import jp.s64.java.repoli.internal.ReturningRepositoryDataContainer;
+import jp.s64.java.repoli.core.IRepositoryDataMetadata;
+import jp.s64.java.repoli.core.IStaleWhileRevalidatePolicy;
+import jp.s64.java.repoli.internal.ImmutableRepositoryDataContainer;
+import jp.s64.java.repoli.rxjava2.core.IRxMetadataStorage;
 import jp.s64.java.repoli.rxjava2.core.IRxProvider;
 import jp.s64.java.repoli.rxjava2.core.IRxRepository;
 import jp.s64.java.repoli.rxjava2.core.IRxStorage;
 
 public class RxRepositoryHelper<TB, AB> implements IRxRepository<TB, AB> {
 
+    private final RxInFlightRegistry inFlight = new RxInFlightRegistry();
+
+    private final RemovalStamps removals = new RemovalStamps();
+
+    @NotNull
+    private final Scheduler revalidateScheduler;
+
+    public RxRepositoryHelper() {
+        this(Schedulers.io());
+    }
+
+    public RxRepositoryHelper(@NotNull Scheduler revalidateScheduler) {
+        this.revalidateScheduler = revalidateScheduler;
+    }
+
     @Override
     public <T extends TB, A extends AB> Single<IRepositoryDataContainer<T, A>> get(final IDataKey<T, A> key, final IRxStorage<TB, AB> storage, final IExpirePolicy<TB, AB> policy, final IRxProvider<TB, AB> provider) {
         return storage.getAsync(key)
-                .map(new Function<IRepositoryDataContainer<T, A>, ReturningRepositoryDataContainer<T, A>>() {
+                .flatMap(new Function<IRepositoryDataContainer<T, A>, SingleSource<? extends IRepositoryDataContainer<T, A>>>() {
                     @Override
-                    public ReturningRepositoryDataContainer<T, A> apply(IRepositoryDataContainer<T, A> org) throws Exception {
-                        return new ReturningRepositoryDataContainer<>(org);
-                    }
-                })
-                .flatMap(new Function<ReturningRepositoryDataContainer<T, A>, SingleSource<? extends ReturningRepositoryDataContainer<T, A>>>() {
-                    @Override
-                    public SingleSource<? extends ReturningRepositoryDataContainer<T, A>> apply(final ReturningRepositoryDataContainer<T, A> container) throws Exception {
-                        Single<Optional<Integer>> obs;
+                    public SingleSource<? extends IRepositoryDataContainer<T, A>> apply(final IRepositoryDataContainer<T, A> container) throws Exception {
                         if (policy.shouldExpire(key, container)) {
-                            {
-                                container.setBody(null);
-                                container.setAttachment(null);
-                                container.setSavedAtTimeMillis(null);
-                                container.setRequestedAtTimeMillis(null);
-                            }
-                            obs = storage.removeAsync(key).map(new Function<Integer, Optional<Integer>>() {
+                            return storage.removeAsync(key).map(new Function<Integer, IRepositoryDataContainer<T, A>>() {
                                 @Override
-                                public Optional<Integer> apply(Integer integer) throws Exception {
-                                    return Optional.of(integer);
+                                public IRepositoryDataContainer<T, A> apply(Integer removed) throws Exception {
+                                    return ImmutableRepositoryDataContainer.empty();
                                 }
                             });
                         } else {
-                            obs = Single.just(Optional.<Integer>absent());
+                            return Single.just(container);
                         }
-                        return obs
-                                .map(new Function<Optional<Integer>, ReturningRepositoryDataContainer<T, A>>() {
-                                    @Override
-                                    public ReturningRepositoryDataContainer<T, A> apply(Optional<Integer> removed) throws Exception {
-                                        return container;
-                                    }
-                                });
                     }
                 })
-                .flatMap(new Function<ReturningRepositoryDataContainer<T, A>, Single<ReturningRepositoryDataContainer<T, A>>>() {
+                .flatMap(new Function<IRepositoryDataContainer<T, A>, Single<IRepositoryDataContainer<T, A>>>() {
                     @Override
-                    public Single<ReturningRepositoryDataContainer<T, A>> apply(final ReturningRepositoryDataContainer<T, A> container) {
+                    public Single<IRepositoryDataContainer<T, A>> apply(final IRepositoryDataContainer<T, A> container) {
                         Single<Optional<Integer>> obs;
                         if (policy.shouldExpireWithRelatives(key, container)) {
                             obs = storage.removeRelativesAsync(key).map(new Function<Integer, Optional<Integer>>() {
@@ -85,9 +92,9 @@ public class RxRepositoryHelper<TB, AB> implements IRxRepository<TB, AB> {
                             obs = Single.just(Optional.<Integer>absent());
                         }
                         return obs
-                                .map(new Function<Optional<Integer>, ReturningRepositoryDataContainer<T, A>>() {
+                                .map(new Function<Optional<Integer>, IRepositoryDataContainer<T, A>>() {
                                     @Override
-                                    public ReturningRepositoryDataContainer<T, A> apply(Optional<Integer> removed) {
+                                    public IRepositoryDataContainer<T, A> apply(Optional<Integer> removed) {
                                         return container;
                                     }
                                 });
@@ -99,53 +106,110 @@ public class RxRepositoryHelper<TB, AB> implements IRxRepository<TB, AB> {
                     public Single<IRepositoryDataContainer<T, A>> apply(IRepositoryDataContainer<T, A> container) {
                         Single<IRepositoryDataContainer<T, A>> obs;
                         if (policy.shouldRequest(key, container)) {
-                            obs = provider.request(key);
+                            obs = requestAndSave(key, storage, policy, provider);
                         } else {
-                            obs = Single.just(container);
+                            if (policy instanceof IStaleWhileRevalidatePolicy && ((IStaleWhileRevalidatePolicy<TB, AB>) policy).shouldRevalidate(key, container)) {
+                                revalidate(key, storage, policy, provider);
+                            }
+                            obs = policy.shouldSave(key, container) ? storage.saveAsync(key, container) : Single.just(container);
                         }
-                        return obs
-                                .map(new Function<IRepositoryDataContainer<T, A>, IRepositoryDataContainer<T, A>>() {
-                                    @Override
-                                    public ReturningRepositoryDataContainer<T, A> apply(IRepositoryDataContainer<T, A> container) {
-                                        return new ReturningRepositoryDataContainer<>(container);
-                                    }
-                                });
+                        return obs;
                     }
 
-                })
-                .flatMap(new Function<IRepositoryDataContainer<T, A>, Single<IRepositoryDataContainer<T, A>>>() {
-                    @Override
-                    public Single<IRepositoryDataContainer<T, A>> apply(IRepositoryDataContainer<T, A> container) {
-                        Single<IRepositoryDataContainer<T, A>> obs;
-                        if (policy.shouldSave(key, container)) {
-                            obs = storage.saveAsync(key, container);
-                        } else {
-                            obs = Single.just(container);
-                        }
-                        return obs
-                                .map(new Function<IRepositoryDataContainer<T, A>, IRepositoryDataContainer<T, A>>() {
+                });
+    }
+
+    /**
+     * Requests the key again regardless of what is stored, through the same shared subscription as a miss.
+     */
+    @NotNull
+    public <T extends TB, A extends AB> Single<IRepositoryDataContainer<T, A>> refresh(@NotNull IDataKey<T, A> key, @NotNull IRxStorage<TB, AB> storage, @NotNull IExpirePolicy<TB, AB> policy, @NotNull IRxProvider<TB, AB> provider) {
+        return requestAndSave(key, storage, policy, provider);
+    }
+
+    /**
+     * Requests the key from the provider and saves the result, sharing one subscription between
+     * every observer that misses on the same serialized key at the same time.
+     * A result whose key is removed through {@link #remove} while it is in flight is emitted but not kept.
+     */
+    @NotNull
+    protected <T extends TB, A extends AB> Single<IRepositoryDataContainer<T, A>> requestAndSave(@NotNull final IDataKey<T, A> key, @NotNull final IRxStorage<TB, AB> storage, @NotNull final IExpirePolicy<TB, AB> policy, @NotNull final IRxProvider<TB, AB> provider) {
+        Single<IRepositoryDataContainer<T, A>> source = Single.defer(new Callable<SingleSource<IRepositoryDataContainer<T, A>>>() {
+            @Override
+            public SingleSource<IRepositoryDataContainer<T, A>> call() {
+                final long stamp = removals.get(key);
+                return provider.request(key)
+                        .flatMap(new Function<IRepositoryDataContainer<T, A>, Single<IRepositoryDataContainer<T, A>>>() {
+                            @Override
+                            public Single<IRepositoryDataContainer<T, A>> apply(IRepositoryDataContainer<T, A> container) {
+                                return policy.shouldSave(key, container) ? storage.saveAsync(key, container) : Single.just(container);
+                            }
+                        })
+                        .flatMap(new Function<IRepositoryDataContainer<T, A>, Single<IRepositoryDataContainer<T, A>>>() {
+                            @Override
+                            public Single<IRepositoryDataContainer<T, A>> apply(final IRepositoryDataContainer<T, A> container) {
+                                if (removals.get(key) == stamp) {
+                                    return Single.just(container);
+                                }
+                                return storage.removeAsync(key).map(new Function<Integer, IRepositoryDataContainer<T, A>>() {
                                     @Override
-                                    public IRepositoryDataContainer<T, A> apply(IRepositoryDataContainer<T, A> container) {
-                                        return new ReturningRepositoryDataContainer<T, A>(container);
+                                    public IRepositoryDataContainer<T, A> apply(Integer removed) {
+                                        return container;
                                     }
                                 });
-                    }
-                });
+                            }
+                        });
+            }
+        });
+        return inFlight.execute(key.getSerialized(), source);
+    }
+
+    /**
+     * Refreshes a stale entry on the revalidate scheduler. Concurrent refreshes of the same key share one request.
+     */
+    protected <T extends TB, A extends AB> void revalidate(@NotNull IDataKey<T, A> key, @NotNull IRxStorage<TB, AB> storage, @NotNull IExpirePolicy<TB, AB> policy, @NotNull IRxProvider<TB, AB> provider) {
+        requestAndSave(key, storage, policy, provider)
+                .subscribeOn(revalidateScheduler)
+                .subscribe(
+                        new Consumer<IRepositoryDataContainer<T, A>>() {
+                            @Override
+                            public void accept(IRepositoryDataContainer<T, A> container) {
+                                // saved by requestAndSave.
+                            }
+                        },
+                        new Consumer<Throwable>() {
+                            @Override
+                            public void accept(Throwable throwable) {
+                                // the stale entry stays available, and the next get retries.
+                            }
+                        }
+                );
     }
 
     @Override
     public <T extends TB, A extends AB> Single<Integer> remove(final IDataKey<T, A> key, final IRxStorage<TB, AB> storage, final IRemovePolicy<TB, AB> policy) {
-        return storage.getAsync(key)
-                .map(new Function<IRepositoryDataContainer<T, A>, ReturningRepositoryDataContainer<T, A>>() {
-                    @Override
-                    public ReturningRepositoryDataContainer<T, A> apply(IRepositoryDataContainer<T, A> org) {
-                        return new ReturningRepositoryDataContainer<>(org);
-                    }
-                })
-                .flatMap(new Function<ReturningRepositoryDataContainer<T, A>, Single<Integer>>() {
+        Single<Boolean> withRelatives;
+        if (policy instanceof IMetadataPolicy && storage instanceof IRxMetadataStorage) {
+            withRelatives = ((IRxMetadataStorage<TB, AB>) storage).getMetadataAsync(key).map(new Function<IRepositoryDataMetadata, Boolean>() {
+                @Override
+                public Boolean apply(IRepositoryDataMetadata metadata) throws Exception {
+                    return ((IMetadataPolicy<TB, AB>) policy).shouldRemoveWithRelatives(key, metadata);
+                }
+            });
+        } else {
+            withRelatives = storage.getAsync(key).map(new Function<IRepositoryDataContainer<T, A>, Boolean>() {
+                @Override
+                public Boolean apply(IRepositoryDataContainer<T, A> container) throws Exception {
+                    return policy.shouldRemoveWithRelatives(key, container);
+                }
+            });
+        }
+        return withRelatives
+                .flatMap(new Function<Boolean, Single<Integer>>() {
                     @Override
-                    public Single<Integer> apply(ReturningRepositoryDataContainer<T, A> container) {
-                        return policy.shouldRemoveWithRelatives(key, container) ? storage.removeRelativesAsync(key) : Single.just(0);
+                    public Single<Integer> apply(Boolean withRelatives) {
+                        removals.bump(key, withRelatives);
+                        return withRelatives ? storage.removeRelativesAsync(key) : Single.just(0);
                     }
                 })
                 .flatMap(new Function<Integer, Single<Integer>>() {
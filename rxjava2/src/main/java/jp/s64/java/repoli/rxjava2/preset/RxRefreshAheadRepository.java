@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.rxjava2.preset;
+
+import org.jetbrains.annotations.NotNull;
+
+import io.reactivex.Single;
+import io.reactivex.functions.Consumer;
+import jp.s64.java.repoli.core.IDataKey;
+import jp.s64.java.repoli.core.IExpirePolicy;
+import jp.s64.java.repoli.core.IRemovePolicy;
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.preset.TimeBasedPolicy;
+import jp.s64.java.repoli.rxjava2.base.BaseRxRepository;
+import jp.s64.java.repoli.rxjava2.core.IRxProvider;
+import jp.s64.java.repoli.rxjava2.core.IRxRepository;
+import jp.s64.java.repoli.rxjava2.core.IRxStorage;
+
+/**
+ * Reports every read made with a {@link TimeBasedPolicy} to a {@link RxRefreshAheadScheduler},
+ * which refreshes through the wrapped repository.
+ */
+public class RxRefreshAheadRepository<TB, AB> implements IRxRepository<TB, AB> {
+
+    @NotNull
+    private final BaseRxRepository<TB, AB> repository;
+
+    @NotNull
+    private final RxRefreshAheadScheduler scheduler;
+
+    public RxRefreshAheadRepository(@NotNull BaseRxRepository<TB, AB> repository, @NotNull RxRefreshAheadScheduler scheduler) {
+        this.repository = repository;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public <T extends TB, A extends AB> Single<IRepositoryDataContainer<T, A>> get(final IDataKey<T, A> key, final IRxStorage<TB, AB> storage, final IExpirePolicy<TB, AB> policy, final IRxProvider<TB, AB> provider) {
+        Single<IRepositoryDataContainer<T, A>> ret = repository.get(key, storage, policy, provider);
+        if (!(policy instanceof TimeBasedPolicy)) {
+            return ret;
+        }
+        return ret.doOnSuccess(new Consumer<IRepositoryDataContainer<T, A>>() {
+            @Override
+            public void accept(IRepositoryDataContainer<T, A> container) {
+                scheduler.onAccess(key, repository, storage, (TimeBasedPolicy<TB, AB>) policy, provider, container);
+            }
+        });
+    }
+
+    @Override
+    public <T extends TB, A extends AB> Single<Integer> remove(IDataKey<T, A> key, IRxStorage<TB, AB> storage, IRemovePolicy<TB, AB> policy) {
+        return repository.remove(key, storage, policy);
+    }
+
+}
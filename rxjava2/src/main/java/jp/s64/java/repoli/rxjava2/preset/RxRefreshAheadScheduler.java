@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.java.repoli.rxjava2.preset;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Scheduler;
+import io.reactivex.functions.Consumer;
+import jp.s64.java.repoli.base.BaseRefreshAheadScheduler;
+import jp.s64.java.repoli.core.IDataKey;
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.internal.NegativeEntries;
+import jp.s64.java.repoli.preset.TimeBasedPolicy;
+import jp.s64.java.repoli.rxjava2.base.BaseRxRepository;
+import jp.s64.java.repoli.rxjava2.core.IRxProvider;
+import jp.s64.java.repoli.rxjava2.core.IRxStorage;
+
+/**
+ * Waits and runs refreshes on a {@link Scheduler}.
+ */
+public class RxRefreshAheadScheduler extends BaseRefreshAheadScheduler {
+
+    @NotNull
+    private final Scheduler scheduler;
+
+    public RxRefreshAheadScheduler(float refreshFraction, int minAccessCount, int maxConcurrency, @NotNull Scheduler scheduler) {
+        super(refreshFraction, minAccessCount, maxConcurrency);
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Records a read of {@code container}, which {@code policy} keeps until {@link TimeBasedPolicy#getDeadlineTimeMillis(IRepositoryDataContainer)}.
+     * The refresh goes through {@link BaseRxRepository#refresh}, so it shares a request with concurrent misses.
+     */
+    public <TB, AB, T extends TB, A extends AB> void onAccess(@NotNull final IDataKey<T, A> key, @NotNull final BaseRxRepository<TB, AB> repository, @NotNull final IRxStorage<TB, AB> storage, @NotNull final TimeBasedPolicy<TB, AB> policy, @NotNull final IRxProvider<TB, AB> provider, @NotNull IRepositoryDataContainer<T, A> container) {
+        Long savedAt = container.getSavedAtTimeMillis();
+        Long deadline = policy.getDeadlineTimeMillis(container);
+        if (savedAt == null || deadline == null || NegativeEntries.isNegative(container)) {
+            return;
+        }
+        onAccess(key.getSerialized(), savedAt, deadline - savedAt, new Refresh() {
+            @Override
+            public void refresh(@NotNull final Runnable done) {
+                repository.refresh(key, storage, policy, provider)
+                        .subscribe(
+                                new Consumer<IRepositoryDataContainer<T, A>>() {
+                                    @Override
+                                    public void accept(IRepositoryDataContainer<T, A> saved) {
+                                        done.run();
+                                    }
+                                },
+                                new Consumer<Throwable>() {
+                                    @Override
+                                    public void accept(Throwable throwable) {
+                                        // the entry expires as usual, and the next get requests it.
+                                        done.run();
+                                    }
+                                }
+                        );
+            }
+        });
+    }
+
+    @Override
+    protected void scheduleDispatch(long delayMillis) {
+        scheduler.scheduleDirect(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void execute(@NotNull Runnable refresh) {
+        scheduler.scheduleDirect(refresh);
+    }
+
+}
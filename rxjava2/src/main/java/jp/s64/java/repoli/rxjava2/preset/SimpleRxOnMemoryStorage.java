@@ -16,16 +16,21 @@
 
 package jp.s64.java.repoli.rxjava2.preset;
 
+import java.util.Collection;
+import java.util.Map;
+
 import io.reactivex.Completable;
 import io.reactivex.Single;
 import io.reactivex.functions.Action;
+import jp.s64.java.repoli.core.IBatchStorage;
 import jp.s64.java.repoli.core.IDataKey;
+import jp.s64.java.repoli.core.IMetadataStorage;
 import jp.s64.java.repoli.core.IRepositoryDataContainer;
-import jp.s64.java.repoli.core.IStorage;
+import jp.s64.java.repoli.core.IRepositoryDataMetadata;
 import jp.s64.java.repoli.preset.SimpleOnMemoryStorage;
 import jp.s64.java.repoli.rxjava2.base.BaseRxStorage;
 
-public class SimpleRxOnMemoryStorage<TB, AB> extends BaseRxStorage<TB, AB> implements IStorage<TB, AB> {
+public class SimpleRxOnMemoryStorage<TB, AB> extends BaseRxStorage<TB, AB> implements IBatchStorage<TB, AB>, IMetadataStorage<TB, AB> {
 
     private final SimpleOnMemoryStorage<TB, AB> synchronous = new SimpleOnMemoryStorage();
 
@@ -59,11 +64,26 @@ public class SimpleRxOnMemoryStorage<TB, AB> extends BaseRxStorage<TB, AB> imple
         return synchronous.get(key);
     }
 
+    @Override
+    public <T extends TB, A extends AB> Map<String, IRepositoryDataContainer<T, A>> getAll(Collection<? extends IDataKey<T, A>> keys) {
+        return synchronous.getAll(keys);
+    }
+
+    @Override
+    public IRepositoryDataMetadata getMetadata(IDataKey<?, ?> key) {
+        return synchronous.getMetadata(key);
+    }
+
     @Override
     public int remove(IDataKey<?, ?> key) {
         return synchronous.remove(key);
     }
 
+    @Override
+    public int removeAll(Collection<? extends IDataKey<?, ?>> keys) {
+        return synchronous.removeAll(keys);
+    }
+
     @Override
     public int removeRelatives(IDataKey<?, ?> key) {
         return synchronous.removeRelatives(key);
@@ -74,4 +94,9 @@ public class SimpleRxOnMemoryStorage<TB, AB> extends BaseRxStorage<TB, AB> imple
         return synchronous.save(key, container);
     }
 
+    @Override
+    public <T extends TB, A extends AB> Map<String, IRepositoryDataContainer<T, A>> saveAll(Collection<? extends IDataKey<T, A>> keys, Map<String, ? extends IRepositoryDataContainer<T, A>> containers) {
+        return synchronous.saveAll(keys, containers);
+    }
+
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.repoli.rxjava2.base;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Single;
+import io.reactivex.functions.Action;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.subjects.PublishSubject;
+import jp.s64.java.repoli.rxjava2.base.RxInFlightRegistry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RxInFlightRegistryTest {
+
+    private RxInFlightRegistry registry;
+    private PublishSubject<String> upstream;
+    private AtomicInteger subscribed;
+    private AtomicInteger disposed;
+    private Single<String> source;
+
+    @Before
+    public void setUp() {
+        registry = new RxInFlightRegistry();
+        upstream = PublishSubject.create();
+        subscribed = new AtomicInteger();
+        disposed = new AtomicInteger();
+        source = Single
+                .defer(new Callable<Single<String>>() {
+                    @Override
+                    public Single<String> call() {
+                        subscribed.incrementAndGet();
+                        return upstream.firstOrError();
+                    }
+                })
+                .doOnDispose(new Action() {
+                    @Override
+                    public void run() {
+                        disposed.incrementAndGet();
+                    }
+                });
+    }
+
+    @Test
+    public void testSharedResult() {
+        TestObserver<String> first = registry.execute("key", source).test();
+        TestObserver<String> second = registry.execute("key", source).test();
+        assertEquals(1, subscribed.get());
+        assertEquals(1, registry.size());
+
+        upstream.onNext("value");
+
+        first.assertResult("value");
+        second.assertResult("value");
+        assertEquals(0, registry.size());
+
+        registry.execute("key", source).test();
+        assertEquals(2, subscribed.get());
+    }
+
+    @Test
+    public void testSharedError() {
+        IllegalStateException error = new IllegalStateException();
+        TestObserver<String> first = registry.execute("key", source).test();
+        TestObserver<String> second = registry.execute("key", source).test();
+
+        upstream.onError(error);
+
+        first.assertError(error);
+        second.assertError(error);
+        assertEquals(1, subscribed.get());
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void testCancellation() {
+        TestObserver<String> first = registry.execute("key", source).test();
+        TestObserver<String> second = registry.execute("key", source).test();
+        TestObserver<String> other = registry.execute("other", source).test();
+        assertEquals(2, registry.size());
+
+        first.dispose();
+        assertEquals(0, disposed.get());
+        assertTrue(upstream.hasObservers());
+        assertEquals(2, registry.size());
+
+        second.dispose();
+        assertEquals(1, disposed.get());
+        assertEquals(1, registry.size());
+
+        upstream.onNext("value");
+        other.assertResult("value");
+        second.assertNoValues();
+        assertFalse(upstream.hasObservers());
+        assertEquals(0, registry.size());
+    }
+
+}
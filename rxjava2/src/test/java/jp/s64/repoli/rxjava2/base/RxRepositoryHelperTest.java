@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.repoli.rxjava2.base;
+
+import com.google.common.collect.Sets;
+import com.google.common.reflect.TypeToken;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Single;
+import io.reactivex.observers.TestObserver;
+import jp.s64.java.repoli.base.BaseProvider;
+import jp.s64.java.repoli.core.DataKey;
+import jp.s64.java.repoli.core.IRepositoryDataContainer;
+import jp.s64.java.repoli.core.ISerializer;
+import jp.s64.java.repoli.preset.DefaultPolicy;
+import jp.s64.java.repoli.preset.serializer.SerializableSerializer;
+import jp.s64.java.repoli.rxjava2.base.BaseRxProvider;
+import jp.s64.java.repoli.rxjava2.base.RxRepositoryHelper;
+import jp.s64.java.repoli.rxjava2.core.IRxProvider;
+import jp.s64.java.repoli.rxjava2.core.IRxStorage;
+import jp.s64.java.repoli.rxjava2.preset.SimpleRxOnMemoryStorage;
+
+import static org.junit.Assert.assertEquals;
+
+public class RxRepositoryHelperTest {
+
+    @Test
+    public void testCoalescing() {
+        final DataKey<String, String> key = new DataKey<>(TypeToken.of(String.class), TypeToken.of(String.class), "coalesced-key", "relative-key");
+        final AtomicInteger requested = new AtomicInteger();
+        final BaseProvider.ProvidedContainer provided = new BaseProvider.ProvidedContainer(System.currentTimeMillis());
+        {
+            SerializableSerializer serializer = SerializableSerializer.INSTANCE;
+            provided.setBody(serializer.serialize(key.getBodyType(), "body-value", Sets.<ISerializer>newHashSet()));
+            provided.setAttachment(serializer.serialize(key.getAttachmentType(), "attachment-value", Sets.<ISerializer>newHashSet()));
+        }
+
+        IRxProvider provider = new BaseRxProvider() {
+            @Override
+            public Single<BaseProvider.ProvidedContainer> requestBySerializedKey(String serializedKey) {
+                return Single
+                        .defer(new Callable<Single<BaseProvider.ProvidedContainer>>() {
+                            @Override
+                            public Single<BaseProvider.ProvidedContainer> call() {
+                                requested.incrementAndGet();
+                                return Single.just(provided);
+                            }
+                        })
+                        .delay(200, TimeUnit.MILLISECONDS);
+            }
+        };
+
+        IRxStorage storage = new SimpleRxOnMemoryStorage();
+        RxRepositoryHelper helper = new RxRepositoryHelper();
+
+        TestObserver<IRepositoryDataContainer<String, String>> first = new TestObserver<>();
+        TestObserver<IRepositoryDataContainer<String, String>> second = new TestObserver<>();
+        helper.get(key, storage, new DefaultPolicy(), provider).subscribe(first);
+        helper.get(key, storage, new DefaultPolicy(), provider).subscribe(second);
+
+        first.awaitTerminalEvent();
+        second.awaitTerminalEvent();
+
+        first.assertNoErrors();
+        second.assertNoErrors();
+        first.assertValueCount(1);
+        second.assertValueCount(1);
+        assertEquals(1, requested.get());
+        assertEquals("body-value", second.values().get(0).getBody());
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2017 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.s64.repoli.rxjava2.preset;
+
+import com.google.common.collect.Sets;
+import com.google.common.reflect.TypeToken;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
+import jp.s64.java.repoli.base.BaseProvider;
+import jp.s64.java.repoli.core.DataKey;
+import jp.s64.java.repoli.core.ISerializer;
+import jp.s64.java.repoli.preset.TimeBasedPolicy;
+import jp.s64.java.repoli.preset.serializer.SerializableSerializer;
+import jp.s64.java.repoli.rxjava2.base.BaseRxProvider;
+import jp.s64.java.repoli.rxjava2.base.BaseRxRepository;
+import jp.s64.java.repoli.rxjava2.preset.RxRefreshAheadRepository;
+import jp.s64.java.repoli.rxjava2.preset.RxRefreshAheadScheduler;
+import jp.s64.java.repoli.rxjava2.preset.SimpleRxOnMemoryStorage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RxRefreshAheadRepositoryTest {
+
+    @Test
+    public void testRefreshAhead() throws Exception {
+        final DataKey<String, String> key = new DataKey<>(TypeToken.of(String.class), TypeToken.of(String.class), "hot-key", "relative-key");
+        final AtomicInteger requested = new AtomicInteger();
+        final CountDownLatch refreshed = new CountDownLatch(2);
+
+        BaseRxProvider provider = new BaseRxProvider() {
+            @Override
+            public Single<BaseProvider.ProvidedContainer> requestBySerializedKey(final String serializedKey) {
+                return Single.fromCallable(new Callable<BaseProvider.ProvidedContainer>() {
+                    @Override
+                    public BaseProvider.ProvidedContainer call() {
+                        BaseProvider.ProvidedContainer ret = new BaseProvider.ProvidedContainer(System.currentTimeMillis());
+                        {
+                            ret.setBody(SerializableSerializer.INSTANCE.serialize(TypeToken.of(String.class), serializedKey + "-" + requested.incrementAndGet(), Sets.<ISerializer>newHashSet()));
+                        }
+                        refreshed.countDown();
+                        return ret;
+                    }
+                });
+            }
+        };
+        SimpleRxOnMemoryStorage<Object, Object> storage = new SimpleRxOnMemoryStorage<>();
+        RxRefreshAheadRepository<Object, Object> repository = new RxRefreshAheadRepository<>(
+                new BaseRxRepository<Object, Object>(),
+                new RxRefreshAheadScheduler(0.3f, 2, 1, Schedulers.io())
+        );
+        TimeBasedPolicy<Object, Object> policy = new TimeBasedPolicy<>(1000, TimeUnit.MILLISECONDS);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("hot-key-1", repository.get(key, storage, policy, provider).blockingGet().getBody());
+        }
+        assertTrue(refreshed.await(900, TimeUnit.MILLISECONDS));
+        Thread.sleep(50);
+
+        assertEquals(2, requested.get());
+        assertEquals("hot-key-2", repository.get(key, storage, policy, provider).blockingGet().getBody());
+    }
+
+    @Test
+    public void testRemovedDuringRefresh() throws Exception {
+        final DataKey<String, String> key = new DataKey<>(TypeToken.of(String.class), TypeToken.of(String.class), "removed-key", "relative-key");
+        final AtomicInteger requested = new AtomicInteger();
+        final CountDownLatch refreshing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch removedTwice = new CountDownLatch(2);
+
+        BaseRxProvider provider = new BaseRxProvider() {
+            @Override
+            public Single<BaseProvider.ProvidedContainer> requestBySerializedKey(final String serializedKey) {
+                return Single.fromCallable(new Callable<BaseProvider.ProvidedContainer>() {
+                    @Override
+                    public BaseProvider.ProvidedContainer call() throws Exception {
+                        if (requested.incrementAndGet() > 1) {
+                            refreshing.countDown();
+                            release.await();
+                        }
+                        BaseProvider.ProvidedContainer ret = new BaseProvider.ProvidedContainer(System.currentTimeMillis());
+                        {
+                            ret.setBody(SerializableSerializer.INSTANCE.serialize(TypeToken.of(String.class), "body-value", Sets.<ISerializer>newHashSet()));
+                        }
+                        return ret;
+                    }
+                });
+            }
+        };
+        SimpleRxOnMemoryStorage<Object, Object> storage = new SimpleRxOnMemoryStorage<Object, Object>() {
+            @Override
+            public Single<Integer> removeBySerializedKey(String serializedKey) {
+                Single<Integer> ret = super.removeBySerializedKey(serializedKey);
+                removedTwice.countDown();
+                return ret;
+            }
+        };
+        RxRefreshAheadRepository<Object, Object> repository = new RxRefreshAheadRepository<>(
+                new BaseRxRepository<Object, Object>(),
+                new RxRefreshAheadScheduler(0.1f, 1, 1, Schedulers.io())
+        );
+        TimeBasedPolicy<Object, Object> policy = new TimeBasedPolicy<>(1000, TimeUnit.MILLISECONDS);
+
+        repository.get(key, storage, policy, provider).blockingGet();
+        assertTrue(refreshing.await(900, TimeUnit.MILLISECONDS));
+        repository.remove(key, storage, policy).blockingGet();
+        release.countDown();
+
+        // the second removal drops what the refresh saved.
+        assertTrue(removedTwice.await(1, TimeUnit.SECONDS));
+        assertNull(storage.getBySerializedKey(key.getSerialized()).blockingGet().getBody());
+    }
+
+}